@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.aspects;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.base.DateTimeFormats;
+import org.spf4j.jmx.JmxExport;
+import org.spf4j.jmx.Registry;
+import org.spf4j.ssdump2.Converter;
+import org.spf4j.stackmonitor.SampleNode;
+import org.spf4j.stackmonitor.Sampler;
+import org.spf4j.stackmonitor.StackCollectorImpl;
+
+/**
+ * Aggregates the allocations sampled by AllocationSiteProfilerAspect by allocation stack trace.
+ * The leaf frame of every stack is the allocated class (new@class), and the sample counts
+ * of the tree are allocated KB, so the dumps (ssdump2) can be viewed as allocation flame graphs in spf4j-ui.
+ *
+ * This class should not be weaved.
+ *
+ * @author zoly
+ */
+@ThreadSafe
+public final class AllocationSiteProfiler {
+
+  private static final StackCollectorImpl COLLECTOR = new StackCollectorImpl();
+
+  static {
+    Registry.export(AllocationSiteProfiler.class);
+  }
+
+  private AllocationSiteProfiler() { }
+
+  /**
+   * record a sampled allocation.
+   * @param stackTrace the allocation stack trace, leaf first.
+   * @param bytes the number of bytes this sample accounts for.
+   */
+  public static void record(final StackTraceElement[] stackTrace, final long bytes) {
+    int kb = (int) Math.min(Integer.MAX_VALUE, (bytes + 512) / 1024);
+    if (kb > 0) {
+      synchronized (COLLECTOR) {
+        COLLECTOR.collect(stackTrace, kb);
+      }
+    }
+  }
+
+  /**
+   * @return a copy of the allocation samples (KB) collected so far, null if none.
+   */
+  @Nullable
+  public static SampleNode getAllocationSamples() {
+    synchronized (COLLECTOR) {
+      return COLLECTOR.get();
+    }
+  }
+
+  /**
+   * @return the allocation samples (KB) collected so far, null if none, the samples are reset.
+   */
+  @Nullable
+  public static SampleNode getAndResetAllocationSamples() {
+    synchronized (COLLECTOR) {
+      return COLLECTOR.getAndReset();
+    }
+  }
+
+  /**
+   * save the collected allocation samples to a ssdump2 file, the samples are reset.
+   * @return the file, or null if there are no samples.
+   */
+  @Nullable
+  public static File dumpToFile(final File file) throws IOException {
+    SampleNode samples = getAndResetAllocationSamples();
+    if (samples == null) {
+      return null;
+    }
+    Converter.save(file, samples);
+    return file;
+  }
+
+  @JmxExport(description = "save the allocation samples (KB by allocation stack) to file, the samples are reset")
+  @Nullable
+  public static String dumpToFile() throws IOException {
+    File file = dumpToFile(new File(Sampler.DEFAULT_SS_DUMP_FOLDER, Sampler.DEFAULT_SS_DUMP_FILE_NAME_PREFIX + '_'
+            + DateTimeFormats.COMPACT_TS_FORMAT.format(Instant.now()) + "_allocations.ssdump2.gz"));
+    return file == null ? null : file.getPath();
+  }
+
+}
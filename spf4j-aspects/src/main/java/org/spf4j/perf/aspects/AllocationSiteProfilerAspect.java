@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.aspects;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.spf4j.base.InstrumentationHelper;
+import org.spf4j.base.MutableInteger;
+
+/**
+ * Aspect that samples allocations by allocation site: every spf4j.perf.allocations.siteSampleBytes (default 512KB)
+ * allocated by a thread, the stack trace of the allocation is recorded in AllocationSiteProfiler,
+ * accounting for all the bytes allocated since the previous sample. Larger allocations are more likely to
+ * be sampled, so the profile approximates the allocated bytes per allocation stack.
+ *
+ * The object sizes are computed with the spf4j agent (-javaagent:spf4j.jar),
+ * if the agent is not installed every object is accounted as 16 bytes.
+ * Array allocations are join points only when weaving with -Xjoinpoints:arrayconstruction.
+ *
+ * @author zoly
+ */
+@Aspect
+public final class AllocationSiteProfilerAspect {
+
+  private static final int SAMPLE_BYTES = Integer.getInteger("spf4j.perf.allocations.siteSampleBytes", 512 * 1024);
+
+  private static final int DEFAULT_OBJECT_SIZE = 16;
+
+  /**
+   * skip Thread.getStackTrace and afterAllocation.
+   */
+  private static final int SKIP_FRAMES = 2;
+
+  @AfterReturning(pointcut = "call(*.new(..)) || call(*[].new(..))", returning = "obj", argNames = "jp,obj")
+  public void afterAllocation(final JoinPoint jp, final Object obj) {
+    MutableInteger counter = ThreadLocalCounter.getAllocatedBytes();
+    int value = counter.getValue();
+    if (value < 0) {
+      return; // allocation while recording.
+    }
+    long size = InstrumentationHelper.isAvailable() ? InstrumentationHelper.getObjectSize(obj) : DEFAULT_OBJECT_SIZE;
+    long bytes = value + size;
+    if (bytes < SAMPLE_BYTES) {
+      counter.setValue((int) bytes);
+    } else {
+      counter.setValue(-1);
+      try {
+        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+        int length = Math.max(0, stackTrace.length - SKIP_FRAMES);
+        StackTraceElement[] allocStack = new StackTraceElement[length + 1];
+        allocStack[0] = new StackTraceElement(obj.getClass().getName(), "new", null, -1);
+        System.arraycopy(stackTrace, stackTrace.length - length, allocStack, 1, length);
+        AllocationSiteProfiler.record(allocStack, bytes);
+      } finally {
+        counter.setValue(0);
+      }
+    }
+  }
+
+}
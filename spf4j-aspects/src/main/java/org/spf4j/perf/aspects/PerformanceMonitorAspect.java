@@ -33,8 +33,12 @@ package org.spf4j.perf.aspects;
 
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import org.spf4j.perf.MeasurementRecorderSource;
+import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
@@ -44,11 +48,15 @@ import org.spf4j.concurrent.UnboundedLoadingCache;
 import org.spf4j.annotations.PerformanceMonitor;
 import org.spf4j.annotations.RecorderSourceInstance;
 import org.spf4j.base.TimeSource;
+import org.spf4j.perf.MeasurementRecorder;
 
 /**
  * Aspect that measures execution time and does performance logging
  * for all methods annotated with: PerformanceMonitor annotation.
  *
+ * The recorder of a join point is resolved once, and cached by join point static part,
+ * the steady state advice does not allocate.
+ *
  * @author zoly
  */
 @Aspect
@@ -63,6 +71,10 @@ public final class PerformanceMonitorAspect {
             return (MeasurementRecorderSource) key.getField("INSTANCE").get(null);
         }
     });
+
+    private static final ConcurrentMap<JoinPoint.StaticPart, JoinPointRecorder> RECORDERS =
+            new ConcurrentHashMap<>(64);
+
     @Around(value = "@annotation(annot)"
             + " && execution(@org.spf4j.annotations.PerformanceMonitor * *(..))",
             argNames = "pjp,annot")
@@ -72,8 +84,7 @@ public final class PerformanceMonitorAspect {
         Object result = pjp.proceed();
         final long elapsedNanos = TimeSource.nanoTime() - start;
         final long elapsed = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
-        MeasurementRecorderSource mrs = REC_SOURCES.getUnchecked(annot.recorderSource());
-        mrs.getRecorder(pjp.toLongString()).record(elapsed);
+        getRecorder(pjp.getStaticPart(), annot).record(elapsed);
         final long warnThresholdMillis = annot.warnThresholdMillis();
         if (elapsed > warnThresholdMillis) {
             final long errorThresholdMillis = annot.errorThresholdMillis();
@@ -88,11 +99,52 @@ public final class PerformanceMonitorAspect {
             if (annot.defaultInfoLog()) {
                 LOG.info("Execution time {} ms for {}, arguments {}",
                         elapsed, pjp.toShortString(), pjp.getArgs());
-            } else {
+            } else if (LOG.isDebugEnabled()) {
                 LOG.debug("Execution time {} ms for {}, arguments {}",
                         elapsed, pjp.toShortString(), pjp.getArgs());
             }
         }
         return result;
     }
+
+    private static MeasurementRecorder getRecorder(final JoinPoint.StaticPart jp, final PerformanceMonitor annot) {
+        JoinPointRecorder rec = RECORDERS.get(jp);
+        if (rec == null) {
+            rec = new JoinPointRecorder(REC_SOURCES.getUnchecked(annot.recorderSource()), jp.toLongString());
+            JoinPointRecorder existing = RECORDERS.putIfAbsent(jp, rec);
+            if (existing != null) {
+                rec = existing;
+            }
+        }
+        return rec.getRecorder();
+    }
+
+    /**
+     * The recorder of a join point, resolved once when the recorder source hands out stable recorders,
+     * otherwise the recorder source lookup is done with the cached recorder name.
+     */
+    private static final class JoinPointRecorder {
+
+        private final MeasurementRecorderSource source;
+
+        private final String name;
+
+        @Nullable
+        private final MeasurementRecorder recorder;
+
+        JoinPointRecorder(final MeasurementRecorderSource source, final String name) {
+            this.source = source;
+            this.name = name;
+            this.recorder = source.hasStableRecorders() ? source.getRecorder(name) : null;
+        }
+
+        MeasurementRecorder getRecorder() {
+            return recorder != null ? recorder : source.getRecorder(name);
+        }
+
+        @Override
+        public String toString() {
+            return "JoinPointRecorder{" + "source=" + source + ", name=" + name + ", recorder=" + recorder + '}';
+        }
+    }
 }
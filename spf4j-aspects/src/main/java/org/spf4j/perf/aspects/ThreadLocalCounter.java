@@ -49,10 +49,26 @@ public final class ThreadLocalCounter {
 
   };
 
+  private static final ThreadLocal<MutableInteger> ALLOCATED_BYTES = new ThreadLocal<MutableInteger>() {
+
+    @Override
+    protected MutableInteger initialValue() {
+      return new MutableInteger(0);
+    }
+
+  };
+
   public static MutableInteger get() {
     return SAMPLING_COUNTER.get();
   }
 
+  /**
+   * @return the bytes allocated by the current thread since the last allocation site sample.
+   */
+  public static MutableInteger getAllocatedBytes() {
+    return ALLOCATED_BYTES.get();
+  }
+
   private ThreadLocalCounter() {
   }
 
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.aspects;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.InstrumentationHelper;
+import org.spf4j.base.avro.Method;
+import org.spf4j.ssdump2.Converter;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * @author zoly
+ */
+public final class AllocationSiteProfilerAspectTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AllocationSiteProfilerAspectTest.class);
+
+  private static volatile Object blackHole;
+
+  private static void allocate() {
+    for (int i = 0; i < 10000; i++) {
+      blackHole = new byte[1024];
+    }
+  }
+
+  @Test
+  public void testAllocationSites() throws IOException {
+    AllocationSiteProfiler.getAndResetAllocationSamples();
+    allocate();
+    SampleNode samples = AllocationSiteProfiler.getAllocationSamples();
+    Assert.assertNotNull(samples);
+    LOG.debug("Allocation samples: {}", samples);
+    Assert.assertTrue(InstrumentationHelper.isAvailable());
+    // ~10 MB allocated, sampled every 512 KB, the bytes not sampled yet (< 512 KB) are carried over to the next sample.
+    long allocatedKb = 10000 * InstrumentationHelper.getObjectSize(blackHole) / 1024;
+    int sampledKb = samples.getSampleCount();
+    Assert.assertTrue(samples.toString(), sampledKb > allocatedKb - 600);
+    Assert.assertTrue(samples.toString(), sampledKb < allocatedKb + 600);
+    Assert.assertTrue(samples.toString(), containsLeaf(samples, "new", "[B"));
+    File file = File.createTempFile("allocations", ".ssdump2");
+    Assert.assertEquals(file, AllocationSiteProfiler.dumpToFile(file));
+    Assert.assertEquals(samples, Converter.load(file));
+    Assert.assertNull(AllocationSiteProfiler.getAllocationSamples());
+  }
+
+  private static boolean containsLeaf(final SampleNode node, final String name, final String declaringClass) {
+    Map<Method, SampleNode> subNodes = node.getSubNodes();
+    if (subNodes == null) {
+      return false;
+    }
+    for (Map.Entry<Method, SampleNode> entry : subNodes.entrySet()) {
+      Method m = entry.getKey();
+      SampleNode child = entry.getValue();
+      if (child.getSubNodes().isEmpty() && name.equals(m.getName()) && declaringClass.equals(m.getDeclaringClass())
+              || containsLeaf(child, name, declaringClass)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -50,6 +50,7 @@ import javax.annotation.Signed;
 import javax.annotation.concurrent.ThreadSafe;
 import org.spf4j.base.ExecutionContext.Relation;
 import org.spf4j.concurrent.ScalableSequence;
+import org.spf4j.concurrent.TimingWheel;
 import org.spf4j.concurrent.UIDGenerator;
 import org.spf4j.ds.SimpleStack;
 
@@ -337,6 +338,32 @@ public final class ExecutionContexts {
     return computeDeadline(current(), timeout, unit);
   }
 
+  /**
+   * Enforce the deadline of the current execution context: the current thread is interrupted if the context is not
+   * closed by its deadline. The deadline is tracked with the default TimingWheel, and the timeout is cancelled when
+   * the context is closed.
+   * @return the deadline timeout.
+   */
+  public static TimingWheel.Timeout interruptOnDeadline() {
+    ExecutionContext ctx = current();
+    if (ctx == null) {
+      throw new IllegalStateException("No execution context available in " + Thread.currentThread());
+    }
+    return interruptOnDeadline(ctx, Thread.currentThread());
+  }
+
+  /**
+   * Enforce the deadline of a execution context: thread will be interrupted if ctx is not closed by its deadline.
+   * @return the deadline timeout.
+   */
+  public static TimingWheel.Timeout interruptOnDeadline(final ExecutionContext ctx, final Thread thread) {
+    DeadlineInterrupter interrupter = new DeadlineInterrupter(thread);
+    TimingWheel.Timeout timeout = TimingWheel.getDefault().scheduleAt(interrupter, ctx.getDeadlineNanos());
+    interrupter.setTimeout(timeout);
+    ctx.addCloseable(interrupter);
+    return timeout;
+  }
+
   public static long computeTimeout(final long timeout, final TimeUnit unit) throws TimeoutException {
     return unit.convert(computeTimeoutDeadline(current(), unit, timeout).getTimeoutNanos(), TimeUnit.NANOSECONDS);
   }
@@ -454,6 +481,52 @@ public final class ExecutionContexts {
     return new PropagatingRunnable(runnable, ctx, name, deadlineNanos);
   }
 
+  /**
+   * Interrupts the thread at the deadline, unless closed before.
+   * The interrupt and close are done under the same lock, so once close returns the thread will not be interrupted.
+   */
+  private static final class DeadlineInterrupter implements Runnable, AutoCloseable {
+
+    private final Thread thread;
+
+    @Nullable
+    private TimingWheel.Timeout timeout;
+
+    private boolean done;
+
+    DeadlineInterrupter(final Thread thread) {
+      this.thread = thread;
+    }
+
+    synchronized void setTimeout(final TimingWheel.Timeout timeout) {
+      this.timeout = timeout;
+    }
+
+    @Override
+    public synchronized void run() {
+      if (!done) {
+        done = true;
+        thread.interrupt();
+      }
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!done) {
+        done = true;
+        if (timeout != null) {
+          timeout.cancel();
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "DeadlineInterrupter{" + "thread=" + thread + '}';
+    }
+
+  }
+
   private static final class PropagatingCallable<T> implements Callable<T> {
 
     private final Callable<T> task;
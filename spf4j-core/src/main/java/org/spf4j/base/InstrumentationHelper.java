@@ -46,6 +46,13 @@ public final class InstrumentationHelper {
         instrumentation = inst;
     }
 
+    /**
+     * @return true if the spf4j agent is installed (-javaagent:spf4j.jar), and getObjectSize can be used.
+     */
+    public static boolean isAvailable() {
+        return instrumentation != null;
+    }
+
     public static long getObjectSize(final Object o) {
         return instrumentation.getObjectSize(o);
     }
@@ -51,6 +51,7 @@ public final class LifoThreadPoolBuilder {
   private int threadPriority;
   private boolean mutable;
   private boolean jmxEnabled;
+  private int nrQueueStripes;
 
   private LifoThreadPoolBuilder() {
     poolName = "Lifo Pool";
@@ -64,6 +65,7 @@ public final class LifoThreadPoolBuilder {
     threadPriority = Thread.NORM_PRIORITY;
     mutable = false;
     jmxEnabled = false;
+    nrQueueStripes = 0;
   }
 
   public static LifoThreadPoolBuilder newBuilder() {
@@ -120,6 +122,25 @@ public final class LifoThreadPoolBuilder {
     return this;
   }
 
+  /**
+   * Build a work stealing pool (LifoThreadPoolExecutorWS), with the default number of queue stripes.
+   */
+  public LifoThreadPoolBuilder withWorkStealing() {
+    return withWorkStealing(LifoThreadPoolExecutorWS.DEFAULT_NR_STRIPES);
+  }
+
+  /**
+   * Build a work stealing pool (LifoThreadPoolExecutorWS).
+   * @param nrQueueStripes the number of task queue stripes, rounded up to a power of 2.
+   */
+  public LifoThreadPoolBuilder withWorkStealing(final int nrQueueStripes) {
+    if (nrQueueStripes < 1) {
+      throw new IllegalArgumentException("Invalid number of queue stripes " + nrQueueStripes);
+    }
+    this.nrQueueStripes = nrQueueStripes;
+    return this;
+  }
+
   public LifoThreadPoolBuilder enableJmx() {
     this.jmxEnabled = true;
     return this;
@@ -130,8 +151,14 @@ public final class LifoThreadPoolBuilder {
   }
 
   public MutableLifoThreadPool buildMutable() {
-    MutableLifoThreadPool result = new LifoThreadPoolExecutorSQP(poolName, coreSize, maxSize, maxIdleTimeMillis,
+    MutableLifoThreadPool result;
+    if (nrQueueStripes > 0) {
+      result = new LifoThreadPoolExecutorWS(poolName, coreSize, maxSize, maxIdleTimeMillis,
+            queueSizeLimit, daemonThreads, rejectionHandler, threadPriority, nrQueueStripes);
+    } else {
+      result = new LifoThreadPoolExecutorSQP(poolName, coreSize, maxSize, maxIdleTimeMillis,
             queueSizeLimit, daemonThreads, rejectionHandler, threadPriority);
+    }
     if (jmxEnabled) {
       result.exportJmx();
     }
@@ -144,7 +171,7 @@ public final class LifoThreadPoolBuilder {
             + maxSize + ", maxIdleTimeMillis=" + maxIdleTimeMillis + ", queueSizeLimit=" + queueSizeLimit
             + ", daemonThreads=" + daemonThreads + ", spinLockCount=" + spinLockCount + ", rejectionHandler="
             + rejectionHandler + ", threadPriority=" + threadPriority + ", mutable=" + mutable + ", jmxEnabled="
-            + jmxEnabled + '}';
+            + jmxEnabled + ", nrQueueStripes=" + nrQueueStripes + '}';
   }
 
 }
@@ -0,0 +1,719 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import com.google.common.collect.Iterators;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.AbstractRunnable;
+import org.spf4j.base.TimeSource;
+import org.spf4j.base.UncheckedExecutionException;
+import static org.spf4j.concurrent.RejectedExecutionHandler.REJECT_EXCEPTION_EXEC_HANDLER;
+import org.spf4j.jmx.JmxExport;
+import org.spf4j.jmx.Registry;
+
+/**
+ * LIFO scheduled thread pool without a global lock, a alternative to LifoThreadPoolExecutorSQP for
+ * hosts with a lot of cores where submitters and workers contend on the SQP state lock.
+ *
+ * Idle workers are still picked LIFO (the most recently idle worker gets the next task), they are kept in a
+ * lock free deque. Tasks that cannot be handed off to a idle worker or a new worker are queued into
+ * a set of striped deques (configurable with spf4j.lifoTp.ws.nrStripes, rounded up to a power of 2),
+ * a worker polls its home stripe first, and steals from the other stripes when its own stripe is empty.
+ * Tasks submitted from a pool worker are queued to the worker's home stripe.
+ *
+ * queueSizeLimit and the RejectedExecutionHandler behave as in LifoThreadPoolExecutorSQP. Queued task order is
+ * FIFO per stripe only.
+ *
+ * @author zoly
+ */
+@ParametersAreNonnullByDefault
+@SuppressFBWarnings("MDM_THREAD_PRIORITIES")
+public final class LifoThreadPoolExecutorWS extends AbstractExecutorService implements MutableLifoThreadPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LifoThreadPoolExecutorWS.class);
+
+  private static final long CORE_MINWAIT_NANOS = Long.getLong("spf4j.lifoTp.coreMaxWaitNanos", 1000000000);
+
+  static final int DEFAULT_NR_STRIPES = Integer.getInteger("spf4j.lifoTp.ws.nrStripes",
+          org.spf4j.base.Runtime.NR_PROCESSORS);
+
+  private final ConcurrentLinkedDeque<Runnable>[] stripes;
+
+  private final int stripeMask;
+
+  private final ConcurrentLinkedDeque<Worker> idleWorkers;
+
+  private final Set<Worker> allWorkers;
+
+  /**
+   * nr of queued tasks, incremented before a task is queued, decremented after it is dequeued.
+   */
+  private final AtomicInteger nrQueued;
+
+  private final AtomicInteger threadCount;
+
+  private final AtomicInteger threadCreationCount;
+
+  private final ReentrantLock stateLock;
+
+  private final Condition stateCondition;
+
+  private final String poolName;
+
+  private final RejectedExecutionHandler rejectionHandler;
+
+  private volatile boolean shutdown;
+
+  private volatile int maxIdleTimeMillis;
+
+  private volatile int maxThreadCount;
+
+  private volatile int coreThreadCount;
+
+  private volatile int queueSizeLimit;
+
+  private volatile boolean daemonThreads;
+
+  private volatile int threadPriority;
+
+  public LifoThreadPoolExecutorWS(final String poolName, final int coreSize,
+          final int maxSize, final int maxIdleTimeMillis,
+          final int queueSizeLimit) {
+    this(poolName, coreSize, maxSize, maxIdleTimeMillis, queueSizeLimit, false,
+            REJECT_EXCEPTION_EXEC_HANDLER, Thread.NORM_PRIORITY, DEFAULT_NR_STRIPES);
+  }
+
+  @SuppressWarnings("unchecked")
+  public LifoThreadPoolExecutorWS(final String poolName, final int coreSize,
+          final int maxSize, final int maxIdleTimeMillis,
+          final int queueSizeLimit, final boolean daemonThreads,
+          final RejectedExecutionHandler rejectionHandler,
+          final int threadPriority, final int nrStripes) {
+    if (coreSize > maxSize) {
+      throw new IllegalArgumentException("Core size must be smaller than max size " + coreSize
+              + " < " + maxSize);
+    }
+    if (coreSize < 0 || maxSize < 0 || maxIdleTimeMillis < 0 || queueSizeLimit < 0 || nrStripes < 1) {
+      throw new IllegalArgumentException("All numberic TP configs must be positive values: "
+              + coreSize + ", " + maxSize + ", " + maxIdleTimeMillis
+              + ", " + queueSizeLimit + ", " + nrStripes);
+    }
+    this.poolName = poolName;
+    this.rejectionHandler = rejectionHandler;
+    this.maxIdleTimeMillis = maxIdleTimeMillis;
+    this.maxThreadCount = maxSize;
+    this.coreThreadCount = coreSize;
+    this.queueSizeLimit = queueSizeLimit;
+    this.daemonThreads = daemonThreads;
+    this.threadPriority = threadPriority;
+    int nrS = Integer.highestOneBit(nrStripes);
+    if (nrS < nrStripes) {
+      nrS <<= 1;
+    }
+    this.stripes = new ConcurrentLinkedDeque[nrS];
+    for (int i = 0; i < nrS; i++) {
+      stripes[i] = new ConcurrentLinkedDeque<>();
+    }
+    this.stripeMask = nrS - 1;
+    this.idleWorkers = new ConcurrentLinkedDeque<>();
+    this.allWorkers = ConcurrentHashMap.newKeySet(Math.min(maxSize, 2048));
+    this.nrQueued = new AtomicInteger();
+    this.threadCount = new AtomicInteger();
+    this.threadCreationCount = new AtomicInteger();
+    this.stateLock = new ReentrantLock();
+    this.stateCondition = stateLock.newCondition();
+    this.shutdown = false;
+    for (int i = 0; i < coreSize; i++) {
+      threadCount.incrementAndGet();
+      startWorker(null);
+    }
+  }
+
+  @Override
+  public void exportJmx() {
+    Registry.export(LifoThreadPoolExecutorWS.class.getName(), poolName, this);
+  }
+
+  @Override
+  public void unregisterJmx() {
+    Registry.unregister(LifoThreadPoolExecutorWS.class.getName(), poolName);
+  }
+
+  /**
+   * start a worker, the thread count must be already incremented by the caller.
+   */
+  private void startWorker(@Nullable final Runnable firstTask) {
+    Worker worker;
+    try {
+      int idx = threadCreationCount.getAndIncrement();
+      worker = new Worker(poolName + '-' + idx, idx & stripeMask, firstTask);
+      worker.setDaemon(daemonThreads);
+      worker.setPriority(threadPriority);
+      allWorkers.add(worker);
+      worker.start();
+    } catch (RuntimeException | Error ex) {
+      releaseThread();
+      throw ex;
+    }
+    LOG.debug("Started thread {}", worker.getName());
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    if (shutdown) {
+      rejectionHandler.rejectedExecution(command, this);
+      return;
+    }
+    if (handOff(command)) {
+      return;
+    }
+    int tc = threadCount.get();
+    while (tc < maxThreadCount) {
+      if (threadCount.compareAndSet(tc, tc + 1)) {
+        startWorker(command);
+        return;
+      }
+      tc = threadCount.get();
+    }
+    // no idle worker, reached the maxThread limit, will attempt to queue the task, and reject if unable to.
+    if (nrQueued.incrementAndGet() > queueSizeLimit) {
+      nrQueued.decrementAndGet();
+      rejectionHandler.rejectedExecution(command, this);
+      return;
+    }
+    ConcurrentLinkedDeque<Runnable> stripe = stripes[getSubmitStripe()];
+    stripe.addLast(command);
+    if (shutdown && stripe.removeLastOccurrence(command)) {
+      // lost the race with shutdown, the workers might be gone already.
+      nrQueued.decrementAndGet();
+      rejectionHandler.rejectedExecution(command, this);
+      return;
+    }
+    // a worker might have become idle before the task was queued, wake it up to scan the queues.
+    handOff(AbstractRunnable.NOP);
+  }
+
+  /**
+   * hand off a task to the most recently idle worker.
+   * @return true if the task was handed off.
+   */
+  private boolean handOff(final Runnable command) {
+    Worker worker;
+    while ((worker = idleWorkers.pollLast()) != null) {
+      if (worker.assign(command)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int getSubmitStripe() {
+    Thread current = Thread.currentThread();
+    if (current instanceof Worker && allWorkers.contains(current)) {
+      return ((Worker) current).homeStripe;
+    }
+    long id = current.getId() * 0x9E3779B97F4A7C15L;
+    return (int) (id >>> 32) & stripeMask;
+  }
+
+  @Nullable
+  private Runnable poll(final int homeStripe) {
+    if (nrQueued.get() <= 0) {
+      return null;
+    }
+    for (int i = 0, l = stripes.length; i < l; i++) {
+      Runnable task = stripes[(homeStripe + i) & stripeMask].pollFirst();
+      if (task != null) {
+        nrQueued.decrementAndGet();
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * decrement the thread count if above the core thread count.
+   * @return true if decremented.
+   */
+  private boolean releaseIdleThread() {
+    int tc = threadCount.get();
+    while (tc > coreThreadCount) {
+      if (threadCount.compareAndSet(tc, tc - 1)) {
+        if (tc == 1) {
+          signalStateChange();
+        }
+        return true;
+      }
+      tc = threadCount.get();
+    }
+    return false;
+  }
+
+  private void releaseThread() {
+    if (threadCount.decrementAndGet() == 0) {
+      signalStateChange();
+    }
+  }
+
+  private void signalStateChange() {
+    stateLock.lock();
+    try {
+      stateCondition.signalAll();
+    } finally {
+      stateLock.unlock();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    if (!shutdown) {
+      shutdown = true;
+      for (Worker worker : idleWorkers) {
+        LockSupport.unpark(worker);
+      }
+    }
+  }
+
+  @Override
+  public boolean awaitTermination(final long time, final TimeUnit unit) throws InterruptedException {
+    if (!shutdown) {
+      throw new IllegalStateException("Threadpool is not is shutdown mode " + this);
+    }
+    long timeoutNs = unit.toNanos(time);
+    stateLock.lock();
+    try {
+      while (threadCount.get() > 0) {
+        if (timeoutNs > 0) {
+          timeoutNs = stateCondition.awaitNanos(timeoutNs);
+        } else {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      stateLock.unlock();
+    }
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown();
+    // drain before interrupting, so that the interrupted workers do not pick up the queued tasks.
+    List<Runnable> result = new ArrayList<>();
+    for (ConcurrentLinkedDeque<Runnable> stripe : stripes) {
+      Runnable task;
+      while ((task = stripe.pollFirst()) != null) {
+        nrQueued.decrementAndGet();
+        result.add(task);
+      }
+    }
+    for (Worker worker : allWorkers) {
+      worker.interrupt();
+    }
+    return result;
+  }
+
+  @Override
+  @JmxExport
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  @JmxExport
+  public boolean isTerminated() {
+    return shutdown && threadCount.get() == 0;
+  }
+
+  @JmxExport
+  @Override
+  public boolean isDaemonThreads() {
+    return daemonThreads;
+  }
+
+  @JmxExport
+  @Override
+  public int getThreadCount() {
+    return threadCount.get();
+  }
+
+  @JmxExport
+  public int getNrIdleThreads() {
+    return idleWorkers.size();
+  }
+
+  @JmxExport
+  @Override
+  public int getMaxThreadCount() {
+    return maxThreadCount;
+  }
+
+  @JmxExport
+  @Override
+  public int getCoreThreadCount() {
+    return coreThreadCount;
+  }
+
+  /**
+   * @return the lock used to signal thread termination, no pool state is guarded by it.
+   */
+  @Override
+  public ReentrantLock getStateLock() {
+    return stateLock;
+  }
+
+  @JmxExport
+  @Override
+  public int getNrQueuedTasks() {
+    return Math.max(0, nrQueued.get());
+  }
+
+  @JmxExport
+  public int getNrQueueStripes() {
+    return stripes.length;
+  }
+
+  @JmxExport
+  @Override
+  public int getQueueSizeLimit() {
+    return queueSizeLimit;
+  }
+
+  @JmxExport
+  @Override
+  public int getMaxIdleTimeMillis() {
+    return maxIdleTimeMillis;
+  }
+
+  @JmxExport
+  @Override
+  public String getPoolName() {
+    return poolName;
+  }
+
+  @JmxExport
+  @Override
+  public int getThreadPriority() {
+    return threadPriority;
+  }
+
+  /**
+   * @return a view of all the queued tasks, tasks cannot be queued via this view.
+   */
+  @Override
+  public Queue<Runnable> getTaskQueue() {
+    return new TaskQueueView();
+  }
+
+  @Override
+  @JmxExport
+  public void setDaemonThreads(final boolean daemonThreads) {
+    this.daemonThreads = daemonThreads;
+  }
+
+  @Override
+  @JmxExport
+  public void setMaxIdleTimeMillis(final int maxIdleTimeMillis) {
+    this.maxIdleTimeMillis = maxIdleTimeMillis;
+  }
+
+  @Override
+  @JmxExport
+  public void setMaxThreadCount(final int maxThreadCount) {
+    this.maxThreadCount = maxThreadCount;
+  }
+
+  @Override
+  @JmxExport
+  public void setCoreThreadCount(final int coreThreadCount) {
+    this.coreThreadCount = coreThreadCount;
+  }
+
+  @Override
+  @JmxExport
+  public void setQueueSizeLimit(final int queueSizeLimit) {
+    this.queueSizeLimit = queueSizeLimit;
+  }
+
+  @Override
+  @JmxExport
+  public void setThreadPriority(final int threadPriority) {
+    this.threadPriority = threadPriority;
+  }
+
+  @Override
+  public String toString() {
+    return "LifoThreadPoolExecutorWS{" + "poolName=" + poolName + ", threadCount=" + threadCount
+            + ", nrIdle=" + idleWorkers.size() + ", nrQueued=" + nrQueued + ", nrStripes=" + stripes.length
+            + ", maxIdleTimeMillis=" + maxIdleTimeMillis + ", maxThreadCount=" + maxThreadCount
+            + ", coreThreadCount=" + coreThreadCount + ", queueSizeLimit=" + queueSizeLimit
+            + ", shutdown=" + shutdown + '}';
+  }
+
+  private final class TaskQueueView extends AbstractQueue<Runnable> {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<Runnable> iterator() {
+      Iterator<Runnable>[] its = new Iterator[stripes.length];
+      for (int i = 0; i < its.length; i++) {
+        its[i] = stripes[i].iterator();
+      }
+      return Iterators.unmodifiableIterator(Iterators.concat(its));
+    }
+
+    @Override
+    public int size() {
+      return getNrQueuedTasks();
+    }
+
+    @Override
+    public boolean offer(final Runnable e) {
+      throw new UnsupportedOperationException("Use execute to submit tasks to " + poolName);
+    }
+
+    @Override
+    @Nullable
+    public Runnable poll() {
+      return LifoThreadPoolExecutorWS.this.poll(0);
+    }
+
+    @Override
+    @Nullable
+    public Runnable peek() {
+      for (ConcurrentLinkedDeque<Runnable> stripe : stripes) {
+        Runnable task = stripe.peekFirst();
+        if (task != null) {
+          return task;
+        }
+      }
+      return null;
+    }
+  }
+
+  private final class Worker extends Thread {
+
+    private final int homeStripe;
+
+    /**
+     * IDLE, RUNNING, RETIRED or the task handed off to this worker.
+     */
+    private final AtomicReference<Object> state;
+
+    @Nullable
+    private Runnable firstTask;
+
+    private long lastRunNanos;
+
+    Worker(final String name, final int homeStripe, @Nullable final Runnable firstTask) {
+      super(name);
+      this.homeStripe = homeStripe;
+      this.firstTask = firstTask;
+      this.state = new AtomicReference<>(WorkerState.RUNNING);
+      this.lastRunNanos = TimeSource.nanoTime();
+    }
+
+    /**
+     * assign a task to this worker.
+     * @return false if this worker is not idle anymore.
+     */
+    boolean assign(final Runnable task) {
+      if (state.compareAndSet(WorkerState.IDLE, task)) {
+        LockSupport.unpark(this);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void run() {
+      boolean released = false;
+      try {
+        Runnable task = firstTask;
+        firstTask = null;
+        if (task != null) {
+          execute(task);
+        }
+        while (true) {
+          task = poll(homeStripe);
+          if (task == null) {
+            if (shutdown) {
+              state.set(WorkerState.RETIRED);
+              break;
+            }
+            task = awaitTask();
+            if (task == null) {
+              released = true;
+              break;
+            }
+          }
+          execute(task);
+        }
+      } catch (Throwable t) {
+        LOG.error("Unexpected exception", t);
+        throw t;
+      } finally {
+        allWorkers.remove(this);
+        if (!released) {
+          releaseThread();
+        }
+        LOG.debug("Terminating thread {}", getName());
+      }
+    }
+
+    /**
+     * park this worker in the idle deque until a task is handed off, or until it is retired.
+     * @return the next task, or null if this worker is retired (thread count released).
+     */
+    @Nullable
+    private Runnable awaitTask() {
+      state.set(WorkerState.IDLE);
+      idleWorkers.addLast(this);
+      Runnable task = poll(homeStripe);
+      if (task != null) {
+        if (state.compareAndSet(WorkerState.IDLE, WorkerState.RUNNING)) {
+          idleWorkers.removeLastOccurrence(this);
+          return task;
+        }
+        // a task was handed off concurrently, run the dequeued one first.
+        execute(task);
+      }
+      long deadline = lastRunNanos + TimeUnit.MILLISECONDS.toNanos(maxIdleTimeMillis);
+      while (true) {
+        Object st = state.get();
+        if (st != WorkerState.IDLE) {
+          state.set(WorkerState.RUNNING);
+          return (Runnable) st;
+        }
+        if (shutdown) {
+          if (state.compareAndSet(WorkerState.IDLE, WorkerState.RETIRED)) {
+            idleWorkers.removeLastOccurrence(this);
+            releaseThread();
+            return null;
+          }
+          continue;
+        }
+        long now = TimeSource.nanoTime();
+        long waitNanos = deadline - now;
+        if (waitNanos <= 0) { // Thread was idle more than it should
+          if (threadCount.get() > coreThreadCount) {
+            if (state.compareAndSet(WorkerState.IDLE, WorkerState.RETIRED)) {
+              idleWorkers.removeLastOccurrence(this);
+              if (releaseIdleThread()) {
+                return null;
+              }
+              // lost the race with other retiring workers, this is a core thread for now.
+              state.set(WorkerState.RUNNING);
+              return AbstractRunnable.NOP;
+            }
+            continue;
+          }
+          waitNanos = CORE_MINWAIT_NANOS;
+          deadline = now + waitNanos;
+        }
+        LockSupport.parkNanos(this, waitNanos);
+        // clear the interrupt flag, so that the next park will not return immediately.
+        Thread.interrupted();
+      }
+    }
+
+    private void execute(final Runnable runnable) {
+      try {
+        runnable.run();
+      }  catch (Throwable e) {
+          // Will run the thread uncaught handlers
+          // but will continue the thread running unless a uncaught handler throws an exception
+          final Thread.UncaughtExceptionHandler uexh = this.getUncaughtExceptionHandler();
+          try {
+            uexh.uncaughtException(this, e);
+          } catch (RuntimeException ex) {
+            ex.addSuppressed(e);
+            throw new UncheckedExecutionException("Uncaught exception handler blew up: " + uexh, ex);
+          }
+      } finally {
+        lastRunNanos = TimeSource.nanoTime();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Worker{name = " + getName() + ", homeStripe=" + homeStripe + ", state=" + state + '}';
+    }
+
+  }
+
+  private static final class WorkerState {
+
+    private static final Object IDLE = new Object() {
+      @Override
+      public String toString() {
+        return "IDLE";
+      }
+    };
+
+    private static final Object RUNNING = new Object() {
+      @Override
+      public String toString() {
+        return "RUNNING";
+      }
+    };
+
+    private static final Object RETIRED = new Object() {
+      @Override
+      public String toString() {
+        return "RETIRED";
+      }
+    };
+
+    private WorkerState() { }
+  }
+
+}
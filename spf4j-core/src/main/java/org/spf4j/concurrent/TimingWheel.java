@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.AbstractRunnable;
+import org.spf4j.base.TimeSource;
+
+/**
+ * A hashed timing wheel. (see http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf)
+ *
+ * Timeouts are hashed into wheelSize buckets by their deadline tick, timeouts further than a wheel revolution
+ * carry the number of remaining revolutions. Scheduling and cancellation are O(1) and lock free, (new and cancelled
+ * timeouts are handed to the worker via concurrent queues) a worker processes one bucket per tick.
+ *
+ * Timeouts never expire early, and expire at most one tick (+ scheduling latency) late.
+ * The expiration actions are executed in the worker thread, as such they need to be short.
+ * (like handing a task to a executor)
+ *
+ * The worker is started on the first schedule and parks while there are no timeouts.
+ *
+ * @author zoly
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class TimingWheel implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TimingWheel.class);
+
+  private static final int NOT_STARTED = 0;
+
+  private static final int STARTED = 1;
+
+  private static final int SHUTDOWN = 2;
+
+  private final String name;
+
+  private final long tickNanos;
+
+  private final int mask;
+
+  private final Bucket[] wheel;
+
+  private final ConcurrentLinkedQueue<TimeoutImpl> pending;
+
+  private final ConcurrentLinkedQueue<TimeoutImpl> cancelled;
+
+  private final AtomicLong nrTimeouts;
+
+  private final Executor workerExecutor;
+
+  private final AtomicInteger workerState;
+
+  private final long startNanos;
+
+  @Nullable
+  private volatile Thread workerThread;
+
+  /**
+   * Timeout handle.
+   */
+  public interface Timeout extends AutoCloseable {
+
+    /**
+     * @return true if cancelled by this invocation, false if already expired or cancelled.
+     */
+    boolean cancel();
+
+    boolean isCancelled();
+
+    boolean isExpired();
+
+    long getDeadlineNanos();
+
+    /**
+     * cancel the timeout.
+     */
+    @Override
+    default void close() {
+      cancel();
+    }
+  }
+
+  /**
+   * Create a timing wheel.
+   * @param name the name of the wheel (worker name).
+   * @param tickDuration the tick duration (timeout resolution).
+   * @param tickUnit the tick duration unit.
+   * @param wheelSize the number of buckets, will be rounded up to a power of 2.
+   * @param workerExecutor the executor to run the worker with.
+   */
+  public TimingWheel(final String name, final long tickDuration, final TimeUnit tickUnit,
+          final int wheelSize, final Executor workerExecutor) {
+    this.tickNanos = tickUnit.toNanos(tickDuration);
+    if (tickNanos <= 0) {
+      throw new IllegalArgumentException("Invalid tick duration " + tickDuration + ' ' + tickUnit);
+    }
+    if (wheelSize < 1 || wheelSize > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid wheel size " + wheelSize);
+    }
+    int size = Integer.highestOneBit(wheelSize);
+    if (size < wheelSize) {
+      size <<= 1;
+    }
+    this.name = name;
+    this.mask = size - 1;
+    this.wheel = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.pending = new ConcurrentLinkedQueue<>();
+    this.cancelled = new ConcurrentLinkedQueue<>();
+    this.nrTimeouts = new AtomicLong();
+    this.workerExecutor = workerExecutor;
+    this.workerState = new AtomicInteger(NOT_STARTED);
+    this.startNanos = TimeSource.nanoTime();
+  }
+
+  public TimingWheel(final String name, final long tickDuration, final TimeUnit tickUnit, final int wheelSize) {
+    this(name, tickDuration, tickUnit, wheelSize, DefaultExecutor.INSTANCE);
+  }
+
+  /**
+   * @return the shared timing wheel instance, configurable via: spf4j.timingWheel.default.tickMicros (1000) and
+   * spf4j.timingWheel.default.wheelSize (512).
+   */
+  public static TimingWheel getDefault() {
+    return Lazy.DEFAULT;
+  }
+
+  /**
+   * schedule a action to be executed after a delay.
+   */
+  public Timeout schedule(final Runnable action, final long delay, final TimeUnit unit) {
+    return scheduleAt(action, TimeSource.getDeadlineNanos(delay, unit));
+  }
+
+  /**
+   * schedule a action to be executed at a deadline.
+   * @param action the action to execute.
+   * @param deadlineNanos the deadline relative to TimeSource.nanoTime().
+   * @return the timeout handle.
+   */
+  public Timeout scheduleAt(final Runnable action, final long deadlineNanos) {
+    TimeoutImpl timeout = new TimeoutImpl(this, action, deadlineNanos);
+    int state = workerState.get();
+    if (state == NOT_STARTED) {
+      if (workerState.compareAndSet(NOT_STARTED, STARTED)) {
+        workerExecutor.execute(new Worker());
+      }
+    } else if (state == SHUTDOWN) {
+      throw new IllegalStateException("Timing wheel is closed " + this);
+    }
+    if (nrTimeouts.getAndIncrement() == 0) {
+      pending.add(timeout);
+      Thread worker = workerThread;
+      if (worker != null) {
+        LockSupport.unpark(worker);
+      }
+    } else {
+      pending.add(timeout);
+    }
+    return timeout;
+  }
+
+  /**
+   * @return the number of scheduled timeouts.
+   */
+  public long getNrTimeouts() {
+    return nrTimeouts.get();
+  }
+
+  public long getTickNanos() {
+    return tickNanos;
+  }
+
+  public int getWheelSize() {
+    return wheel.length;
+  }
+
+  /**
+   * Stop the worker, scheduled timeouts will not expire.
+   */
+  @Override
+  public void close() {
+    if (workerState.getAndSet(SHUTDOWN) != SHUTDOWN) {
+      Thread worker = workerThread;
+      if (worker != null) {
+        LockSupport.unpark(worker);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "TimingWheel{" + "name=" + name + ", tickNanos=" + tickNanos + ", wheelSize=" + wheel.length
+            + ", nrTimeouts=" + nrTimeouts.get() + '}';
+  }
+
+  private final class Worker extends AbstractRunnable {
+
+    /**
+     * the tick to process next.
+     */
+    private long tick;
+
+    Worker() {
+      super(name);
+      tick = 0;
+    }
+
+    @Override
+    public void doRun() {
+      workerThread = Thread.currentThread();
+      try {
+        while (workerState.get() == STARTED) {
+          if (nrTimeouts.get() == 0) {
+            LockSupport.park(this);
+            // no timeouts in the wheel, skip the idle ticks.
+            tick = Math.max(tick, (TimeSource.nanoTime() - startNanos) / tickNanos);
+            continue;
+          }
+          long sleepNanos = startNanos + tick * tickNanos - TimeSource.nanoTime();
+          if (sleepNanos > 0) {
+            LockSupport.parkNanos(this, sleepNanos);
+            continue;
+          }
+          processCancelled();
+          transferPending();
+          expire(wheel[(int) (tick & mask)]);
+          tick++;
+        }
+      } finally {
+        workerThread = null;
+      }
+    }
+
+    private void processCancelled() {
+      TimeoutImpl timeout;
+      while ((timeout = cancelled.poll()) != null) {
+        if (timeout.bucket != null) {
+          timeout.bucket.remove(timeout);
+        }
+      }
+    }
+
+    private void transferPending() {
+      TimeoutImpl timeout;
+      while ((timeout = pending.poll()) != null) {
+        if (timeout.state != TimeoutImpl.INIT) {
+          continue;
+        }
+        long relDeadline = timeout.deadlineNanos - startNanos;
+        long deadlineTick = relDeadline / tickNanos;
+        if (deadlineTick * tickNanos < relDeadline) {
+          deadlineTick++;
+        }
+        if (deadlineTick < tick) {
+          deadlineTick = tick;
+        }
+        timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+        wheel[(int) (deadlineTick & mask)].add(timeout);
+      }
+    }
+
+    private void expire(final Bucket bucket) {
+      TimeoutImpl timeout = bucket.head;
+      while (timeout != null) {
+        TimeoutImpl next = timeout.next;
+        if (timeout.state != TimeoutImpl.INIT) {
+          bucket.remove(timeout);
+        } else if (timeout.remainingRounds <= 0) {
+          bucket.remove(timeout);
+          timeout.expire();
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Worker{" + "name=" + name + ", tick=" + tick + '}';
+    }
+
+  }
+
+  /**
+   * doubly linked list of timeouts, accessed only by the worker.
+   */
+  private static final class Bucket {
+
+    @Nullable
+    private TimeoutImpl head;
+
+    @Nullable
+    private TimeoutImpl tail;
+
+    void add(final TimeoutImpl timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = timeout;
+        tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    void remove(final TimeoutImpl timeout) {
+      TimeoutImpl next = timeout.next;
+      TimeoutImpl prev = timeout.prev;
+      if (prev != null) {
+        prev.next = next;
+      }
+      if (next != null) {
+        next.prev = prev;
+      }
+      if (timeout == head) {
+        head = next;
+      }
+      if (timeout == tail) {
+        tail = prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.bucket = null;
+    }
+
+  }
+
+  private static final class TimeoutImpl implements Timeout {
+
+    private static final int INIT = 0;
+
+    private static final int CANCELLED = 1;
+
+    private static final int EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<TimeoutImpl> STATE
+            = AtomicIntegerFieldUpdater.newUpdater(TimeoutImpl.class, "state");
+
+    private final TimingWheel owner;
+
+    private final Runnable action;
+
+    private final long deadlineNanos;
+
+    private volatile int state;
+
+    // worker thread only fields.
+    private long remainingRounds;
+
+    @Nullable
+    private Bucket bucket;
+
+    @Nullable
+    private TimeoutImpl prev;
+
+    @Nullable
+    private TimeoutImpl next;
+
+    TimeoutImpl(final TimingWheel owner, final Runnable action, final long deadlineNanos) {
+      this.owner = owner;
+      this.action = action;
+      this.deadlineNanos = deadlineNanos;
+      this.state = INIT;
+    }
+
+    @Override
+    public boolean cancel() {
+      if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+        return false;
+      }
+      owner.nrTimeouts.decrementAndGet();
+      owner.cancelled.add(this);
+      return true;
+    }
+
+    void expire() {
+      if (!STATE.compareAndSet(this, INIT, EXPIRED)) {
+        return;
+      }
+      owner.nrTimeouts.decrementAndGet();
+      try {
+        action.run();
+      } catch (RuntimeException ex) {
+        LOG.warn("Timeout action failed {}", this, ex);
+      }
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return state == CANCELLED;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return state == EXPIRED;
+    }
+
+    @Override
+    public long getDeadlineNanos() {
+      return deadlineNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "Timeout{" + "action=" + action + ", deadlineNanos=" + deadlineNanos + ", state=" + state + '}';
+    }
+
+  }
+
+  private static final class Lazy {
+
+    private static final TimingWheel DEFAULT = new TimingWheel("defaultTimingWheel",
+            Long.getLong("spf4j.timingWheel.default.tickMicros", 1000L), TimeUnit.MICROSECONDS,
+            Integer.getInteger("spf4j.timingWheel.default.wheelSize", 512));
+  }
+
+}
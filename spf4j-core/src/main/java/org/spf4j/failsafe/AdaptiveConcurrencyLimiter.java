@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import com.google.common.annotations.Beta;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.base.TimeSource;
+import org.spf4j.concurrent.Semaphore;
+import org.spf4j.jmx.JmxExport;
+import org.spf4j.jmx.Registry;
+import org.spf4j.perf.MeasurementRecorder;
+
+/**
+ * A semaphore with a adaptive number of permits (concurrency limit).
+ *
+ * Call latencies (in nanoseconds) are fed to the limiter via the MeasurementRecorder interface, and the limit is
+ * adjusted with a ConcurrencyLimitAlgorithm (AimdLimitAlgorithm, GradientLimitAlgorithm).
+ * Recording a latency is lock free (striped accumulators), the limit is adjusted once per sampling window
+ * (with at least minWindowSamples samples), with the average latency and the maximum in flight calls of the window.
+ * LimitingExecutor records the call latencies automatically when its semaphore is a MeasurementRecorder,
+ * so: new LimitingExecutor(new AdaptiveConcurrencyLimiter(...)) sheds load before the downstream queues collapse.
+ * The latencies can be forwarded to a delegate recorder (see RecorderFactory) for monitoring.
+ *
+ * @author zoly
+ */
+@Beta
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class AdaptiveConcurrencyLimiter implements Semaphore, MeasurementRecorder {
+
+  private static final long DEFAULT_SAMPLE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(
+          Integer.getInteger("spf4j.failsafe.concurrencyLimiter.sampleWindowMillis", 100));
+
+  private static final int DEFAULT_MIN_WINDOW_SAMPLES
+          = Integer.getInteger("spf4j.failsafe.concurrencyLimiter.minWindowSamples", 10);
+
+  private final AtomicInteger inFlight;
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final Object sync;
+
+  @GuardedBy("sync")
+  private final ConcurrencyLimitAlgorithm algorithm;
+
+  @GuardedBy("sync")
+  private double limitValue;
+
+  private volatile int limit;
+
+  /**
+   * written under sync, read without a lock by release.
+   */
+  private volatile int nrWaiters;
+
+  @Nullable
+  private final MeasurementRecorder latencyRecorder;
+
+  private final LongAdder acquisitions;
+
+  private final LongAdder rejections;
+
+  private final long sampleWindowNanos;
+
+  private final int minWindowSamples;
+
+  private final AtomicLong windowEndNanos;
+
+  private final LongAdder windowSamples;
+
+  private final LongAdder windowLatencyNanos;
+
+  private final LongAccumulator windowMaxInFlight;
+
+  private final LongAdder windowAcquisitions;
+
+  private final LongAdder windowRejections;
+
+  private volatile double rejectionRatio;
+
+  public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit,
+          final ConcurrencyLimitAlgorithm algorithm) {
+    this(initialLimit, minLimit, maxLimit, algorithm, null);
+  }
+
+  public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit,
+          final ConcurrencyLimitAlgorithm algorithm, @Nullable final MeasurementRecorder latencyRecorder) {
+    this(initialLimit, minLimit, maxLimit, algorithm, DEFAULT_SAMPLE_WINDOW_NANOS, DEFAULT_MIN_WINDOW_SAMPLES,
+            latencyRecorder);
+  }
+
+  /**
+   * Create a adaptive concurrency limiter.
+   * @param initialLimit the initial concurrency limit.
+   * @param minLimit the minimum concurrency limit.
+   * @param maxLimit the maximum concurrency limit.
+   * @param algorithm the limit algorithm. (not to be shared with other limiters)
+   * @param sampleWindowNanos the minimum duration of a sampling window, the limit is adjusted once per window.
+   * @param minWindowSamples the minimum number of latency samples in a sampling window.
+   * @param latencyRecorder recorder the latency measurements are forwarded to, (nanoseconds) can be null.
+   */
+  public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit,
+          final ConcurrencyLimitAlgorithm algorithm, final long sampleWindowNanos, final int minWindowSamples,
+          @Nullable final MeasurementRecorder latencyRecorder) {
+    if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("Invalid limits: initial = " + initialLimit + ", min = " + minLimit
+              + ", max = " + maxLimit);
+    }
+    if (sampleWindowNanos < 0 || minWindowSamples < 1) {
+      throw new IllegalArgumentException("Invalid sampling window: " + sampleWindowNanos + " ns, min samples = "
+              + minWindowSamples);
+    }
+    this.inFlight = new AtomicInteger();
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.algorithm = algorithm;
+    this.limitValue = initialLimit;
+    this.limit = initialLimit;
+    this.latencyRecorder = latencyRecorder;
+    this.sync = new Object();
+    this.acquisitions = new LongAdder();
+    this.rejections = new LongAdder();
+    this.sampleWindowNanos = sampleWindowNanos;
+    this.minWindowSamples = minWindowSamples;
+    this.windowEndNanos = new AtomicLong(TimeSource.nanoTime() + sampleWindowNanos);
+    this.windowSamples = new LongAdder();
+    this.windowLatencyNanos = new LongAdder();
+    this.windowMaxInFlight = new LongAccumulator(Math::max, 0);
+    this.windowAcquisitions = new LongAdder();
+    this.windowRejections = new LongAdder();
+    this.rejectionRatio = 0;
+  }
+
+  private boolean tryAcquireNow(final int nrPermits) {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current + nrPermits > limit) {
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + nrPermits));
+    return true;
+  }
+
+  @Override
+  public boolean tryAcquire(@Nonnegative final int nrPermits, final long deadlineNanos)
+          throws InterruptedException {
+    if (tryAcquireNow(nrPermits)) {
+      acquisitions.increment();
+      windowAcquisitions.increment();
+      return true;
+    }
+    synchronized (sync) {
+      nrWaiters++;
+      try {
+        while (!tryAcquireNow(nrPermits)) {
+          long timeToWaitNanos = deadlineNanos - TimeSource.nanoTime();
+          if (timeToWaitNanos <= 0) {
+            rejections.increment();
+            windowRejections.increment();
+            // the rejection ratio needs to move even when no call completes.
+            endWindowIfElapsed();
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(sync, timeToWaitNanos);
+        }
+      } finally {
+        nrWaiters--;
+      }
+    }
+    acquisitions.increment();
+    windowAcquisitions.increment();
+    return true;
+  }
+
+  @Override
+  public void release(final int nrPermits) {
+    inFlight.addAndGet(-nrPermits);
+    // a waiter registers itself before re-trying the acquisition, so it cannot miss this release.
+    if (nrWaiters > 0) {
+      synchronized (sync) {
+        sync.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * record a call latency, the limit is adjusted at the end of the sampling window.
+   * @param latencyNanos the call latency in nanoseconds.
+   */
+  @Override
+  public void record(final long latencyNanos) {
+    windowLatencyNanos.add(latencyNanos);
+    windowMaxInFlight.accumulate(inFlight.get());
+    windowSamples.increment();
+    endWindowIfElapsed();
+    if (latencyRecorder != null) {
+      latencyRecorder.record(latencyNanos);
+    }
+  }
+
+  /**
+   * End the current sampling window if elapsed: compute the window rejection ratio, and adjust the limit if the
+   * window has at least minWindowSamples latency samples, otherwise the samples carry over into the next window.
+   * A sample recorded concurrently with the window end might have its latency accounted in one window and its count
+   * in the next.
+   */
+  private void endWindowIfElapsed() {
+    long windowEnd = windowEndNanos.get();
+    long nanoTime = TimeSource.nanoTime();
+    if (nanoTime - windowEnd < 0 || !windowEndNanos.compareAndSet(windowEnd, nanoTime + sampleWindowNanos)) {
+      return;
+    }
+    long nrRejections = windowRejections.sumThenReset();
+    long total = nrRejections + windowAcquisitions.sumThenReset();
+    rejectionRatio = total == 0 ? 0 : (double) nrRejections / total;
+    if (windowSamples.sum() < minWindowSamples) {
+      return;
+    }
+    long nrSamples = windowSamples.sumThenReset();
+    if (nrSamples == 0) { // reset by a concurrent window end.
+      return;
+    }
+    long avgLatencyNanos = windowLatencyNanos.sumThenReset() / nrSamples;
+    int maxInFlight = (int) windowMaxInFlight.getThenReset();
+    synchronized (sync) {
+      int prevLimit = limit;
+      limitValue = Math.max(minLimit, Math.min(maxLimit, algorithm.update(limitValue, avgLatencyNanos,
+              maxInFlight)));
+      limit = (int) limitValue;
+      if (limit > prevLimit && nrWaiters > 0) {
+        sync.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public void recordAt(final long timestampMillis, final long latencyNanos) {
+    record(latencyNanos);
+  }
+
+  @JmxExport(description = "the current concurrency limit")
+  public int getLimit() {
+    return limit;
+  }
+
+  @JmxExport(description = "the number of permits in use")
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  @JmxExport
+  public int getMinLimit() {
+    return minLimit;
+  }
+
+  @JmxExport
+  public int getMaxLimit() {
+    return maxLimit;
+  }
+
+  @JmxExport(description = "the total number of successful permit acquisitions")
+  public long getTotalAcquisitions() {
+    return acquisitions.sum();
+  }
+
+  @JmxExport(description = "the total number of rejected (timed out) permit acquisitions")
+  public long getTotalRejections() {
+    return rejections.sum();
+  }
+
+  @JmxExport(description = "the ratio of rejected acquisitions from all acquisitions in the last sampling window")
+  public double getRejectionRatio() {
+    return rejectionRatio;
+  }
+
+  public void registerJmx(final String name) {
+    Registry.export(AdaptiveConcurrencyLimiter.class.getName(), name, this);
+  }
+
+  public void unregisterJmx(final String name) {
+    Registry.unregister(AdaptiveConcurrencyLimiter.class.getName(), name);
+  }
+
+  @Override
+  public String toString() {
+    return "AdaptiveConcurrencyLimiter{" + "limit=" + limit + ", inFlight=" + inFlight.get()
+            + ", minLimit=" + minLimit + ", maxLimit=" + maxLimit + ", algorithm=" + algorithm + '}';
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Additive increase / multiplicative decrease concurrency limit algorithm.
+ * The limit is reduced by backoffRatio every sampling window the call latency exceeds latencyThresholdNanos,
+ * and increased by 1 for every faster sampling window while the limit is at least half utilized.
+ * (no point growing the limit when the demand is not there)
+ *
+ * @author zoly
+ */
+@NotThreadSafe
+public final class AimdLimitAlgorithm implements ConcurrencyLimitAlgorithm {
+
+  private final long latencyThresholdNanos;
+
+  private final double backoffRatio;
+
+  public AimdLimitAlgorithm(final long latencyThresholdNanos) {
+    this(latencyThresholdNanos, 0.9);
+  }
+
+  public AimdLimitAlgorithm(final long latencyThresholdNanos, final double backoffRatio) {
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("Invalid backoff ratio " + backoffRatio + ", must be in (0, 1)");
+    }
+    this.latencyThresholdNanos = latencyThresholdNanos;
+    this.backoffRatio = backoffRatio;
+  }
+
+  @Override
+  public double update(final double currentLimit, final long latencyNanos, final int inFlight) {
+    if (latencyNanos > latencyThresholdNanos) {
+      return currentLimit * backoffRatio;
+    } else if (inFlight * 2 >= currentLimit) {
+      return currentLimit + 1;
+    } else {
+      return currentLimit;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AimdLimitAlgorithm{" + "latencyThresholdNanos=" + latencyThresholdNanos
+            + ", backoffRatio=" + backoffRatio + '}';
+  }
+
+}
@@ -37,6 +37,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
 import org.spf4j.concurrent.InterruptibleCompletableFuture;
 import org.spf4j.failsafe.concurrent.FailSafeExecutor;
@@ -68,11 +69,12 @@ final class AsyncRetryExecutorImpl<T, C extends Callable<? extends T>>
           final long startTimeNanos, final long deadlineNanos) {
     Hedge hedge = hedgePolicy.getHedge(startTimeNanos, deadlineNanos);
     int hedgeCount = hedge.getHedgeCount();
-    if (hedgeCount <= 0) {
+    IntConsumer completionListener = hedgePolicy.getCompletionListener(hedge);
+    if (hedgeCount <= 0 && completionListener == null) {
       return (Future<R>) executor.submit(pwhat, retryPolicy.getRetryPredicate(startTimeNanos, deadlineNanos));
     } else {
       return (Future<R>) executor.submit(pwhat, retryPolicy.getRetryPredicate(startTimeNanos, deadlineNanos),
-              hedgeCount, hedge.getHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+              hedgeCount, hedge.getHedgeDelayNanos(), TimeUnit.NANOSECONDS, completionListener);
     }
   }
 
@@ -83,18 +85,17 @@ final class AsyncRetryExecutorImpl<T, C extends Callable<? extends T>>
           final Supplier<InterruptibleCompletableFuture<R>> cfSupplier) {
     Hedge hedge = hedgePolicy.getHedge(startTimeNanos, deadlineNanos);
     int hedgeCount = hedge.getHedgeCount();
-    if (hedgeCount <= 0) {
+    IntConsumer completionListener = hedgePolicy.getCompletionListener(hedge);
+    if (hedgeCount > 0 && hedge.getHedgeDelayNanos() >= (deadlineNanos - startTimeNanos)) {
+      hedgeCount = 0;
+    }
+    if (hedgeCount <= 0 && completionListener == null) {
       return  executor.submitRx((Callable) pwhat,
               (RetryPredicate) retryPolicy.getRetryPredicate(startTimeNanos, deadlineNanos), cfSupplier);
     } else {
-      long hedgeDelayNanos = hedge.getHedgeDelayNanos();
-      if (hedgeDelayNanos >= (deadlineNanos - startTimeNanos)) {
-        return executor.submitRx((Callable) pwhat,
-              (RetryPredicate) retryPolicy.getRetryPredicate(startTimeNanos, deadlineNanos), cfSupplier);
-      }
       return (CompletableFuture<R>) executor.submitRx((Callable) pwhat,
               (RetryPredicate) retryPolicy.getRetryPredicate(startTimeNanos, deadlineNanos),
-              hedgeCount, hedgeDelayNanos, TimeUnit.NANOSECONDS, cfSupplier);
+              hedgeCount, hedge.getHedgeDelayNanos(), TimeUnit.NANOSECONDS, cfSupplier, completionListener);
     }
   }
 
@@ -102,11 +103,12 @@ final class AsyncRetryExecutorImpl<T, C extends Callable<? extends T>>
   public <W extends C> void execute(final W pwhat, final long startTimeNanos, final long deadlineNanos) {
     Hedge hedge = hedgePolicy.getHedge(startTimeNanos, deadlineNanos);
     int hedgeCount = hedge.getHedgeCount();
-    if (hedgeCount <= 0) {
+    IntConsumer completionListener = hedgePolicy.getCompletionListener(hedge);
+    if (hedgeCount <= 0 && completionListener == null) {
       executor.execute(pwhat, retryPolicy.getRetryPredicate(startTimeNanos, deadlineNanos));
     } else {
       executor.submit(pwhat, retryPolicy.getRetryPredicate(startTimeNanos, deadlineNanos),
-              hedgeCount, hedge.getHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+              hedgeCount, hedge.getHedgeDelayNanos(), TimeUnit.NANOSECONDS, completionListener);
     }
   }
 
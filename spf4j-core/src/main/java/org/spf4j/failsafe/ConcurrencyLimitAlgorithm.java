@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+/**
+ * A concurrency limit adjustment algorithm, used by AdaptiveConcurrencyLimiter.
+ * Implementations can be stateful, and are invoked by the limiter under its lock once per sampling window,
+ * as such a instance should not be shared between limiters.
+ *
+ * @author zoly
+ */
+public interface ConcurrencyLimitAlgorithm {
+
+  /**
+   * Compute the new concurrency limit based on the call latencies of a sampling window.
+   * @param currentLimit the current concurrency limit.
+   * @param latencyNanos the average latency of the calls that completed in the sampling window.
+   * @param inFlight the maximum number of calls in flight when a call completed in the sampling window.
+   * @return the new concurrency limit (the limiter bounds it to its min/max limits).
+   */
+  double update(double currentLimit, long latencyNanos, int inFlight);
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Gradient (TCP Vegas like) concurrency limit algorithm.
+ *
+ * A long term exponential moving average of the latency is the estimate of the "no queueing" latency,
+ * the gradient: longTermLatency * tolerance / latency (bounded to [0.5, 1]) measures the queueing in the downstream.
+ * The new limit is: limit * gradient + sqrt(limit), where sqrt(limit) is the queue size we allow to probe for
+ * more capacity. The result is smoothed to avoid oscillations. The limit is not increased while less than half
+ * of it is in use.
+ * When the downstream latency improves significantly, the long term latency is decayed faster,
+ * to be able to recover.
+ *
+ * @author zoly
+ */
+@NotThreadSafe
+public final class GradientLimitAlgorithm implements ConcurrencyLimitAlgorithm {
+
+  private final double tolerance;
+
+  private final double smoothing;
+
+  private final double longTermAlpha;
+
+  private double longTermLatency;
+
+  public GradientLimitAlgorithm() {
+    this(1.5, 0.2, 600);
+  }
+
+  /**
+   * @param tolerance the latency increase ratio tolerated before reducing the limit.
+   * @param smoothing the weight of a new limit (0, 1].
+   * @param longTermWindow the number of samples (sampling windows) the long term latency is averaged over.
+   */
+  public GradientLimitAlgorithm(final double tolerance, final double smoothing, final int longTermWindow) {
+    if (tolerance < 1) {
+      throw new IllegalArgumentException("Invalid tolerance " + tolerance + ", must be >= 1");
+    }
+    if (smoothing <= 0 || smoothing > 1) {
+      throw new IllegalArgumentException("Invalid smoothing " + smoothing + ", must be in (0, 1]");
+    }
+    if (longTermWindow < 1) {
+      throw new IllegalArgumentException("Invalid long term window " + longTermWindow);
+    }
+    this.tolerance = tolerance;
+    this.smoothing = smoothing;
+    this.longTermAlpha = 2d / (longTermWindow + 1);
+    this.longTermLatency = -1;
+  }
+
+  @Override
+  public double update(final double currentLimit, final long latencyNanos, final int inFlight) {
+    double latency = Math.max(1, latencyNanos);
+    if (longTermLatency < 0) {
+      longTermLatency = latency;
+    } else {
+      longTermLatency += longTermAlpha * (latency - longTermLatency);
+      if (longTermLatency > 2 * latency) {
+        // the downstream recovered, do not wait for the long window to catch up.
+        longTermLatency *= 0.95;
+      }
+    }
+    double gradient = Math.max(0.5, Math.min(1.0, tolerance * longTermLatency / latency));
+    double newLimit = currentLimit * gradient + Math.sqrt(currentLimit);
+    newLimit = currentLimit * (1 - smoothing) + newLimit * smoothing;
+    if (inFlight * 2 < currentLimit) {
+      // the limit is not used, it is not the limit that keeps latency low, only decrease.
+      return Math.min(currentLimit, newLimit);
+    }
+    return newLimit;
+  }
+
+  public double getLongTermLatency() {
+    return longTermLatency;
+  }
+
+  @Override
+  public String toString() {
+    return "GradientLimitAlgorithm{" + "tolerance=" + tolerance + ", smoothing=" + smoothing
+            + ", longTermLatency=" + longTermLatency + '}';
+  }
+
+}
@@ -32,6 +32,8 @@
 package org.spf4j.failsafe;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import javax.annotation.Nullable;
 
 /**
  * @author Zoltan Farkas
@@ -40,6 +42,17 @@ public interface HedgePolicy {
 
     Hedge getHedge(long startTimeNanos, long deadlineNanos);
 
+    /**
+     * A policy that needs to observe the executions can return a listener, that will be notified with the index of
+     * the first completed execution: 0 for the primary execution, 1 to hedgeCount for the hedges.
+     * @param hedge the hedge returned by getHedge for the execution that is being submitted.
+     * @return the listener, or null if the policy does not need to observe the executions.
+     */
+    @Nullable
+    default IntConsumer getCompletionListener(final Hedge hedge) {
+      return null;
+    }
+
     HedgePolicy NONE = new HedgePolicy() {
       @Override
       public Hedge getHedge(final long startTimeNanos, final long deadlineNanos) {
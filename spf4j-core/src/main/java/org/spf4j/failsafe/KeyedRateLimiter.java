@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import com.google.common.annotations.Beta;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.annotation.Nonnegative;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.base.ExecutionContexts;
+import org.spf4j.base.TimeSource;
+import org.spf4j.jmx.JmxExport;
+import org.spf4j.jmx.Registry;
+
+/**
+ * A rate limiter per key (tenant, client ip...), with the same semantics as LazyRateLimiter.
+ *
+ * The per key state is 2 primitive fields (the bucket state and the rejection count), there is no scheduled
+ * replenisher, so millions of keys can be limited with a small footprint.
+ * A key whose bucket is full is equivalent with a absent key, as such idle keys are evicted without changing
+ * the limiting behavior (only their rejection count is lost). Idle keys are evicted when the number of keys
+ * exceeds maxKeys (amortized, the sweep threshold doubles when the active keys do not fit), or explicitly with
+ * evictIdle.
+ *
+ * A acquisition racing with the eviction of its key can be accounted on the evicted bucket, in which case the key
+ * can get up to maxBurstSize extra permits.
+ *
+ * @author zoly
+ */
+@Beta
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class KeyedRateLimiter<K> {
+
+  private static final int DEFAULT_MAX_KEYS = Integer.getInteger("spf4j.keyedRateLimiter.defaultMaxKeys", 100000);
+
+  private final ConcurrentHashMap<K, Bucket> buckets;
+
+  private final double nanosPerPermit;
+
+  private final long burstNanos;
+
+  private final long maxBurstSize;
+
+  private final int maxKeys;
+
+  private final LongSupplier nanoTimeSupplier;
+
+  private final AtomicBoolean sweeping;
+
+  private final LongAdder acquisitions;
+
+  private final LongAdder rejections;
+
+  private volatile int sweepThreshold;
+
+  public KeyedRateLimiter(final long permitsPerReplenishInterval,
+          final Duration replenishmentInterval,
+          final long maxBurstSize) {
+    this(permitsPerReplenishInterval, replenishmentInterval, maxBurstSize, DEFAULT_MAX_KEYS,
+            TimeSource.nanoTimeSupplier());
+  }
+
+  /**
+   * create a keyed rate limiter.
+   * @param permitsPerReplenishInterval the number of permits replenished every replenishmentInterval for every key.
+   * @param replenishmentInterval the replenishment interval.
+   * @param maxBurstSize the maximum number of permits that can accumulate for a key.
+   * @param maxKeys the number of keys above which idle keys are evicted.
+   * @param nanoTimeSupplier the time supplier.
+   */
+  public KeyedRateLimiter(final long permitsPerReplenishInterval,
+          final Duration replenishmentInterval,
+          final long maxBurstSize,
+          final int maxKeys,
+          final LongSupplier nanoTimeSupplier) {
+    if (maxBurstSize < 1) {
+      throw new IllegalArgumentException("Invalid max burst size " + maxBurstSize);
+    }
+    if (maxKeys < 1) {
+      throw new IllegalArgumentException("Invalid max keys " + maxKeys);
+    }
+    this.nanosPerPermit = LazyRateLimiter.nanosPerPermit(permitsPerReplenishInterval, replenishmentInterval);
+    this.maxBurstSize = maxBurstSize;
+    this.burstNanos = LazyRateLimiter.permitCost(maxBurstSize, nanosPerPermit);
+    this.maxKeys = maxKeys;
+    this.sweepThreshold = maxKeys;
+    this.nanoTimeSupplier = nanoTimeSupplier;
+    this.buckets = new ConcurrentHashMap<>();
+    this.sweeping = new AtomicBoolean(false);
+    this.acquisitions = new LongAdder();
+    this.rejections = new LongAdder();
+  }
+
+  /**
+   * Try to acquire a permit for key if available.
+   *
+   * @return true if permit acquired. false otherwise.
+   */
+  public boolean tryAcquire(final K key) {
+    return tryAcquire(key, 1);
+  }
+
+  /**
+   * Try to acquire permits for key if available, without waiting.
+   *
+   * @return true if permits acquired. false otherwise.
+   */
+  public boolean tryAcquire(final K key, @Nonnegative final int nrPermits) {
+    long now = nanoTimeSupplier.getAsLong();
+    return reserve(key, nrPermits, now, now) >= 0;
+  }
+
+  /**
+   * Try to acquire permits for key, waiting at most timeout for them to become available.
+   *
+   * @return true if permits acquired. false otherwise.
+   */
+  public boolean tryAcquire(final K key, @Nonnegative final int nrPermits,
+          @Nonnegative final long timeout, final TimeUnit unit) throws InterruptedException {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Invalid timeout " + timeout + ' ' + unit);
+    }
+    return tryAcquire(key, nrPermits, ExecutionContexts.computeDeadline(timeout, unit));
+  }
+
+  @SuppressFBWarnings("MDM_THREAD_YIELD")
+  public boolean tryAcquire(final K key, @Nonnegative final int nrPermits, final long deadlineNanos)
+          throws InterruptedException {
+    long wait = reserve(key, nrPermits, nanoTimeSupplier.getAsLong(), deadlineNanos);
+    if (wait < 0) {
+      return false;
+    }
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+    return true;
+  }
+
+  /**
+   * @return the nanos to wait before the reserved permits can be used (&gt;= 0) if reserved, negative otherwise.
+   */
+  private long reserve(final K key, final int nrPermits, final long nowNanos, final long deadlineNanos) {
+    long costNanos = LazyRateLimiter.permitCost(nrPermits, nanosPerPermit);
+    long maxWait = deadlineNanos - nowNanos;
+    Bucket bucket = buckets.get(key);
+    if (bucket == null) {
+      long wait = LazyRateLimiter.waitNanos(nowNanos, nowNanos, costNanos, burstNanos);
+      if (wait > maxWait) {
+        // no point creating state for a request that will never succeed.
+        rejections.increment();
+        return -1;
+      }
+      Bucket nBucket = new Bucket(nowNanos);
+      bucket = buckets.putIfAbsent(key, nBucket);
+      if (bucket == null) {
+        bucket = nBucket;
+        if (buckets.size() > sweepThreshold) {
+          // account the acquisition first, so that the new key is not evicted as idle.
+          long result = reserve(bucket, costNanos, nowNanos, maxWait);
+          sweep(nowNanos);
+          return result;
+        }
+      }
+    }
+    return reserve(bucket, costNanos, nowNanos, maxWait);
+  }
+
+  private long reserve(final Bucket bucket, final long costNanos, final long nowNanos, final long maxWait) {
+    long currTat;
+    long wait;
+    do {
+      currTat = bucket.tat;
+      wait = LazyRateLimiter.waitNanos(currTat, nowNanos, costNanos, burstNanos);
+      if (wait > maxWait) {
+        Bucket.REJECTIONS.incrementAndGet(bucket);
+        rejections.increment();
+        return -1;
+      }
+    } while (!Bucket.TAT.compareAndSet(bucket, currTat, LazyRateLimiter.nextTat(currTat, nowNanos, costNanos)));
+    acquisitions.increment();
+    return wait > 0 ? wait : 0;
+  }
+
+  private void sweep(final long nowNanos) {
+    if (sweeping.compareAndSet(false, true)) {
+      try {
+        evictIdle(nowNanos);
+        sweepThreshold = Math.max(maxKeys, buckets.size() * 2);
+      } finally {
+        sweeping.set(false);
+      }
+    }
+  }
+
+  /**
+   * Evict all keys with full buckets.
+   * @return the number of evicted keys.
+   */
+  @JmxExport(description = "evict all the idle keys (full buckets)")
+  public int evictIdle() {
+    return evictIdle(nanoTimeSupplier.getAsLong());
+  }
+
+  private int evictIdle(final long nowNanos) {
+    int result = 0;
+    for (Map.Entry<K, Bucket> entry : buckets.entrySet()) {
+      Bucket bucket = entry.getValue();
+      if (bucket.tat - nowNanos <= 0 && buckets.remove(entry.getKey(), bucket)) {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of permits currently available for key.
+   */
+  public long getNrPermits(final K key) {
+    Bucket bucket = buckets.get(key);
+    if (bucket == null) {
+      return maxBurstSize;
+    }
+    long used = bucket.tat - nanoTimeSupplier.getAsLong();
+    if (used <= 0) {
+      return maxBurstSize;
+    }
+    return (long) Math.floor((burstNanos - used) / nanosPerPermit);
+  }
+
+  /**
+   * @return the number of rejected acquisitions for key, since the key state has been created.
+   */
+  public long getRejections(final K key) {
+    Bucket bucket = buckets.get(key);
+    return bucket == null ? 0 : bucket.rejections;
+  }
+
+  /**
+   * @return the keys with the most rejections, ordered by rejection count descending.
+   */
+  public List<Map.Entry<K, Long>> getTopRejections(final int nrKeys) {
+    if (nrKeys <= 0) {
+      return new ArrayList<>(0);
+    }
+    PriorityQueue<Map.Entry<K, Long>> top = new PriorityQueue<>(nrKeys + 1, Map.Entry.comparingByValue());
+    for (Map.Entry<K, Bucket> entry : buckets.entrySet()) {
+      long nrRejections = entry.getValue().rejections;
+      if (nrRejections > 0 && (top.size() < nrKeys || top.peek().getValue() < nrRejections)) {
+        top.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), nrRejections));
+        if (top.size() > nrKeys) {
+          top.poll();
+        }
+      }
+    }
+    List<Map.Entry<K, Long>> result = new ArrayList<>(top);
+    result.sort(Map.Entry.<K, Long>comparingByValue(Comparator.reverseOrder()));
+    return result;
+  }
+
+  @JmxExport(description = "the keys with the most rejections")
+  public String[] topRejections(@JmxExport(value = "nrKeys", description = "the number of keys to return")
+          final int nrKeys) {
+    List<Map.Entry<K, Long>> top = getTopRejections(nrKeys);
+    String[] result = new String[top.size()];
+    int i = 0;
+    for (Map.Entry<K, Long> entry : top) {
+      result[i++] = entry.getKey() + ": " + entry.getValue();
+    }
+    return result;
+  }
+
+  @JmxExport(description = "the number of keys with limiter state")
+  public int getNrKeys() {
+    return buckets.size();
+  }
+
+  @JmxExport(description = "the total number of successful acquisitions")
+  public long getTotalAcquisitions() {
+    return acquisitions.sum();
+  }
+
+  @JmxExport(description = "the total number of rejected acquisitions")
+  public long getTotalRejections() {
+    return rejections.sum();
+  }
+
+  @JmxExport
+  public long getMaxBurstSize() {
+    return maxBurstSize;
+  }
+
+  @JmxExport
+  public int getMaxKeys() {
+    return maxKeys;
+  }
+
+  public void registerJmx(final String name) {
+    Registry.export(KeyedRateLimiter.class.getName(), name, this);
+  }
+
+  public void unregisterJmx(final String name) {
+    Registry.unregister(KeyedRateLimiter.class.getName(), name);
+  }
+
+  @Override
+  public String toString() {
+    return "KeyedRateLimiter{" + "nrKeys=" + buckets.size() + ", nanosPerPermit=" + nanosPerPermit
+            + ", maxBurstSize=" + maxBurstSize + ", maxKeys=" + maxKeys + '}';
+  }
+
+  private static final class Bucket {
+
+    private static final AtomicLongFieldUpdater<Bucket> TAT
+            = AtomicLongFieldUpdater.newUpdater(Bucket.class, "tat");
+
+    private static final AtomicLongFieldUpdater<Bucket> REJECTIONS
+            = AtomicLongFieldUpdater.newUpdater(Bucket.class, "rejections");
+
+    private volatile long tat;
+
+    private volatile long rejections;
+
+    Bucket(final long tat) {
+      this.tat = tat;
+    }
+
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Lock free streaming quantile estimator for latencies.
+ *
+ * Samples are counted in a log-linear histogram with 8 linear sub-buckets per power of 2 (12.5% precision),
+ * the histogram is halved every decayWindow samples, so that the estimate follows the recent latencies.
+ * The quantile is re-computed every decayWindow / 16 samples, and the estimate is the upper bound of the quantile
+ * bucket.
+ *
+ * Censored samples (latencies only known to be larger than a observed value) are counted as larger than any
+ * tracked latency, the estimate never goes below the quantile of the uncensored samples. When the quantile falls
+ * into the censored samples the estimate is Long.MAX_VALUE (unknown).
+ *
+ * @author zoly
+ */
+@ThreadSafe
+final class LatencyQuantileEstimator {
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  private static final int NR_SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final int NR_BUCKETS = bucketIdx(Long.MAX_VALUE) + 1;
+
+  private final double quantile;
+
+  private final int decayWindow;
+
+  private final int recomputeInterval;
+
+  private final AtomicLongArray counts;
+
+  private final AtomicLong nrSamples;
+
+  private volatile long estimate;
+
+  LatencyQuantileEstimator(final double quantile, final int decayWindow) {
+    if (quantile <= 0 || quantile >= 1) {
+      throw new IllegalArgumentException("Invalid quantile " + quantile + ", must be in (0, 1)");
+    }
+    if (decayWindow < 16) {
+      throw new IllegalArgumentException("Invalid decay window " + decayWindow + ", must be >= 16");
+    }
+    this.quantile = quantile;
+    this.decayWindow = decayWindow;
+    this.recomputeInterval = decayWindow / 16;
+    this.counts = new AtomicLongArray(NR_BUCKETS);
+    this.nrSamples = new AtomicLong();
+    this.estimate = -1;
+  }
+
+  static int bucketIdx(final long value) {
+    if (value < NR_SUB_BUCKETS) {
+      return value < 0 ? 0 : (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (NR_SUB_BUCKETS - 1);
+    return (exp - SUB_BUCKET_BITS + 1) * NR_SUB_BUCKETS + sub;
+  }
+
+  static long bucketUpperBound(final int idx) {
+    if (idx < NR_SUB_BUCKETS) {
+      return idx;
+    }
+    int shift = idx / NR_SUB_BUCKETS - 1;
+    long lower = (long) (NR_SUB_BUCKETS + idx % NR_SUB_BUCKETS) << shift;
+    return lower + ((1L << shift) - 1);
+  }
+
+  /**
+   * record a censored latency sample, a latency that is only known to be larger than the observed value.
+   */
+  void recordCensored() {
+    record(Long.MAX_VALUE);
+  }
+
+  void record(final long latency) {
+    counts.incrementAndGet(bucketIdx(latency));
+    long nr = nrSamples.incrementAndGet();
+    if (nr % decayWindow == 0) {
+      for (int i = 0; i < NR_BUCKETS; i++) {
+        long c;
+        do {
+          c = counts.get(i);
+        } while (c != 0 && !counts.compareAndSet(i, c, c >> 1));
+      }
+    }
+    if (nr % recomputeInterval == 0) {
+      estimate = computeQuantile();
+    }
+  }
+
+  private long computeQuantile() {
+    long total = 0;
+    for (int i = 0; i < NR_BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    long rank = (long) Math.ceil(total * quantile);
+    long sum = 0;
+    for (int i = 0; i < NR_BUCKETS; i++) {
+      sum += counts.get(i);
+      if (sum >= rank) {
+        return bucketUpperBound(i);
+      }
+    }
+    return bucketUpperBound(NR_BUCKETS - 1);
+  }
+
+  /**
+   * @return the quantile estimate, or -1 if there are not enough samples yet.
+   */
+  long getEstimate() {
+    return estimate;
+  }
+
+  long getNrSamples() {
+    return nrSamples.get();
+  }
+
+  double getQuantile() {
+    return quantile;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyQuantileEstimator{" + "quantile=" + quantile + ", estimate=" + estimate
+            + ", nrSamples=" + nrSamples + '}';
+  }
+
+}
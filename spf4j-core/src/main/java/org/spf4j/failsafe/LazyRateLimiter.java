@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import com.google.common.annotations.Beta;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.annotation.Nonnegative;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.base.TimeSource;
+import org.spf4j.concurrent.PermitSupplier;
+
+/**
+ * Token bucket rate limiter, that unlike RateLimiter, does not use a scheduled replenisher.
+ * The bucket is replenished lazily at acquisition time, based on the elapsed time:
+ * The whole state is a single long: the time at which the bucket would be full (GCRA theoretical arrival time),
+ * and the permits available at time t are: min(maxBurst, maxBurst - (tat - t) / nanosPerPermit).
+ * The state is updated with a CAS, so permit acquisition is lock free.
+ *
+ * Compared with RateLimiter, acquisitions always read the time (System.nanotime), but there is no scheduled
+ * runnable per instance, which makes this implementation suitable for large numbers of limiters. (see
+ * KeyedRateLimiter)
+ *
+ * The permit cost is rounded to the closest nanosecond, so rates above 1 permit/ns are not supported.
+ *
+ * @author zoly
+ */
+@Beta
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class LazyRateLimiter implements PermitSupplier {
+
+  /**
+   * the time at which the bucket is full (all permits consumed so far replenished).
+   */
+  private final AtomicLong tat;
+
+  private final double nanosPerPermit;
+
+  private final long burstNanos;
+
+  private final long maxBurstSize;
+
+  private final LongSupplier nanoTimeSupplier;
+
+  public LazyRateLimiter(final long permitsPerReplenishInterval,
+          final Duration replenishmentInterval,
+          final long maxBurstSize) {
+    this(permitsPerReplenishInterval, replenishmentInterval, maxBurstSize, maxBurstSize,
+            TimeSource.nanoTimeSupplier());
+  }
+
+  /**
+   * create a rate limiter.
+   * @param permitsPerReplenishInterval the number of permits replenished every replenishmentInterval.
+   * @param replenishmentInterval the replenishment interval.
+   * @param initialNrOfPermits the number of permits available at creation.
+   * @param maxBurstSize the maximum number of permits that can accumulate.
+   * @param nanoTimeSupplier the time supplier.
+   */
+  public LazyRateLimiter(final long permitsPerReplenishInterval,
+          final Duration replenishmentInterval,
+          final long initialNrOfPermits,
+          final long maxBurstSize,
+          final LongSupplier nanoTimeSupplier) {
+    if (permitsPerReplenishInterval < 1) {
+      throw new IllegalArgumentException("Invalid permits per interval " + permitsPerReplenishInterval);
+    }
+    if (maxBurstSize < 1) {
+      throw new IllegalArgumentException("Invalid max burst size " + maxBurstSize);
+    }
+    if (initialNrOfPermits < 0 || initialNrOfPermits > maxBurstSize) {
+      throw new IllegalArgumentException("Invalid initial nr of permits " + initialNrOfPermits
+              + ", must be between 0 and " + maxBurstSize);
+    }
+    this.nanosPerPermit = nanosPerPermit(permitsPerReplenishInterval, replenishmentInterval);
+    this.maxBurstSize = maxBurstSize;
+    this.burstNanos = permitCost(maxBurstSize, nanosPerPermit);
+    this.nanoTimeSupplier = nanoTimeSupplier;
+    this.tat = new AtomicLong(nanoTimeSupplier.getAsLong()
+            + permitCost(maxBurstSize - initialNrOfPermits, nanosPerPermit));
+  }
+
+  static double nanosPerPermit(final long permitsPerReplenishInterval, final Duration replenishmentInterval) {
+    double result = replenishmentInterval.toNanos() / (double) permitsPerReplenishInterval;
+    if (result < 1) {
+      throw new IllegalArgumentException("Rate too high " + permitsPerReplenishInterval + " permits per "
+              + replenishmentInterval + ", max 1 permit/ns supported");
+    }
+    return result;
+  }
+
+  static long permitCost(final long nrPermits, final double nanosPerPermit) {
+    return Math.round(nrPermits * nanosPerPermit);
+  }
+
+  /**
+   * Compute the wait time for a acquisition.
+   * @param currTat the current theoretical arrival time.
+   * @param nowNanos the current time.
+   * @param costNanos the cost of the permits to acquire.
+   * @param burstNanos the cost of the max burst.
+   * @return the time in nanos to wait until the permits are available. (&lt;= 0 if available now)
+   */
+  static long waitNanos(final long currTat, final long nowNanos, final long costNanos, final long burstNanos) {
+    return nextTat(currTat, nowNanos, costNanos) - burstNanos - nowNanos;
+  }
+
+  static long nextTat(final long currTat, final long nowNanos, final long costNanos) {
+    return (currTat - nowNanos > 0 ? currTat : nowNanos) + costNanos;
+  }
+
+  /**
+   * Try to acquire a permit if available.
+   *
+   * @return true if permit acquired. false otherwise.
+   */
+  public boolean tryAcquire() {
+    return tryAcquire(1);
+  }
+
+  /**
+   * Try to acquire permits if available, without waiting.
+   *
+   * @return true if permits acquired. false otherwise.
+   */
+  public boolean tryAcquire(@Nonnegative final int nrPermits) {
+    long now = nanoTimeSupplier.getAsLong();
+    return reserve(nrPermits, now, now) >= 0;
+  }
+
+  /**
+   * reserve permits if they are available before deadline.
+   * @return the nanos to wait before the reserved permits can be used (&gt;= 0) if reserved,
+   * or -1 - (nanos until the permits will be available) if the permits cannot be reserved.
+   */
+  private long reserve(final int nrPermits, final long nowNanos, final long deadlineNanos) {
+    long costNanos = permitCost(nrPermits, nanosPerPermit);
+    long maxWait = deadlineNanos - nowNanos;
+    long currTat;
+    long wait;
+    do {
+      currTat = tat.get();
+      wait = waitNanos(currTat, nowNanos, costNanos, burstNanos);
+      if (wait > maxWait) {
+        return -1 - wait;
+      }
+    } while (!tat.compareAndSet(currTat, nextTat(currTat, nowNanos, costNanos)));
+    return wait > 0 ? wait : 0;
+  }
+
+  @Override
+  public boolean tryAcquire(@Nonnegative final int nrPermits, final long deadlineNanos)
+          throws InterruptedException {
+    return tryAcquireEx(nrPermits, deadlineNanos).isSuccess();
+  }
+
+  @Override
+  @SuppressFBWarnings("MDM_THREAD_YIELD")
+  public Acquisition tryAcquireEx(@Nonnegative final int nrPermits, final long deadlineNanos)
+          throws InterruptedException {
+    long wait = reserve(nrPermits, nanoTimeSupplier.getAsLong(), deadlineNanos);
+    if (wait < 0) {
+      return Acquisition.failed(-1 - wait);
+    }
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+    return Acquisition.SUCCESS;
+  }
+
+  /**
+   * @return the number of permits currently available, negative if permits have been reserved.
+   */
+  public long getNrPermits() {
+    long used = tat.get() - nanoTimeSupplier.getAsLong();
+    if (used <= 0) {
+      return maxBurstSize;
+    }
+    return (long) Math.floor((burstNanos - used) / nanosPerPermit);
+  }
+
+  public long getMaxBurstSize() {
+    return maxBurstSize;
+  }
+
+  public double getNanosPerPermit() {
+    return nanosPerPermit;
+  }
+
+  @Override
+  public String toString() {
+    return "LazyRateLimiter{" + "permits=" + getNrPermits() + ", nanosPerPermit=" + nanosPerPermit
+            + ", maxBurstSize=" + maxBurstSize + '}';
+  }
+
+}
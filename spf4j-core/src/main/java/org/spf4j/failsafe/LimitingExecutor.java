@@ -36,12 +36,18 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import org.spf4j.base.Callables;
+import org.spf4j.base.TimeSource;
 import org.spf4j.base.UncheckedExecutionException;
 import org.spf4j.concurrent.PermitSupplier;
 import org.spf4j.concurrent.Semaphore;
+import org.spf4j.perf.MeasurementRecorder;
 
 /**
+ * Executes callables if a permit is available from the semaphore, rejects them otherwise.
+ * If the semaphore is a MeasurementRecorder (like AdaptiveConcurrencyLimiter), the execution time (nanoseconds)
+ * of every call is recorded to it.
  * @author Zoltan Farkas
  */
 @Beta
@@ -51,6 +57,9 @@ public final class LimitingExecutor<T, C extends Callable<? extends T>> implemen
 
   private final Semaphore semaphore;
 
+  @Nullable
+  private final MeasurementRecorder recorder;
+
   @FunctionalInterface
   public interface RejectedExecutionHandler<T, C extends Callable<? extends T>> {
 
@@ -73,6 +82,7 @@ public final class LimitingExecutor<T, C extends Callable<? extends T>> implemen
   public LimitingExecutor(final RejectedExecutionHandler<T, C> rejectHandler, final Semaphore semaphore) {
     this.rejectHandler = rejectHandler;
     this.semaphore = semaphore;
+    this.recorder = semaphore instanceof MeasurementRecorder ? (MeasurementRecorder) semaphore : null;
   }
 
   @Override
@@ -86,10 +96,17 @@ public final class LimitingExecutor<T, C extends Callable<? extends T>> implemen
 
   public <T> T execute(final C callable) throws Exception {
     if (semaphore.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+      long startNanos = recorder == null ? 0L : TimeSource.nanoTime();
       try {
         return (T) callable.call();
       } finally {
-        semaphore.release();
+        try {
+          if (recorder != null) {
+            recorder.record(TimeSource.nanoTime() - startNanos);
+          }
+        } finally {
+          semaphore.release();
+        }
       }
     } else {
       return (T) rejectHandler.reject(this, callable);
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.base.TimeSource;
+import org.spf4j.perf.MeasurementRecorderSource;
+import org.spf4j.perf.impl.RecorderFactory;
+
+/**
+ * A hedge policy that fires the hedges at a observed latency percentile of a operation.
+ *
+ * The operation latency is tracked with a lock free streaming quantile estimator, (see LatencyQuantileEstimator)
+ * the samples are the latencies of the primary executions. When a hedge wins, the primary latency is only known
+ * to be larger than the observed one, the sample is recorded as censored (larger than any tracked latency).
+ * Recording the observed latency instead would bias the estimate low, and the hedges would fire earlier and earlier.
+ * When more than (100 - percentile)% of the recent samples are censored, hedging stops until the primary latencies
+ * are observed again.
+ *
+ * The hedge rate is capped to a fraction (budget) of the primary executions: every execution adds budget hedge
+ * tokens, and every hedge consumes a token. A hedge that does not fire (the primary completes before the hedge delay)
+ * gets its token back.
+ *
+ * Hedge wins (a hedge completes first) and losses (the primary completes first after hedges have been fired)
+ * are recorded as measurements (hedge.wins, hedge.losses) for the operation.
+ *
+ * Use a policy instance per operation, (see perOperation) with a AsyncRetryExecutor:
+ * retryPolicy.async(hedgePolicy, executor).
+ *
+ * @author zoly
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class PercentileHedgePolicy implements HedgePolicy {
+
+  private static final int DEFAULT_DECAY_WINDOW
+          = Integer.getInteger("spf4j.failsafe.hedge.percentile.decayWindow", 1024);
+
+  private static final int DEFAULT_MIN_SAMPLES
+          = Integer.getInteger("spf4j.failsafe.hedge.percentile.minSamples", 64);
+
+  private static final long TOKEN = 1000000;
+
+  private final Object operation;
+
+  private final LatencyQuantileEstimator estimator;
+
+  private final int nrHedges;
+
+  private final long minHedgeDelayNanos;
+
+  private final int minSamples;
+
+  private final long tokensPerExecution;
+
+  private final long maxTokens;
+
+  private final AtomicLong tokens;
+
+  private final LongAdder wins;
+
+  private final LongAdder losses;
+
+  /**
+   * Create a percentile hedge policy, with 1 hedge.
+   * @param operation the operation, used for the measurements.
+   * @param percentile the latency percentile to fire the hedge at: (0, 100).
+   * @param hedgeBudget the maximum fraction of hedged executions: (0, 1].
+   */
+  public PercentileHedgePolicy(final Object operation, final double percentile, final double hedgeBudget) {
+    this(operation, percentile, hedgeBudget, 1, 0, DEFAULT_MIN_SAMPLES, DEFAULT_DECAY_WINDOW);
+  }
+
+  /**
+   * Create a percentile hedge policy.
+   * @param operation the operation, used for the measurements.
+   * @param percentile the latency percentile to fire the hedges at: (0, 100).
+   * @param hedgeBudget the maximum ratio of hedges / executions: (0, 1].
+   * @param nrHedges the number of hedges to fire.
+   * @param minHedgeDelayNanos the minimum hedge delay.
+   * @param minSamples the number of samples needed before hedging.
+   * @param decayWindow the number of samples after which the latency distribution is decayed by half.
+   */
+  public PercentileHedgePolicy(final Object operation, final double percentile, final double hedgeBudget,
+          final int nrHedges, final long minHedgeDelayNanos, final int minSamples, final int decayWindow) {
+    if (hedgeBudget <= 0 || hedgeBudget > 1) {
+      throw new IllegalArgumentException("Invalid hedge budget " + hedgeBudget + ", must be in (0, 1]");
+    }
+    if (nrHedges < 1) {
+      throw new IllegalArgumentException("Invalid number of hedges " + nrHedges);
+    }
+    this.operation = operation;
+    this.estimator = new LatencyQuantileEstimator(percentile / 100, decayWindow);
+    this.nrHedges = nrHedges;
+    this.minHedgeDelayNanos = minHedgeDelayNanos;
+    this.minSamples = minSamples;
+    this.tokensPerExecution = (long) (hedgeBudget * TOKEN);
+    // allow small bursts of hedges.
+    this.maxTokens = Math.max(nrHedges, 10) * TOKEN;
+    this.tokens = new AtomicLong(0);
+    this.wins = new LongAdder();
+    this.losses = new LongAdder();
+  }
+
+  /**
+   * @return a function that returns a (cached) percentile hedge policy per operation.
+   */
+  public static <K> Function<K, HedgePolicy> perOperation(final double percentile, final double hedgeBudget) {
+    ConcurrentHashMap<K, HedgePolicy> policies = new ConcurrentHashMap<>();
+    return (op) -> policies.computeIfAbsent(op, (k) -> new PercentileHedgePolicy(k, percentile, hedgeBudget));
+  }
+
+  @Override
+  public Hedge getHedge(final long startTimeNanos, final long deadlineNanos) {
+    long prevTokens;
+    long newTokens;
+    do {
+      prevTokens = tokens.get();
+      newTokens = Math.min(maxTokens, prevTokens + tokensPerExecution);
+    } while (!tokens.compareAndSet(prevTokens, newTokens));
+    long estimate = estimator.getEstimate();
+    if (estimate < 0 || estimator.getNrSamples() < minSamples) {
+      return Hedge.NONE;
+    }
+    long hedgeDelay = Math.max(minHedgeDelayNanos, estimate);
+    if (hedgeDelay >= deadlineNanos - startTimeNanos) {
+      return Hedge.NONE;
+    }
+    long cost = nrHedges * TOKEN;
+    do {
+      prevTokens = tokens.get();
+      if (prevTokens < cost) {
+        return Hedge.NONE;
+      }
+    } while (!tokens.compareAndSet(prevTokens, prevTokens - cost));
+    return new Hedge(hedgeDelay, nrHedges);
+  }
+
+  @Override
+  public IntConsumer getCompletionListener(final Hedge hedge) {
+    long submitNanos = TimeSource.nanoTime();
+    return (firstCompleted) -> completed(hedge, TimeSource.nanoTime() - submitNanos, firstCompleted);
+  }
+
+  void completed(final Hedge hedge, final long elapsedNanos, final int firstCompleted) {
+    if (firstCompleted > 0) {
+      // the primary latency is larger than elapsedNanos.
+      estimator.recordCensored();
+    } else {
+      estimator.record(elapsedNanos);
+    }
+    int hedgeCount = hedge.getHedgeCount();
+    if (hedgeCount <= 0) {
+      return;
+    }
+    if (elapsedNanos < hedge.getHedgeDelayNanos()) {
+      tokens.addAndGet(hedgeCount * TOKEN);
+    } else if (firstCompleted > 0) {
+      wins.increment();
+      Measurements.WINS.getRecorder(operation).record(1);
+    } else {
+      losses.increment();
+      Measurements.LOSSES.getRecorder(operation).record(1);
+    }
+  }
+
+  /**
+   * @return the current hedge delay estimate, -1 if not available.
+   */
+  public long getHedgeDelayEstimateNanos() {
+    return estimator.getEstimate();
+  }
+
+  public long getNrWins() {
+    return wins.sum();
+  }
+
+  public long getNrLosses() {
+    return losses.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "PercentileHedgePolicy{" + "operation=" + operation + ", estimator=" + estimator
+            + ", nrHedges=" + nrHedges + ", wins=" + wins + ", losses=" + losses + '}';
+  }
+
+  private static final class Measurements {
+
+    private static final int SAMPLE_TIME_MILLIS = Integer.getInteger("spf4j.failsafe.hedge.sampleTimeMillis", 60000);
+
+    private static final MeasurementRecorderSource WINS
+            = RecorderFactory.createScalableCountingRecorderSource("hedge.wins", "count", SAMPLE_TIME_MILLIS);
+
+    private static final MeasurementRecorderSource LOSSES
+            = RecorderFactory.createScalableCountingRecorderSource("hedge.losses", "count", SAMPLE_TIME_MILLIS);
+  }
+
+}
@@ -35,7 +35,9 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import org.spf4j.concurrent.InterruptibleCompletableFuture;
 import org.spf4j.failsafe.RetryPredicate;
 
@@ -54,6 +56,17 @@ public interface FailSafeExecutor extends AutoCloseable {
   <A> Future<A> submit(Callable<? extends A> task, RetryPredicate<A, ? extends Callable<? extends A>> predicate,
           int nrHedges, long hedgeDelay, TimeUnit unit);
 
+  /**
+   * Submit a hedged task, and notify firstCompleted with the index of the first completed execution:
+   * 0 for the primary execution, 1 to nrHedges for the hedges.
+   * The default implementation does not notify.
+   */
+  default <A> Future<A> submit(Callable<? extends A> task,
+          RetryPredicate<A, ? extends Callable<? extends A>> predicate,
+          int nrHedges, long hedgeDelay, TimeUnit unit, @Nullable IntConsumer firstCompleted) {
+    return submit(task, predicate, nrHedges, hedgeDelay, unit);
+  }
+
   default <A> CompletableFuture<A> submitRx(Callable<? extends A> task,
           RetryPredicate<A, ? extends Callable<? extends A>> predicate) {
     return submitRx(task, predicate, () -> new InterruptibleCompletableFuture());
@@ -74,4 +87,16 @@ public interface FailSafeExecutor extends AutoCloseable {
            int nrHedges,  long hedgeDelay,  TimeUnit unit,
            Supplier<InterruptibleCompletableFuture<A>> cfSupplier);
 
+  /**
+   * Submit a hedged task, and notify firstCompleted with the index of the first completed execution:
+   * 0 for the primary execution, 1 to nrHedges for the hedges.
+   * The default implementation does not notify.
+   */
+  default <A> CompletableFuture<A> submitRx(Callable<? extends A> task,
+          RetryPredicate<A, ? extends Callable<? extends A>> predicate,
+          int nrHedges,  long hedgeDelay,  TimeUnit unit,
+          Supplier<InterruptibleCompletableFuture<A>> cfSupplier, @Nullable IntConsumer firstCompleted) {
+    return submitRx(task, predicate, nrHedges, hedgeDelay, unit, cfSupplier);
+  }
+
 }
@@ -35,22 +35,20 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.spf4j.base.AbstractRunnable;
 import org.spf4j.failsafe.RetryPredicate;
-import org.spf4j.base.UncheckedExecutionException;
-import org.spf4j.concurrent.DefaultExecutor;
 import org.spf4j.concurrent.InterruptibleCompletableFuture;
+import org.spf4j.concurrent.TimingWheel;
 
 /**
  * Executor that will call Callables with retry. This executor cannot be used inside a Completion service.
@@ -62,110 +60,55 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
 
   private static final Logger LOG = LoggerFactory.getLogger(FailSafeExecutorImpl.class);
 
-  private static final Future<?> SHUTDOWN = new Future() {
-    @Override
-    public boolean cancel(final boolean mayInterruptIfRunning) {
-      throw new UnsupportedOperationException();
-    }
+  private static final int DEFAULT_TICK_MICROS
+          = Integer.getInteger("spf4j.failSafeExecutor.timingWheel.tickMicros", 1000);
 
-    @Override
-    public boolean isCancelled() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean isDone() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public Object get()  {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public Object get(final long timeout, final TimeUnit unit) {
-      throw new UnsupportedOperationException();
-    }
-  };
+  private static final int DEFAULT_WHEEL_SIZE
+          = Integer.getInteger("spf4j.failSafeExecutor.timingWheel.wheelSize", 512);
 
   private final ExecutorService executionService;
-  private final DelayQueue<DelayedTask<RetryFutureTask<?>>> executionEvents = new DelayQueue<>();
-  private volatile Future<?> retryManagerFuture;
-  private final Object sync = new Object();
-
-  private void startRetryManager() {
-    Future<?> rm = retryManagerFuture;
-    if (rm == null) {
-      synchronized (sync) {
-        rm = retryManagerFuture;
-        if (rm == null) {
-          rm = DefaultExecutor.INSTANCE.submit(new RetryManager());
-          this.retryManagerFuture = rm;
-          LOG.debug("Retry manager started {}", rm);
-        }
-      }
-    }
-  }
 
-  private void shutdownRetryManager() {
-    synchronized (sync) {
-      Future<?> rmf = this.retryManagerFuture;
-      if (rmf != null && rmf != SHUTDOWN) {
-        rmf.cancel(true);
-        retryManagerFuture = SHUTDOWN;
-      }
-    }
-  }
+  /**
+   * the timing wheel used for delayed retries and hedges.
+   */
+  private final TimingWheel executionEvents;
 
-  private class RetryManager extends AbstractRunnable {
+  private final boolean ownsTimingWheel;
 
-    RetryManager() {
-      super("RetryManager");
-    }
+  private final TaskScheduler scheduler;
 
-    @Override
-    public void doRun() {
-      while (retryManagerFuture != SHUTDOWN) {
-        try {
-          DelayedTask<RetryFutureTask<?>>  event = executionEvents.poll(1, TimeUnit.MINUTES);
-          if (event != null) {
-            RetryFutureTask<?> runnable = event.getRunnable();
-            executionService.execute(runnable);
-          }
-        } catch (InterruptedException ex) {
-          LOG.debug("Interrupted Retry manager, shuting down, events scheduled: {}", executionEvents, ex);
-          break;
-        }
-      }
-    }
+  public FailSafeExecutorImpl(final ExecutorService exec) {
+    this(exec, new TimingWheel("RetryManager", DEFAULT_TICK_MICROS, TimeUnit.MICROSECONDS, DEFAULT_WHEEL_SIZE),
+            true);
+  }
 
+  /**
+   * Create a fail safe executor that uses a shared timing wheel for the delayed executions.
+   * @param exec the executor the tasks are executed with.
+   * @param timingWheel the timing wheel, will not be closed by this executor.
+   */
+  public FailSafeExecutorImpl(final ExecutorService exec, final TimingWheel timingWheel) {
+    this(exec, timingWheel, false);
   }
 
-  public FailSafeExecutorImpl(final ExecutorService exec) {
-    executionService = exec;
+  private FailSafeExecutorImpl(final ExecutorService exec, final TimingWheel timingWheel,
+          final boolean ownsTimingWheel) {
+    this.executionService = exec;
+    this.executionEvents = timingWheel;
+    this.ownsTimingWheel = ownsTimingWheel;
+    this.scheduler = (task, delayNanos) -> executionEvents.schedule(() -> executionService.execute(task),
+              delayNanos, TimeUnit.NANOSECONDS);
   }
 
   @Override
   public void close() throws InterruptedException {
-    synchronized (sync) {
-      Future<?> rmf = this.retryManagerFuture;
-      if (rmf != null && rmf != SHUTDOWN) {
-        this.retryManagerFuture = SHUTDOWN;
-        rmf.cancel(true);
-        try {
-          rmf.get();
-        } catch (ExecutionException ex) {
-          throw new UncheckedExecutionException(ex);
-        } catch (CancellationException ex) {
-          // ignore, since we are the source
-        }
-      }
-    }
+    initiateClose();
   }
 
   public void initiateClose() {
-    shutdownRetryManager();
+    if (ownsTimingWheel) {
+      executionEvents.close();
+    }
   }
 
 
@@ -173,8 +116,7 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
   public <A> Future<A> submit(final Callable<? extends A> task,
           final RetryPredicate<A, ? extends Callable<? extends A>> predicate) {
     RetryFutureTask<A> result =
-            new RetryFutureTask(task, (RetryPredicate<A, Callable<? extends A>>) predicate, executionEvents,
-              this::startRetryManager);
+            new RetryFutureTask(task, (RetryPredicate<A, Callable<? extends A>>) predicate, scheduler);
 
     executionService.execute(result);
     return (Future<A>) result;
@@ -197,8 +139,7 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
               }
               return result.complete(r);
             }, (Callable<A>) task,
-                    (RetryPredicate<A, Callable<? extends A>>) predicate, executionEvents,
-              this::startRetryManager);
+                    (RetryPredicate<A, Callable<? extends A>>) predicate, scheduler);
     result.setToCancel(rft);
     executionService.execute(rft);
     return result;
@@ -208,29 +149,33 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
   public <A> Future<A> submit(final Callable<? extends A> task,
           final RetryPredicate<A, ? extends Callable<? extends A>> predicate,
           final int nrHedges, final long hedgeDelay, final TimeUnit unit) {
-    if (nrHedges <= 0) {
+    return submit(task, predicate, nrHedges, hedgeDelay, unit, null);
+  }
+
+  @Override
+  public <A> Future<A> submit(final Callable<? extends A> task,
+          final RetryPredicate<A, ? extends Callable<? extends A>> predicate,
+          final int nrHedges, final long hedgeDelay, final TimeUnit unit,
+          @Nullable final IntConsumer firstCompleted) {
+    if (nrHedges <= 0 && firstCompleted == null) {
       return submit(task, predicate);
     }
-    int nrFut = nrHedges + 1;
+    int nrFut = Math.max(0, nrHedges) + 1;
     final Future[] futures = new Future[nrFut];
     ArrayBlockingQueue<Future<A>> queue = new ArrayBlockingQueue<>(1);
-    FirstFuture<A> result = new FirstFuture<A>(futures, queue);
+    FirstFuture<A> result = new FirstFuture<A>(futures, queue, firstCompleted);
     ConsumableRetryFutureTask<A> future =  new ConsumableRetryFutureTask(result, task,
-            (RetryPredicate<A, Callable<? extends A>>) predicate, executionEvents, this::startRetryManager);
-    startRetryManager();
+            (RetryPredicate<A, Callable<? extends A>>) predicate, scheduler);
     futures[0] = future;
     Runnable[] submits = new Runnable[nrFut];
     submits[0] = () -> executionService.execute(future);
     for (int i = 1; i < nrFut; i++) {
       ConsumableRetryFutureTask<A> f = new ConsumableRetryFutureTask(
-                result, task, (RetryPredicate) predicate, executionEvents,
-                this::startRetryManager);
+                result, task, (RetryPredicate) predicate, scheduler);
       futures[i] = f;
       if (hedgeDelay > 0) {
-        DelayedTask<RetryFutureTask<?>>  delayedExecution = new DelayedTask<RetryFutureTask<?>>(
-                f, unit.toNanos(hedgeDelay));
-        f.setExec(delayedExecution);
-        submits[i] = () -> executionEvents.add(delayedExecution);
+        long hedgeDelayNanos = unit.toNanos(hedgeDelay);
+        submits[i] = () -> f.setExec(scheduler.schedule(f, hedgeDelayNanos));
       } else {
         submits[i] = () -> executionService.execute(f);
       }
@@ -246,14 +191,23 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
           final RetryPredicate<A, ? extends Callable<? extends A>> predicate,
           final int nrHedges, final long hedgeDelay, final TimeUnit unit,
           final Supplier<InterruptibleCompletableFuture<A>> cfSupplier) {
-    if (nrHedges <= 0) {
+    return submitRx(task, predicate, nrHedges, hedgeDelay, unit, cfSupplier, null);
+  }
+
+  @Override
+  public <A> CompletableFuture<A> submitRx(final Callable<? extends A> task,
+          final RetryPredicate<A, ? extends Callable<? extends A>> predicate,
+          final int nrHedges, final long hedgeDelay, final TimeUnit unit,
+          final Supplier<InterruptibleCompletableFuture<A>> cfSupplier,
+          @Nullable final IntConsumer firstCompleted) {
+    if (nrHedges <= 0 && firstCompleted == null) {
       return submitRx(task, predicate);
     }
     InterruptibleCompletableFuture<A> result = cfSupplier.get();
-    int nrFut = nrHedges + 1;
+    int nrFut = Math.max(0, nrHedges) + 1;
     final Future<A>[] futures = new Future[nrFut];
     ArrayBlockingQueue<Future<A>> queue = new ArrayBlockingQueue<>(1);
-    FirstFuture<A> resultX = new FirstFuture<A>(futures, queue) {
+    FirstFuture<A> resultX = new FirstFuture<A>(futures, queue, firstCompleted) {
       @Override
       @SuppressFBWarnings({ "NOS_NON_OWNED_SYNCHRONIZATION", "EXS_EXCEPTION_SOFTENING_NO_CHECKED" })
       public boolean accept(final Future<A> finished) {
@@ -283,21 +237,17 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
     };
     result.setToCancel(resultX);
     ConsumableRetryFutureTask<A> future =  new ConsumableRetryFutureTask(resultX, task,
-            (RetryPredicate<A, Callable<? extends A>>) predicate, executionEvents, this::startRetryManager);
-    startRetryManager();
+            (RetryPredicate<A, Callable<? extends A>>) predicate, scheduler);
     futures[0] = future;
     Runnable[] submits = new Runnable[nrFut];
     submits[0] = () -> executionService.execute(future);
     for (int i = 1; i < nrFut; i++) {
       ConsumableRetryFutureTask<A> f = new ConsumableRetryFutureTask(
-                resultX, task, (RetryPredicate) predicate, executionEvents,
-                this::startRetryManager);
+                resultX, task, (RetryPredicate) predicate, scheduler);
       futures[i] = f;
       if (hedgeDelay > 0) {
-        DelayedTask<RetryFutureTask<?>>  delayedExecution = new DelayedTask<RetryFutureTask<?>>(
-                f, unit.toNanos(hedgeDelay));
-        f.setExec(delayedExecution);
-        submits[i] = () -> executionEvents.add(delayedExecution);
+        long hedgeDelayNanos = unit.toNanos(hedgeDelay);
+        submits[i] = () -> f.setExec(scheduler.schedule(f, hedgeDelayNanos));
       } else {
         submits[i] = () -> executionService.execute(f);
       }
@@ -313,7 +263,7 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
   @Override
   public <A> void execute(final Callable<? extends A> task,
           final RetryPredicate<A, ? extends Callable<? extends A>> predicate) {
-    RetryFutureTask<A> result = new RetryFutureTask(task, predicate, executionEvents, this::startRetryManager);
+    RetryFutureTask<A> result = new RetryFutureTask(task, predicate, scheduler);
     executionService.execute(result);
   }
 
@@ -321,8 +271,7 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
   @Override
   public String toString() {
     return "RetryExecutor{" + "executionService=" + executionService + ", executionEvents=" + executionEvents
-            + ", retryManagerFuture=" + retryManagerFuture
-            + ", sync=" + sync + '}';
+            + '}';
   }
 
   @SuppressFBWarnings("NOS_NON_OWNED_SYNCHRONIZATION") // Actually I own it...
@@ -330,31 +279,45 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
 
     private final Future<T>[] futures;
     private final BlockingQueue<Future<T>> queue;
+    @Nullable
+    private final IntConsumer firstCompleted;
     private boolean first = true;
 
     FirstFuture(final Future<T>[] futures,
-            final BlockingQueue<Future<T>> queue) {
+            final BlockingQueue<Future<T>> queue, @Nullable final IntConsumer firstCompleted) {
       this.futures = futures;
       this.queue = queue;
+      this.firstCompleted = firstCompleted;
     }
 
     @Override
     public boolean accept(final Future<T> finished) {
+      int finishedIdx = -1;
       synchronized (this) {
-        if (first) {
-          first = false;
-          queue.add(finished);
-          for (int i = 0;  i < futures.length; i++) {
-            Future f = futures[i];
-            if (f != null && f != finished) {
-              f.cancel(true);
-            }
-            futures[i] = null;
+        if (!first) {
+          return false;
+        }
+        first = false;
+        for (int i = 0;  i < futures.length; i++) {
+          Future f = futures[i];
+          if (f == finished) {
+            finishedIdx = i;
+          } else if (f != null) {
+            f.cancel(true);
           }
-          return true;
+          futures[i] = null;
+        }
+      }
+      // notify before making the result available, so that the listener effects are visible to the consumer.
+      if (firstCompleted != null) {
+        try {
+          firstCompleted.accept(finishedIdx);
+        } catch (RuntimeException ex) {
+          LOG.warn("First completed listener failed for {}", finished, ex);
         }
-        return false;
       }
+      queue.add(finished);
+      return true;
     }
 
     @Override
@@ -420,9 +383,8 @@ public final class FailSafeExecutorImpl implements FailSafeExecutor {
 
     ConsumableRetryFutureTask(final ConditionalConsumer<Future<T>> consumer, final Callable<T> callable,
             final RetryPredicate<T, Callable<? extends T>> retryPredicate,
-            final DelayQueue<DelayedTask<RetryFutureTask<?>>> delayedTasks,
-            final Runnable onRetry) {
-      super(callable, retryPredicate, delayedTasks, onRetry);
+            final TaskScheduler scheduler) {
+      super(callable, retryPredicate, scheduler);
       this.consumer = consumer;
     }
 
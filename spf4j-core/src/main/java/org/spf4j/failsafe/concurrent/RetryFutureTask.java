@@ -34,10 +34,10 @@ package org.spf4j.failsafe.concurrent;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.ExecutionException;
 import org.spf4j.base.Either;
 import org.spf4j.base.Throwables;
+import org.spf4j.concurrent.TimingWheel;
 import org.spf4j.failsafe.RetryDecision;
 import org.spf4j.failsafe.RetryPredicate;
 
@@ -50,34 +50,31 @@ class RetryFutureTask<T> extends FutureTask<T> {
 
   private final RetryPredicate<T, Callable<? extends T>> retryPredicate;
 
-  private final DelayQueue<DelayedTask<RetryFutureTask<?>>> delayedTasks;
+  private final TaskScheduler scheduler;
 
   private Either<Throwable, T> previousResult;
 
-  private final Runnable onRetry;
-
-  private volatile DelayedTask<RetryFutureTask<?>> exec;
+  private volatile TimingWheel.Timeout exec;
 
 
   RetryFutureTask(final Callable<T> callable, final RetryPredicate<T, Callable<? extends T>> retryPredicate,
-          final DelayQueue<DelayedTask<RetryFutureTask<?>>> delayedTasks, final Runnable onRetry) {
+          final TaskScheduler scheduler) {
     super(callable);
-    this.onRetry = onRetry;
     this.retryPredicate = retryPredicate;
-    this.delayedTasks = delayedTasks;
+    this.scheduler = scheduler;
     this.previousResult = null;
   }
 
-  public final void setExec(final DelayedTask<RetryFutureTask<?>> exec) {
+  public final void setExec(final TimingWheel.Timeout exec) {
     this.exec = exec;
   }
 
 
   @Override
   public final boolean cancel(final boolean mayInterruptIfRunning) {
-    DelayedTask<RetryFutureTask<?>> e = exec;
+    TimingWheel.Timeout e = exec;
     if (e != null) {
-      delayedTasks.remove(e);
+      e.cancel();
     }
     return super.cancel(mayInterruptIfRunning);
   }
@@ -109,7 +106,6 @@ class RetryFutureTask<T> extends FutureTask<T> {
     final RetryDecision.Type decisionType = decision.getDecisionType();
     switch (decisionType) {
       case Retry:
-        onRetry.run();
         final long delayNanos = decision.getDelayNanos();
         this.setCallable((Callable<T>) decision.getNewCallable());
         Throwable at = t;
@@ -117,9 +113,7 @@ class RetryFutureTask<T> extends FutureTask<T> {
           Throwables.suppressLimited(at, previousResult.getLeft());
         }
         previousResult = Either.left(at);
-        DelayedTask<RetryFutureTask<?>> delayedTask = new DelayedTask<>(this, delayNanos);
-        this.exec = delayedTask;
-        delayedTasks.add(delayedTask);
+        this.exec = scheduler.schedule(this, delayNanos);
         return false;
       case Abort:
         this.exec = null;
@@ -153,12 +147,9 @@ class RetryFutureTask<T> extends FutureTask<T> {
     final RetryDecision.Type decisionType = decision.getDecisionType();
     switch (decisionType) {
       case Retry:
-        onRetry.run();
         final long delayNanos = decision.getDelayNanos();
         this.setCallable((Callable<T>) decision.getNewCallable());
-        DelayedTask<RetryFutureTask<?>> delayedTask = new DelayedTask<>(this, delayNanos);
-        this.exec = delayedTask;
-        delayedTasks.add(delayedTask);
+        this.exec = scheduler.schedule(this, delayNanos);
         this.previousResult = Either.right(v);
         return false;
       case Abort:
@@ -81,8 +81,10 @@ public interface MeasurementAccumulator extends MeasurementRecorder {
     try {
       long[] measurements = get();
       if (measurements != null) {
-        return new CompositeDataSupport(info.toCompositeType(), info.getMeasurementNames(),
-                Arrays.toObjectArray(measurements));
+        int nrScalars = info.getNumberOfScalarMeasurements();
+        return new CompositeDataSupport(info.toCompositeType(),
+                java.util.Arrays.copyOf(info.getMeasurementNames(), nrScalars),
+                Arrays.toObjectArray(java.util.Arrays.copyOf(measurements, nrScalars)));
       } else {
         return null;
       }
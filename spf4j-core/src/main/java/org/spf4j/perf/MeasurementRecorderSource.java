@@ -45,4 +45,12 @@ public interface MeasurementRecorderSource {
      */
     MeasurementRecorder getRecorder(Object forWhat);
 
+    /**
+     * @return true if the recorders returned by getRecorder are thread safe and valid for the lifetime of this source,
+     * in which case they can be held onto and shared between threads.
+     */
+    default boolean hasStableRecorders() {
+        return false;
+    }
+
 }
@@ -31,6 +31,7 @@
  */
 package org.spf4j.perf;
 
+import java.util.Arrays;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
 import javax.management.openmbean.CompositeType;
@@ -46,6 +47,12 @@ import org.spf4j.tsdb2.avro.MeasurementType;
 @Immutable
 public interface MeasurementsInfo {
 
+  /**
+   * The name of the encoded histogram column. (see LogLinearHistogramAccumulator)
+   * When present, it is the last column of a HISTOGRAM table, and its value spans the rest of the row.
+   */
+  String ENCODED_HISTOGRAM = "histogram";
+
   @Nonnull
   Object getMeasuredEntity();
 
@@ -68,8 +75,23 @@ public interface MeasurementsInfo {
 
   MeasurementType getMeasurementType();
 
+  /**
+   * @return the number of scalar (one long value) measurements. If the last column is a ENCODED_HISTOGRAM,
+   * the row values after the scalar measurements are the encoded histogram, only stores that persist variable
+   * length rows (TSDB2, avro) will store it.
+   */
+  default int getNumberOfScalarMeasurements() {
+    int nrMeasurements = getNumberOfMeasurements();
+    if (getMeasurementType() == MeasurementType.HISTOGRAM && nrMeasurements > 0
+            && ENCODED_HISTOGRAM.equals(getMeasurementName(nrMeasurements - 1))) {
+      return nrMeasurements - 1;
+    }
+    return nrMeasurements;
+  }
+
   default CompositeType toCompositeType() {
-    OpenType<?>[] types = new OpenType[getNumberOfMeasurements()];
+    int nrScalars = getNumberOfScalarMeasurements();
+    OpenType<?>[] types = new OpenType[nrScalars];
     for (int i = 0; i < types.length; i++) {
       types[i] = javax.management.openmbean.SimpleType.LONG;
     }
@@ -79,7 +101,8 @@ public interface MeasurementsInfo {
       if (description.isEmpty()) {
         description = entityName;
       }
-      return new CompositeType(entityName, description, getMeasurementNames(), getMeasurementUnits(), types);
+      return new CompositeType(entityName, description, Arrays.copyOf(getMeasurementNames(), nrScalars),
+              Arrays.copyOf(getMeasurementUnits(), nrScalars), types);
     } catch (OpenDataException ex) {
       throw new IllegalArgumentException("Cannot convert to composite data " + this, ex);
     }
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.cpu;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import org.spf4j.base.ExecutionContext;
+import org.spf4j.base.ExecutionContexts;
+import org.spf4j.base.ThreadLocalContextAttacher;
+import org.spf4j.perf.MeasurementRecorderSource;
+import org.spf4j.perf.impl.RecorderFactory;
+
+/**
+ * A thread local context attacher that accounts the thread CPU time and the allocated bytes of the threads
+ * an execution context is attached to.
+ *
+ * Usage is accounted exclusively while attached: when a context is attached on top of another context in the same
+ * thread, the outer context is not charged until the inner one is detached. The accumulated values are stored
+ * in the CPU_TIME_NANOS and ALLOCATED_BYTES context tags and are added to the parent context when a child context
+ * is closed, so a closed context holds the usage of itself and all its children.
+ *
+ * When a context is closed, its usage is recorded per context name in 2 quantized recorder sources:
+ * "execCtx.cpuTime" (microseconds) and "execCtx.allocated" (KB).
+ *
+ * enable with: -Dspf4j.execContext.tlAttacherClass=org.spf4j.perf.cpu.ResourceUsageTLAttacher
+ * the attacher that this one delegates to can be configured with spf4j.execContext.resourceUsage.wrappedAttacherClass
+ * (ex: org.spf4j.stackmonitor.ProfilingTLAttacher)
+ *
+ * @author zoly
+ */
+@ParametersAreNonnullByDefault
+@SuppressFBWarnings("IICU_INCORRECT_INTERNAL_CLASS_USE")
+public final class ResourceUsageTLAttacher implements ThreadLocalContextAttacher {
+
+  /**
+   * The CPU time (ns) used by a context and its closed children.
+   */
+  public static final ExecutionContext.SimpleTag<Long> CPU_TIME_NANOS = new SumTag("cpuTimeNanos");
+
+  /**
+   * The bytes allocated by a context and its closed children.
+   */
+  public static final ExecutionContext.SimpleTag<Long> ALLOCATED_BYTES = new SumTag("allocatedBytes");
+
+  private static final ExecutionContext.SimpleTag<Boolean> PUBLISHED = new ExecutionContext.SimpleTag<Boolean>() {
+    @Override
+    public boolean isInherited(final ExecutionContext.Relation relation) {
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return "resourceUsagePublished";
+    }
+  };
+
+  private static final int SAMPLE_TIME_MILLIS
+          = Integer.getInteger("spf4j.execContext.resourceUsage.sampleTimeMillis", 60000);
+
+  private static final ThreadMXBean TH_BEAN = ManagementFactory.getThreadMXBean();
+
+  @Nullable
+  private static final com.sun.management.ThreadMXBean SUN_TH_BEAN
+          = TH_BEAN instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) TH_BEAN : null;
+
+  private final ThreadLocalContextAttacher wrapped;
+
+  private final ThreadLocal<UsageAttached> current;
+
+  private final boolean measureCpu;
+
+  private final boolean measureAllocations;
+
+  @Nullable
+  private final MeasurementRecorderSource cpuTimeSource;
+
+  @Nullable
+  private final MeasurementRecorderSource allocationSource;
+
+  public ResourceUsageTLAttacher() {
+    this(createWrapped(),
+            RecorderFactory.createScalableQuantizedRecorderSource("execCtx.cpuTime", "us",
+                    SAMPLE_TIME_MILLIS, 10, 0, 7, 10),
+            RecorderFactory.createScalableQuantizedRecorderSource("execCtx.allocated", "KB",
+                    SAMPLE_TIME_MILLIS, 10, 0, 7, 10));
+  }
+
+  /**
+   * @param wrapped the attacher to delegate attachment to.
+   * @param cpuTimeSource the recorder source to record the CPU time (microseconds) by context name on context close.
+   * @param allocationSource the recorder source to record the allocated KB by context name on context close.
+   */
+  public ResourceUsageTLAttacher(final ThreadLocalContextAttacher wrapped,
+          @Nullable final MeasurementRecorderSource cpuTimeSource,
+          @Nullable final MeasurementRecorderSource allocationSource) {
+    this.wrapped = wrapped;
+    this.cpuTimeSource = cpuTimeSource;
+    this.allocationSource = allocationSource;
+    this.current = new ThreadLocal<>();
+    this.measureCpu = TH_BEAN.isCurrentThreadCpuTimeSupported() && TH_BEAN.isThreadCpuTimeEnabled();
+    this.measureAllocations = SUN_TH_BEAN != null && SUN_TH_BEAN.isThreadAllocatedMemorySupported()
+            && SUN_TH_BEAN.isThreadAllocatedMemoryEnabled();
+  }
+
+  private static ThreadLocalContextAttacher createWrapped() {
+    String wrappedClass = System.getProperty("spf4j.execContext.resourceUsage.wrappedAttacherClass");
+    if (wrappedClass == null) {
+      return ExecutionContexts.defaultThreadLocalAttacher();
+    }
+    try {
+      return ((Class<ThreadLocalContextAttacher>) Class.forName(wrappedClass)).newInstance();
+    } catch (ClassNotFoundException | InstantiationException | IllegalAccessException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  public boolean isMeasuringCpu() {
+    return measureCpu;
+  }
+
+  public boolean isMeasuringAllocations() {
+    return measureAllocations;
+  }
+
+  private long cpuNanos() {
+    return measureCpu ? TH_BEAN.getCurrentThreadCpuTime() : 0L;
+  }
+
+  private long allocatedBytes(final Thread thread) {
+    return measureAllocations ? SUN_TH_BEAN.getThreadAllocatedBytes(thread.getId()) : 0L;
+  }
+
+  @Override
+  public Attached attach(final ExecutionContext ctx) {
+    Attached attached = wrapped.attach(ctx);
+    Thread thread = attached.attachedThread();
+    long cpu = cpuNanos();
+    long alloc = allocatedBytes(thread);
+    UsageAttached prev = current.get();
+    if (prev != null) {
+      prev.charge(cpu, alloc);
+    }
+    UsageAttached result = new UsageAttached(attached, ctx, prev, cpu, alloc);
+    current.set(result);
+    if ((cpuTimeSource != null || allocationSource != null) && ctx.getLocal(PUBLISHED) == null) {
+      // a context can be attached to one thread at a time, so there is no race here.
+      ctx.put(PUBLISHED, Boolean.TRUE);
+      ctx.addCloseable(() -> publish(ctx));
+    }
+    return result;
+  }
+
+  private void publish(final ExecutionContext ctx) {
+    if (cpuTimeSource != null) {
+      Long cpu = ctx.getLocal(CPU_TIME_NANOS);
+      if (cpu != null) {
+        cpuTimeSource.getRecorder(ctx.getName()).record(cpu / 1000);
+      }
+    }
+    if (allocationSource != null) {
+      Long alloc = ctx.getLocal(ALLOCATED_BYTES);
+      if (alloc != null) {
+        allocationSource.getRecorder(ctx.getName()).record(alloc / 1024);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ResourceUsageTLAttacher{" + "wrapped=" + wrapped + ", measureCpu=" + measureCpu
+            + ", measureAllocations=" + measureAllocations + '}';
+  }
+
+  private final class UsageAttached implements Attached {
+
+    private final Attached attached;
+
+    private final ExecutionContext ctx;
+
+    @Nullable
+    private final UsageAttached prev;
+
+    private long startCpu;
+
+    private long startAlloc;
+
+    UsageAttached(final Attached attached, final ExecutionContext ctx, @Nullable final UsageAttached prev,
+            final long startCpu, final long startAlloc) {
+      this.attached = attached;
+      this.ctx = ctx;
+      this.prev = prev;
+      this.startCpu = startCpu;
+      this.startAlloc = startAlloc;
+    }
+
+    void charge(final long cpu, final long alloc) {
+      if (measureCpu) {
+        ctx.accumulate(CPU_TIME_NANOS, cpu - startCpu);
+      }
+      if (measureAllocations) {
+        ctx.accumulate(ALLOCATED_BYTES, alloc - startAlloc);
+      }
+    }
+
+    @Override
+    public void detach() {
+      attached.detach();
+      long cpu = cpuNanos();
+      long alloc = allocatedBytes(attached.attachedThread());
+      charge(cpu, alloc);
+      if (prev == null) {
+        current.remove();
+      } else {
+        prev.startCpu = cpu;
+        prev.startAlloc = alloc;
+        current.set(prev);
+      }
+    }
+
+    @Override
+    public boolean isTopOfStack() {
+      return attached.isTopOfStack();
+    }
+
+    @Override
+    public Thread attachedThread() {
+      return attached.attachedThread();
+    }
+
+    @Override
+    public String toString() {
+      return "UsageAttached{" + "attached=" + attached + ", ctx=" + ctx + '}';
+    }
+
+  }
+
+  private static final class SumTag implements ExecutionContext.SimpleTag<Long> {
+
+    private final String name;
+
+    SumTag(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public boolean isInherited(final ExecutionContext.Relation relation) {
+      return false;
+    }
+
+    @Override
+    public boolean pushOnClose() {
+      return true;
+    }
+
+    @Override
+    public Long accumulate(@Nullable final Long existing, final Long newVal) {
+      return existing == null ? newVal : existing + newVal;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+}
@@ -81,6 +81,11 @@ public final class DirectRecorderSource implements MeasurementRecorderSource {
         return recorders.getUnchecked(forWhat);
     }
 
+    @Override
+    public boolean hasStableRecorders() {
+        return true;
+    }
+
 
     private static final class CreateDirectRecorder extends CacheLoader<Object, MeasurementRecorder> {
 
@@ -51,4 +51,9 @@ public final class NopMeasurementRecorderSource implements MeasurementRecorderSo
        return NopMeasurementRecorder.INSTANCE;
     }
 
+    @Override
+    public boolean hasStableRecorders() {
+        return true;
+    }
+
 }
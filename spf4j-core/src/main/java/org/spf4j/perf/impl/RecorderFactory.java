@@ -33,9 +33,12 @@ package org.spf4j.perf.impl;
 
 import org.spf4j.perf.impl.acc.DirectStoreMultiAccumulator;
 import org.spf4j.perf.impl.acc.DirectStoreAccumulator;
-import org.spf4j.perf.impl.acc.QuantizedAccumulator;
+import org.spf4j.perf.impl.acc.LogLinearHistogramAccumulator;
+import org.spf4j.perf.impl.acc.StripedQuantizedAccumulator;
 import org.spf4j.perf.impl.acc.AddAndCountAccumulator;
 import org.spf4j.perf.impl.acc.MinMaxAvgAccumulator;
+import org.spf4j.perf.impl.acc.ConcurrentAddAndCountAccumulator;
+import org.spf4j.perf.impl.acc.ConcurrentMinMaxAvgAccumulator;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.spf4j.perf.impl.ms.StoreType;
 import org.spf4j.perf.impl.ms.graphite.GraphiteTcpStore;
@@ -74,6 +77,13 @@ public final class RecorderFactory {
 
   private static final Logger LOG = LoggerFactory.getLogger(RecorderFactory.class);
 
+  /**
+   * number of stripes for the per entity quantized accumulators of recorder sources,
+   * kept small since sources can have lots of entities.
+   */
+  private static final int SOURCE_NR_STRIPES = Integer.getInteger("spf4j.perf.source.nrStripes",
+          Math.min(4, org.spf4j.base.Runtime.NR_PROCESSORS));
+
   public static final MeasurementStore MEASUREMENT_STORE;
 
   static {
@@ -168,7 +178,7 @@ public final class RecorderFactory {
           final Object forWhat, final String unitOfMeasurement, final int sampleTimeMillis,
           final int factor, final int lowerMagnitude,
           final int higherMagnitude, final int quantasPerMagnitude) {
-    ScalableMeasurementRecorder mr = new ScalableMeasurementRecorder(new QuantizedAccumulator(forWhat, "",
+    ScalableMeasurementRecorder mr = new ScalableMeasurementRecorder(new StripedQuantizedAccumulator(forWhat, "",
             unitOfMeasurement, factor, lowerMagnitude, higherMagnitude,
             quantasPerMagnitude), sampleTimeMillis, MEASUREMENT_STORE, true);
     mr.registerJmx();
@@ -179,13 +189,45 @@ public final class RecorderFactory {
           final Object forWhat, final String unitOfMeasurement,  final int sampleTimeMillis,
           final int factor, final int lowerMagnitude, final int higherMagnitude,
           final int quantasPerMagnitude) {
-    ScalableMeasurementRecorder mr = new ScalableMeasurementRecorder(new QuantizedAccumulator(forWhat, "",
+    ScalableMeasurementRecorder mr = new ScalableMeasurementRecorder(new StripedQuantizedAccumulator(forWhat, "",
             unitOfMeasurement, factor, lowerMagnitude, higherMagnitude,
             quantasPerMagnitude), sampleTimeMillis, MEASUREMENT_STORE, false);
     mr.registerJmx();
     return mr;
   }
 
+  /**
+   * Create a high dynamic range log-linear histogram recorder, that will persist the histogram buckets and
+   * the p50, p90, p99, p999 percentiles. (see http://hdrhistogram.org for the concept)
+   *
+   * example: createScalableHistogramRecorder("response time", "ms", 60000, 3600000, 2)
+   * will record response times up to 1 hour with 2 significant digits precision.
+   *
+   * @param forWhat an object identifying what is being measured, ex: "response time"
+   * @param unitOfMeasurement the unit of measurement of the measurements, ex "milliseconds"
+   * @param sampleTimeMillis the sampling (accumulating interval) ex: 60000 for minute level detail.
+   * @param highestTrackableValue the highest value tracked, higher values are counted in a overflow bucket.
+   * @param significantDigits the precision of the measurements [1 - 5].
+   * @return a measurement recorder.
+   */
+  public static MeasurementRecorder createScalableHistogramRecorder(
+          final Object forWhat, final String unitOfMeasurement, final int sampleTimeMillis,
+          final long highestTrackableValue, final int significantDigits) {
+    ScalableMeasurementRecorder mr = new ScalableMeasurementRecorder(new LogLinearHistogramAccumulator(forWhat, "",
+            unitOfMeasurement, highestTrackableValue, significantDigits), sampleTimeMillis, MEASUREMENT_STORE, true);
+    mr.registerJmx();
+    return mr;
+  }
+
+  public static CloseableMeasurementRecorder createScalableHistogramRecorder2(
+          final Object forWhat, final String unitOfMeasurement, final int sampleTimeMillis,
+          final long highestTrackableValue, final int significantDigits) {
+    ScalableMeasurementRecorder mr = new ScalableMeasurementRecorder(new LogLinearHistogramAccumulator(forWhat, "",
+            unitOfMeasurement, highestTrackableValue, significantDigits), sampleTimeMillis, MEASUREMENT_STORE, false);
+    mr.registerJmx();
+    return mr;
+  }
+
   public static MeasurementRecorder createScalableCountingRecorder(
           final Object forWhat, final String unitOfMeasurement, final int sampleTimeMillis) {
     ScalableMeasurementRecorder mr = new ScalableMeasurementRecorder(new AddAndCountAccumulator(forWhat, "",
@@ -215,8 +257,8 @@ public final class RecorderFactory {
           final int factor, final int lowerMagnitude,
           final int higherMagnitude, final int quantasPerMagnitude) {
     ScalableMeasurementRecorderSource mrs = new ScalableMeasurementRecorderSource(
-            new QuantizedAccumulator(forWhat, "",
-                    unitOfMeasurement, factor, lowerMagnitude, higherMagnitude, quantasPerMagnitude),
+            new StripedQuantizedAccumulator(forWhat, "", unitOfMeasurement, factor, lowerMagnitude,
+                    higherMagnitude, quantasPerMagnitude, SOURCE_NR_STRIPES),
             sampleTimeMillis, MEASUREMENT_STORE, true);
     mrs.registerJmx();
     return mrs;
@@ -227,8 +269,8 @@ public final class RecorderFactory {
           final int factor, final int lowerMagnitude, final int higherMagnitude,
           final int quantasPerMagnitude) {
     ScalableMeasurementRecorderSource mrs = new ScalableMeasurementRecorderSource(
-            new QuantizedAccumulator(forWhat, "",
-                    unitOfMeasurement, factor, lowerMagnitude, higherMagnitude, quantasPerMagnitude),
+            new StripedQuantizedAccumulator(forWhat, "", unitOfMeasurement, factor, lowerMagnitude,
+                    higherMagnitude, quantasPerMagnitude, SOURCE_NR_STRIPES),
             sampleTimeMillis, MEASUREMENT_STORE, false);
     mrs.registerJmx();
     return mrs;
@@ -237,7 +279,7 @@ public final class RecorderFactory {
   public static MeasurementRecorderSource createScalableCountingRecorderSource(
           final Object forWhat, final String unitOfMeasurement, final int sampleTimeMillis) {
     ScalableMeasurementRecorderSource mrs = new ScalableMeasurementRecorderSource(
-            new AddAndCountAccumulator(forWhat, "",
+            new ConcurrentAddAndCountAccumulator(forWhat, "",
                     unitOfMeasurement), sampleTimeMillis, MEASUREMENT_STORE, true);
     mrs.registerJmx();
     return mrs;
@@ -246,7 +288,7 @@ public final class RecorderFactory {
   public static CloseableMeasurementRecorderSource createScalableCountingRecorderSource2(
           final Object forWhat, final String unitOfMeasurement, final int sampleTimeMillis) {
     ScalableMeasurementRecorderSource mrs = new ScalableMeasurementRecorderSource(
-            new AddAndCountAccumulator(forWhat, "",
+            new ConcurrentAddAndCountAccumulator(forWhat, "",
                     unitOfMeasurement), sampleTimeMillis, MEASUREMENT_STORE, false);
     mrs.registerJmx();
     return mrs;
@@ -255,7 +297,7 @@ public final class RecorderFactory {
   public static MeasurementRecorderSource createScalableMinMaxAvgRecorderSource(
           final Object forWhat, final String unitOfMeasurement, final int sampleTimeMillis) {
     ScalableMeasurementRecorderSource mrs = new ScalableMeasurementRecorderSource(
-            new MinMaxAvgAccumulator(forWhat, "",
+            new ConcurrentMinMaxAvgAccumulator(forWhat, "",
                     unitOfMeasurement), sampleTimeMillis, MEASUREMENT_STORE, true);
     mrs.registerJmx();
     return mrs;
@@ -32,6 +32,7 @@
 package org.spf4j.perf.impl;
 
 import org.spf4j.perf.impl.acc.AbstractMeasurementAccumulator;
+import org.spf4j.perf.impl.acc.LogLinearHistogramAccumulator;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.spf4j.base.AbstractRunnable;
 import org.spf4j.concurrent.DefaultScheduler;
@@ -45,6 +46,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +57,7 @@ import org.spf4j.jmx.DynamicMBeanBuilder;
 import org.spf4j.jmx.Registry;
 import org.spf4j.perf.CloseableMeasurementRecorder;
 import org.spf4j.perf.JmxSupport;
+import org.spf4j.perf.ScalableMeasurementAccumulator;
 
 /**
  *
@@ -70,6 +73,11 @@ public final class ScalableMeasurementRecorder extends AbstractMeasurementAccumu
 
   private final Map<Thread, MeasurementAccumulator> threadLocalRecorders;
   private final ThreadLocal<MeasurementAccumulator> threadLocalRecorder;
+  /**
+   * when not null, all threads record into this accumulator, and no thread local accumulators are used.
+   */
+  @Nullable
+  private final ScalableMeasurementAccumulator sharedRecorder;
   private final ScheduledFuture<?> samplingFuture;
   private final MeasurementAccumulator processorTemplate;
   private final Persister persister;
@@ -82,17 +90,23 @@ public final class ScalableMeasurementRecorder extends AbstractMeasurementAccumu
     }
     threadLocalRecorders = new HashMap<>();
     processorTemplate = processor;
-    threadLocalRecorder = new ThreadLocal<MeasurementAccumulator>() {
+    if (processor instanceof ScalableMeasurementAccumulator) {
+      sharedRecorder = (ScalableMeasurementAccumulator) processor;
+      threadLocalRecorder = null;
+    } else {
+      sharedRecorder = null;
+      threadLocalRecorder = new ThreadLocal<MeasurementAccumulator>() {
 
-      @Override
-      protected MeasurementAccumulator initialValue() {
-        MeasurementAccumulator result = (MeasurementAccumulator) processor.createClone();
-        synchronized (threadLocalRecorders) {
-          threadLocalRecorders.put(Thread.currentThread(), result);
+        @Override
+        protected MeasurementAccumulator initialValue() {
+          MeasurementAccumulator result = (MeasurementAccumulator) processor.createClone();
+          synchronized (threadLocalRecorders) {
+            threadLocalRecorders.put(Thread.currentThread(), result);
+          }
+          return result;
         }
-        return result;
-      }
-    };
+      };
+    }
     final long tableId;
     try {
       tableId = measurementStore.alocateMeasurements(processor.getInfo(), sampleTimeMillis);
@@ -122,11 +136,18 @@ public final class ScalableMeasurementRecorder extends AbstractMeasurementAccumu
 
   @Override
   public void record(final long measurement) {
-    threadLocalRecorder.get().record(measurement);
+    if (sharedRecorder != null) {
+      sharedRecorder.record(measurement);
+    } else {
+      threadLocalRecorder.get().record(measurement);
+    }
   }
 
   @Override
   public long[] get() {
+    if (sharedRecorder != null) {
+      return sharedRecorder.get();
+    }
     MeasurementAccumulator result = null;
     synchronized (threadLocalRecorders) {
       for (Map.Entry<Thread, MeasurementAccumulator> entry : threadLocalRecorders.entrySet()) {
@@ -176,10 +197,15 @@ public final class ScalableMeasurementRecorder extends AbstractMeasurementAccumu
   @SuppressWarnings("unchecked")
   public void registerJmx() {
     MeasurementsInfo info = processorTemplate.getInfo();
-    new DynamicMBeanBuilder().withJmxExportObject(this)
+    DynamicMBeanBuilder builder = new DynamicMBeanBuilder().withJmxExportObject(this)
             .withAttribute(new GenericExportedValue<>("measurements", info.getDescription(),
-                    this::getCompositeData, null, getInfo().toCompositeType()))
-            .register("org.spf4j.perf.recorders", info.getMeasuredEntity().toString());
+                    this::getCompositeData, null, getInfo().toCompositeType()));
+    if (processorTemplate instanceof LogLinearHistogramAccumulator) {
+      builder.withAttribute(new GenericExportedValue<>("percentiles", "measurement percentiles",
+                    ((LogLinearHistogramAccumulator) processorTemplate)::getPercentiles, null,
+                    LogLinearHistogramAccumulator.PERCENTILES_TYPE));
+    }
+    builder.register("org.spf4j.perf.recorders", info.getMeasuredEntity().toString());
   }
 
   @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
@@ -224,6 +250,9 @@ public final class ScalableMeasurementRecorder extends AbstractMeasurementAccumu
 
   @Override
   public long[] getThenReset() {
+    if (sharedRecorder != null) {
+      return sharedRecorder.getThenReset();
+    }
     MeasurementAccumulator result = null;
     synchronized (threadLocalRecorders) {
       Iterator<Map.Entry<Thread, MeasurementAccumulator>> iterator = threadLocalRecorders.entrySet().iterator();
@@ -38,9 +38,11 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.UncheckedIOException;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.management.openmbean.CompositeDataSupport;
@@ -66,17 +68,46 @@ import org.spf4j.perf.MeasurementStore;
 import org.spf4j.perf.MeasurementRecorder;
 import org.spf4j.perf.MeasurementRecorderSource;
 
+/**
+ * A measurement recorder source that keeps one accumulator per entity in a concurrent map.
+ *
+ * Recorder lookup is a lock free map get, and all threads record into the same per entity accumulator.
+ * For best scalability the template accumulator should be a ScalableMeasurementAccumulator,
+ * other accumulators will work but will be contended by the recording threads.
+ *
+ * The persister snapshots and resets each entity individually (no global lock).
+ * Entities with no measurements for spf4j.perf.source.idleEvictionIntervals consecutive intervals are evicted,
+ * a recorder obtained before eviction and used afterwards will loose its measurements, this is why
+ * recorders returned by this source should not be cached. (see MeasurementRecorderSource.hasStableRecorders)
+ *
+ * The number of entities is capped at spf4j.perf.source.maxEntities, measurements for new entities
+ * beyond this limit are recorded against a overflow entity.
+ */
 @ThreadSafe
-// a recorder instance is tipically alive for the entire life of the process
-@SuppressFBWarnings("PMB_INSTANCE_BASED_THREAD_LOCAL")
 public final class ScalableMeasurementRecorderSource implements
         MeasurementRecorderSource, MeasurementsSource, CloseableMeasurementRecorderSource, JmxSupport {
 
   private static final Logger LOG = LoggerFactory.getLogger(ScalableMeasurementRecorderSource.class);
 
-  private final Map<Thread, Map<Object, MeasurementAccumulator>> measurementProcessorMap;
+  /**
+   * the entity used to record measurements for entities beyond the max entities limit.
+   */
+  public static final String OVERFLOW_ENTITY = "_overflow_";
+
+  private static final int DEFAULT_MAX_ENTITIES = Integer.getInteger("spf4j.perf.source.maxEntities", 10000);
+
+  private static final int DEFAULT_IDLE_EVICTION_INTERVALS
+          = Integer.getInteger("spf4j.perf.source.idleEvictionIntervals", 3);
+
+  private final ConcurrentMap<Object, EntityAccumulator> entities;
 
-  private final ThreadLocal<Map<Object, MeasurementAccumulator>> threadLocalMeasurementProcessorMap;
+  private final AtomicInteger nrEntities;
+
+  private final int maxEntities;
+
+  private final int idleEvictionIntervals;
+
+  private volatile boolean overflowWarned;
 
   private final ScheduledFuture<?> samplingFuture;
   private final MeasurementAccumulator processorTemplate;
@@ -88,23 +119,33 @@ public final class ScalableMeasurementRecorderSource implements
 
   ScalableMeasurementRecorderSource(final MeasurementAccumulator processor,
           final int sampleTimeMillis, final MeasurementStore database, final boolean closeOnShutdown) {
+    this(processor, sampleTimeMillis, database, closeOnShutdown,
+            DEFAULT_MAX_ENTITIES, DEFAULT_IDLE_EVICTION_INTERVALS);
+  }
+
+  /**
+   * @param maxEntities the max number of entities tracked by this source.
+   * @param idleEvictionIntervals number of consecutive intervals with no measurements after which a entity
+   * is evicted. (0 means never evict)
+   */
+  ScalableMeasurementRecorderSource(final MeasurementAccumulator processor,
+          final int sampleTimeMillis, final MeasurementStore database, final boolean closeOnShutdown,
+          final int maxEntities, final int idleEvictionIntervals) {
     if (sampleTimeMillis < 1000) {
       throw new IllegalArgumentException("sample time needs to be at least 1000 and not " + sampleTimeMillis);
     }
+    if (maxEntities < 1) {
+      throw new IllegalArgumentException("max entities needs to be at least 1 and not " + maxEntities);
+    }
+    if (idleEvictionIntervals < 0) {
+      throw new IllegalArgumentException("Invalid idle eviction intervals " + idleEvictionIntervals);
+    }
     this.processorTemplate = processor;
-    measurementProcessorMap = new HashMap<>();
-    threadLocalMeasurementProcessorMap = new ThreadLocal<Map<Object, MeasurementAccumulator>>() {
-
-      @Override
-      protected Map<Object, MeasurementAccumulator> initialValue() {
-        Map<Object, MeasurementAccumulator> result = new HashMap<>();
-        synchronized (measurementProcessorMap) {
-          measurementProcessorMap.put(Thread.currentThread(), result);
-        }
-        return result;
-      }
-
-    };
+    this.maxEntities = maxEntities;
+    this.idleEvictionIntervals = idleEvictionIntervals;
+    this.entities = new ConcurrentHashMap<>();
+    this.nrEntities = new AtomicInteger();
+    this.overflowWarned = false;
     tableIds = new TObjectLongHashMap<>();
     persister = new Persister(database, sampleTimeMillis, processor);
     samplingFuture = DefaultScheduler.scheduleAllignedAtFixedRateMillis(persister, sampleTimeMillis);
@@ -129,42 +170,50 @@ public final class ScalableMeasurementRecorderSource implements
 
   @Override
   public MeasurementRecorder getRecorder(final Object forWhat) {
-    Map<Object, MeasurementAccumulator> recorders = threadLocalMeasurementProcessorMap.get();
-    synchronized (recorders) {
-      MeasurementAccumulator result = recorders.get(forWhat);
-      if (result == null) {
-        result = (MeasurementAccumulator) processorTemplate.createLike(
-                Pair.of(processorTemplate.getInfo().getMeasuredEntity(), forWhat));
-        recorders.put(forWhat, result);
+    return getEntity(forWhat).accumulator;
+  }
+
+  private EntityAccumulator addEntity(final Object forWhat) {
+    if (nrEntities.incrementAndGet() > maxEntities && !OVERFLOW_ENTITY.equals(forWhat)) {
+      nrEntities.decrementAndGet();
+      if (!overflowWarned) {
+        overflowWarned = true;
+        LOG.warn("Max entities {} reached for {}, recording {} and subsequent new entities as {}",
+                maxEntities, processorTemplate.getInfo(), forWhat, OVERFLOW_ENTITY);
       }
-      return result;
+      return getEntity(OVERFLOW_ENTITY);
     }
+    EntityAccumulator result = new EntityAccumulator((MeasurementAccumulator) processorTemplate.createLike(
+            Pair.of(processorTemplate.getInfo().getMeasuredEntity(), forWhat)));
+    EntityAccumulator existing = entities.putIfAbsent(forWhat, result);
+    if (existing != null) {
+      nrEntities.decrementAndGet();
+      return existing;
+    }
+    return result;
+  }
+
+  private EntityAccumulator getEntity(final Object forWhat) {
+    EntityAccumulator result = entities.get(forWhat);
+    if (result == null) {
+      result = addEntity(forWhat);
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of entities currently tracked by this source.
+   */
+  @JmxExport(description = "number of entities tracked")
+  public int getNrEntities() {
+    return nrEntities.get();
   }
 
   @Override
   public Map<Object, MeasurementAccumulator> getEntitiesMeasurements() {
-    Map<Object, MeasurementAccumulator> result = new HashMap<>();
-
-    synchronized (measurementProcessorMap) {
-      Iterator<Map.Entry<Thread, Map<Object, MeasurementAccumulator>>> iterator
-              = measurementProcessorMap.entrySet().iterator();
-      while (iterator.hasNext()) {
-        Map.Entry<Thread, Map<Object, MeasurementAccumulator>> entry = iterator.next();
-        Map<Object, MeasurementAccumulator> measurements = entry.getValue();
-        synchronized (measurements) {
-          for (Map.Entry<Object, MeasurementAccumulator> lentry : measurements.entrySet()) {
-
-            Object what = lentry.getKey();
-            MeasurementAccumulator existingMeasurement = result.get(what);
-            if (existingMeasurement == null) {
-              existingMeasurement = lentry.getValue().createClone();
-            } else {
-              existingMeasurement = existingMeasurement.aggregate(lentry.getValue().createClone());
-            }
-            result.put(what, existingMeasurement);
-          }
-        }
-      }
+    Map<Object, MeasurementAccumulator> result = new HashMap<>(entities.size() + (entities.size() >> 1));
+    for (Map.Entry<Object, EntityAccumulator> entry : entities.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().accumulator.createClone());
     }
     return result;
   }
@@ -172,42 +221,11 @@ public final class ScalableMeasurementRecorderSource implements
   @Override
   @Nonnull
   public Map<Object, MeasurementAccumulator> getEntitiesMeasurementsAndReset() {
-    Map<Object, MeasurementAccumulator> result = new HashMap<>();
-
-    synchronized (measurementProcessorMap) {
-      Iterator<Map.Entry<Thread, Map<Object, MeasurementAccumulator>>> iterator
-              = measurementProcessorMap.entrySet().iterator();
-      while (iterator.hasNext()) {
-        Map.Entry<Thread, Map<Object, MeasurementAccumulator>> entry = iterator.next();
-        Thread thread = entry.getKey();
-        if (!thread.isAlive()) {
-          iterator.remove();
-        }
-        Map<Object, MeasurementAccumulator> measurements = entry.getValue();
-        synchronized (measurements) {
-          Iterator<Map.Entry<Object, MeasurementAccumulator>> iterator1 = measurements.entrySet().iterator();
-          while (iterator1.hasNext()) {
-            Map.Entry<Object, MeasurementAccumulator> lentry = iterator1.next();
-            Object what = lentry.getKey();
-            MeasurementAccumulator existingMeasurement = result.get(what);
-            if (existingMeasurement == null) {
-              existingMeasurement = lentry.getValue().reset();
-              if (existingMeasurement == null) {
-                iterator1.remove();
-              } else {
-                result.put(what, existingMeasurement);
-              }
-            } else {
-              final MeasurementAccumulator vals = lentry.getValue().reset();
-              if (vals != null) {
-                existingMeasurement = existingMeasurement.aggregate(vals);
-                result.put(what, existingMeasurement);
-              } else {
-                iterator1.remove();
-              }
-            }
-          }
-        }
+    Map<Object, MeasurementAccumulator> result = new HashMap<>(entities.size() + (entities.size() >> 1));
+    for (Map.Entry<Object, EntityAccumulator> entry : entities.entrySet()) {
+      MeasurementAccumulator vals = entry.getValue().accumulator.reset();
+      if (vals != null) {
+        result.put(entry.getKey(), vals);
       }
     }
     return result;
@@ -302,11 +320,39 @@ public final class ScalableMeasurementRecorderSource implements
   }
 
 
+  /**
+   * persist the current measurements now. (used for testing)
+   */
+  void persist() throws IOException {
+    persister.persist(false);
+  }
+
   @JmxExport
   public void clear() {
     getEntitiesMeasurementsAndReset();
   }
 
+  private static final class EntityAccumulator {
+
+    private final MeasurementAccumulator accumulator;
+
+    /**
+     * consecutive persist intervals with no measurements, accessed by the persister only.
+     */
+    private int idleIntervals;
+
+    EntityAccumulator(final MeasurementAccumulator accumulator) {
+      this.accumulator = accumulator;
+      this.idleIntervals = 0;
+    }
+
+    @Override
+    public String toString() {
+      return "EntityAccumulator{" + "accumulator=" + accumulator + ", idleIntervals=" + idleIntervals + '}';
+    }
+
+  }
+
   private class Persister extends AbstractRunnable {
 
     private final MeasurementStore database;
@@ -328,24 +374,29 @@ public final class ScalableMeasurementRecorderSource implements
       persist(true);
     }
 
-    public void persist(final boolean warn) throws IOException {
+    /**
+     * Snapshot, reset and persist every entity, one at a time.
+     * Idle entities are evicted.
+     */
+    public synchronized void persist(final boolean warn) throws IOException {
       long currentTime = System.currentTimeMillis();
       if (currentTime > lastRun) {
         lastRun = currentTime;
-        for (MeasurementAccumulator m
-                : ScalableMeasurementRecorderSource.this.getEntitiesMeasurementsAndReset().values()) {
-          final MeasurementsInfo info = m.getInfo();
-          long tableId;
-          synchronized (tableIds) {
-            tableId = tableIds.get(info);
-            if (tableId == 0) {
-              tableId = database.alocateMeasurements(info, sampleTimeMillis);
-              tableIds.put(info, tableId);
+        for (Map.Entry<Object, EntityAccumulator> entry : entities.entrySet()) {
+          EntityAccumulator ea = entry.getValue();
+          final MeasurementAccumulator m = ea.accumulator.reset();
+          if (m == null) {
+            ea.idleIntervals++;
+            if (idleEvictionIntervals > 0 && ea.idleIntervals >= idleEvictionIntervals
+                    && entities.remove(entry.getKey(), ea)) {
+              nrEntities.decrementAndGet();
             }
+            continue;
           }
-          final long[] data = m.getThenReset();
+          ea.idleIntervals = 0;
+          final long[] data = m.get();
           if (data != null) {
-            database.saveMeasurements(tableId, currentTime, data);
+            database.saveMeasurements(getTableId(m.getInfo()), currentTime, data);
           }
         }
       } else if (warn) {
@@ -353,12 +404,22 @@ public final class ScalableMeasurementRecorderSource implements
                 processor.getInfo(), lastRun, currentTime);
       }
     }
+
+    private long getTableId(final MeasurementsInfo info) throws IOException {
+      synchronized (tableIds) {
+        long tableId = tableIds.get(info);
+        if (tableId == 0) {
+          tableId = database.alocateMeasurements(info, sampleTimeMillis);
+          tableIds.put(info, tableId);
+        }
+        return tableId;
+      }
+    }
   }
 
   @Override
   public String toString() {
-    return "ScalableMeasurementRecorderSource{" + "measurementProcessorMap=" + measurementProcessorMap
-            + ", threadLocalMeasurementProcessorMap=" + threadLocalMeasurementProcessorMap
+    return "ScalableMeasurementRecorderSource{" + "entities=" + entities
             + ", samplingFuture=" + samplingFuture + ", processorTemplate=" + processorTemplate
             + ", tableIds=" + tableIds + ", persister=" + persister + ", shutdownHook=" + shutdownHook + '}';
   }
@@ -66,4 +66,24 @@ public abstract class AbstractMeasurementAccumulator implements MeasurementAccum
         return maxTime;
     }
 
+    /**
+     * replace the min/max sentinels of a interval with counted measurements, this happens when the min/max
+     * of the counted measurements were accounted in the previous interval.
+     * @return {min, max}
+     */
+    static long[] fixMinMax(final long min, final long max, final long count, final long total) {
+        if (min <= max) {
+            return new long[] {min, max};
+        }
+        long rMin = min;
+        long rMax = max;
+        if (rMin == Long.MAX_VALUE) {
+            rMin = rMax == Long.MIN_VALUE ? total / count : rMax;
+        }
+        if (rMax == Long.MIN_VALUE) {
+            rMax = rMin;
+        }
+        return new long[] {rMin, rMax};
+    }
+
 }
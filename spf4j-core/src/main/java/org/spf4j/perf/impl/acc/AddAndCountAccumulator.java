@@ -53,7 +53,7 @@ public final class AddAndCountAccumulator
     private long total;
     private final MeasurementsInfo info;
 
-    private AddAndCountAccumulator(final Object measuredEntity, final String description,
+    AddAndCountAccumulator(final Object measuredEntity, final String description,
             final String unitOfMeasurement, final long counter, final long total) {
         this.info = new MeasurementsInfoImpl(measuredEntity, description,
                 MEASUREMENTS, new String[]{"count", unitOfMeasurement}, AGGS, MeasurementType.SUMMARY);
@@ -101,6 +101,8 @@ public final class AddAndCountAccumulator
             } else {
               return this.createClone();
             }
+        } else if (mSource instanceof ConcurrentAddAndCountAccumulator) {
+            return aggregate(mSource.createClone());
         } else {
             throw new IllegalArgumentException("Cannot aggregate " + this + " with " + mSource);
         }
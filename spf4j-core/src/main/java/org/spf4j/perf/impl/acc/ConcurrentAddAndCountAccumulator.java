@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl.acc;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.perf.MeasurementAccumulator;
+import org.spf4j.perf.MeasurementsInfo;
+import org.spf4j.perf.ScalableMeasurementAccumulator;
+
+/**
+ * A lock free equivalent of AddAndCountAccumulator. (same measurements, snapshots are AddAndCountAccumulator)
+ *
+ * count and total are reset independently, a measurement recorded concurrently with a reset might
+ * have its value accounted in one interval and its count in the next.
+ *
+ * @author zoly
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class ConcurrentAddAndCountAccumulator extends AbstractMeasurementAccumulator
+        implements ScalableMeasurementAccumulator {
+
+  private final AddAndCountAccumulator template;
+
+  private final LongAdder counter;
+
+  private final LongAdder total;
+
+  public ConcurrentAddAndCountAccumulator(final Object measuredEntity, final String description,
+          final String unitOfMeasurement) {
+    this(new AddAndCountAccumulator(measuredEntity, description, unitOfMeasurement));
+  }
+
+  private ConcurrentAddAndCountAccumulator(final AddAndCountAccumulator template) {
+    this.template = template;
+    this.counter = new LongAdder();
+    this.total = new LongAdder();
+  }
+
+  @Override
+  public void record(final long measurement) {
+    total.add(measurement);
+    counter.increment();
+  }
+
+  @Override
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  @Nullable
+  public long[] get() {
+    long count = counter.sum();
+    if (count == 0) {
+      return null;
+    } else {
+      return new long[]{count, total.sum()};
+    }
+  }
+
+  @Override
+  public MeasurementAccumulator aggregate(final MeasurementAccumulator mSource) {
+    return createClone().aggregate(mSource);
+  }
+
+  @Override
+  public AddAndCountAccumulator createClone() {
+    return snapshot(counter.sum(), total.sum());
+  }
+
+  private AddAndCountAccumulator snapshot(final long count, final long tot) {
+    MeasurementsInfo info = template.getInfo();
+    return new AddAndCountAccumulator(info.getMeasuredEntity(), info.getDescription(),
+            template.getUnitOfMeasurement(), count, tot);
+  }
+
+  @Override
+  @Nullable
+  public AddAndCountAccumulator reset() {
+    long count = counter.sumThenReset();
+    if (count == 0) {
+      return null;
+    }
+    return snapshot(count, total.sumThenReset());
+  }
+
+  @Override
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  @Nullable
+  public long[] getThenReset() {
+    long count = counter.sumThenReset();
+    if (count == 0) {
+      return null;
+    }
+    return new long[]{count, total.sumThenReset()};
+  }
+
+  @Override
+  public ConcurrentAddAndCountAccumulator createLike(final Object entity) {
+    return new ConcurrentAddAndCountAccumulator(template.createLike(entity));
+  }
+
+  @Override
+  public MeasurementsInfo getInfo() {
+    return template.getInfo();
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentAddAndCountAccumulator{" + "counter=" + counter + ", total=" + total
+            + ", info=" + template.getInfo() + '}';
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl.acc;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.perf.MeasurementAccumulator;
+import org.spf4j.perf.MeasurementsInfo;
+import org.spf4j.perf.ScalableMeasurementAccumulator;
+
+/**
+ * A lock free equivalent of MinMaxAvgAccumulator. (same measurements, snapshots are MinMaxAvgAccumulator)
+ *
+ * the measurements are reset independently, a measurement recorded concurrently with a reset might
+ * be partially accounted in the next interval. The count is recorded last and read first, and min/max
+ * sentinels left by a concurrent reset are fixed (see AbstractMeasurementAccumulator.fixMinMax),
+ * so that a interval with measurements always has valid min and max values.
+ *
+ * @author zoly
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class ConcurrentMinMaxAvgAccumulator extends AbstractMeasurementAccumulator
+        implements ScalableMeasurementAccumulator {
+
+  private final MinMaxAvgAccumulator template;
+
+  private final LongAdder counter;
+
+  private final LongAdder total;
+
+  private final LongAccumulator min;
+
+  private final LongAccumulator max;
+
+  public ConcurrentMinMaxAvgAccumulator(final Object measuredEntity, final String description,
+          final String unitOfMeasurement) {
+    this(new MinMaxAvgAccumulator(measuredEntity, description, unitOfMeasurement));
+  }
+
+  private ConcurrentMinMaxAvgAccumulator(final MinMaxAvgAccumulator template) {
+    this.template = template;
+    this.counter = new LongAdder();
+    this.total = new LongAdder();
+    this.min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    this.max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+  }
+
+  @Override
+  public void record(final long measurement) {
+    total.add(measurement);
+    min.accumulate(measurement);
+    max.accumulate(measurement);
+    counter.increment();
+  }
+
+  @Override
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  @Nullable
+  public long[] get() {
+    long count = counter.sum();
+    if (count == 0) {
+      return null;
+    } else {
+      long tot = total.sum();
+      long[] minMax = fixMinMax(min.get(), max.get(), count, tot);
+      return new long[]{count, tot, minMax[0], minMax[1]};
+    }
+  }
+
+  @Override
+  public MeasurementAccumulator aggregate(final MeasurementAccumulator mSource) {
+    return createClone().aggregate(mSource);
+  }
+
+  @Override
+  public MinMaxAvgAccumulator createClone() {
+    long count = counter.sum();
+    if (count == 0) {
+      return snapshot(0, 0, Long.MAX_VALUE, Long.MIN_VALUE);
+    }
+    long tot = total.sum();
+    long[] minMax = fixMinMax(min.get(), max.get(), count, tot);
+    return snapshot(count, tot, minMax[0], minMax[1]);
+  }
+
+  private MinMaxAvgAccumulator snapshot(final long count, final long tot, final long mn, final long mx) {
+    MeasurementsInfo info = template.getInfo();
+    return new MinMaxAvgAccumulator(info.getMeasuredEntity(), info.getDescription(),
+            template.getUnitOfMeasurement(), count, tot, mn, mx);
+  }
+
+  @Override
+  @Nullable
+  public MinMaxAvgAccumulator reset() {
+    long count = counter.sumThenReset();
+    if (count == 0) {
+      return null;
+    }
+    long tot = total.sumThenReset();
+    long[] minMax = fixMinMax(min.getThenReset(), max.getThenReset(), count, tot);
+    return snapshot(count, tot, minMax[0], minMax[1]);
+  }
+
+  @Override
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  @Nullable
+  public long[] getThenReset() {
+    long count = counter.sumThenReset();
+    if (count == 0) {
+      return null;
+    }
+    long tot = total.sumThenReset();
+    long[] minMax = fixMinMax(min.getThenReset(), max.getThenReset(), count, tot);
+    return new long[]{count, tot, minMax[0], minMax[1]};
+  }
+
+  @Override
+  public ConcurrentMinMaxAvgAccumulator createLike(final Object entity) {
+    return new ConcurrentMinMaxAvgAccumulator((MinMaxAvgAccumulator) template.createLike(entity));
+  }
+
+  @Override
+  public MeasurementsInfo getInfo() {
+    return template.getInfo();
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentMinMaxAvgAccumulator{" + "counter=" + counter + ", total=" + total + ", min=" + min
+            + ", max=" + max + ", info=" + template.getInfo() + '}';
+  }
+
+}
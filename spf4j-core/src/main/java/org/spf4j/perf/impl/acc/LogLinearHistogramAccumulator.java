@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl.acc;
+
+import com.google.common.primitives.Ints;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import org.spf4j.perf.MeasurementAccumulator;
+import org.spf4j.perf.MeasurementsInfo;
+import org.spf4j.perf.ScalableMeasurementAccumulator;
+import org.spf4j.perf.impl.MeasurementsInfoImpl;
+import org.spf4j.tsdb2.avro.Aggregation;
+import org.spf4j.tsdb2.avro.MeasurementType;
+
+/**
+ * A high dynamic range (HDR) log-linear histogram accumulator.
+ *
+ * Values are recorded into buckets with a relative precision given by the number of significant digits:
+ * the values [0, 2 * 10^digits) are recorded with unit precision, and every subsequent power of 2 range is split
+ * in the same number of linear buckets. (see http://hdrhistogram.org for the concept)
+ * Negative measurements are counted in the lowest bucket, measurements larger than highestTrackableValue are counted
+ * in a overflow bucket.
+ *
+ * Measurements are the scalars: total, count, min, max, p50, p90, p99, p999, followed by the encoded histogram
+ * column (MeasurementsInfo.ENCODED_HISTOGRAM) that spans the rest of the row:
+ * highestTrackableValue, significantDigits, followed by the run length encoded bucket counts: a positive value is the
+ * count of the next bucket, a negative value -n are n empty buckets, trailing empty buckets are omitted.
+ * A mostly empty histogram takes a few values, and stores that cannot persist it (graphite...) get only
+ * the scalar series. The histograms can be merged across accumulators, processes or time intervals
+ * to compute exact (within precision) percentiles (see aggregateRow, TSDBQuery.getPercentiles).
+ * The persisted percentile columns are aggregated as MAX over time, which is a conservative estimate.
+ *
+ * Recording is lock free, and all threads can record into the same instance.
+ *
+ * @author zoly
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class LogLinearHistogramAccumulator extends AbstractMeasurementAccumulator
+        implements ScalableMeasurementAccumulator {
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private static final int PERCENTILES_IDX = 4;
+
+  private static final int HISTOGRAM_IDX = PERCENTILES_IDX + PERCENTILES.length;
+
+  /**
+   * the encoded histogram header: highestTrackableValue, significantDigits.
+   */
+  private static final int HISTOGRAM_HEADER_SIZE = 2;
+
+  private static final String[] PERCENTILES_ITEMS = {"p50", "p90", "p99", "p999", "max"};
+
+  /**
+   * the JMX composite type of the percentile values.
+   */
+  public static final CompositeType PERCENTILES_TYPE;
+
+  static {
+    OpenType<?>[] types = new OpenType[PERCENTILES_ITEMS.length];
+    Arrays.fill(types, SimpleType.LONG);
+    try {
+      PERCENTILES_TYPE = new CompositeType("percentiles", "percentiles",
+              PERCENTILES_ITEMS, PERCENTILES_ITEMS, types);
+    } catch (OpenDataException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final MeasurementsInfo info;
+  private final long highestTrackableValue;
+  private final int significantDigits;
+  private final int subBucketHalfCountMagnitude;
+  private final int subBucketHalfCount;
+  private final long subBucketMask;
+  private final int leadingZeroCountBase;
+  /**
+   * bucket counts, the last bucket is the overflow bucket.
+   */
+  private final AtomicLongArray counts;
+  private final LongAdder count;
+  private final LongAdder total;
+  private final AtomicLong min;
+  private final AtomicLong max;
+
+  /**
+   * Create a log-linear histogram accumulator.
+   * @param measuredEntity - and object representing the thing we accumulate measurements for.
+   * @param description - description of the thing we accumulate measurements for.
+   * @param unitOfMeasurement - unit of measurement.
+   * @param highestTrackableValue - the highest value that will be tracked, larger values go into a overflow bucket.
+   * @param significantDigits - the value precision, [1 - 5].
+   */
+  public LogLinearHistogramAccumulator(final Object measuredEntity, final String description,
+          final String unitOfMeasurement, final long highestTrackableValue, final int significantDigits) {
+    if (significantDigits < 1 || significantDigits > 5) {
+      throw new IllegalArgumentException("significant digits must be between 1 and 5, not " + significantDigits);
+    }
+    if (highestTrackableValue < 2) {
+      throw new IllegalArgumentException("Invalid highest trackable value " + highestTrackableValue);
+    }
+    this.highestTrackableValue = highestTrackableValue;
+    this.significantDigits = significantDigits;
+    long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+    int subBucketCountMagnitude = 64 - Long.numberOfLeadingZeros(largestValueWithSingleUnitResolution - 1);
+    this.subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+    this.subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+    this.subBucketMask = (1L << subBucketCountMagnitude) - 1;
+    this.leadingZeroCountBase = 64 - subBucketCountMagnitude;
+    int nrBuckets = getCountsIndex(highestTrackableValue) + 2;
+    this.counts = new AtomicLongArray(nrBuckets);
+    this.count = new LongAdder();
+    this.total = new LongAdder();
+    this.min = new AtomicLong(Long.MAX_VALUE);
+    this.max = new AtomicLong(Long.MIN_VALUE);
+    int nrm = HISTOGRAM_IDX + 1;
+    String[] names = new String[nrm];
+    String[] uom = new String[nrm];
+    Aggregation[] aggs = new Aggregation[nrm];
+    names[0] = "total";
+    uom[0] = unitOfMeasurement;
+    aggs[0] = Aggregation.SUM;
+    names[1] = "count";
+    uom[1] = "count";
+    aggs[1] = Aggregation.SUM;
+    names[2] = "min";
+    uom[2] = unitOfMeasurement;
+    aggs[2] = Aggregation.MIN;
+    names[3] = "max";
+    uom[3] = unitOfMeasurement;
+    aggs[3] = Aggregation.MAX;
+    for (int i = 0; i < PERCENTILE_NAMES.length; i++) {
+      names[PERCENTILES_IDX + i] = PERCENTILE_NAMES[i];
+      uom[PERCENTILES_IDX + i] = unitOfMeasurement;
+      aggs[PERCENTILES_IDX + i] = Aggregation.MAX;
+    }
+    names[HISTOGRAM_IDX] = MeasurementsInfo.ENCODED_HISTOGRAM;
+    uom[HISTOGRAM_IDX] = "count";
+    aggs[HISTOGRAM_IDX] = Aggregation.SUM;
+    this.info = new MeasurementsInfoImpl(measuredEntity, description, names, uom, aggs, MeasurementType.HISTOGRAM);
+  }
+
+  private LogLinearHistogramAccumulator(final LogLinearHistogramAccumulator from, final MeasurementsInfo info) {
+    this.info = info;
+    this.highestTrackableValue = from.highestTrackableValue;
+    this.significantDigits = from.significantDigits;
+    this.subBucketHalfCountMagnitude = from.subBucketHalfCountMagnitude;
+    this.subBucketHalfCount = from.subBucketHalfCount;
+    this.subBucketMask = from.subBucketMask;
+    this.leadingZeroCountBase = from.leadingZeroCountBase;
+    this.counts = new AtomicLongArray(from.counts.length());
+    this.count = new LongAdder();
+    this.total = new LongAdder();
+    this.min = new AtomicLong(Long.MAX_VALUE);
+    this.max = new AtomicLong(Long.MIN_VALUE);
+  }
+
+  private LogLinearHistogramAccumulator(final LogLinearHistogramAccumulator from,
+          final long pCount, final long pTotal, final long pMin, final long pMax, final long[] pCounts) {
+    this(from, from.info);
+    this.count.add(pCount);
+    this.total.add(pTotal);
+    this.min.set(pMin);
+    this.max.set(pMax);
+    for (int i = 0; i < pCounts.length; i++) {
+      this.counts.set(i, pCounts[i]);
+    }
+  }
+
+  private int getCountsIndex(final long value) {
+    if (value <= 0) {
+      return 0;
+    }
+    if (value > highestTrackableValue) {
+      return counts.length() - 1;
+    }
+    int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+    int subBucketIndex = (int) (value >>> bucketIndex);
+    return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+  }
+
+  private long getLowestValue(final int countsIndex) {
+    int bucketIndex = (countsIndex >> subBucketHalfCountMagnitude) - 1;
+    int subBucketIndex = (countsIndex & (subBucketHalfCount - 1)) + subBucketHalfCount;
+    if (bucketIndex < 0) {
+      subBucketIndex -= subBucketHalfCount;
+      bucketIndex = 0;
+    }
+    return ((long) subBucketIndex) << bucketIndex;
+  }
+
+  private long getHighestValue(final int countsIndex) {
+    int bucketIndex = Math.max(0, (countsIndex >> subBucketHalfCountMagnitude) - 1);
+    return getLowestValue(countsIndex) + (1L << bucketIndex) - 1;
+  }
+
+  @Override
+  public void record(final long measurement) {
+    total.add(measurement);
+    long cmin = min.get();
+    while (measurement < cmin && !min.compareAndSet(cmin, measurement)) {
+      cmin = min.get();
+    }
+    long cmax = max.get();
+    while (measurement > cmax && !max.compareAndSet(cmax, measurement)) {
+      cmax = max.get();
+    }
+    counts.getAndIncrement(getCountsIndex(measurement));
+    // count last, so that a counted measurement always has its min/max visible to the reader.
+    count.increment();
+  }
+
+  /**
+   * @param percentile the percentile to compute [0 - 100].
+   * @return the highest value equivalent (within precision) to the value at the requested percentile,
+   * or 0 if there are no measurements.
+   */
+  public long getValueAtPercentile(final double percentile) {
+    long cnt = count.sum();
+    if (cnt == 0) {
+      return 0;
+    }
+    long[] minMax = fixMinMax(min.get(), max.get(), cnt, total.sum());
+    return getValueAtPercentile(getCounts(), cnt, minMax[0], minMax[1], percentile);
+  }
+
+  private long getValueAtPercentile(final long[] cVals, final long cnt, final long pMin, final long pMax,
+          final double percentile) {
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * cnt));
+    long cumulated = 0;
+    for (int i = 0, l = cVals.length - 1; i < l; i++) {
+      cumulated += cVals[i];
+      if (cumulated >= rank) {
+        return Math.max(pMin, Math.min(getHighestValue(i), pMax));
+      }
+    }
+    return pMax;
+  }
+
+  /**
+   * @return the JMX composite data of the current percentiles, or null if there are no measurements.
+   */
+  @Nullable
+  public CompositeDataSupport getPercentiles() {
+    long[] values = get();
+    if (values == null) {
+      return null;
+    }
+    Object[] pVals = new Object[PERCENTILES.length + 1];
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      pVals[i] = values[PERCENTILES_IDX + i];
+    }
+    pVals[PERCENTILES.length] = values[3];
+    try {
+      return new CompositeDataSupport(PERCENTILES_TYPE, PERCENTILES_ITEMS, pVals);
+    } catch (OpenDataException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private long[] getCounts() {
+    int l = counts.length();
+    long[] cVals = new long[l];
+    for (int i = 0; i < l; i++) {
+      cVals[i] = counts.get(i);
+    }
+    return cVals;
+  }
+
+  @Nullable
+  private LogLinearHistogramAccumulator snapshot(final boolean reset) {
+    long cnt = reset ? count.sumThenReset() : count.sum();
+    if (cnt == 0) {
+      // measurements in flight will be accounted for with their count.
+      return null;
+    }
+    long[] cVals;
+    long tot;
+    long[] minMax;
+    if (reset) {
+      int l = counts.length();
+      cVals = new long[l];
+      for (int i = 0; i < l; i++) {
+        cVals[i] = counts.getAndSet(i, 0);
+      }
+      tot = total.sumThenReset();
+      minMax = fixMinMax(min.getAndSet(Long.MAX_VALUE), max.getAndSet(Long.MIN_VALUE),
+              cnt, tot);
+    } else {
+      cVals = getCounts();
+      tot = total.sum();
+      minMax = fixMinMax(min.get(), max.get(), cnt, tot);
+    }
+    return new LogLinearHistogramAccumulator(this, cnt, tot, minMax[0], minMax[1], cVals);
+  }
+
+  /**
+   * @return total, count, min, max, percentiles, followed by the encoded histogram.
+   */
+  private long[] toRow(final long cnt, final long tot, final long pMin, final long pMax, final long[] cVals) {
+    int last = cVals.length - 1;
+    while (last >= 0 && cVals[last] == 0) {
+      last--;
+    }
+    int encodedSize = 0;
+    for (int i = 0; i <= last; i++) {
+      if (cVals[i] != 0 || i == 0 || cVals[i - 1] != 0) {
+        encodedSize++;
+      }
+    }
+    long[] result = new long[HISTOGRAM_IDX + HISTOGRAM_HEADER_SIZE + encodedSize];
+    result[0] = tot;
+    result[1] = cnt;
+    result[2] = pMin;
+    result[3] = pMax;
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      result[PERCENTILES_IDX + i] = getValueAtPercentile(cVals, cnt, pMin, pMax, PERCENTILES[i]);
+    }
+    int j = HISTOGRAM_IDX;
+    result[j++] = highestTrackableValue;
+    result[j++] = significantDigits;
+    for (int i = 0; i <= last; i++) {
+      long cVal = cVals[i];
+      if (cVal != 0) {
+        result[j++] = cVal;
+      } else if (i > 0 && cVals[i - 1] == 0) {
+        result[j - 1]--;
+      } else {
+        result[j++] = -1;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  @Nullable
+  public long[] get() {
+    long cnt = count.sum();
+    if (cnt == 0) {
+      return null;
+    }
+    long tot = total.sum();
+    long[] minMax = fixMinMax(min.get(), max.get(), cnt, tot);
+    return toRow(cnt, tot, minMax[0], minMax[1], getCounts());
+  }
+
+  @Override
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  @Nullable
+  public long[] getThenReset() {
+    LogLinearHistogramAccumulator result = snapshot(true);
+    return result == null ? null : result.get();
+  }
+
+  @Override
+  @Nullable
+  public LogLinearHistogramAccumulator reset() {
+    return snapshot(true);
+  }
+
+  @Override
+  public LogLinearHistogramAccumulator createClone() {
+    LogLinearHistogramAccumulator result = snapshot(false);
+    return result == null ? new LogLinearHistogramAccumulator(this, info) : result;
+  }
+
+  @Override
+  public MeasurementAccumulator aggregate(final MeasurementAccumulator mSource) {
+    if (!(mSource instanceof LogLinearHistogramAccumulator)) {
+      throw new IllegalArgumentException("Cannot aggregate " + this + " with " + mSource);
+    }
+    LogLinearHistogramAccumulator other = (LogLinearHistogramAccumulator) mSource;
+    if (other.highestTrackableValue != highestTrackableValue || other.significantDigits != significantDigits) {
+      throw new IllegalArgumentException("Incompatible histograms " + this + " and " + mSource);
+    }
+    LogLinearHistogramAccumulator result = createClone();
+    LogLinearHistogramAccumulator oVals = other.snapshot(false);
+    if (oVals != null) {
+      result.add(oVals.count.sum(), oVals.total.sum(), oVals.min.get(), oVals.max.get(), oVals.getCounts());
+    }
+    return result;
+  }
+
+  /**
+   * Add a histogram row (as returned by get or getThenReset) to this accumulator.
+   * @param row the histogram row.
+   * @throws IllegalArgumentException if the row is not a valid histogram row of a histogram with the same
+   * highestTrackableValue and significantDigits.
+   */
+  public void aggregateRow(final long[] row) {
+    if (row.length < HISTOGRAM_IDX + HISTOGRAM_HEADER_SIZE || row[HISTOGRAM_IDX] != highestTrackableValue
+            || row[HISTOGRAM_IDX + 1] != significantDigits) {
+      throw new IllegalArgumentException("Incompatible histogram row " + Arrays.toString(row) + " for " + this);
+    }
+    long[] cVals = new long[counts.length()];
+    int b = 0;
+    for (int j = HISTOGRAM_IDX + HISTOGRAM_HEADER_SIZE; j < row.length; j++) {
+      long val = row[j];
+      if (val >= 0 && b < cVals.length) {
+        cVals[b++] = val;
+      } else if (val < 0 && val >= b - cVals.length) {
+        b -= val;
+      } else {
+        throw new IllegalArgumentException("Invalid histogram row " + Arrays.toString(row) + " for " + this);
+      }
+    }
+    add(row[1], row[0], row[2], row[3], cVals);
+  }
+
+  private void add(final long cnt, final long tot, final long pMin, final long pMax, final long[] cVals) {
+    total.add(tot);
+    long cmin = min.get();
+    while (pMin < cmin && !min.compareAndSet(cmin, pMin)) {
+      cmin = min.get();
+    }
+    long cmax = max.get();
+    while (pMax > cmax && !max.compareAndSet(cmax, pMax)) {
+      cmax = max.get();
+    }
+    for (int i = 0; i < cVals.length; i++) {
+      long cVal = cVals[i];
+      if (cVal != 0) {
+        counts.getAndAdd(i, cVal);
+      }
+    }
+    count.add(cnt);
+  }
+
+  /**
+   * Create a histogram accumulator from a histogram row. (as returned by get or getThenReset)
+   * @param measuredEntity - and object representing the thing we accumulate measurements for.
+   * @param description - description of the thing we accumulate measurements for.
+   * @param unitOfMeasurement - unit of measurement.
+   * @param row the histogram row.
+   * @return the accumulator with the row measurements.
+   * @throws IllegalArgumentException if the row is not a valid histogram row.
+   */
+  public static LogLinearHistogramAccumulator fromRow(final Object measuredEntity, final String description,
+          final String unitOfMeasurement, final long[] row) {
+    if (row.length < HISTOGRAM_IDX + HISTOGRAM_HEADER_SIZE) {
+      throw new IllegalArgumentException("Not a histogram row " + Arrays.toString(row));
+    }
+    LogLinearHistogramAccumulator result = new LogLinearHistogramAccumulator(measuredEntity, description,
+            unitOfMeasurement, row[HISTOGRAM_IDX], Ints.checkedCast(row[HISTOGRAM_IDX + 1]));
+    result.aggregateRow(row);
+    return result;
+  }
+
+  @Override
+  public LogLinearHistogramAccumulator createLike(final Object entity) {
+    return new LogLinearHistogramAccumulator(this, new MeasurementsInfoImpl(entity, info.getDescription(),
+            info.getMeasurementNames(), info.getMeasurementUnits(), info.getAggregations(),
+            info.getMeasurementType()));
+  }
+
+  @Override
+  public MeasurementsInfo getInfo() {
+    return info;
+  }
+
+  public long getHighestTrackableValue() {
+    return highestTrackableValue;
+  }
+
+  public int getSignificantDigits() {
+    return significantDigits;
+  }
+
+  public int getNrBuckets() {
+    return counts.length();
+  }
+
+  @Override
+  public String toString() {
+    return "LogLinearHistogramAccumulator{" + "info=" + info + ", highestTrackableValue=" + highestTrackableValue
+            + ", significantDigits=" + significantDigits + ", count=" + count + ", total=" + total
+            + ", min=" + min + ", max=" + max + '}';
+  }
+
+}
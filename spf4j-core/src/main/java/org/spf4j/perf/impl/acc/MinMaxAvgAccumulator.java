@@ -55,7 +55,7 @@ public final class MinMaxAvgAccumulator
     private long max;
     private final MeasurementsInfo info;
 
-    private MinMaxAvgAccumulator(final Object measuredEntity, final String description, final String unitOfMeasurement,
+    MinMaxAvgAccumulator(final Object measuredEntity, final String description, final String unitOfMeasurement,
             final long counter, final long total, final long min, final long max) {
         this.info = new MeasurementsInfoImpl(measuredEntity, description,
                 MEASUREMENTS, new String[] {"count", unitOfMeasurement, unitOfMeasurement, unitOfMeasurement},
@@ -116,6 +116,8 @@ public final class MinMaxAvgAccumulator
             } else {
                 return this.createClone();
             }
+        } else if (mSource instanceof ConcurrentMinMaxAvgAccumulator) {
+            return aggregate(mSource.createClone());
         } else {
            throw new IllegalArgumentException("Cannot aggregate " + this + " with " + mSource);
         }
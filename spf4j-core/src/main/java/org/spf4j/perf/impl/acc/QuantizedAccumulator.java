@@ -263,6 +263,20 @@ public final class QuantizedAccumulator extends AbstractMeasurementAccumulator {
     this.info = info;
   }
 
+  /**
+   * create a accumulator with the same configuration as this one, and the provided state.
+   */
+  QuantizedAccumulator createFrom(final long pMinMeasurement, final long pMaxMeasurement,
+          final long pMeasurementCount, final long pMeasurementTotal, final long[] pQuatizedMeasurements) {
+    return new QuantizedAccumulator(info, factor, lowerMagnitude, higherMagnitude,
+            pMinMeasurement, pMaxMeasurement, pMeasurementCount, pMeasurementTotal,
+            quantasPerMagnitude, bucketLimits, pQuatizedMeasurements);
+  }
+
+  long[] getBucketLimits() {
+    return bucketLimits;
+  }
+
   public String getUnitOfMeasurement() {
     return info.getMeasurementUnit(0);
   }
@@ -328,7 +342,9 @@ public final class QuantizedAccumulator extends AbstractMeasurementAccumulator {
   @Override
   @SuppressFBWarnings("NOS_NON_OWNED_SYNCHRONIZATION")
   public MeasurementAccumulator aggregate(final MeasurementAccumulator mSource) {
-
+    if (mSource instanceof StripedQuantizedAccumulator) {
+      return aggregate(mSource.createClone());
+    }
     if (mSource instanceof QuantizedAccumulator) {
       QuantizedAccumulator other = (QuantizedAccumulator) mSource;
       long[] quantizedM;
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl.acc;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.perf.MeasurementAccumulator;
+import org.spf4j.perf.MeasurementsInfo;
+import org.spf4j.perf.ScalableMeasurementAccumulator;
+
+/**
+ * A lock free quantized accumulator, that produces the same measurements as QuantizedAccumulator.
+ *
+ * Measurements are recorded into a fixed number of stripes (a power of 2, by default the smallest one
+ * &gt;= 2 * nr processors, configurable via spf4j.perf.acc.nrStripes), a recording thread is mapped to a stripe
+ * based on its id. Memory used is bounded, independent of the number of recording threads.
+ *
+ * getThenReset/reset atomically read and reset every counter, so no measurement is lost or counted twice.
+ * A measurement recorded concurrently with a reset can have its count and its bucket accounted for in
+ * different intervals. The count is recorded last and read first, a interval with a non zero count
+ * whose min/max were accounted for in the previous interval reports the available min/max (or the mean).
+ *
+ * @author zoly
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class StripedQuantizedAccumulator extends AbstractMeasurementAccumulator
+        implements ScalableMeasurementAccumulator {
+
+  private static final int DEFAULT_NR_STRIPES = Integer.getInteger("spf4j.perf.acc.nrStripes",
+          org.spf4j.base.Runtime.NR_PROCESSORS * 2);
+
+  private static final int COUNT = 0;
+
+  private static final int TOTAL = 1;
+
+  private static final int MIN = 2;
+
+  private static final int MAX = 3;
+
+  private static final int BUCKETS = 4;
+
+  /**
+   * stripe tail padding (in longs), to avoid false sharing between stripes.
+   */
+  private static final int PADDING = 8;
+
+  private final QuantizedAccumulator template;
+
+  private final long[] bucketLimits;
+
+  private final int nrBuckets;
+
+  private final AtomicLongArray[] stripes;
+
+  private final int stripeMask;
+
+  /**
+   * Create a striped quantized accumulator.
+   * see QuantizedAccumulator for the parameter details.
+   */
+  public StripedQuantizedAccumulator(final Object measuredEntity,
+          final String description,
+          final String unitOfMeasurement,
+          final int factor, final int lowerMagnitude,
+          final int higherMagnitude, final int quantasPerMagnitude) {
+    this(new QuantizedAccumulator(measuredEntity, description, unitOfMeasurement,
+            factor, lowerMagnitude, higherMagnitude, quantasPerMagnitude), DEFAULT_NR_STRIPES);
+  }
+
+  /**
+   * Create a striped quantized accumulator with a explicit number of stripes.
+   * (useful when a lot of accumulators are created, to limit the memory footprint)
+   */
+  public StripedQuantizedAccumulator(final Object measuredEntity,
+          final String description,
+          final String unitOfMeasurement,
+          final int factor, final int lowerMagnitude,
+          final int higherMagnitude, final int quantasPerMagnitude, final int nrStripes) {
+    this(new QuantizedAccumulator(measuredEntity, description, unitOfMeasurement,
+            factor, lowerMagnitude, higherMagnitude, quantasPerMagnitude), nrStripes);
+  }
+
+  StripedQuantizedAccumulator(final QuantizedAccumulator template, final int nrStripes) {
+    if (nrStripes < 1) {
+      throw new IllegalArgumentException("Invalid number of stripes " + nrStripes);
+    }
+    this.template = template;
+    this.bucketLimits = template.getBucketLimits();
+    this.nrBuckets = bucketLimits.length + 1;
+    int nrS = Integer.highestOneBit(nrStripes);
+    if (nrS < nrStripes) {
+      nrS <<= 1;
+    }
+    this.stripes = new AtomicLongArray[nrS];
+    this.stripeMask = nrS - 1;
+    for (int i = 0; i < nrS; i++) {
+      AtomicLongArray stripe = new AtomicLongArray(BUCKETS + nrBuckets + PADDING);
+      stripe.set(MIN, Long.MAX_VALUE);
+      stripe.set(MAX, Long.MIN_VALUE);
+      stripes[i] = stripe;
+    }
+  }
+
+  private AtomicLongArray getStripe() {
+    long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+    return stripes[(int) (id >>> 32) & stripeMask];
+  }
+
+  @Override
+  public void record(final long measurement) {
+    AtomicLongArray stripe = getStripe();
+    stripe.getAndAdd(TOTAL, measurement);
+    long min = stripe.get(MIN);
+    while (measurement < min && !stripe.compareAndSet(MIN, min, measurement)) {
+      min = stripe.get(MIN);
+    }
+    long max = stripe.get(MAX);
+    while (measurement > max && !stripe.compareAndSet(MAX, max, measurement)) {
+      max = stripe.get(MAX);
+    }
+    stripe.getAndIncrement(BUCKETS + QuantizedAccumulator.findBucket(bucketLimits, measurement));
+    // count last, so that a counted measurement always has its min/max visible to the reader.
+    stripe.getAndIncrement(COUNT);
+  }
+
+  /**
+   * sum up the stripes.
+   * @param reset if true, the counters are reset while being read.
+   * @return the accumulated state, or null if there are no measurements.
+   */
+  @Nullable
+  private QuantizedAccumulator sum(final boolean reset) {
+    long count = 0;
+    for (AtomicLongArray stripe : stripes) {
+      count += reset ? stripe.getAndSet(COUNT, 0) : stripe.get(COUNT);
+    }
+    if (count == 0) {
+      // measurements in flight will be accounted for with their count.
+      return null;
+    }
+    long total = 0;
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    long[] buckets = new long[nrBuckets];
+    for (AtomicLongArray stripe : stripes) {
+      if (reset) {
+        total += stripe.getAndSet(TOTAL, 0);
+        min = Math.min(min, stripe.getAndSet(MIN, Long.MAX_VALUE));
+        max = Math.max(max, stripe.getAndSet(MAX, Long.MIN_VALUE));
+        for (int i = 0; i < nrBuckets; i++) {
+          buckets[i] += stripe.getAndSet(BUCKETS + i, 0);
+        }
+      } else {
+        total += stripe.get(TOTAL);
+        min = Math.min(min, stripe.get(MIN));
+        max = Math.max(max, stripe.get(MAX));
+        for (int i = 0; i < nrBuckets; i++) {
+          buckets[i] += stripe.get(BUCKETS + i);
+        }
+      }
+    }
+    long[] minMax = fixMinMax(min, max, count, total);
+    return template.createFrom(minMax[0], minMax[1], count, total, buckets);
+  }
+
+  @Override
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  @Nullable
+  public long[] get() {
+    QuantizedAccumulator result = sum(false);
+    return result == null ? null : result.get();
+  }
+
+  @Override
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  @Nullable
+  public long[] getThenReset() {
+    QuantizedAccumulator result = sum(true);
+    return result == null ? null : result.get();
+  }
+
+  @Override
+  @Nullable
+  public QuantizedAccumulator reset() {
+    return sum(true);
+  }
+
+  @Override
+  public QuantizedAccumulator createClone() {
+    QuantizedAccumulator result = sum(false);
+    return result == null ? template.createClone() : result;
+  }
+
+  @Override
+  public MeasurementAccumulator aggregate(final MeasurementAccumulator mSource) {
+    return createClone().aggregate(mSource);
+  }
+
+  @Override
+  public StripedQuantizedAccumulator createLike(final Object entity) {
+    return new StripedQuantizedAccumulator((QuantizedAccumulator) template.createLike(entity), stripes.length);
+  }
+
+  @Override
+  public MeasurementsInfo getInfo() {
+    return template.getInfo();
+  }
+
+  public int getNrStripes() {
+    return stripes.length;
+  }
+
+  @Override
+  public String toString() {
+    return "StripedQuantizedAccumulator{" + "nrStripes=" + stripes.length + ", state=" + createClone() + '}';
+  }
+
+}
@@ -201,7 +201,8 @@ public final class GraphiteTcpStore implements MeasurementStore {
     @Override
     @Nullable
     public Void handle(final Writer socketWriter, final long deadline) throws IOException {
-      for (int i = 0; i < measurements.length; i++) {
+      // a encoded histogram is not a graphite series.
+      for (int i = 0, l = measurementInfo.getNumberOfScalarMeasurements(); i < l; i++) {
         writeMetric(measurementInfo, measurementInfo.getMeasurementName(i),
                 measurements[i], timeStampMillis, socketWriter);
       }
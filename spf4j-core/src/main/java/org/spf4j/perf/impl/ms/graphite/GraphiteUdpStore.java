@@ -227,7 +227,8 @@ public final class GraphiteUdpStore implements MeasurementStore {
         int msgEnd = 0;
         int prevEnd = 0;
 
-        for (int i = 0; i < measurements.length; i++) {
+        // a encoded histogram is not a graphite series.
+        for (int i = 0, l = measurementInfo.getNumberOfScalarMeasurements(); i < l; i++) {
           writeMetric(measurementInfo, measurementInfo.getMeasurementName(i),
                   measurements[i], timeStampMillis, os);
           os.flush();
@@ -36,6 +36,7 @@ import org.spf4j.perf.MeasurementStore;
 import java.io.File;
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.concurrent.ThreadSafe;
 import org.spf4j.jmx.JmxExport;
 import org.spf4j.perf.MeasurementStoreQuery;
@@ -85,6 +86,31 @@ public final class TSDBMeasurementStore
     database.flush();
   }
 
+  @JmxExport(description = "tsdb durability mode")
+  public String getDurability() {
+    return database.getDurability().toString();
+  }
+
+  @JmxExport(description = "total number of bytes written")
+  public long getBytesWritten() {
+    return database.getBytesWritten();
+  }
+
+  @JmxExport(description = "number of times data has been forced to disk")
+  public long getSyncCount() {
+    return database.getSyncCount();
+  }
+
+  @JmxExport(description = "total time spent forcing data to disk in microseconds")
+  public long getSyncTimeMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(database.getSyncTimeNanos());
+  }
+
+  @JmxExport(description = "the longest time a force of data to disk took in microseconds")
+  public long getMaxSyncTimeMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(database.getMaxSyncTimeNanos());
+  }
+
   @JmxExport(description = "list all tables")
   public String[] getTables() throws IOException {
     final Set<String> metrics = TSDBQuery.getAllTables(database.getFile()).keySet();
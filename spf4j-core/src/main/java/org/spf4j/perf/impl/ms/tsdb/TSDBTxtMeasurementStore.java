@@ -87,7 +87,8 @@ public final class TSDBTxtMeasurementStore
       Csv.writeCsvElement(groupName, writer);
       writer.write(',');
       writer.write(Long.toString(timeStampMillis));
-      for (int i = 0; i < measurements.length; i++) {
+      // a encoded histogram is not written as text.
+      for (int i = 0, l = measurementInfo.getNumberOfScalarMeasurements(); i < l; i++) {
         String measurementName = measurementInfo.getMeasurementName(i);
         writer.write(',');
         Csv.writeCsvElement(measurementName, writer);
@@ -219,7 +219,7 @@ public final class Converter {
     }
   }
 
-  private static OutputStream newOutputStream(final File file) throws IOException {
+  static OutputStream newOutputStream(final File file) throws IOException {
     OutputStream result = new BufferedOutputStream(
             Files.newOutputStream(file.toPath()));
     if (file.getName().endsWith(".gz")) {
@@ -346,7 +346,7 @@ public final class Converter {
     }
   }
 
-  private static InputStream newInputStream(final File file) throws IOException {
+  static InputStream newInputStream(final File file) throws IOException {
     InputStream result =  new BufferedInputStream(Files.newInputStream(file.toPath()));
     if (file.getName().endsWith(".gz")) {
       try {
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ssdump2;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.spf4j.base.SysExits;
+import org.spf4j.base.avro.Method;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * Merges (aggregates) stack sample dumps (ssdump2, ssdump3, ssdump4 optionally gzipped) into a ssdump4 file.
+ *
+ * ssdump4 inputs are merged with a streaming k-way merge (labels and sibling nodes are sorted in ssdump4),
+ * memory used is proportional to the number of inputs and tree depth, not to the tree sizes.
+ * ssdump2/ssdump3 inputs are converted to temporary ssdump4 files first, one at a time.
+ * When there are more than maxFanIn inputs, they are merged in multiple passes, to limit the number of open files.
+ *
+ * usage: DumpMerger -o output.ssdump4[.gz] input1 input2 ... (folders will include all dump files in them)
+ *
+ * @author zoly
+ */
+@ParametersAreNonnullByDefault
+public final class DumpMerger {
+
+  private static final int DEFAULT_MAX_FAN_IN = Integer.getInteger("spf4j.ssdump.merge.maxFanIn", 64);
+
+  private static class Options {
+
+    @Option(name = "-o", usage = "output ssdump4 file, will be compressed if it ends with .gz", required = true)
+    private File output;
+
+    @Option(name = "-fanIn", usage = "maximum number of files to merge in one pass")
+    private int maxFanIn = DEFAULT_MAX_FAN_IN;
+
+    @Argument(usage = "input files or folders", required = true)
+    private List<File> inputs = new ArrayList<>();
+  }
+
+  private DumpMerger() { }
+
+  @SuppressWarnings("checkstyle:regexp")
+  public static void main(final String[] args) throws IOException {
+    Options options = new Options();
+    CmdLineParser parser = new CmdLineParser(options);
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println("Error: " + e.getMessage() + "\nUsage:");
+      parser.printUsage(System.err);
+      System.exit(SysExits.EX_USAGE.exitCode());
+    }
+    List<File> inputs = new ArrayList<>(options.inputs.size());
+    for (File input : options.inputs) {
+      if (input.isDirectory()) {
+        File[] files = input.listFiles(DumpMerger::isDumpFile);
+        if (files != null) {
+          Arrays.sort(files);
+          inputs.addAll(Arrays.asList(files));
+        }
+      } else {
+        inputs.add(input);
+      }
+    }
+    merge(inputs, options.output, options.maxFanIn);
+    System.exit(SysExits.OK.exitCode());
+  }
+
+  public static boolean isDumpFile(final File file) {
+    String name = stripGz(file.getName());
+    return name.endsWith(".ssdump2") || name.endsWith(".ssdump3") || name.endsWith(SampleTreeWriter.EXTENSION);
+  }
+
+  private static String stripGz(final String fileName) {
+    return fileName.endsWith(".gz") ? fileName.substring(0, fileName.length() - 3) : fileName;
+  }
+
+  private static boolean isSsdump4(final File file) {
+    return stripGz(file.getName()).endsWith(SampleTreeWriter.EXTENSION);
+  }
+
+  public static void merge(final List<File> inputs, final File output) throws IOException {
+    merge(inputs, output, DEFAULT_MAX_FAN_IN);
+  }
+
+  /**
+   * Merge dump files.
+   * @param inputs the dump files to merge.
+   * @param output the ssdump4 destination file.
+   * @param maxFanIn the maximum number of files to merge in one pass.
+   */
+  @SuppressFBWarnings("PATH_TRAVERSAL_IN")
+  public static void merge(final List<File> inputs, final File output, final int maxFanIn) throws IOException {
+    if (maxFanIn < 2) {
+      throw new IllegalArgumentException("Invalid fan in " + maxFanIn);
+    }
+    File tmpFolder = Files.createTempDirectory("spf4j-ssdump-merge").toFile();
+    try {
+      List<File> files = inputs;
+      int pass = 0;
+      while (files.size() > maxFanIn) {
+        List<File> next = new ArrayList<>(files.size() / maxFanIn + 1);
+        for (int i = 0, l = files.size(); i < l; i += maxFanIn) {
+          File passOutput = new File(tmpFolder, "pass" + pass + '_' + i + SampleTreeWriter.EXTENSION);
+          mergeBatch(files.subList(i, Math.min(l, i + maxFanIn)), passOutput, tmpFolder);
+          next.add(passOutput);
+        }
+        if (pass > 0) {
+          deleteAll(files);
+        }
+        files = next;
+        pass++;
+      }
+      mergeBatch(files, output, tmpFolder);
+      if (pass > 0) {
+        deleteAll(files);
+      }
+    } finally {
+      File[] remaining = tmpFolder.listFiles();
+      if (remaining != null) {
+        deleteAll(Arrays.asList(remaining));
+      }
+      Files.delete(tmpFolder.toPath());
+    }
+  }
+
+  private static void deleteAll(final List<File> files) throws IOException {
+    for (File file : files) {
+      Files.deleteIfExists(file.toPath());
+    }
+  }
+
+  private static void mergeBatch(final List<File> inputs, final File output, final File tmpFolder)
+          throws IOException {
+    List<File> converted = new ArrayList<>(inputs.size());
+    List<File> toMerge = new ArrayList<>(inputs.size());
+    try {
+      for (File input : inputs) {
+        if (isSsdump4(input)) {
+          toMerge.add(input);
+        } else {
+          File tmp = File.createTempFile("conv", SampleTreeWriter.EXTENSION, tmpFolder);
+          converted.add(tmp);
+          toSsdump4(input, tmp);
+          toMerge.add(tmp);
+        }
+      }
+      mergeSsdump4(toMerge, output);
+    } finally {
+      deleteAll(converted);
+    }
+  }
+
+  /**
+   * Convert a ssdump2 or ssdump3 file to ssdump4.
+   */
+  public static void toSsdump4(final File input, final File output) throws IOException {
+    String name = stripGz(input.getName());
+    Map<String, SampleNode> trees;
+    if (name.endsWith(".ssdump2")) {
+      SampleNode tree = Converter.load(input);
+      trees = tree == null ? Collections.emptyMap()
+              : Collections.singletonMap(Converter.getLabelFromSsdump2FileName(name), tree);
+    } else if (name.endsWith(".ssdump3")) {
+      trees = Converter.loadLabeledDumps(input);
+    } else {
+      throw new IllegalArgumentException("Unsupported dump file " + input);
+    }
+    try (SampleTreeWriter writer = SampleTreeWriter.create(output)) {
+      writer.write(trees);
+    }
+  }
+
+  /**
+   * Streaming k-way merge of ssdump4 files.
+   */
+  public static void mergeSsdump4(final List<File> inputs, final File output) throws IOException {
+    int k = inputs.size();
+    SampleTreeReader[] readers = new SampleTreeReader[k];
+    try {
+      for (int i = 0; i < k; i++) {
+        readers[i] = SampleTreeReader.open(inputs.get(i));
+      }
+      try (SampleTreeWriter writer = SampleTreeWriter.create(output)) {
+        String[] labels = new String[k];
+        for (int i = 0; i < k; i++) {
+          labels[i] = readers[i].nextLabel();
+        }
+        while (true) {
+          String label = null;
+          for (String l : labels) {
+            if (l != null && (label == null || l.compareTo(label) < 0)) {
+              label = l;
+            }
+          }
+          if (label == null) {
+            break;
+          }
+          int[] group = new int[k];
+          int n = 0;
+          for (int i = 0; i < k; i++) {
+            if (label.equals(labels[i])) {
+              group[n++] = i;
+            }
+          }
+          group = Arrays.copyOf(group, n);
+          mergeTree(readers, group, label, writer);
+          for (int i : group) {
+            labels[i] = readers[i].nextLabel();
+          }
+        }
+      }
+    } finally {
+      IOException ex = null;
+      for (SampleTreeReader reader : readers) {
+        if (reader != null) {
+          try {
+            reader.close();
+          } catch (IOException e) {
+            if (ex == null) {
+              ex = e;
+            } else {
+              ex.addSuppressed(e);
+            }
+          }
+        }
+      }
+      if (ex != null) {
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * Merge the current label trees of the readers in group.
+   * The group stack mirrors the path to the current node, heads holds the current child of every reader.
+   */
+  private static void mergeTree(final SampleTreeReader[] readers, final int[] group, final String label,
+          final SampleTreeWriter writer) throws IOException {
+    Method[] heads = new Method[readers.length];
+    writer.startLabel(label);
+    writer.startNode(null, readCounts(readers, group));
+    advance(readers, group, heads);
+    Deque<int[]> stack = new ArrayDeque<>();
+    stack.push(group);
+    while (!stack.isEmpty()) {
+      int[] current = stack.peek();
+      Method min = minHead(current, heads);
+      if (min == null) {
+        writer.endNode();
+        stack.pop();
+        if (!stack.isEmpty()) {
+          advance(readers, current, heads);
+        }
+      } else {
+        int[] childGroup = new int[current.length];
+        int n = 0;
+        for (int r : current) {
+          Method head = heads[r];
+          if (head != null && SampleTreeWriter.METHOD_ORDER.compare(head, min) == 0) {
+            childGroup[n++] = r;
+          }
+        }
+        childGroup = Arrays.copyOf(childGroup, n);
+        writer.startNode(min, readCounts(readers, childGroup));
+        advance(readers, childGroup, heads);
+        stack.push(childGroup);
+      }
+    }
+  }
+
+  @Nullable
+  private static Method minHead(final int[] group, final Method[] heads) {
+    Method min = null;
+    for (int r : group) {
+      Method head = heads[r];
+      if (head != null && (min == null || SampleTreeWriter.METHOD_ORDER.compare(head, min) < 0)) {
+        min = head;
+      }
+    }
+    return min;
+  }
+
+  private static int readCounts(final SampleTreeReader[] readers, final int[] group) throws IOException {
+    int count = 0;
+    for (int r : group) {
+      count = Math.addExact(count, readers[r].readCount());
+    }
+    return count;
+  }
+
+  private static void advance(final SampleTreeReader[] readers, final int[] group, final Method[] heads)
+          throws IOException {
+    for (int r : group) {
+      heads[r] = readers[r].nextChild();
+    }
+  }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ssdump2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.spf4j.base.avro.Method;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * Streaming (pull) reader for the ssdump4 format, see SampleTreeWriter for the format.
+ *
+ * usage:
+ * <pre>
+ * String label;
+ * while ((label = reader.nextLabel()) != null) {
+ *   int rootCount = reader.readCount();
+ *   Method m;
+ *   while ((m = reader.nextChild()) != null) {
+ *     int count = reader.readCount();
+ *     ... nextChild() on the child, until null ...
+ *   }
+ * }
+ * </pre>
+ * or use readTree to materialize a labeled tree.
+ *
+ * @author zoly
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class SampleTreeReader implements Closeable {
+
+  private final InputStream is;
+
+  private final BinaryDecoder decoder;
+
+  private final List<Method> methods;
+
+  private long labelsInBlock;
+
+  private boolean eof;
+
+  /**
+   * remaining children in the current avro block, for every depth.
+   */
+  private long[] remaining;
+
+  /**
+   * depth of the current node, -1 when not reading a tree.
+   */
+  private int depth;
+
+  /**
+   * depth at which readCount is expected next, -2 if readCount is not expected.
+   */
+  private int expectCount;
+
+  public SampleTreeReader(final InputStream is) throws IOException {
+    this.is = is;
+    this.decoder = DecoderFactory.get().binaryDecoder(is, null);
+    byte[] magic = new byte[SampleTreeWriter.MAGIC.length];
+    decoder.readFixed(magic);
+    if (!Arrays.equals(magic, SampleTreeWriter.MAGIC)) {
+      throw new IOException("Not a ssdump4 stream, magic = " + Arrays.toString(magic));
+    }
+    int version = decoder.readInt();
+    if (version != SampleTreeWriter.VERSION) {
+      throw new IOException("Unsupported ssdump4 version " + version);
+    }
+    this.methods = new ArrayList<>(1024);
+    this.labelsInBlock = 0;
+    this.eof = false;
+    this.remaining = new long[64];
+    this.depth = -1;
+    this.expectCount = -2;
+  }
+
+  public static SampleTreeReader open(final File file) throws IOException {
+    InputStream is = Converter.newInputStream(file);
+    try {
+      return new SampleTreeReader(is);
+    } catch (IOException | RuntimeException ex) {
+      is.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Load all labeled trees from a ssdump4 file.
+   */
+  public static Map<String, SampleNode> load(final File file) throws IOException {
+    try (SampleTreeReader reader = open(file)) {
+      return reader.readAll();
+    }
+  }
+
+  /**
+   * Read all the remaining labeled trees.
+   */
+  public Map<String, SampleNode> readAll() throws IOException {
+    Map<String, SampleNode> result = new HashMap<>(4);
+    String label;
+    while ((label = nextLabel()) != null) {
+      result.put(label, readTree());
+    }
+    return result;
+  }
+
+  /**
+   * Advance to the next label, the remaining nodes of the current label (if any) are skipped.
+   * @return the next label, or null if there are no more labels.
+   */
+  @Nullable
+  public String nextLabel() throws IOException {
+    if (eof) {
+      return null;
+    }
+    if (depth >= 0 || expectCount == 0) {
+      skipTree();
+    }
+    if (labelsInBlock == 0) {
+      labelsInBlock = decoder.readLong();
+      if (labelsInBlock == 0) {
+        eof = true;
+        return null;
+      }
+    }
+    labelsInBlock--;
+    String label = decoder.readString();
+    expectCount = 0;
+    return label;
+  }
+
+  /**
+   * Read the sample count of the node we just entered. (the root after nextLabel, or a child after nextChild)
+   */
+  public int readCount() throws IOException {
+    if (expectCount != depth + 1) {
+      throw new IllegalStateException("Not at a node start " + this);
+    }
+    depth++;
+    if (depth == remaining.length) {
+      remaining = Arrays.copyOf(remaining, depth << 1);
+    }
+    remaining[depth] = 0;
+    expectCount = -2;
+    return decoder.readInt();
+  }
+
+  /**
+   * @return the method of the next child of the current node (to be followed by readCount),
+   * or null if there are no more children, in which case the parent becomes the current node.
+   */
+  @Nullable
+  public Method nextChild() throws IOException {
+    if (depth < 0 || expectCount != -2) {
+      throw new IllegalStateException("Not in a node " + this);
+    }
+    if (remaining[depth] == 0) {
+      remaining[depth] = decoder.readLong();
+      if (remaining[depth] == 0) {
+        depth--;
+        return null;
+      }
+    }
+    remaining[depth]--;
+    expectCount = depth + 1;
+    return readMethod();
+  }
+
+  private Method readMethod() throws IOException {
+    int id = decoder.readInt();
+    if (id == SampleTreeWriter.NEW_METHOD) {
+      Method m = new Method(decoder.readString(), decoder.readString());
+      methods.add(m);
+      return m;
+    } else {
+      return methods.get(id);
+    }
+  }
+
+  /**
+   * read the current labeled tree. (must be invoked right after nextLabel)
+   */
+  public SampleNode readTree() throws IOException {
+    SampleNode root = new SampleNode(readCount());
+    Deque<SampleNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      Method m = nextChild();
+      if (m == null) {
+        stack.pop();
+      } else {
+        SampleNode child = new SampleNode(readCount());
+        stack.peek().put(m, child);
+        stack.push(child);
+      }
+    }
+    return root;
+  }
+
+  private void skipTree() throws IOException {
+    if (expectCount >= 0) {
+      readCount();
+    }
+    while (depth >= 0) {
+      if (nextChild() != null) {
+        readCount();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    is.close();
+  }
+
+  @Override
+  public String toString() {
+    return "SampleTreeReader{" + "depth=" + depth + ", expectCount=" + expectCount
+            + ", nrMethods=" + methods.size() + ", eof=" + eof + '}';
+  }
+
+}
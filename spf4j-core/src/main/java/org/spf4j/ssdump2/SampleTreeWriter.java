@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ssdump2;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.spf4j.base.avro.Method;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * Streaming writer for the ssdump4 format.
+ *
+ * An ssdump4 file contains labeled sample trees (same content as ssdump3), serialized depth first with
+ * methods dictionary encoded (a method is written once per file, and referred to by id afterwards).
+ * Labels are written in ascending order and sibling nodes in METHOD_ORDER order,
+ * this makes it possible to merge several files in a single streaming pass (see DumpMerger).
+ *
+ * Format (avro binary encoding):
+ * <pre>
+ * file  := MAGIC version:int (1:long label:string node)* 0:long
+ * node  := count:int (1:long methodRef child:node)* 0:long
+ * methodRef := id:int (for id &gt;= 0) | -1:int declaringClass:string name:string (the method gets the next id)
+ * </pre>
+ *
+ * @author zoly
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class SampleTreeWriter implements Closeable {
+
+  public static final String EXTENSION = ".ssdump4";
+
+  static final byte[] MAGIC = {'S', 'S', 'D', '4'};
+
+  static final int VERSION = 1;
+
+  static final int NEW_METHOD = -1;
+
+  /**
+   * Sibling node order.
+   */
+  public static final Comparator<Method> METHOD_ORDER = Comparator.comparing(Method::getDeclaringClass)
+          .thenComparing(Method::getName);
+
+  private final OutputStream os;
+
+  private final BinaryEncoder encoder;
+
+  private final TObjectIntMap<Method> methodIds;
+
+  @Nullable
+  private String lastLabel;
+
+  /**
+   * depth of the current node, -1 means no label started.
+   */
+  private int depth;
+
+  public SampleTreeWriter(final OutputStream os) throws IOException {
+    this.os = os;
+    this.encoder = EncoderFactory.get().binaryEncoder(os, null);
+    this.methodIds = new TObjectIntHashMap<>(1024, 0.5f, NEW_METHOD);
+    this.lastLabel = null;
+    this.depth = -1;
+    encoder.writeFixed(MAGIC);
+    encoder.writeInt(VERSION);
+  }
+
+  /**
+   * Create a writer for a file, the file will be gzipped if its name ends with .gz.
+   */
+  public static SampleTreeWriter create(final File file) throws IOException {
+    OutputStream os = Converter.newOutputStream(file);
+    try {
+      return new SampleTreeWriter(os);
+    } catch (IOException | RuntimeException ex) {
+      os.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Write a label and its sample tree.
+   */
+  public void write(final String label, final SampleNode tree) throws IOException {
+    startLabel(label);
+    startNode(null, tree.getSampleCount());
+    Deque<Iterator<Map.Entry<Method, SampleNode>>> stack = new ArrayDeque<>();
+    stack.push(sortedChildren(tree));
+    while (!stack.isEmpty()) {
+      Iterator<Map.Entry<Method, SampleNode>> children = stack.peek();
+      if (children.hasNext()) {
+        Map.Entry<Method, SampleNode> child = children.next();
+        SampleNode node = child.getValue();
+        startNode(child.getKey(), node.getSampleCount());
+        stack.push(sortedChildren(node));
+      } else {
+        endNode();
+        stack.pop();
+      }
+    }
+  }
+
+  /**
+   * Write all labeled trees, in label order.
+   */
+  public void write(final Map<String, SampleNode> trees) throws IOException {
+    List<Map.Entry<String, SampleNode>> entries = new ArrayList<>(trees.entrySet());
+    entries.sort(Map.Entry.comparingByKey());
+    for (Map.Entry<String, SampleNode> entry : entries) {
+      SampleNode tree = entry.getValue();
+      if (tree != null) {
+        write(entry.getKey(), tree);
+      }
+    }
+  }
+
+  private static Iterator<Map.Entry<Method, SampleNode>> sortedChildren(final SampleNode node) {
+    Map<Method, SampleNode> subNodes = node.getSubNodes();
+    if (subNodes == null || subNodes.isEmpty()) {
+      return Collections.emptyIterator();
+    }
+    List<Map.Entry<Method, SampleNode>> children = new ArrayList<>(subNodes.entrySet());
+    children.sort(Map.Entry.comparingByKey(METHOD_ORDER));
+    return children.iterator();
+  }
+
+  /**
+   * Start a new labeled tree, must be followed by the root node.
+   * @param label the label, must be greater than the previously written label.
+   */
+  public void startLabel(final String label) throws IOException {
+    if (depth >= 0) {
+      throw new IllegalStateException("Label " + lastLabel + " not finished");
+    }
+    if (lastLabel != null && lastLabel.compareTo(label) >= 0) {
+      throw new IllegalArgumentException("Labels must be written in order, " + label + " after " + lastLabel);
+    }
+    encoder.writeLong(1);
+    encoder.writeString(label);
+    lastLabel = label;
+  }
+
+  /**
+   * Start a node. Every node must be ended with endNode, after its children have been written.
+   * Siblings must be written in METHOD_ORDER order.
+   * @param method the method of the node, null for the root node.
+   * @param count the sample count.
+   */
+  public void startNode(@Nullable final Method method, final int count) throws IOException {
+    if (method == null) {
+      if (depth >= 0) {
+        throw new IllegalStateException("Method required for non root nodes");
+      }
+    } else {
+      if (depth < 0) {
+        throw new IllegalStateException("Root node must have no method " + method);
+      }
+      encoder.writeLong(1);
+      writeMethod(method);
+    }
+    encoder.writeInt(count);
+    depth++;
+  }
+
+  public void endNode() throws IOException {
+    if (depth < 0) {
+      throw new IllegalStateException("No node to end");
+    }
+    encoder.writeLong(0);
+    depth--;
+  }
+
+  private void writeMethod(final Method method) throws IOException {
+    int id = methodIds.get(method);
+    if (id == NEW_METHOD) {
+      encoder.writeInt(NEW_METHOD);
+      encoder.writeString(method.getDeclaringClass());
+      encoder.writeString(method.getName());
+      methodIds.put(method, methodIds.size());
+    } else {
+      encoder.writeInt(id);
+    }
+  }
+
+  /**
+   * Ends the file, and closes the underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (depth >= 0) {
+        throw new IllegalStateException("Label " + lastLabel + " not finished, depth = " + depth);
+      }
+      encoder.writeLong(0);
+      encoder.flush();
+    } finally {
+      os.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SampleTreeWriter{" + "lastLabel=" + lastLabel + ", depth=" + depth
+            + ", nrMethods=" + methodIds.size() + '}';
+  }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+/**
+ * A sampler that can sample a random subset of threads and weight the collected samples,
+ * used by the Sampler adaptive mode to keep the sampling overhead under a budget.
+ *
+ * @author zoly
+ */
+public interface AdaptiveSampler extends ISampler {
+
+  int getMaxNrSampledThreads();
+
+  /**
+   * @param maxNrSampledThreads the maximum number of threads to sample at every tick.
+   */
+  void setMaxNrSampledThreads(int maxNrSampledThreads);
+
+  /**
+   * @return the number of threads that were candidates for sampling at the last tick.
+   */
+  int getLastNrThreads();
+
+  /**
+   * @return the number of threads sampled at the last tick.
+   */
+  int getLastNrSampledThreads();
+
+  /**
+   * Set the sample weight. When the weight is positive, every collected sample will count for
+   * weight * nrThreads / nrSampledThreads samples (stochastically rounded), so that profiles collected
+   * with different sampling intervals and thread subsets remain comparable.
+   *
+   * @param weight the sampling interval / base sampling interval; 0 disables weighting.
+   */
+  void setSampleWeight(double weight);
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Computes the sampling interval and the number of threads to sample at every tick,
+ * to keep the sampling overhead (sampling time / sampling interval) under a budget.
+ *
+ * The cost per sampled thread is tracked as a exponential moving average. When sampling all threads at
+ * the base interval is over budget, the number of sampled threads is reduced first (down to minThreads),
+ * and after that the interval is increased (up to maxIntervalNanos).
+ *
+ * @author zoly
+ */
+@NotThreadSafe
+final class AdaptiveSamplingPolicy {
+
+  private static final double ALPHA = 0.2;
+
+  private final double overheadBudget;
+
+  private final long baseIntervalNanos;
+
+  private final long maxIntervalNanos;
+
+  private final int minThreads;
+
+  private final int maxThreads;
+
+  private double costPerThreadNanos;
+
+  private long intervalNanos;
+
+  private int threadBudget;
+
+  /**
+   * @param overheadBudget the sampling overhead budget (0.01 = 1%).
+   * @param baseIntervalNanos the sampling interval to use when within budget.
+   * @param maxIntervalNanos the maximum sampling interval.
+   * @param minThreads the minimum number of threads to sample at every tick.
+   * @param maxThreads the maximum number of threads to sample at every tick.
+   */
+  AdaptiveSamplingPolicy(final double overheadBudget, final long baseIntervalNanos, final long maxIntervalNanos,
+          final int minThreads, final int maxThreads) {
+    if (overheadBudget <= 0 || overheadBudget >= 1) {
+      throw new IllegalArgumentException("Invalid overhead budget " + overheadBudget);
+    }
+    if (baseIntervalNanos <= 0 || maxIntervalNanos < baseIntervalNanos) {
+      throw new IllegalArgumentException("Invalid intervals " + baseIntervalNanos + ", " + maxIntervalNanos);
+    }
+    this.overheadBudget = overheadBudget;
+    this.baseIntervalNanos = baseIntervalNanos;
+    this.maxIntervalNanos = maxIntervalNanos;
+    this.maxThreads = Math.max(1, maxThreads);
+    this.minThreads = Math.max(1, Math.min(minThreads, this.maxThreads));
+    this.costPerThreadNanos = -1;
+    this.intervalNanos = baseIntervalNanos;
+    this.threadBudget = this.maxThreads;
+  }
+
+  /**
+   * update the policy with the cost of the last sampling tick.
+   * @param costNanos the time it took to sample.
+   * @param nrSampledThreads the number of threads sampled.
+   * @param nrThreads the number of threads that were candidates for sampling.
+   */
+  void update(final long costNanos, final int nrSampledThreads, final int nrThreads) {
+    double cost = (double) costNanos / Math.max(1, nrSampledThreads);
+    if (costPerThreadNanos < 0) {
+      costPerThreadNanos = cost;
+    } else {
+      costPerThreadNanos = ALPHA * cost + (1 - ALPHA) * costPerThreadNanos;
+    }
+    int wantedThreads = Math.max(1, Math.min(nrThreads, maxThreads));
+    double allowedCost = overheadBudget * baseIntervalNanos;
+    if (wantedThreads * costPerThreadNanos <= allowedCost) {
+      threadBudget = maxThreads;
+      intervalNanos = baseIntervalNanos;
+    } else {
+      int threads = Math.max(minThreads, (int) (allowedCost / costPerThreadNanos));
+      threadBudget = Math.min(threads, maxThreads);
+      long interval = (long) (threadBudget * costPerThreadNanos / overheadBudget);
+      intervalNanos = Math.max(baseIntervalNanos, Math.min(maxIntervalNanos, interval));
+    }
+  }
+
+  long getIntervalNanos() {
+    return intervalNanos;
+  }
+
+  int getThreadBudget() {
+    return threadBudget;
+  }
+
+  /**
+   * @return the weight of the samples for the current interval.
+   */
+  double getIntervalWeight() {
+    return (double) intervalNanos / baseIntervalNanos;
+  }
+
+  double getOverheadBudget() {
+    return overheadBudget;
+  }
+
+  @Override
+  public String toString() {
+    return "AdaptiveSamplingPolicy{" + "overheadBudget=" + overheadBudget + ", baseIntervalNanos="
+            + baseIntervalNanos + ", costPerThreadNanos=" + costPerThreadNanos + ", intervalNanos=" + intervalNanos
+            + ", threadBudget=" + threadBudget + '}';
+  }
+
+}
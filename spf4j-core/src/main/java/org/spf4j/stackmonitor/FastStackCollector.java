@@ -39,6 +39,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Predicate;
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -53,11 +54,16 @@ import org.spf4j.base.Threads;
  * @author zoly
  */
 @ParametersAreNonnullByDefault
-public final class FastStackCollector implements ISampler {
+public final class FastStackCollector implements AdaptiveSampler {
 
   private static final int DEFAULT_MAX_NR_SAMPLED_THREADS
           = Integer.getInteger("spf4j.stackCollector.maxSampledThreads", 128);
 
+  /**
+   * when true, samples are collected into a TrieStackCollector (int interned frames, flat trie).
+   */
+  private static final boolean USE_TRIE_COLLECTOR = Boolean.getBoolean("spf4j.stackCollector.trie");
+
   private static final String[] IGNORED_THREADS = {
     "Finalizer",
     "Signal Dispatcher",
@@ -73,7 +79,13 @@ public final class FastStackCollector implements ISampler {
 
   private Thread[] requestFor = new Thread[]{};
 
-  private final int maxNrSampledThreads;
+  private volatile int maxNrSampledThreads;
+
+  private volatile double sampleWeight;
+
+  private int lastNrThreads;
+
+  private int lastNrSampledThreads;
 
   public FastStackCollector(final boolean collectForMain, final String... xtraIgnoredThreads) {
     this(false, collectForMain, xtraIgnoredThreads);
@@ -97,9 +109,20 @@ public final class FastStackCollector implements ISampler {
    * @param threadFilter when returns true the thread is being ignored
    */
   public FastStackCollector(final Predicate<Thread> threadFilter, final int maxNrSampledThreads) {
+    this(threadFilter, maxNrSampledThreads,
+            USE_TRIE_COLLECTOR ? new TrieStackCollector() : new StackCollectorImpl());
+  }
+
+  /**
+   * @param threadFilter when returns true the thread is being ignored
+   * @param collector the collector to aggregate the samples into.
+   */
+  public FastStackCollector(final Predicate<Thread> threadFilter, final int maxNrSampledThreads,
+          final StackCollector collector) {
     this.threadFilter = threadFilter;
-    this.collector = new StackCollectorImpl();
+    this.collector = collector;
     this.maxNrSampledThreads = maxNrSampledThreads;
+    this.sampleWeight = 0;
   }
 
   public static Predicate<Thread> createNameBasedFilter(final boolean collectRunnableThreadsOnly,
@@ -150,6 +173,7 @@ public final class FastStackCollector implements ISampler {
   @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
   public void sample() {
     Thread[] threads = Threads.getThreads();
+    final int totalNrThreads = threads.length;
     final int nrThreads = Threads.randomFirst(maxNrSampledThreads, threads);
     if (requestFor.length < nrThreads) {
       requestFor = new Thread[nrThreads];
@@ -164,18 +188,70 @@ public final class FastStackCollector implements ISampler {
     }
     Arrays.fill(requestFor, j, requestFor.length, null);
     StackTraceElement[][] stackDump = Threads.getStackTraces(requestFor);
+    lastNrThreads = totalNrThreads;
+    lastNrSampledThreads = nrThreads;
+    double weight = sampleWeight;
+    if (weight > 0 && nrThreads > 0) {
+      weight = weight * totalNrThreads / nrThreads;
+    }
     for (int i = 0; i < j; i++) {
       StackTraceElement[] stackTrace = stackDump[i];
-      if (stackTrace != null && stackTrace.length > 0) {
+      if (stackTrace == null || stackTrace.length == 0) {
+        stackTrace = new StackTraceElement[]{
+          new StackTraceElement("Thread", requestFor[i].getName(), "", 0)
+        };
+      }
+      if (weight <= 0) {
         collector.collect(stackTrace);
       } else {
-        collector.collect(new StackTraceElement[]{
-          new StackTraceElement("Thread", requestFor[i].getName(), "", 0)
-        });
+        int count = weightedCount(weight);
+        if (count > 0) {
+          collector.collect(stackTrace, count);
+        }
       }
     }
   }
 
+  /**
+   * stochastic rounding, so that the expected value of the count is the weight.
+   */
+  private static int weightedCount(final double weight) {
+    int count = (int) weight;
+    double fraction = weight - count;
+    if (fraction > 0 && ThreadLocalRandom.current().nextDouble() < fraction) {
+      count++;
+    }
+    return count;
+  }
+
+  @Override
+  public int getMaxNrSampledThreads() {
+    return maxNrSampledThreads;
+  }
+
+  @Override
+  public void setMaxNrSampledThreads(final int maxNrSampledThreads) {
+    if (maxNrSampledThreads < 1) {
+      throw new IllegalArgumentException("Invalid max number of sampled threads " + maxNrSampledThreads);
+    }
+    this.maxNrSampledThreads = maxNrSampledThreads;
+  }
+
+  @Override
+  public int getLastNrThreads() {
+    return lastNrThreads;
+  }
+
+  @Override
+  public int getLastNrSampledThreads() {
+    return lastNrSampledThreads;
+  }
+
+  @Override
+  public void setSampleWeight(final double weight) {
+    this.sampleWeight = weight;
+  }
+
   @Override
   public Map<String, SampleNode> getCollectionsAndReset() {
     SampleNode nodes = collector.getAndReset();
@@ -204,7 +280,8 @@ public final class FastStackCollector implements ISampler {
 
   @Override
   public String toString() {
-    return "FastStackCollector{" + "threadFilter=" + threadFilter + ", collector=" + collector + '}';
+    return "FastStackCollector{" + "threadFilter=" + threadFilter + ", maxNrSampledThreads=" + maxNrSampledThreads
+            + ", sampleWeight=" + sampleWeight + ", collector=" + collector + '}';
   }
 
 }
\ No newline at end of file
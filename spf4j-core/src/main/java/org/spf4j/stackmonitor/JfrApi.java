@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import org.spf4j.base.UncheckedExecutionException;
+
+/**
+ * The subset of the JDK Flight Recorder API (jdk.jfr) used by JfrStackSampler, accessed via method handles.
+ *
+ * spf4j targets java 1.8, and the jdk.jfr API is available only in JDK 11+ and 8u262+, so it cannot be linked
+ * against directly. JFR objects are passed around as Object, the method handles are resolved only when
+ * isAvailable() is true, on first use.
+ *
+ * @author zoly
+ */
+final class JfrApi {
+
+  private static final boolean AVAILABLE = checkAvailable();
+
+  private JfrApi() { }
+
+  private static boolean checkAvailable() {
+    try {
+      Class.forName("jdk.jfr.consumer.RecordingFile");
+      return (Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isAvailable").invoke(null);
+    } catch (ReflectiveOperationException | LinkageError ex) {
+      Logger.getLogger(JfrApi.class.getName()).log(Level.FINE, "JFR not available", ex);
+      return false;
+    }
+  }
+
+  /**
+   * @return true if the JFR recording and consumer APIs are available in this JVM.
+   */
+  static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  private static final class Handles {
+
+    private static final MethodHandle NEW_RECORDING;
+    private static final MethodHandle SET_NAME;
+    private static final MethodHandle ENABLE;
+    private static final MethodHandle WITH_PERIOD;
+    private static final MethodHandle WITH_STACK_TRACE;
+    private static final MethodHandle SET_TO_DISK;
+    private static final MethodHandle START;
+    private static final MethodHandle STOP;
+    private static final MethodHandle DUMP;
+    private static final MethodHandle CLOSE;
+    private static final MethodHandle NEW_RECORDING_FILE;
+    private static final MethodHandle HAS_MORE_EVENTS;
+    private static final MethodHandle READ_EVENT;
+    private static final MethodHandle CLOSE_RECORDING_FILE;
+    private static final MethodHandle GET_EVENT_TYPE;
+    private static final MethodHandle GET_EVENT_TYPE_NAME;
+    private static final MethodHandle GET_START_TIME;
+    private static final MethodHandle GET_THREAD;
+    private static final MethodHandle GET_JAVA_THREAD_ID;
+    private static final MethodHandle GET_JAVA_NAME;
+    private static final MethodHandle GET_STACK_TRACE;
+    private static final MethodHandle GET_FRAMES;
+    private static final MethodHandle GET_METHOD;
+    private static final MethodHandle GET_TYPE;
+    private static final MethodHandle GET_CLASS_NAME;
+    private static final MethodHandle GET_METHOD_NAME;
+
+    static {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      try {
+        Class<?> recording = Class.forName("jdk.jfr.Recording");
+        Class<?> eventSettings = Class.forName("jdk.jfr.EventSettings");
+        Class<?> eventType = Class.forName("jdk.jfr.EventType");
+        Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+        Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        Class<?> recordedThread = Class.forName("jdk.jfr.consumer.RecordedThread");
+        Class<?> recordedStackTrace = Class.forName("jdk.jfr.consumer.RecordedStackTrace");
+        Class<?> recordedFrame = Class.forName("jdk.jfr.consumer.RecordedFrame");
+        Class<?> recordedMethod = Class.forName("jdk.jfr.consumer.RecordedMethod");
+        Class<?> recordedClass = Class.forName("jdk.jfr.consumer.RecordedClass");
+        NEW_RECORDING = lookup.findConstructor(recording, MethodType.methodType(void.class));
+        SET_NAME = lookup.findVirtual(recording, "setName", MethodType.methodType(void.class, String.class));
+        ENABLE = lookup.findVirtual(recording, "enable", MethodType.methodType(eventSettings, String.class));
+        WITH_PERIOD = lookup.findVirtual(eventSettings, "withPeriod",
+                MethodType.methodType(eventSettings, Duration.class));
+        WITH_STACK_TRACE = lookup.findVirtual(eventSettings, "withStackTrace", MethodType.methodType(eventSettings));
+        SET_TO_DISK = lookup.findVirtual(recording, "setToDisk", MethodType.methodType(void.class, boolean.class));
+        START = lookup.findVirtual(recording, "start", MethodType.methodType(void.class));
+        STOP = lookup.findVirtual(recording, "stop", MethodType.methodType(boolean.class));
+        DUMP = lookup.findVirtual(recording, "dump", MethodType.methodType(void.class, Path.class));
+        CLOSE = lookup.findVirtual(recording, "close", MethodType.methodType(void.class));
+        NEW_RECORDING_FILE = lookup.findConstructor(recordingFile, MethodType.methodType(void.class, Path.class));
+        HAS_MORE_EVENTS = lookup.findVirtual(recordingFile, "hasMoreEvents", MethodType.methodType(boolean.class));
+        READ_EVENT = lookup.findVirtual(recordingFile, "readEvent", MethodType.methodType(recordedEvent));
+        CLOSE_RECORDING_FILE = lookup.findVirtual(recordingFile, "close", MethodType.methodType(void.class));
+        GET_EVENT_TYPE = lookup.findVirtual(recordedEvent, "getEventType", MethodType.methodType(eventType));
+        GET_EVENT_TYPE_NAME = lookup.findVirtual(eventType, "getName", MethodType.methodType(String.class));
+        GET_START_TIME = lookup.findVirtual(recordedEvent, "getStartTime", MethodType.methodType(Instant.class));
+        GET_THREAD = lookup.findVirtual(recordedEvent, "getThread",
+                MethodType.methodType(recordedThread, String.class));
+        GET_JAVA_THREAD_ID = lookup.findVirtual(recordedThread, "getJavaThreadId",
+                MethodType.methodType(long.class));
+        GET_JAVA_NAME = lookup.findVirtual(recordedThread, "getJavaName", MethodType.methodType(String.class));
+        GET_STACK_TRACE = lookup.findVirtual(recordedEvent, "getStackTrace",
+                MethodType.methodType(recordedStackTrace));
+        GET_FRAMES = lookup.findVirtual(recordedStackTrace, "getFrames", MethodType.methodType(List.class));
+        GET_METHOD = lookup.findVirtual(recordedFrame, "getMethod", MethodType.methodType(recordedMethod));
+        GET_TYPE = lookup.findVirtual(recordedMethod, "getType", MethodType.methodType(recordedClass));
+        GET_CLASS_NAME = lookup.findVirtual(recordedClass, "getName", MethodType.methodType(String.class));
+        GET_METHOD_NAME = lookup.findVirtual(recordedMethod, "getName", MethodType.methodType(String.class));
+      } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException ex) {
+        throw new ExceptionInInitializerError(ex);
+      }
+    }
+
+    private Handles() { }
+  }
+
+  private static RuntimeException propagate(final Throwable ex) {
+    if (ex instanceof RuntimeException) {
+      return (RuntimeException) ex;
+    } else if (ex instanceof Error) {
+      throw (Error) ex;
+    } else {
+      return new UncheckedExecutionException(ex);
+    }
+  }
+
+  /**
+   * Create and start a disk recording with the provided event enabled, with stack traces.
+   * @return the started jdk.jfr.Recording.
+   */
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static Object startRecording(final String name, final String eventName, final Duration period) {
+    try {
+      Object rec = Handles.NEW_RECORDING.invoke();
+      Handles.SET_NAME.invoke(rec, name);
+      Handles.WITH_STACK_TRACE.invoke(Handles.WITH_PERIOD.invoke(Handles.ENABLE.invoke(rec, eventName), period));
+      Handles.SET_TO_DISK.invoke(rec, true);
+      Handles.START.invoke(rec);
+      return rec;
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static void stop(final Object recording) {
+    try {
+      Handles.STOP.invoke(recording);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  static void dump(final Object recording, final Path file) throws IOException {
+    try {
+      Handles.DUMP.invoke(recording, file);
+    } catch (IOException | RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new UncheckedExecutionException(ex);
+    }
+  }
+
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static void close(final Object recording) {
+    try {
+      Handles.CLOSE.invoke(recording);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  /**
+   * @return a jdk.jfr.consumer.RecordingFile, to be closed with closeRecordingFile.
+   */
+  static Object openRecordingFile(final Path file) throws IOException {
+    try {
+      return Handles.NEW_RECORDING_FILE.invoke(file);
+    } catch (IOException | RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new UncheckedExecutionException(ex);
+    }
+  }
+
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static boolean hasMoreEvents(final Object recordingFile) {
+    try {
+      return (boolean) Handles.HAS_MORE_EVENTS.invoke(recordingFile);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  /**
+   * @return the next jdk.jfr.consumer.RecordedEvent.
+   */
+  static Object readEvent(final Object recordingFile) throws IOException {
+    try {
+      return Handles.READ_EVENT.invoke(recordingFile);
+    } catch (IOException | RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new UncheckedExecutionException(ex);
+    }
+  }
+
+  static void closeRecordingFile(final Object recordingFile) throws IOException {
+    try {
+      Handles.CLOSE_RECORDING_FILE.invoke(recordingFile);
+    } catch (IOException | RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new UncheckedExecutionException(ex);
+    }
+  }
+
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static String getEventTypeName(final Object event) {
+    try {
+      return (String) Handles.GET_EVENT_TYPE_NAME.invoke(Handles.GET_EVENT_TYPE.invoke(event));
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static Instant getStartTime(final Object event) {
+    try {
+      return (Instant) Handles.GET_START_TIME.invoke(event);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  /**
+   * @return the jdk.jfr.consumer.RecordedThread of the event field.
+   */
+  @Nullable
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static Object getThread(final Object event, final String field) {
+    try {
+      return Handles.GET_THREAD.invoke(event, field);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static long getJavaThreadId(final Object thread) {
+    try {
+      return (long) Handles.GET_JAVA_THREAD_ID.invoke(thread);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static String getJavaName(final Object thread) {
+    try {
+      return (String) Handles.GET_JAVA_NAME.invoke(thread);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  /**
+   * @return the stack frames (jdk.jfr.consumer.RecordedFrame) of the event, null if the event has no stack trace.
+   */
+  @Nullable
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static List<?> getFrames(final Object event) {
+    try {
+      Object st = Handles.GET_STACK_TRACE.invoke(event);
+      return st == null ? null : (List<?>) Handles.GET_FRAMES.invoke(st);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+  /**
+   * @return the stack trace element of a jdk.jfr.consumer.RecordedFrame. (no file and line information)
+   */
+  @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CHECKED")
+  static StackTraceElement toStackTraceElement(final Object frame) {
+    try {
+      Object method = Handles.GET_METHOD.invoke(frame);
+      return new StackTraceElement((String) Handles.GET_CLASS_NAME.invoke(Handles.GET_TYPE.invoke(method)),
+              (String) Handles.GET_METHOD_NAME.invoke(method), null, -1);
+    } catch (Throwable ex) {
+      throw propagate(ex);
+    }
+  }
+
+}
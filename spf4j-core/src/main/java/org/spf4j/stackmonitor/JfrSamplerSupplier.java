@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Supplier of JfrStackSampler instances.
+ *
+ * usage: new Sampler(JfrSamplerSupplier.orFallback(10, 1000));
+ *
+ * @author zoly
+ */
+@Immutable
+public final class JfrSamplerSupplier implements SamplerSupplier {
+
+  private static final int DEFAULT_ROTATION_MILLIS = Integer.getInteger("spf4j.sampler.jfr.rotationMillis", 1000);
+
+  private final int samplePeriodMillis;
+
+  private final int rotationMillis;
+
+  public JfrSamplerSupplier(final int samplePeriodMillis) {
+    this(samplePeriodMillis, Math.max(samplePeriodMillis, DEFAULT_ROTATION_MILLIS));
+  }
+
+  public JfrSamplerSupplier(final int samplePeriodMillis, final int rotationMillis) {
+    this.samplePeriodMillis = samplePeriodMillis;
+    this.rotationMillis = rotationMillis;
+  }
+
+  /**
+   * @return true if the JFR recording and consumer APIs are available in this JVM.
+   */
+  public static boolean isAvailable() {
+    return JfrApi.isAvailable();
+  }
+
+  /**
+   * @return a JFR sampler supplier if JFR is available, otherwise a FastStackCollector supplier.
+   */
+  public static SamplerSupplier orFallback(final int samplePeriodMillis, final int rotationMillis) {
+    if (JfrApi.isAvailable()) {
+      return new JfrSamplerSupplier(samplePeriodMillis, rotationMillis);
+    } else {
+      return (t) -> new FastStackCollector(false, true, new Thread[]{t});
+    }
+  }
+
+  @Override
+  public ISampler get(final Thread samplingThread) {
+    return new JfrStackSampler(samplingThread, samplePeriodMillis, rotationMillis);
+  }
+
+  @Override
+  public String toString() {
+    return "JfrSamplerSupplier{" + "samplePeriodMillis=" + samplePeriodMillis
+            + ", rotationMillis=" + rotationMillis + '}';
+  }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import com.google.common.collect.ImmutableMap;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.spf4j.base.TimeSource;
+
+/**
+ * A sampler that aggregates the JDK Flight Recorder jdk.ExecutionSample events.
+ *
+ * JFR samples threads asynchronously (no global safepoint, no stack trace objects created) so unlike
+ * FastStackCollector, the sampling overhead does not scale with the number of threads.
+ * Samples are read from a local recording that is periodically rotated, and aggregated into the same
+ * SampleNode trees the other samplers produce, so ssdump files and the UI work unchanged.
+ *
+ * Requires a JVM with a JFR consumer API (JDK 11+, 8u262+), use JfrSamplerSupplier.isAvailable to check.
+ * The JFR API is accessed via reflection (see JfrApi), spf4j-core builds and runs on JVMs without JFR.
+ * This sampler must be closed to stop the underlying recording, the Sampler will do that when stopped.
+ *
+ * @author zoly
+ */
+@NotThreadSafe
+@ParametersAreNonnullByDefault
+public final class JfrStackSampler implements ISampler, AutoCloseable {
+
+  public static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+
+  private static final Logger LOG = Logger.getLogger(JfrStackSampler.class.getName());
+
+  private final StackCollector collector;
+
+  private final long samplingThreadId;
+
+  private final Duration samplePeriod;
+
+  private final long rotationNanos;
+
+  /**
+   * the current jdk.jfr.Recording.
+   */
+  @Nullable
+  private Object recording;
+
+  private long lastRotationNanos;
+
+  /**
+   * events with start time up to this instant have been already aggregated,
+   * (rotated recordings overlap a bit).
+   */
+  private Instant aggregatedUpTo;
+
+  /**
+   * @param samplingThread thread that will be excluded from sampling (the thread that parses the recordings).
+   * @param samplePeriodMillis the JFR execution sample period.
+   * @param rotationMillis how often to read the samples from JFR.
+   */
+  public JfrStackSampler(final Thread samplingThread, final int samplePeriodMillis, final int rotationMillis) {
+    if (!JfrApi.isAvailable()) {
+      throw new UnsupportedOperationException("JFR is not available in this JVM");
+    }
+    if (samplePeriodMillis < 1) {
+      throw new IllegalArgumentException("Invalid sample period " + samplePeriodMillis);
+    }
+    if (rotationMillis < samplePeriodMillis) {
+      throw new IllegalArgumentException("Invalid rotation interval " + rotationMillis
+              + " must be >= the sample period " + samplePeriodMillis);
+    }
+    this.collector = new TrieStackCollector();
+    this.samplingThreadId = samplingThread.getId();
+    this.samplePeriod = Duration.ofMillis(samplePeriodMillis);
+    this.rotationNanos = TimeUnit.MILLISECONDS.toNanos(rotationMillis);
+    this.aggregatedUpTo = Instant.MIN;
+    this.recording = startRecording();
+    this.lastRotationNanos = TimeSource.nanoTime();
+  }
+
+  private Object startRecording() {
+    return JfrApi.startRecording("spf4j-sampler", EXECUTION_SAMPLE, samplePeriod);
+  }
+
+  /**
+   * Will read the samples out of the recording if the rotation interval elapsed.
+   */
+  @Override
+  public void sample() {
+    if (recording != null && TimeSource.nanoTime() - lastRotationNanos >= rotationNanos) {
+      rotate();
+    }
+  }
+
+  /**
+   * Replace the current recording with a new one, and aggregate the samples from the current one.
+   * The new recording is started before the current one is stopped, so that no samples are missed.
+   */
+  private void rotate() {
+    Object current = recording;
+    if (current == null) {
+      return;
+    }
+    recording = startRecording();
+    lastRotationNanos = TimeSource.nanoTime();
+    aggregate(current);
+  }
+
+  private void aggregate(final Object rec) {
+    try {
+      JfrApi.stop(rec);
+      Path file = Files.createTempFile("spf4j-sampler", ".jfr");
+      try {
+        JfrApi.dump(rec, file);
+        aggregate(file);
+      } finally {
+        Files.delete(file);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    } finally {
+      JfrApi.close(rec);
+    }
+  }
+
+  private void aggregate(final Path file) throws IOException {
+    Instant maxStart = aggregatedUpTo;
+    Object rf = JfrApi.openRecordingFile(file);
+    try {
+      while (JfrApi.hasMoreEvents(rf)) {
+        Object event = JfrApi.readEvent(rf);
+        if (!EXECUTION_SAMPLE.equals(JfrApi.getEventTypeName(event))) {
+          continue;
+        }
+        Instant startTime = JfrApi.getStartTime(event);
+        if (!startTime.isAfter(aggregatedUpTo)) {
+          continue;
+        }
+        if (startTime.isAfter(maxStart)) {
+          maxStart = startTime;
+        }
+        Object thread = JfrApi.getThread(event, "sampledThread");
+        if (thread != null && JfrApi.getJavaThreadId(thread) == samplingThreadId) {
+          continue;
+        }
+        collector.collect(toStackTrace(JfrApi.getFrames(event), thread));
+      }
+    } finally {
+      JfrApi.closeRecordingFile(rf);
+    }
+    aggregatedUpTo = maxStart;
+  }
+
+  @SuppressFBWarnings("CLI_CONSTANT_LIST_INDEX")
+  private static StackTraceElement[] toStackTrace(@Nullable final List<?> stFrames, @Nullable final Object thread) {
+    List<?> frames = stFrames == null ? Collections.emptyList() : stFrames;
+    int nrFrames = frames.size();
+    if (nrFrames == 0) {
+      return new StackTraceElement[] {
+        new StackTraceElement("Thread", thread == null ? "unknown" : JfrApi.getJavaName(thread), "", 0)
+      };
+    }
+    StackTraceElement[] result = new StackTraceElement[nrFrames];
+    for (int i = 0; i < nrFrames; i++) {
+      result[i] = JfrApi.toStackTraceElement(frames.get(i));
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, SampleNode> getCollectionsAndReset() {
+    rotate();
+    SampleNode nodes = collector.getAndReset();
+    return nodes == null ? Collections.EMPTY_MAP : ImmutableMap.of("ALL", nodes);
+  }
+
+  @Override
+  public Map<String, SampleNode> getCollections() {
+    rotate();
+    SampleNode nodes = collector.get();
+    return nodes == null ? Collections.EMPTY_MAP : ImmutableMap.of("ALL", nodes);
+  }
+
+  /**
+   * stops the JFR recording, samples recorded so far are aggregated and remain available.
+   */
+  @Override
+  public void close() {
+    Object current = recording;
+    if (current != null) {
+      recording = null;
+      try {
+        aggregate(current);
+      } catch (UncheckedIOException ex) {
+        LOG.log(Level.WARNING, "Unable to read final samples from " + current, ex);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "JfrStackSampler{" + "samplePeriod=" + samplePeriod + ", rotationNanos=" + rotationNanos
+            + ", collector=" + collector + '}';
+  }
+
+}
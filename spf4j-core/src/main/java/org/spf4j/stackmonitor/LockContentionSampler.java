@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import com.google.common.collect.ImmutableMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.spf4j.perf.MeasurementRecorderSource;
+import org.spf4j.perf.impl.RecorderFactory;
+
+/**
+ * A sampler that samples lock contention: for every thread that waits for a lock owned by another thread
+ * (a monitor or a ownable synchronizer like ReentrantLock), a sample is collected with the stack:
+ * waiter stack -&gt; owner stack -&gt; lock class. (the owner stack is separated by a lockOwner@LOCK frame,
+ * and the lock class is the leaf frame class@LOCK).
+ * The samples are available under the "LOCK_CONTENTION" label.
+ *
+ * Per lock class, the number of waiter observations and the estimated blocked time (time elapsed between
+ * samples for each observed waiter) are recorded in the "lock-contention.waiters" and
+ * "lock-contention.blockedTime" counting recorder sources.
+ *
+ * usage: new Sampler(sampleTimeMillis, LockContentionSampler::new);
+ *
+ * @author zoly
+ */
+@NotThreadSafe
+public final class LockContentionSampler implements ISampler {
+
+  public static final String LABEL = "LOCK_CONTENTION";
+
+  private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+
+  private static final StackTraceElement OWNER_FRAME = new StackTraceElement("LOCK", "lockOwner", null, -1);
+
+  private final Thread ignore;
+
+  private final StackCollector collector;
+
+  @Nullable
+  private final MeasurementRecorderSource waitersSource;
+
+  @Nullable
+  private final MeasurementRecorderSource blockedTimeSource;
+
+  private final TLongObjectHashMap<ThreadInfo> threadInfos;
+
+  private long lastSampleNanos;
+
+  public LockContentionSampler(final Thread ignore) {
+    this(ignore, Measurements.WAITERS, Measurements.BLOCKED_TIME);
+  }
+
+  /**
+   * @param ignore the thread to ignore. (the sampling thread)
+   * @param waitersSource recorder source (by lock class) for the number of waiters observed.
+   * @param blockedTimeSource recorder source (by lock class) for the estimated blocked time in ms.
+   */
+  public LockContentionSampler(final Thread ignore,
+          @Nullable final MeasurementRecorderSource waitersSource,
+          @Nullable final MeasurementRecorderSource blockedTimeSource) {
+    this.ignore = ignore;
+    this.waitersSource = waitersSource;
+    this.blockedTimeSource = blockedTimeSource;
+    this.collector = new StackCollectorImpl();
+    this.threadInfos = new TLongObjectHashMap<>();
+    this.lastSampleNanos = System.nanoTime();
+  }
+
+  @Override
+  public void sample() {
+    ThreadInfo[] stackDump = THREAD_MX.dumpAllThreads(false, false);
+    long now = System.nanoTime();
+    long elapsedMillis = (now - lastSampleNanos) / 1000000;
+    lastSampleNanos = now;
+    threadInfos.clear();
+    for (ThreadInfo info : stackDump) {
+      threadInfos.put(info.getThreadId(), info);
+    }
+    final long id = ignore.getId();
+    for (ThreadInfo waiter : stackDump) {
+      long ownerId = waiter.getLockOwnerId();
+      if (ownerId < 0 || waiter.getThreadId() == id) {
+        continue;
+      }
+      LockInfo lock = waiter.getLockInfo();
+      String lockClass = lock == null ? "unknown" : lock.getClassName();
+      ThreadInfo owner = threadInfos.get(ownerId);
+      collector.collect(contentionStack(waiter.getStackTrace(),
+              owner == null ? null : owner.getStackTrace(), lockClass));
+      if (waitersSource != null) {
+        waitersSource.getRecorder(lockClass).record(1);
+      }
+      if (blockedTimeSource != null) {
+        blockedTimeSource.getRecorder(lockClass).record(elapsedMillis);
+      }
+    }
+  }
+
+  /**
+   * @return the stack trace (leaf first) lockClass@LOCK, owner stack, lockOwner@LOCK, waiter stack.
+   */
+  static StackTraceElement[] contentionStack(final StackTraceElement[] waiterStack,
+          @Nullable final StackTraceElement[] ownerStack, final String lockClass) {
+    int ownerLength = ownerStack == null ? 0 : ownerStack.length;
+    StackTraceElement[] result = new StackTraceElement[waiterStack.length + ownerLength + 2];
+    result[0] = new StackTraceElement("LOCK", lockClass, null, -1);
+    if (ownerStack != null) {
+      System.arraycopy(ownerStack, 0, result, 1, ownerLength);
+    }
+    result[ownerLength + 1] = OWNER_FRAME;
+    System.arraycopy(waiterStack, 0, result, ownerLength + 2, waiterStack.length);
+    return result;
+  }
+
+  @Override
+  public Map<String, SampleNode> getCollectionsAndReset() {
+    SampleNode nodes = collector.getAndReset();
+    return nodes == null ? Collections.EMPTY_MAP : ImmutableMap.of(LABEL, nodes);
+  }
+
+  @Override
+  public Map<String, SampleNode> getCollections() {
+    SampleNode nodes = collector.get();
+    return nodes == null ? Collections.EMPTY_MAP : ImmutableMap.of(LABEL, nodes);
+  }
+
+  @Override
+  public String toString() {
+    return "LockContentionSampler{" + "ignore=" + ignore + ", collector=" + collector + '}';
+  }
+
+  private static final class Measurements {
+
+    private static final int SAMPLE_TIME_MILLIS = Integer.getInteger("spf4j.lockContention.sampleTimeMillis", 60000);
+
+    private static final MeasurementRecorderSource WAITERS
+            = RecorderFactory.createScalableCountingRecorderSource("lock-contention.waiters", "count",
+                    SAMPLE_TIME_MILLIS);
+
+    private static final MeasurementRecorderSource BLOCKED_TIME
+            = RecorderFactory.createScalableCountingRecorderSource("lock-contention.blockedTime", "ms",
+                    SAMPLE_TIME_MILLIS);
+  }
+
+}
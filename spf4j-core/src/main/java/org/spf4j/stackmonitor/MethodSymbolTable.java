@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.base.avro.Method;
+
+/**
+ * A symbol table that interns methods (class name + method name) to dense int ids.
+ *
+ * Lookups of already interned methods are lock free and allocation free (2 ConcurrentHashMap gets),
+ * unlike Methods.getMethod which is synchronized. Ids are never reclaimed, same as the Methods instance repo.
+ *
+ * @author zoly
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+final class MethodSymbolTable {
+
+  static final MethodSymbolTable GLOBAL = new MethodSymbolTable();
+
+  private static final int CHUNK_SHIFT = 10;
+
+  private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private static final int MAX_CHUNKS = 1 << 16;
+
+  private final ConcurrentMap<String, ConcurrentMap<String, Integer>> ids;
+
+  private final AtomicReferenceArray<AtomicReferenceArray<Method>> methods;
+
+  private final AtomicInteger nextId;
+
+  MethodSymbolTable() {
+    this.ids = new ConcurrentHashMap<>(1024);
+    this.methods = new AtomicReferenceArray<>(MAX_CHUNKS);
+    this.nextId = new AtomicInteger();
+  }
+
+  int getId(final StackTraceElement elem) {
+    return getId(elem.getClassName(), elem.getMethodName());
+  }
+
+  int getId(final String className, final String methodName) {
+    ConcurrentMap<String, Integer> cMethods = ids.get(className);
+    if (cMethods == null) {
+      cMethods = ids.computeIfAbsent(className, (k) -> new ConcurrentHashMap<>(8));
+    }
+    Integer id = cMethods.get(methodName);
+    if (id == null) {
+      id = cMethods.computeIfAbsent(methodName, (mName) -> newId(className, mName));
+    }
+    return id;
+  }
+
+  private Integer newId(final String className, final String methodName) {
+    int id = nextId.getAndIncrement();
+    int chunkIdx = id >>> CHUNK_SHIFT;
+    if (chunkIdx >= MAX_CHUNKS) {
+      throw new IllegalStateException("Method symbol table overflow, " + id + " methods interned");
+    }
+    AtomicReferenceArray<Method> chunk = methods.get(chunkIdx);
+    if (chunk == null) {
+      methods.compareAndSet(chunkIdx, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+      chunk = methods.get(chunkIdx);
+    }
+    chunk.set(id & CHUNK_MASK, new Method(className, methodName));
+    return id;
+  }
+
+  /**
+   * @param id a id returned by getId.
+   * @return the method for the id.
+   */
+  Method getMethod(final int id) {
+    return methods.get(id >>> CHUNK_SHIFT).get(id & CHUNK_MASK);
+  }
+
+  int size() {
+    return nextId.get();
+  }
+
+  @Override
+  public String toString() {
+    return "MethodSymbolTable{" + "size=" + nextId.get() + '}';
+  }
+
+}
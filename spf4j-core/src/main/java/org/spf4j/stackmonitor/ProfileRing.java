@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.base.Methods;
+import org.spf4j.base.avro.Method;
+import org.spf4j.io.ByteArrayBuilder;
+import org.spf4j.ssdump2.SampleTreeReader;
+import org.spf4j.ssdump2.SampleTreeWriter;
+
+/**
+ * A ring of per interval stack sample snapshots, for continuous profiling.
+ *
+ * Snapshots are stored in memory gzipped in ssdump4 format, and are evicted once older than the retention,
+ * or when the total size exceeds the max bytes (a single snapshot larger than max bytes is rejected).
+ * The merged profile of any [from, to) window can be retrieved, the window resolution is the snapshot interval.
+ *
+ * @author zoly
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class ProfileRing {
+
+  private final Duration retention;
+
+  private final long maxBytes;
+
+  @GuardedBy("this")
+  private final Deque<Snapshot> snapshots;
+
+  @GuardedBy("this")
+  private long totalBytes;
+
+  public ProfileRing(final Duration retention, final long maxBytes) {
+    if (retention.isNegative() || retention.isZero()) {
+      throw new IllegalArgumentException("Invalid retention " + retention);
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Invalid max bytes " + maxBytes);
+    }
+    this.retention = retention;
+    this.maxBytes = maxBytes;
+    this.snapshots = new ArrayDeque<>();
+    this.totalBytes = 0;
+  }
+
+  /**
+   * Add the samples collected during [from, to).
+   * Snapshots can be added out of order (by concurrent drains), they are inserted in the ring by their start time.
+   * @return false if the snapshot is rejected because it is larger than max bytes, true otherwise.
+   */
+  public boolean add(final Instant from, final Instant to, final Map<String, SampleNode> samples) {
+    if (samples.isEmpty()) {
+      return true;
+    }
+    byte[] data = serialize(samples);
+    if (data.length > maxBytes) {
+      return false;
+    }
+    Snapshot snapshot = new Snapshot(from, to, data);
+    synchronized (this) {
+      Deque<Snapshot> newer = null;
+      Snapshot last;
+      while ((last = snapshots.peekLast()) != null && last.getFrom().isAfter(from)) {
+        if (newer == null) {
+          newer = new ArrayDeque<>(2);
+        }
+        newer.addFirst(snapshots.removeLast());
+      }
+      snapshots.addLast(snapshot);
+      if (newer != null) {
+        snapshots.addAll(newer);
+      }
+      totalBytes += data.length;
+      Instant cutoff = snapshots.getLast().getTo().minus(retention);
+      Snapshot oldest;
+      while ((oldest = snapshots.peekFirst()) != null
+              && (totalBytes > maxBytes || !oldest.getTo().isAfter(cutoff))) {
+        snapshots.removeFirst();
+        totalBytes -= oldest.getData().length;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the aggregated samples of all snapshots that overlap [from, to).
+   */
+  public Map<String, SampleNode> getProfile(final Instant from, final Instant to) {
+    List<Snapshot> overlapping = new ArrayList<>();
+    synchronized (this) {
+      for (Snapshot snapshot : snapshots) {
+        if (snapshot.getTo().isAfter(from) && snapshot.getFrom().isBefore(to)) {
+          overlapping.add(snapshot);
+        }
+      }
+    }
+    Map<String, SampleNode> result = new HashMap<>(4);
+    for (Snapshot snapshot : overlapping) {
+      deserialize(snapshot.getData()).forEach((label, node) -> result.merge(label, node, SampleNode::aggregate));
+    }
+    return result;
+  }
+
+  private static byte[] serialize(final Map<String, SampleNode> samples) {
+    ByteArrayBuilder bab = new ByteArrayBuilder(8192);
+    try (SampleTreeWriter writer = new SampleTreeWriter(new GZIPOutputStream(bab))) {
+      writer.write(samples);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return bab.toByteArray();
+  }
+
+  private static Map<String, SampleNode> deserialize(final byte[] data) {
+    try (SampleTreeReader reader = new SampleTreeReader(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+      return reader.readAll();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  public synchronized int getNrSnapshots() {
+    return snapshots.size();
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  @Nullable
+  public synchronized Instant getOldest() {
+    Snapshot first = snapshots.peekFirst();
+    return first == null ? null : first.getFrom();
+  }
+
+  @Nullable
+  public synchronized Instant getNewest() {
+    Snapshot last = snapshots.peekLast();
+    return last == null ? null : last.getTo();
+  }
+
+  public Duration getRetention() {
+    return retention;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Compare the self sample (samples where the method is on top of the stack) share of methods.
+   * @param before the baseline profile.
+   * @param after the profile to compare.
+   * @param topN the number of methods with the largest share change to report.
+   * @return a report line for every one of the topN methods:
+   * method before% -&gt; after% (delta%), in descending absolute delta order.
+   */
+  public static List<String> diff(final SampleNode before, final SampleNode after, final int topN) {
+    Map<Method, int[]> selfCounts = new HashMap<>();
+    addSelfCounts(before, 0, selfCounts);
+    addSelfCounts(after, 1, selfCounts);
+    double beforeTotal = Math.max(1, before.getSampleCount());
+    double afterTotal = Math.max(1, after.getSampleCount());
+    List<Map.Entry<Method, double[]>> shares = new ArrayList<>(selfCounts.size());
+    for (Map.Entry<Method, int[]> entry : selfCounts.entrySet()) {
+      int[] counts = entry.getValue();
+      double b = counts[0] * 100 / beforeTotal;
+      double a = counts[1] * 100 / afterTotal;
+      shares.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), new double[] {b, a, a - b}));
+    }
+    shares.sort((x, y) -> Double.compare(Math.abs(y.getValue()[2]), Math.abs(x.getValue()[2])));
+    List<String> result = new ArrayList<>(Math.min(topN, shares.size()));
+    for (Map.Entry<Method, double[]> entry : shares.subList(0, Math.min(topN, shares.size()))) {
+      double[] s = entry.getValue();
+      Method m = entry.getKey();
+      result.add(String.format("%s@%s %.2f%% -> %.2f%% (%+.2f%%)", m.getName(), m.getDeclaringClass(),
+              s[0], s[1], s[2]));
+    }
+    return result;
+  }
+
+  private static void addSelfCounts(final SampleNode root, final int idx, final Map<Method, int[]> selfCounts) {
+    Deque<Map.Entry<Method, SampleNode>> stack = new ArrayDeque<>();
+    stack.push(new AbstractMap.SimpleImmutableEntry<>(Methods.ROOT, root));
+    while (!stack.isEmpty()) {
+      Map.Entry<Method, SampleNode> entry = stack.pop();
+      SampleNode node = entry.getValue();
+      int self = node.getSampleCount();
+      Map<Method, SampleNode> subNodes = node.getSubNodes();
+      if (subNodes != null) {
+        for (Map.Entry<Method, SampleNode> child : subNodes.entrySet()) {
+          self -= child.getValue().getSampleCount();
+          stack.push(child);
+        }
+      }
+      if (self > 0) {
+        selfCounts.computeIfAbsent(entry.getKey(), (m) -> new int[2])[idx] += self;
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ProfileRing{" + "retention=" + retention + ", maxBytes=" + maxBytes + ", nrSnapshots="
+            + snapshots.size() + ", totalBytes=" + totalBytes + ", oldest=" + getOldest()
+            + ", newest=" + getNewest() + '}';
+  }
+
+  private static final class Snapshot {
+
+    private final Instant from;
+
+    private final Instant to;
+
+    private final byte[] data;
+
+    Snapshot(final Instant from, final Instant to, final byte[] data) {
+      this.from = from;
+      this.to = to;
+      this.data = data;
+    }
+
+    Instant getFrom() {
+      return from;
+    }
+
+    Instant getTo() {
+      return to;
+    }
+
+    byte[] getData() {
+      return data;
+    }
+
+  }
+
+}
@@ -92,11 +92,18 @@ public final class SampleNode extends MethodMap<SampleNode> implements Serializa
   }
 
   public static SampleNode createSampleNode(final StackTraceElement... stackTrace) {
-    SampleNode result = new SampleNode(1);
+    return createSampleNode(1, stackTrace);
+  }
+
+  /**
+   * @param count the number of samples the stack trace stands for.
+   */
+  public static SampleNode createSampleNode(final int count, final StackTraceElement... stackTrace) {
+    SampleNode result = new SampleNode(count);
     SampleNode prevResult = result;
     for (int i = stackTrace.length - 1; i >= 0; i--) {
       StackTraceElement elem = stackTrace[i];
-      SampleNode node = new SampleNode(1);
+      SampleNode node = new SampleNode(count);
       prevResult.put(Methods.getMethod(elem), node);
       prevResult = node;
     }
@@ -104,16 +111,23 @@ public final class SampleNode extends MethodMap<SampleNode> implements Serializa
   }
 
   public static void addToSampleNode(final SampleNode node, final StackTraceElement... stackTrace) {
+    addToSampleNode(node, 1, stackTrace);
+  }
+
+  /**
+   * @param count the number of samples the stack trace stands for.
+   */
+  public static void addToSampleNode(final SampleNode node, final int count, final StackTraceElement... stackTrace) {
     SampleNode prevResult = node;
-    prevResult.sampleCount++;
+    prevResult.sampleCount += count;
     for (int i = stackTrace.length - 1; i >= 0; i--) {
       StackTraceElement elem = stackTrace[i];
       final Method method = Methods.getMethod(elem);
       SampleNode nNode = prevResult.get(method);
       if (nNode != null) {
-        nNode.sampleCount++;
+        nNode.sampleCount += count;
       } else {
-        nNode = new SampleNode(1);
+        nNode = new SampleNode(count);
         prevResult.put(method, nNode);
       }
       prevResult = nNode;
@@ -38,10 +38,16 @@ import java.io.UncheckedIOException;
 import java.lang.management.ManagementFactory;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
@@ -64,6 +70,7 @@ import org.spf4j.concurrent.DefaultExecutor;
 import org.spf4j.jmx.JmxExport;
 import org.spf4j.jmx.Registry;
 import org.spf4j.ssdump2.Converter;
+import org.spf4j.ssdump2.SampleTreeWriter;
 
 /**
  * Utility to sample stack traces. Stack traces can be persisted for later analysis.
@@ -76,6 +83,8 @@ import org.spf4j.ssdump2.Converter;
 @ThreadSafe
 public final class Sampler {
 
+  private static final SampleNode EMPTY = new SampleNode(0);
+
   private static Sampler instance;
 
   public static final String DEFAULT_SS_DUMP_FOLDER = System.getProperty("spf4j.perf.ms.defaultSsdumpFolder",
@@ -85,6 +94,30 @@ public final class Sampler {
           System.getProperty("spf4j.perf.ms.defaultSsdumpFilePrefix",
                   ManagementFactory.getRuntimeMXBean().getName()));
 
+  private static final int DEFAULT_RING_INTERVAL_MILLIS = Integer.getInteger("spf4j.sampler.ring.intervalMillis",
+          10000);
+
+  /**
+   * profile ring retention, 0 (default) disables the profile ring.
+   * The ring can also be enabled via configureProfileRing (JMX).
+   */
+  private static final int DEFAULT_RING_RETENTION_MINUTES = Integer.getInteger("spf4j.sampler.ring.retentionMinutes",
+          0);
+
+  private static final long DEFAULT_RING_MAX_BYTES = Long.getLong("spf4j.sampler.ring.maxBytes", 16L * 1024 * 1024);
+
+  /**
+   * adaptive sampling overhead budget (sampling time / sampling interval), ex: 0.01 for 1%. 0 disables adaptive
+   * sampling. Adaptive sampling is supported by AdaptiveSampler implementations (FastStackCollector).
+   */
+  private static final double DEFAULT_OVERHEAD_BUDGET
+          = Double.parseDouble(System.getProperty("spf4j.sampler.adaptive.overheadBudget", "0"));
+
+  private static final int ADAPTIVE_MAX_INTERVAL_FACTOR
+          = Integer.getInteger("spf4j.sampler.adaptive.maxIntervalFactor", 10);
+
+  private static final int ADAPTIVE_MIN_THREADS = Integer.getInteger("spf4j.sampler.adaptive.minThreads", 8);
+
   @GuardedBy("sync")
   private boolean stopped;
 
@@ -102,6 +135,29 @@ public final class Sampler {
   @GuardedBy("sync")
   private Future<?> samplerFuture;
 
+  @Nullable
+  private volatile ProfileRing profileRing;
+
+  private volatile long ringIntervalNanos;
+
+  /**
+   * samples moved to the profile ring, not yet dumped.
+   */
+  @GuardedBy("sync")
+  private Map<String, SampleNode> drained = Collections.EMPTY_MAP;
+
+  @GuardedBy("sync")
+  private Instant lastRingSnapshot;
+
+  private volatile double overheadBudget;
+
+  @GuardedBy("sync")
+  @Nullable
+  private AdaptiveSamplingPolicy adaptivePolicy;
+
+  @GuardedBy("sync")
+  private int adaptiveMaxThreads;
+
   private final String filePrefix;
 
   private final File dumpFolder;
@@ -168,6 +224,11 @@ public final class Sampler {
     this.filePrefix = dumpFilePrefix;
     this.dumpFolder = dumpFolder;
     this.compressDumps = compressDumps;
+    this.ringIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RING_INTERVAL_MILLIS);
+    this.profileRing = DEFAULT_RING_RETENTION_MINUTES > 0
+            ? new ProfileRing(Duration.ofMinutes(DEFAULT_RING_RETENTION_MINUTES), DEFAULT_RING_MAX_BYTES) : null;
+    this.lastRingSnapshot = Instant.now();
+    this.overheadBudget = DEFAULT_OVERHEAD_BUDGET;
   }
 
   public static synchronized Sampler getSampler(final int sampleTimeMillis,
@@ -221,25 +282,38 @@ public final class Sampler {
             lastDumpTimeNanos = TimeSource.nanoTime();
             synchronized (sync) {
               stackCollector = stackCollectorSupp.get(Thread.currentThread());
+              adaptivePolicy = null;
+              lastRingSnapshot = Instant.now();
             }
             final long lDumpTimeNanos = dumpTimeNanos;
+            long ringCounterNanos = 0;
             final ThreadLocalRandom random = ThreadLocalRandom.current();
             long dumpCounterNanos = 0;
             long sleepTimeNanos = 0;
-            long halfStNanos = stNanos / 2;
-            if (halfStNanos == 0) {
-              halfStNanos = 1;
-            }
-            long maxSleeepNanos = stNanos + halfStNanos;
             while (true) {
               try {
+                long currentStNanos;
                 synchronized (sync) {
+                  long startNanos = TimeSource.nanoTime();
                   stackCollector.sample();
                   if (stopped) {
                     break;
                   }
+                  currentStNanos = adapt(TimeSource.nanoTime() - startNanos, stNanos);
                 }
                 dumpCounterNanos += sleepTimeNanos;
+                ringCounterNanos += sleepTimeNanos;
+                if (ringCounterNanos >= ringIntervalNanos) {
+                  ringCounterNanos = 0;
+                  if (profileRing != null) {
+                    RingSnapshot snapshot;
+                    synchronized (sync) {
+                      snapshot = drainCollector();
+                      drained = aggregate(drained, snapshot.getSamples());
+                    }
+                    snapshot.addToRing();
+                  }
+                }
                 if (dumpCounterNanos >= lDumpTimeNanos) {
                   long nanosSinceLastDump = TimeSource.nanoTime() - lastDumpTimeNanos;
                   if (nanosSinceLastDump >= lDumpTimeNanos) {
@@ -253,7 +327,11 @@ public final class Sampler {
                     dumpCounterNanos = nanosSinceLastDump;
                   }
                 }
-                sleepTimeNanos = random.nextLong(halfStNanos, maxSleeepNanos);
+                long halfStNanos = currentStNanos / 2;
+                if (halfStNanos == 0) {
+                  halfStNanos = 1;
+                }
+                sleepTimeNanos = random.nextLong(halfStNanos, currentStNanos + halfStNanos);
                 TimeUnit.NANOSECONDS.sleep(sleepTimeNanos);
               } catch (InterruptedException ex) {
                 Thread.currentThread().interrupt();
@@ -271,6 +349,66 @@ public final class Sampler {
     }
   }
 
+  /**
+   * Adapt the sampling interval and the thread budget to the sampling cost.
+   * @param costNanos the duration of the last sample.
+   * @param baseStNanos the configured sampling interval.
+   * @return the sampling interval to use.
+   */
+  @GuardedBy("sync")
+  private long adapt(final long costNanos, final long baseStNanos) {
+    if (!(stackCollector instanceof AdaptiveSampler)) {
+      return baseStNanos;
+    }
+    AdaptiveSampler sampler = (AdaptiveSampler) stackCollector;
+    double budget = overheadBudget;
+    if (budget <= 0) {
+      if (adaptivePolicy != null) {
+        sampler.setMaxNrSampledThreads(adaptiveMaxThreads);
+        sampler.setSampleWeight(0);
+        adaptivePolicy = null;
+      }
+      return baseStNanos;
+    }
+    if (adaptivePolicy == null || adaptivePolicy.getOverheadBudget() != budget) {
+      if (adaptivePolicy == null) {
+        adaptiveMaxThreads = sampler.getMaxNrSampledThreads();
+      }
+      adaptivePolicy = new AdaptiveSamplingPolicy(budget, baseStNanos, baseStNanos * ADAPTIVE_MAX_INTERVAL_FACTOR,
+              ADAPTIVE_MIN_THREADS, adaptiveMaxThreads);
+    }
+    adaptivePolicy.update(costNanos, sampler.getLastNrSampledThreads(), sampler.getLastNrThreads());
+    sampler.setMaxNrSampledThreads(adaptivePolicy.getThreadBudget());
+    sampler.setSampleWeight(adaptivePolicy.getIntervalWeight());
+    return adaptivePolicy.getIntervalNanos();
+  }
+
+  @JmxExport(description = "adaptive sampling overhead budget (sample time / sample interval), 0 when disabled")
+  public double getOverheadBudget() {
+    return overheadBudget;
+  }
+
+  /**
+   * Enable adaptive sampling: the sampling interval and the number of sampled threads are adjusted so that
+   * sampling time / sampling interval stays under the budget. Samples are weighted to remain comparable
+   * with samples collected at the configured interval with all threads.
+   * @param overheadBudget ex: 0.01 for 1%, 0 disables adaptive sampling.
+   */
+  @JmxExport
+  public void setOverheadBudget(final double overheadBudget) {
+    if (overheadBudget < 0 || overheadBudget >= 1) {
+      throw new IllegalArgumentException("Invalid overhead budget " + overheadBudget);
+    }
+    this.overheadBudget = overheadBudget;
+  }
+
+  @JmxExport(description = "adaptive sampling state")
+  public String getAdaptiveSamplingInfo() {
+    synchronized (sync) {
+      return adaptivePolicy == null ? "disabled" : adaptivePolicy.toString();
+    }
+  }
+
   @JmxExport
   public boolean isCompressDumps() {
     return compressDumps;
@@ -317,6 +455,7 @@ public final class Sampler {
    * either ssdump2 or ssdump3 will be used depending on the number of sample aggregate groups.
    * additionally .gz will be added if compression is enabled.
    * in case of ssdump2 the label will be appended to the file name like _[label].ssdump2
+   * if the base file name ends with .ssdump4, the streaming ssdump4 format will be used.
    *
    * @return the saved file, or null if no collected samples to save.
    * @throws IOException
@@ -326,19 +465,23 @@ public final class Sampler {
   public File dumpToFile(@Nonnull final File destinationFolder, final String pbaseFileName) throws IOException {
     CharSequences.validatedFileName(pbaseFileName);
     String baseFileName = URLEncoder.encode(pbaseFileName, StandardCharsets.UTF_8.name());
-    Map<String, SampleNode> collections;
-    synchronized (sync) {
-      if (stackCollector == null) {
-        return null;
-      }
-      collections = stackCollector.getCollectionsAndReset();
-      lastDumpTimeNanos = TimeSource.nanoTime();
+    Map<String, SampleNode> collections = getCollectionsAndResetInternal();
+    if (collections == null) {
+      return null;
     }
+    lastDumpTimeNanos = TimeSource.nanoTime();
     if (collections.isEmpty()) {
       return null;
     }
     String newFileName;
-    if (collections.size() == 1) {
+    if (baseFileName.endsWith(SampleTreeWriter.EXTENSION)) {
+      newFileName = this.compressDumps ? baseFileName + ".gz" : baseFileName;
+      File file = new File(destinationFolder, newFileName);
+      try (SampleTreeWriter writer = SampleTreeWriter.create(file)) {
+        writer.write(collections);
+      }
+      return file;
+    } else if (collections.size() == 1) {
       Map.Entry<String, SampleNode> es = collections.entrySet().iterator().next();
       SampleNode samples = es.getValue();
       if (samples == null) {
@@ -388,6 +531,23 @@ public final class Sampler {
       } catch (ExecutionException ex) {
         throw new Spf4jProfilerException(ex);
       }
+      closeSampler();
+    }
+  }
+
+  /**
+   * Samplers that hold resources (like JfrStackSampler) are closed when sampling stops,
+   * the collected samples are still available to be dumped.
+   */
+  private void closeSampler() {
+    synchronized (sync) {
+      if (stackCollector instanceof AutoCloseable) {
+        try {
+          ((AutoCloseable) stackCollector).close();
+        } catch (Exception ex) {
+          throw new Spf4jProfilerException(ex);
+        }
+      }
     }
   }
 
@@ -408,27 +568,179 @@ public final class Sampler {
 
   @JmxExport(description = "clear in memory collected stack samples")
   public void clear() {
-    synchronized (sync) {
-      stackCollector.getCollectionsAndReset();
-    }
+    getCollectionsAndResetInternal();
   }
 
   public Map<String, SampleNode> getStackCollectionsAndReset() {
+    Map<String, SampleNode> result = getCollectionsAndResetInternal();
+    return result == null ? Collections.EMPTY_MAP : result;
+  }
+
+  public Map<String, SampleNode> getStackCollections() {
     synchronized (sync) {
       if (stackCollector == null) {
         return Collections.EMPTY_MAP;
       }
-      return stackCollector.getCollectionsAndReset();
+      return aggregate(drained, stackCollector.getCollections());
     }
   }
 
-  public Map<String, SampleNode> getStackCollections() {
+  /**
+   * reset the collector, the returned snapshot is to be added to the profile ring (if enabled)
+   * after releasing sync, so that sampling is not blocked while the snapshot is serialized.
+   */
+  @GuardedBy("sync")
+  private RingSnapshot drainCollector() {
+    Map<String, SampleNode> collections = stackCollector.getCollectionsAndReset();
+    Instant now = Instant.now();
+    RingSnapshot result = new RingSnapshot(profileRing, lastRingSnapshot, now, collections);
+    lastRingSnapshot = now;
+    return result;
+  }
+
+  /**
+   * @return all the collected samples (including the samples moved to the ring), or null if sampling never started.
+   */
+  @Nullable
+  private Map<String, SampleNode> getCollectionsAndResetInternal() {
+    RingSnapshot snapshot;
+    Map<String, SampleNode> result;
     synchronized (sync) {
       if (stackCollector == null) {
-        return Collections.EMPTY_MAP;
+        return null;
       }
-      return stackCollector.getCollections();
+      snapshot = drainCollector();
+      result = aggregate(drained, snapshot.getSamples());
+      drained = Collections.EMPTY_MAP;
     }
+    snapshot.addToRing();
+    return result;
+  }
+
+  private static Map<String, SampleNode> aggregate(final Map<String, SampleNode> a,
+          final Map<String, SampleNode> b) {
+    if (a.isEmpty()) {
+      return b;
+    }
+    if (b.isEmpty()) {
+      return a;
+    }
+    Map<String, SampleNode> result = new HashMap<>(a);
+    b.forEach((label, node) -> result.merge(label, node, SampleNode::aggregateNullable));
+    return result;
+  }
+
+  /**
+   * @return the profile ring, or null if continuous profiling is disabled.
+   */
+  @Nullable
+  public ProfileRing getProfileRing() {
+    return profileRing;
+  }
+
+  /**
+   * @return the aggregated samples collected in the [from, to) window, with the profile ring resolution.
+   */
+  public Map<String, SampleNode> getProfile(final Instant from, final Instant to) {
+    ProfileRing ring = profileRing;
+    if (ring == null) {
+      throw new IllegalStateException("Profile ring is disabled for " + this);
+    }
+    RingSnapshot snapshot = null;
+    synchronized (sync) {
+      if (stackCollector != null && to.isAfter(lastRingSnapshot)) {
+        snapshot = drainCollector();
+        drained = aggregate(drained, snapshot.getSamples());
+      }
+    }
+    if (snapshot != null) {
+      snapshot.addToRing();
+    }
+    return ring.getProfile(from, to);
+  }
+
+  @JmxExport(description = "configure the continuous profiling ring, retentionMinutes = 0 disables it,"
+          + " current content is discarded")
+  public void configureProfileRing(
+          @JmxExport(value = "intervalMillis", description = "snapshot interval in milliseconds")
+          final int intervalMillis,
+          @JmxExport(value = "retentionMinutes", description = "snapshot retention in minutes")
+          final int retentionMinutes,
+          @JmxExport(value = "maxBytes", description = "maximum memory used by the snapshots")
+          final long maxBytes) {
+    if (intervalMillis < 1) {
+      throw new IllegalArgumentException("Invalid interval " + intervalMillis);
+    }
+    ringIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    profileRing = retentionMinutes > 0 ? new ProfileRing(Duration.ofMinutes(retentionMinutes), maxBytes) : null;
+  }
+
+  @JmxExport(description = "continuous profiling ring state")
+  public String getProfileRingInfo() {
+    ProfileRing ring = profileRing;
+    return ring == null ? "disabled" : ring.toString();
+  }
+
+  /**
+   * Parses a JMX time argument: a ISO instant (2020-01-01T10:00:00Z), a ISO duration relative to now (-PT5M),
+   * or now.
+   */
+  private static Instant parseTime(final String time) {
+    String t = time.trim();
+    if (t.isEmpty() || "now".equalsIgnoreCase(t)) {
+      return Instant.now();
+    }
+    char c = t.charAt(0);
+    if (c == 'P' || c == 'p' || c == '-' || c == '+') {
+      return Instant.now().plus(Duration.parse(t));
+    }
+    return Instant.parse(t);
+  }
+
+  @JmxExport(description = "save the stack samples of a time window to a ssdump4 file")
+  @Nullable
+  @SuppressFBWarnings("PATH_TRAVERSAL_IN") // the file prefix is validated.
+  public File dumpProfileToFile(
+          @JmxExport(value = "from", description = "ISO instant, or ISO duration relative to now (-PT5M)")
+          final String from,
+          @JmxExport(value = "to", description = "ISO instant, or ISO duration relative to now, or now")
+          final String to) throws IOException {
+    Instant fromI = parseTime(from);
+    Instant toI = parseTime(to);
+    Map<String, SampleNode> profile = getProfile(fromI, toI);
+    if (profile.isEmpty()) {
+      return null;
+    }
+    String fileName = URLEncoder.encode(filePrefix, StandardCharsets.UTF_8.name()) + '_'
+            + DateTimeFormats.COMPACT_TS_FORMAT.format(fromI) + '_'
+            + DateTimeFormats.COMPACT_TS_FORMAT.format(toI) + SampleTreeWriter.EXTENSION;
+    if (this.compressDumps) {
+      fileName = fileName + ".gz";
+    }
+    File file = new File(dumpFolder, fileName);
+    try (SampleTreeWriter writer = SampleTreeWriter.create(file)) {
+      writer.write(profile);
+    }
+    return file;
+  }
+
+  @JmxExport(description = "compare the self sample share of methods between 2 time windows")
+  public String[] diffProfiles(
+          @JmxExport(value = "from1", description = "baseline window start") final String from1,
+          @JmxExport(value = "to1", description = "baseline window end") final String to1,
+          @JmxExport(value = "from2", description = "compared window start") final String from2,
+          @JmxExport(value = "to2", description = "compared window end") final String to2,
+          @JmxExport(value = "topN", description = "number of methods to report") final int topN) {
+    Map<String, SampleNode> before = getProfile(parseTime(from1), parseTime(to1));
+    Map<String, SampleNode> after = getProfile(parseTime(from2), parseTime(to2));
+    List<String> result = new ArrayList<>();
+    Set<String> labels = new TreeSet<>(before.keySet());
+    labels.addAll(after.keySet());
+    for (String label : labels) {
+      result.add(label + ':');
+      result.addAll(ProfileRing.diff(before.getOrDefault(label, EMPTY), after.getOrDefault(label, EMPTY), topN));
+    }
+    return result.toArray(new String[result.size()]);
   }
 
   @PreDestroy
@@ -463,4 +775,38 @@ public final class Sampler {
     return new Date(Timing.getCurrentTiming().fromNanoTimeToEpochMillis(lastDumpTimeNanos));
   }
 
+  /**
+   * Samples drained from the collector, the drained sample trees are not mutated anymore (aggregation clones).
+   */
+  private static final class RingSnapshot {
+
+    @Nullable
+    private final ProfileRing ring;
+
+    private final Instant from;
+
+    private final Instant to;
+
+    private final Map<String, SampleNode> samples;
+
+    RingSnapshot(@Nullable final ProfileRing ring, final Instant from, final Instant to,
+            final Map<String, SampleNode> samples) {
+      this.ring = ring;
+      this.from = from;
+      this.to = to;
+      this.samples = samples;
+    }
+
+    Map<String, SampleNode> getSamples() {
+      return samples;
+    }
+
+    void addToRing() {
+      if (ring != null && !ring.add(from, to, samples)) {
+        Logger.getLogger(Sampler.class.getName()).log(Level.WARNING,
+                "Samples [{0}, {1}) larger than the max bytes of {2}, not retained", new Object[] {from, to, ring});
+      }
+    }
+  }
+
 }
@@ -47,4 +47,15 @@ public interface StackCollector {
 
     void collect(StackTraceElement[] stackTrace);
 
+    /**
+     * collect a stack trace that stands for multiple samples. (weighted sampling)
+     * @param stackTrace the stack trace.
+     * @param count the number of samples.
+     */
+    default void collect(final StackTraceElement[] stackTrace, final int count) {
+      for (int i = 0; i < count; i++) {
+        collect(stackTrace);
+      }
+    }
+
 }
@@ -69,6 +69,15 @@ public final class StackCollectorImpl implements StackCollector {
     }
   }
 
+  @Override
+  public void collect(final StackTraceElement[] stackTrace, final int count) {
+    if (samples == null) {
+      samples = SampleNode.createSampleNode(count, stackTrace);
+    } else {
+      SampleNode.addToSampleNode(samples, count, stackTrace);
+    }
+  }
+
   @Override
   public String toString() {
     return "AbstractStackCollector{" + "samples=" + samples + '}';
@@ -50,6 +50,12 @@ public final class ThreadSpecificTracingExecutionContextHandler extends TracingE
     super(maxNrThreads, execCtxSupplier, ctxToCategory);
   }
 
+  public ThreadSpecificTracingExecutionContextHandler(final int maxNrThreads,
+          final Supplier<Iterable<Map.Entry<Thread, ExecutionContext>>> execCtxSupplier,
+          final Function<ExecutionContext, String> ctxToCategory, final boolean splitByThreadState) {
+    super(maxNrThreads, execCtxSupplier, ctxToCategory, splitByThreadState);
+  }
+
   @Override
   protected int prepareThreadsAndContexts(final Iterable<Map.Entry<Thread, ExecutionContext>> currentThreads) {
     int i = 0;
@@ -47,22 +47,36 @@ import org.spf4j.base.Threads;
  *
  * This context requires ProfiledExecutionContextFactory wrapper.
  *
+ * When splitting by thread state (enable with spf4j.execCtxSampler.splitByThreadState), samples are collected
+ * in a separate tree for each thread state group: RUNNABLE, BLOCKED, WAITING (WAITING + TIMED_WAITING),
+ * labeled "category:STATE", to be able to look at lock contention separate from CPU usage.
+ * The thread state is read right after the stack trace, and can be off for threads that change state in-between.
+ *
  * @author Zoltan Farkas
  */
 @NotThreadSafe
 @SuppressWarnings("checkstyle:VisibilityModifier")
 public class TracingExecutionContexSampler implements ISampler {
 
+  /**
+   * The thread state groups samples are split by, when splitting is enabled.
+   */
+  public static final String[] THREAD_STATE_GROUPS = {"RUNNABLE", "BLOCKED", "WAITING"};
+
+  private static final boolean SPLIT_BY_THREAD_STATE = Boolean.getBoolean("spf4j.execCtxSampler.splitByThreadState");
+
   private final Supplier<Iterable<Map.Entry<Thread, ExecutionContext>>> execCtxSupplier;
 
   protected Thread[] requestFor;
 
   protected ExecutionContext[] contexts;
 
-  private final TMap<String, StackCollector> collections;
+  private final TMap<String, StackCollector[]> collections;
 
   private final Function<ExecutionContext, String> ctxToCategory;
 
+  private final boolean splitByThreadState;
+
   public TracingExecutionContexSampler(
           final Supplier<Iterable<Map.Entry<Thread, ExecutionContext>>> execCtxSupplier,
           final Function<ExecutionContext, String> ctxToCategory) {
@@ -72,6 +86,13 @@ public class TracingExecutionContexSampler implements ISampler {
   public TracingExecutionContexSampler(final int maxNrThreads,
           final Supplier<Iterable<Map.Entry<Thread, ExecutionContext>>> execCtxSupplier,
           final Function<ExecutionContext, String> ctxToCategory) {
+    this(maxNrThreads, execCtxSupplier, ctxToCategory, SPLIT_BY_THREAD_STATE);
+  }
+
+  public TracingExecutionContexSampler(final int maxNrThreads,
+          final Supplier<Iterable<Map.Entry<Thread, ExecutionContext>>> execCtxSupplier,
+          final Function<ExecutionContext, String> ctxToCategory, final boolean splitByThreadState) {
+    this.splitByThreadState = splitByThreadState;
     requestFor = new Thread[maxNrThreads];
     contexts = new ExecutionContext[maxNrThreads];
     this.execCtxSupplier = execCtxSupplier;
@@ -92,13 +113,47 @@ public class TracingExecutionContexSampler implements ISampler {
           ExecutionContext context = contexts[j];
           context.add(stackTrace);
           String name = ctxToCategory.apply(context);
-          StackCollector c = collections.computeIfAbsent(name, (k) -> new StackCollectorImpl());
-          c.collect(stackTrace);
+          StackCollector[] c = collections.computeIfAbsent(name,
+                  (k) -> newCollectors(splitByThreadState ? THREAD_STATE_GROUPS.length : 1));
+          if (splitByThreadState) {
+            int stateIdx = getThreadStateGroup(requestFor[j].getState());
+            if (stateIdx >= 0) {
+              c[stateIdx].collect(stackTrace);
+            }
+          } else {
+            c[0].collect(stackTrace);
+          }
         }
       }
     }
   }
 
+  private static StackCollector[] newCollectors(final int nr) {
+    StackCollector[] result = new StackCollector[nr];
+    for (int i = 0; i < nr; i++) {
+      result[i] = new StackCollectorImpl();
+    }
+    return result;
+  }
+
+  /**
+   * @param state the thread state.
+   * @return the index of the thread state group in THREAD_STATE_GROUPS, -1 for NEW and TERMINATED.
+   */
+  public static int getThreadStateGroup(final Thread.State state) {
+    switch (state) {
+      case RUNNABLE:
+        return 0;
+      case BLOCKED:
+        return 1;
+      case WAITING:
+      case TIMED_WAITING:
+        return 2;
+      default:
+        return -1;
+    }
+  }
+
   /**
    * Overwrite to filter what to sample
    * @param currentThreads
@@ -121,19 +176,27 @@ public class TracingExecutionContexSampler implements ISampler {
 
   @Override
   public final Map<String, SampleNode> getCollectionsAndReset() {
-    TMap<String, SampleNode> result = new THashMap<>(collections.size());
-    collections.forEachEntry((k, v) -> {
-      result.put(k, v.getAndReset());
-      return true;
-    });
-    return result;
+    return getCollections(true);
   }
 
   @Override
   public final Map<String, SampleNode> getCollections() {
+    return getCollections(false);
+  }
+
+  private Map<String, SampleNode> getCollections(final boolean reset) {
     TMap<String, SampleNode> result = new THashMap<>(collections.size());
     collections.forEachEntry((k, v) -> {
-      result.put(k, v.get());
+      if (v.length == 1) {
+        result.put(k, reset ? v[0].getAndReset() : v[0].get());
+      } else {
+        for (int i = 0; i < v.length; i++) {
+          SampleNode samples = reset ? v[i].getAndReset() : v[i].get();
+          if (samples != null) {
+            result.put(k + ':' + THREAD_STATE_GROUPS[i], samples);
+          }
+        }
+      }
       return true;
     });
     return result;
@@ -145,7 +208,7 @@ public class TracingExecutionContexSampler implements ISampler {
   @Override
   public String toString() {
     return "TracingExecutionContextStackCollector{" + "execCtxSupplier=" + execCtxSupplier
-            + ", collections=" + collections + '}';
+            + ", splitByThreadState=" + splitByThreadState + ", collections=" + collections.keySet() + '}';
   }
 
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A stack collector that stores the call tree as a flat primitive trie.
+ *
+ * Frames are interned to int ids in a (lock free for lookups) MethodSymbolTable, and the trie nodes are stored in
+ * parallel int arrays (parent, method, count). Child lookup is done via a open addressing (parent, method) -&gt; node
+ * hash table. Collecting a already seen stack trace allocates nothing, and the synchronized Methods.getMethod
+ * is not invoked. The SampleNode tree is materialized only when get/getAndReset is invoked.
+ *
+ * Produces the same SampleNode trees as StackCollectorImpl.
+ *
+ * @author zoly
+ */
+@NotThreadSafe
+@ParametersAreNonnullByDefault
+public final class TrieStackCollector implements StackCollector {
+
+  private static final int ROOT = 0;
+
+  private static final long EMPTY = -1L;
+
+  private static final int INITIAL_CAPACITY = Integer.getInteger("spf4j.stackCollector.trie.initialCapacity", 1024);
+
+  private final MethodSymbolTable symbols;
+
+  private int[] parents;
+
+  private int[] methods;
+
+  private int[] counts;
+
+  private int size;
+
+  /** (parent << 32 | method) -> node index hash table, size is a power of 2. */
+  private long[] childKeys;
+
+  private int[] childNodes;
+
+  private int childMask;
+
+  public TrieStackCollector() {
+    this(MethodSymbolTable.GLOBAL, INITIAL_CAPACITY);
+  }
+
+  TrieStackCollector(final MethodSymbolTable symbols, final int initialCapacity) {
+    if (initialCapacity < 2) {
+      throw new IllegalArgumentException("Invalid initial capacity " + initialCapacity);
+    }
+    this.symbols = symbols;
+    this.parents = new int[initialCapacity];
+    this.methods = new int[initialCapacity];
+    this.counts = new int[initialCapacity];
+    int hashSize = Integer.highestOneBit(initialCapacity - 1) << 2;
+    this.childKeys = new long[hashSize];
+    this.childNodes = new int[hashSize];
+    this.childMask = hashSize - 1;
+    reset();
+  }
+
+  private void reset() {
+    Arrays.fill(childKeys, EMPTY);
+    parents[ROOT] = -1;
+    methods[ROOT] = -1;
+    counts[ROOT] = 0;
+    size = 1;
+  }
+
+  @Override
+  public void collect(final StackTraceElement[] stackTrace) {
+    counts[ROOT]++;
+    int node = ROOT;
+    for (int i = stackTrace.length - 1; i >= 0; i--) {
+      node = getOrAddChild(node, symbols.getId(stackTrace[i]));
+      counts[node]++;
+    }
+  }
+
+  @Override
+  public void collect(final StackTraceElement[] stackTrace, final int count) {
+    counts[ROOT] += count;
+    int node = ROOT;
+    for (int i = stackTrace.length - 1; i >= 0; i--) {
+      node = getOrAddChild(node, symbols.getId(stackTrace[i]));
+      counts[node] += count;
+    }
+  }
+
+  private static int hash(final long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int getOrAddChild(final int parent, final int method) {
+    long key = ((long) parent << 32) | method;
+    int idx = hash(key) & childMask;
+    long k;
+    while ((k = childKeys[idx]) != EMPTY) {
+      if (k == key) {
+        return childNodes[idx];
+      }
+      idx = (idx + 1) & childMask;
+    }
+    int node = size;
+    if (node == parents.length) {
+      int newCapacity = node << 1;
+      parents = Arrays.copyOf(parents, newCapacity);
+      methods = Arrays.copyOf(methods, newCapacity);
+      counts = Arrays.copyOf(counts, newCapacity);
+    }
+    parents[node] = parent;
+    methods[node] = method;
+    counts[node] = 0;
+    size = node + 1;
+    childKeys[idx] = key;
+    childNodes[idx] = node;
+    // keep the load factor <= 0.5
+    if (size << 1 > childKeys.length) {
+      rehash();
+    }
+    return node;
+  }
+
+  private void rehash() {
+    int newSize = childKeys.length << 1;
+    long[] newKeys = new long[newSize];
+    Arrays.fill(newKeys, EMPTY);
+    int[] newNodes = new int[newSize];
+    int newMask = newSize - 1;
+    for (int node = 1; node < size; node++) {
+      long key = ((long) parents[node] << 32) | methods[node];
+      int idx = hash(key) & newMask;
+      while (newKeys[idx] != EMPTY) {
+        idx = (idx + 1) & newMask;
+      }
+      newKeys[idx] = key;
+      newNodes[idx] = node;
+    }
+    childKeys = newKeys;
+    childNodes = newNodes;
+    childMask = newMask;
+  }
+
+  /**
+   * Materialize the trie as a SampleNode tree.
+   * Children are always added after their parent, so a single pass over the node arrays is enough.
+   */
+  @Nullable
+  private SampleNode toSampleNode() {
+    if (counts[ROOT] == 0) {
+      return null;
+    }
+    SampleNode[] nodes = new SampleNode[size];
+    nodes[ROOT] = new SampleNode(counts[ROOT]);
+    for (int node = 1; node < size; node++) {
+      SampleNode sn = new SampleNode(counts[node]);
+      nodes[node] = sn;
+      nodes[parents[node]].put(symbols.getMethod(methods[node]), sn);
+    }
+    return nodes[ROOT];
+  }
+
+  @Override
+  @Nullable
+  public SampleNode getAndReset() {
+    SampleNode result = toSampleNode();
+    reset();
+    return result;
+  }
+
+  @Override
+  @Nullable
+  public SampleNode get() {
+    return toSampleNode();
+  }
+
+  public int getNrNodes() {
+    return counts[ROOT] == 0 ? 0 : size;
+  }
+
+  @Override
+  public String toString() {
+    return "TrieStackCollector{" + "nrNodes=" + size + ", nrSamples=" + counts[ROOT] + '}';
+  }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.tsdb2;
+
+import com.google.common.primitives.Longs;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.spf4j.io.ByteArrayBuilder;
+import org.spf4j.tsdb2.avro.DataBlock;
+import org.spf4j.tsdb2.avro.DataRow;
+
+/**
+ * Columnar encoding of a DataBlock. The rows of a block are grouped by table, and every table is stored column wise:
+ * <ul>
+ * <li>timestamps are delta-of-delta encoded, a fixed sample rate is encoded in one byte per row.</li>
+ * <li>every value column is delta or xor encoded (whichever is smaller for the block).
+ * Delta works best for counters, xor works best for doubles stored as long bits,
+ * unchanged values take one byte with both.</li>
+ * <li>consecutive columns that are zero for all rows of the block are stored as a run length,
+ * so that wide, mostly empty tables (QuantizedAccumulator buckets) take a few bytes per block.</li>
+ * </ul>
+ * All numbers are zig-zag var-int encoded (avro long encoding).
+ * The columnar block is stored as a ColumnarDataBlock{baseTimestamp, data} record in the file record union,
+ * and is decoded to a DataBlock by TSDBReader, so it is transparent to all TSDB2 consumers. The only difference is
+ * that within a decoded block the rows are ordered by table. (row order within a table is preserved)
+ *
+ * data layout: nrTables(int), table*
+ * table: tableDefId(long), nrRows(int), nrColumns(int), timestamps(long * nrRows), columns
+ * columns: (DELTA|XOR, values(long * nrRows)) | (ZEROS, nrZeroColumns(int)) repeated until nrColumns are decoded.
+ *
+ * @author zoly
+ */
+final class ColumnarBlocks {
+
+  static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"ColumnarDataBlock\","
+          + "\"namespace\":\"org.spf4j.tsdb2.avro\","
+          + "\"doc\":\"columnar, delta encoded data block, see org.spf4j.tsdb2.ColumnarBlocks\","
+          + "\"fields\":[{\"name\":\"baseTimestamp\",\"type\":\"long\"},{\"name\":\"data\",\"type\":\"bytes\"}]}");
+
+  static final int DELTA = 0;
+
+  static final int XOR = 1;
+
+  static final int ZEROS = 2;
+
+  private ColumnarBlocks() { }
+
+  static boolean isColumnarBlock(final Object record) {
+    return record instanceof GenericRecord
+            && SCHEMA.getFullName().equals(((GenericRecord) record).getSchema().getFullName());
+  }
+
+  /**
+   * Encode a data block.
+   * @param block the block to encode.
+   * @param buffer the buffer to encode the data into, the returned record will reference it.
+   * @return the columnar record, or null if the block cannot be columnar encoded.
+   * (rows of the same table with different number of columns)
+   */
+  @Nullable
+  static GenericRecord encode(final DataBlock block, final ByteArrayBuilder buffer) throws IOException {
+    TLongArrayList tableIds = new TLongArrayList();
+    TLongObjectMap<List<DataRow>> tableRows = new TLongObjectHashMap<>();
+    for (DataRow row : block.getValues()) {
+      long tableId = row.getTableDefId();
+      List<DataRow> rows = tableRows.get(tableId);
+      if (rows == null) {
+        rows = new ArrayList<>();
+        tableRows.put(tableId, rows);
+        tableIds.add(tableId);
+      } else if (rows.get(0).getData().size() != row.getData().size()) {
+        return null;
+      }
+      rows.add(row);
+    }
+    buffer.reset();
+    BinaryEncoder enc = EncoderFactory.get().directBinaryEncoder(buffer, null);
+    int nrTables = tableIds.size();
+    enc.writeInt(nrTables);
+    for (int t = 0; t < nrTables; t++) {
+      long tableId = tableIds.get(t);
+      List<DataRow> rows = tableRows.get(tableId);
+      int nrRows = rows.size();
+      int nrColumns = rows.get(0).getData().size();
+      enc.writeLong(tableId);
+      enc.writeInt(nrRows);
+      enc.writeInt(nrColumns);
+      long prevTs = 0;
+      long prevDelta = 0;
+      for (DataRow row : rows) {
+        long ts = row.getRelTimeStamp();
+        long delta = ts - prevTs;
+        enc.writeLong(delta - prevDelta);
+        prevDelta = delta;
+        prevTs = ts;
+      }
+      long[] column = new long[nrRows];
+      int c = 0;
+      while (c < nrColumns) {
+        int nrZeroColumns = countZeroColumns(rows, c, nrColumns);
+        if (nrZeroColumns > 0) {
+          enc.writeInt(ZEROS);
+          enc.writeInt(nrZeroColumns);
+          c += nrZeroColumns;
+        } else {
+          for (int r = 0; r < nrRows; r++) {
+            column[r] = rows.get(r).getData().get(c);
+          }
+          writeColumn(column, enc);
+          c++;
+        }
+      }
+    }
+    enc.flush();
+    GenericRecord result = new GenericData.Record(SCHEMA);
+    result.put(0, block.getBaseTimestamp());
+    result.put(1, ByteBuffer.wrap(buffer.getBuffer(), 0, buffer.size()));
+    return result;
+  }
+
+  /**
+   * @return the number of consecutive columns, starting with column from, that are zero for all rows.
+   */
+  private static int countZeroColumns(final List<DataRow> rows, final int from, final int nrColumns) {
+    int c = from;
+    while (c < nrColumns) {
+      for (DataRow row : rows) {
+        if (row.getData().get(c) != 0L) {
+          return c - from;
+        }
+      }
+      c++;
+    }
+    return c - from;
+  }
+
+  private static void writeColumn(final long[] column, final BinaryEncoder enc) throws IOException {
+    long deltaSize = 0;
+    long xorSize = 0;
+    long prev = 0;
+    for (long val : column) {
+      deltaSize += varLongSize(val - prev);
+      xorSize += varLongSize(val ^ prev);
+      prev = val;
+    }
+    prev = 0;
+    if (xorSize < deltaSize) {
+      enc.writeInt(XOR);
+      for (long val : column) {
+        enc.writeLong(val ^ prev);
+        prev = val;
+      }
+    } else {
+      enc.writeInt(DELTA);
+      for (long val : column) {
+        enc.writeLong(val - prev);
+        prev = val;
+      }
+    }
+  }
+
+  /**
+   * @return the size of the zig-zag var-int encoding of the value.
+   */
+  static int varLongSize(final long val) {
+    long zigZag = (val << 1) ^ (val >> 63);
+    return (64 - Long.numberOfLeadingZeros(zigZag | 1) + 6) / 7;
+  }
+
+  static DataBlock decode(final GenericRecord record) throws IOException {
+    long baseTs = (Long) record.get(0);
+    ByteBuffer data = (ByteBuffer) record.get(1);
+    BinaryDecoder dec = DecoderFactory.get().binaryDecoder(data.array(),
+            data.arrayOffset() + data.position(), data.remaining(), null);
+    int nrTables = dec.readInt();
+    List<DataRow> rows = new ArrayList<>();
+    for (int t = 0; t < nrTables; t++) {
+      long tableId = dec.readLong();
+      int nrRows = dec.readInt();
+      int nrColumns = dec.readInt();
+      int[] timestamps = new int[nrRows];
+      long ts = 0;
+      long delta = 0;
+      for (int r = 0; r < nrRows; r++) {
+        delta += dec.readLong();
+        ts += delta;
+        timestamps[r] = (int) ts;
+      }
+      long[][] values = new long[nrRows][nrColumns];
+      int c = 0;
+      while (c < nrColumns) {
+        int encoding = dec.readInt();
+        long prev = 0;
+        switch (encoding) {
+          case DELTA:
+            for (int r = 0; r < nrRows; r++) {
+              prev += dec.readLong();
+              values[r][c] = prev;
+            }
+            c++;
+            break;
+          case XOR:
+            for (int r = 0; r < nrRows; r++) {
+              prev ^= dec.readLong();
+              values[r][c] = prev;
+            }
+            c++;
+            break;
+          case ZEROS:
+            int nrZeroColumns = dec.readInt();
+            if (nrZeroColumns <= 0 || nrZeroColumns > nrColumns - c) {
+              throw new IOException("Invalid zero column run " + nrZeroColumns + " in " + record);
+            }
+            c += nrZeroColumns;
+            break;
+          default:
+            throw new IOException("Invalid column encoding " + encoding + " in " + record);
+        }
+      }
+      for (int r = 0; r < nrRows; r++) {
+        rows.add(new DataRow(timestamps[r], tableId, Longs.asList(values[r])));
+      }
+    }
+    return new DataBlock(baseTs, rows);
+  }
+
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.tsdb2;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongPredicate;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.Either;
+import org.spf4j.base.Strings;
+import org.spf4j.io.BufferedInputStream;
+import org.spf4j.tsdb2.avro.DataBlock;
+import org.spf4j.tsdb2.avro.DataRow;
+import org.spf4j.tsdb2.avro.TableDef;
+
+/**
+ * Sparse index of a TSDB2 file, stored in a side-car file (file name + ".tidx") next to the data file.
+ * For every record the index holds its file position, and for every data block it holds the table ids present in
+ * the block together with their min/max timestamps. This allows range queries to seek straight to the relevant
+ * data blocks instead of scanning the whole file.
+ *
+ * The index is appended by TSDBWriter on flush, after the data is committed. A missing or corrupt index is rebuilt
+ * with one pass over the data file, and an index that is behind the data file is caught up by scanning only
+ * the un-indexed tail.
+ *
+ * index file format: MAGIC, dataStartPosition(long), entries*.
+ * entry: type(byte), position(long), endPosition(long), [nrTables(int), (tableId(long), minTs(long), maxTs(long))*]
+ *
+ * @author zoly
+ */
+public final class TSDBIndex {
+
+  static final byte[] MAGIC = Strings.toUtf8("TIDX1");
+
+  private static final byte TABLE_DEF_ENTRY = 0;
+
+  private static final byte DATA_BLOCK_ENTRY = 1;
+
+  private static final Logger LOG = LoggerFactory.getLogger(TSDBIndex.class);
+
+  private final long dataStart;
+
+  private final TLongList tableDefPositions;
+
+  private final TLongList tableDefEndPositions;
+
+  private final TLongList blockPositions;
+
+  private final TLongList blockEndPositions;
+
+  /**
+   * for each block, (tableId, minTs, maxTs) triplets.
+   */
+  private final List<long[]> blockTableRanges;
+
+  private long endPosition;
+
+  /**
+   * maxTsUpTo[i] = max timestamp in blocks [0, i]. (non-decreasing, used for binary search).
+   */
+  private long[] maxTsUpTo;
+
+  /**
+   * minTsFrom[i] = min timestamp in blocks [i, nrBlocks). (non-decreasing, used for binary search).
+   */
+  private long[] minTsFrom;
+
+  private TSDBIndex(final long dataStart) {
+    this.dataStart = dataStart;
+    this.endPosition = dataStart;
+    this.tableDefPositions = new TLongArrayList();
+    this.tableDefEndPositions = new TLongArrayList();
+    this.blockPositions = new TLongArrayList();
+    this.blockEndPositions = new TLongArrayList();
+    this.blockTableRanges = new ArrayList<>();
+  }
+
+  public static File getIndexFile(final File tsdbFile) {
+    return new File(tsdbFile.getPath() + ".tidx");
+  }
+
+  /**
+   * Load the index of a TSDB2 file, the index will be rebuilt or caught up if needed.
+   * @param tsdbFile the data file.
+   * @return the index.
+   * @throws IOException
+   */
+  public static TSDBIndex load(final File tsdbFile) throws IOException {
+    try (TSDBReader reader = new TSDBReader(tsdbFile, 8192)) {
+      return load(reader);
+    }
+  }
+
+  /**
+   * Load the index for the file the provided reader reads. The reader will be used to index the data not yet
+   * present in the index, the reader position is undefined after this call.
+   * A missing or invalid index file will be rebuilt and persisted, an index file that is behind the data
+   * (written by a writer that is still active, or that crashed between committing data and updating the index)
+   * is caught up in memory only.
+   * @param reader the reader.
+   * @return the index, covering all data up to reader.getSize().
+   * @throws IOException
+   */
+  public static TSDBIndex load(final TSDBReader reader) throws IOException {
+    File indexFile = getIndexFile(reader.getFile());
+    long size = reader.getSize();
+    TSDBIndex index = read(indexFile.toPath(), reader.getDataStartPosition(), size, false);
+    if (index == null) {
+      index = new TSDBIndex(reader.getDataStartPosition());
+      index.catchUp(reader);
+      try {
+        index.persist(indexFile.toPath());
+      } catch (IOException ex) {
+        LOG.warn("Unable to persist tsdb index {}", indexFile, ex);
+      }
+    } else if (index.endPosition < size) {
+      index.catchUp(reader);
+    }
+    return index;
+  }
+
+  /**
+   * Bring the index file in sync with the data file, to be invoked by writers before appending to an existing file.
+   * the index file will be rebuilt if it is invalid or has a partially written trailing entry.
+   */
+  static void sync(final File tsdbFile) throws IOException {
+    Path indexFile = getIndexFile(tsdbFile).toPath();
+    try (TSDBReader reader = new TSDBReader(tsdbFile, 8192)) {
+      long size = reader.getSize();
+      TSDBIndex index = read(indexFile, reader.getDataStartPosition(), size, true);
+      if (index == null) {
+        index = new TSDBIndex(reader.getDataStartPosition());
+        index.catchUp(reader);
+        index.persist(indexFile);
+      } else if (index.endPosition < size) {
+        int nrTableDefs = index.tableDefPositions.size();
+        int nrBlocks = index.blockPositions.size();
+        index.catchUp(reader);
+        try (DataOutputStream dos = openForAppend(indexFile)) {
+          index.writeEntries(dos, nrTableDefs, nrBlocks);
+        }
+      }
+    }
+  }
+
+  static void create(final Path indexFile, final long dataStart) throws IOException {
+    new TSDBIndex(dataStart).persist(indexFile);
+  }
+
+  static DataOutputStream openForAppend(final Path indexFile) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile,
+            StandardOpenOption.APPEND, StandardOpenOption.WRITE)));
+  }
+
+  /**
+   * read a index file.
+   * @param strict if true a trailing partially written entry will invalidate the index,
+   * otherwise the entry is ignored. (the writer might be in the process of writing it)
+   * @return the index, or null if index is missing or invalid.
+   */
+  @Nullable
+  private static TSDBIndex read(final Path indexFile, final long dataStart, final long size, final boolean strict)
+          throws IOException {
+    try (InputStream is = Files.newInputStream(indexFile);
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(is))) {
+      byte[] magic = new byte[MAGIC.length];
+      dis.readFully(magic);
+      if (!Arrays.equals(MAGIC, magic) || dis.readLong() != dataStart) {
+        LOG.debug("Invalid index file {}", indexFile);
+        return null;
+      }
+      TSDBIndex result = new TSDBIndex(dataStart);
+      while (true) {
+        int type = dis.read();
+        if (type < 0) {
+          return result;
+        }
+        try {
+          long position = dis.readLong();
+          long endPosition = dis.readLong();
+          switch (type) {
+            case TABLE_DEF_ENTRY:
+              if (endPosition <= size) {
+                result.addTableDef(position, endPosition);
+              }
+              break;
+            case DATA_BLOCK_ENTRY:
+              int nrTables = dis.readInt();
+              long[] ranges = new long[nrTables * 3];
+              for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = dis.readLong();
+              }
+              if (endPosition <= size) {
+                result.addBlock(position, endPosition, ranges);
+              }
+              break;
+            default:
+              LOG.debug("Invalid entry type {} in index file {}", type, indexFile);
+              return null;
+          }
+          if (strict && endPosition > size) {
+            return null;
+          }
+        } catch (EOFException ex) {
+          return strict ? null : result;
+        }
+      }
+    } catch (NoSuchFileException | EOFException ex) {
+      return null;
+    }
+  }
+
+  private void catchUp(final TSDBReader reader) throws IOException {
+    reader.seek(endPosition);
+    long position = endPosition;
+    Either<TableDef, DataBlock> read;
+    while ((read = reader.read()) != null) {
+      long end = reader.getPosition();
+      if (read.isLeft()) {
+        addTableDef(position, end);
+      } else {
+        addBlock(position, end, getTableRanges(read.getRight()));
+      }
+      position = end;
+    }
+  }
+
+  private void persist(final Path indexFile) throws IOException {
+    Path parent = indexFile.toAbsolutePath().getParent();
+    Path tmpFile = Files.createTempFile(parent, ".", ".tidx");
+    try {
+      try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+        dos.write(MAGIC);
+        dos.writeLong(dataStart);
+        writeEntries(dos, 0, 0);
+      }
+      Files.move(tmpFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  private void writeEntries(final DataOutput out, final int fromTableDef, final int fromBlock) throws IOException {
+    for (int i = fromTableDef, l = tableDefPositions.size(); i < l; i++) {
+      writeTableDefEntry(out, tableDefPositions.get(i), tableDefEndPositions.get(i));
+    }
+    for (int i = fromBlock, l = blockPositions.size(); i < l; i++) {
+      writeBlockEntry(out, blockPositions.get(i), blockEndPositions.get(i), blockTableRanges.get(i));
+    }
+  }
+
+  static void writeTableDefEntry(final DataOutput out, final long position, final long endPosition)
+          throws IOException {
+    out.writeByte(TABLE_DEF_ENTRY);
+    out.writeLong(position);
+    out.writeLong(endPosition);
+  }
+
+  static void writeBlockEntry(final DataOutput out, final long position, final long endPosition,
+          final long[] tableRanges) throws IOException {
+    out.writeByte(DATA_BLOCK_ENTRY);
+    out.writeLong(position);
+    out.writeLong(endPosition);
+    out.writeInt(tableRanges.length / 3);
+    for (long val : tableRanges) {
+      out.writeLong(val);
+    }
+  }
+
+  /**
+   * @return (tableId, minTs, maxTs) triplets for all tables present in the block.
+   */
+  static long[] getTableRanges(final DataBlock block) {
+    TLongObjectMap<long[]> ranges = new TLongObjectHashMap<>();
+    long baseTs = block.getBaseTimestamp();
+    for (DataRow row : block.getValues()) {
+      long ts = baseTs + row.getRelTimeStamp();
+      long tableId = row.getTableDefId();
+      long[] range = ranges.get(tableId);
+      if (range == null) {
+        ranges.put(tableId, new long[] {ts, ts});
+      } else if (ts < range[0]) {
+        range[0] = ts;
+      } else if (ts > range[1]) {
+        range[1] = ts;
+      }
+    }
+    long[] result = new long[ranges.size() * 3];
+    int i = 0;
+    for (long tableId : ranges.keys()) {
+      long[] range = ranges.get(tableId);
+      result[i++] = tableId;
+      result[i++] = range[0];
+      result[i++] = range[1];
+    }
+    return result;
+  }
+
+  private void addTableDef(final long position, final long end) {
+    tableDefPositions.add(position);
+    tableDefEndPositions.add(end);
+    if (end > endPosition) {
+      endPosition = end;
+    }
+  }
+
+  private void addBlock(final long position, final long end, final long[] tableRanges) {
+    blockPositions.add(position);
+    blockEndPositions.add(end);
+    blockTableRanges.add(tableRanges);
+    if (end > endPosition) {
+      endPosition = end;
+    }
+    maxTsUpTo = null;
+    minTsFrom = null;
+  }
+
+  private void buildSearchArrays() {
+    int nrBlocks = blockPositions.size();
+    long[] maxUpTo = new long[nrBlocks];
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < nrBlocks; i++) {
+      long[] ranges = blockTableRanges.get(i);
+      for (int j = 2; j < ranges.length; j += 3) {
+        if (ranges[j] > max) {
+          max = ranges[j];
+        }
+      }
+      maxUpTo[i] = max;
+    }
+    long[] minFrom = new long[nrBlocks];
+    long min = Long.MAX_VALUE;
+    for (int i = nrBlocks - 1; i >= 0; i--) {
+      long[] ranges = blockTableRanges.get(i);
+      for (int j = 1; j < ranges.length; j += 3) {
+        if (ranges[j] < min) {
+          min = ranges[j];
+        }
+      }
+      minFrom[i] = min;
+    }
+    maxTsUpTo = maxUpTo;
+    minTsFrom = minFrom;
+  }
+
+  /**
+   * @return the data file position right after the header.
+   */
+  public long getDataStartPosition() {
+    return dataStart;
+  }
+
+  /**
+   * @return the data file position up to which the data is indexed.
+   */
+  public long getEndPosition() {
+    return endPosition;
+  }
+
+  /**
+   * @return the file positions of all table definitions, in file order.
+   */
+  public long[] getTableDefPositions() {
+    return tableDefPositions.toArray();
+  }
+
+  public int getNrBlocks() {
+    return blockPositions.size();
+  }
+
+  public long getBlockPosition(final int blockIdx) {
+    return blockPositions.get(blockIdx);
+  }
+
+  public long getBlockEndPosition(final int blockIdx) {
+    return blockEndPositions.get(blockIdx);
+  }
+
+  /**
+   * @return (tableId, minTs, maxTs) triplets for all tables present in the block.
+   */
+  @SuppressFBWarnings("EI_EXPOSE_REP")
+  public long[] getBlockTableRanges(final int blockIdx) {
+    return blockTableRanges.get(blockIdx);
+  }
+
+  /**
+   * Binary search the first block that can contain data with timestamp &gt;= startTimeMillis.
+   * @return the block index, getNrBlocks() if no such block exists.
+   */
+  public int getFirstBlock(final long startTimeMillis) {
+    if (maxTsUpTo == null) {
+      buildSearchArrays();
+    }
+    int lo = 0;
+    int hi = maxTsUpTo.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (maxTsUpTo[mid] < startTimeMillis) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Binary search the last block that can contain data with timestamp &lt;= endTimeMillis.
+   * @return the block index, -1 if no such block exists.
+   */
+  public int getLastBlock(final long endTimeMillis) {
+    if (minTsFrom == null) {
+      buildSearchArrays();
+    }
+    int lo = 0;
+    int hi = minTsFrom.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (minTsFrom[mid] <= endTimeMillis) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo - 1;
+  }
+
+  /**
+   * @return true if the block contains data for any of the tables selected by the filter within the time range.
+   */
+  public boolean hasData(final int blockIdx, final LongPredicate tableFilter,
+          final long startTimeMillis, final long endTimeMillis) {
+    long[] ranges = blockTableRanges.get(blockIdx);
+    for (int i = 0; i < ranges.length; i += 3) {
+      if (ranges[i + 1] <= endTimeMillis && ranges[i + 2] >= startTimeMillis && tableFilter.test(ranges[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the data file positions of all blocks that contain data for any of the tables selected by the filter
+   * within the time range, in file order.
+   */
+  public long[] getBlockPositions(final LongPredicate tableFilter,
+          final long startTimeMillis, final long endTimeMillis) {
+    TLongList result = new TLongArrayList();
+    for (int i = getFirstBlock(startTimeMillis), l = getLastBlock(endTimeMillis); i <= l; i++) {
+      if (hasData(i, tableFilter, startTimeMillis, endTimeMillis)) {
+        result.add(blockPositions.get(i));
+      }
+    }
+    return result.toArray();
+  }
+
+  @Override
+  public String toString() {
+    return "TSDBIndex{" + "dataStart=" + dataStart + ", nrTableDefs=" + tableDefPositions.size()
+            + ", nrBlocks=" + blockPositions.size() + ", endPosition=" + endPosition + '}';
+  }
+
+}
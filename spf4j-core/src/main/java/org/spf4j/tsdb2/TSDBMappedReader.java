@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.tsdb2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.spf4j.tsdb2.avro.DataBlock;
+import org.spf4j.tsdb2.avro.Header;
+import org.spf4j.tsdb2.avro.TableDef;
+
+/**
+ * Memory mapped TSDB2 data reader. Unlike TSDBReader, this reader does not materialize avro objects, it decodes the
+ * data rows straight from the mapped file into a flyweight cursor:
+ * <pre>
+ * try (TSDBMappedReader reader = new TSDBMappedReader(file)) {
+ *   while (reader.nextRow()) {
+ *     reader.getTableId(); reader.getTimestamp(); reader.getValue(0);...
+ *   }
+ * }
+ * </pre>
+ * To read only the rows of a data block: reader.seek(blockPosition); while (reader.nextBlockRow()) {...}
+ * Table definitions are skipped, use TSDBReader or TSDBQuery to read them.
+ * The file is mapped in windows of spf4j.tsdb2.mmapWindowSize bytes (1GB default), so files larger than 2GB are
+ * supported. A window is always remapped at a record start, records must be smaller than 64MB.
+ *
+ * This reader supports only files written with the DataBlock and ColumnarDataBlock schemas it was compiled with,
+ * and sees only the data committed when the reader was opened.
+ *
+ * @author zoly
+ */
+public final class TSDBMappedReader implements Closeable {
+
+  private static final long WINDOW_SIZE = Long.getLong("spf4j.tsdb2.mmapWindowSize", 1L << 30);
+
+  private static final long MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+  private static final int NO_BLOCK = 0;
+
+  private static final int ROW_BLOCK = 1;
+
+  private static final int COLUMNAR_BLOCK = 2;
+
+  /**
+   * all rows of the current data block have been read, the next record has not been decoded yet.
+   */
+  private static final int BLOCK_END = 3;
+
+  private final File file;
+
+  private final FileChannel channel;
+
+  private final Header header;
+
+  private final long size;
+
+  private final long dataStart;
+
+  private final Schema tableDefSchema;
+
+  private final int tableDefBranch;
+
+  private final int dataBlockBranch;
+
+  private final int columnarBlockBranch;
+
+  private ByteBuffer buf;
+
+  private long windowStart;
+
+  private long windowEnd;
+
+  private long recordPosition;
+
+  private int blockType;
+
+  private long baseTimestamp;
+
+  /**
+   * remaining rows in the current avro array block of a row data block.
+   */
+  private long remainingRows;
+
+  // current row.
+  private long tableId;
+
+  private long timestamp;
+
+  private long[] values;
+
+  private int nrColumns;
+
+  // decoded columnar block.
+  private int colRow;
+
+  private int colNrRows;
+
+  private long[] colTableIds;
+
+  private long[] colTimestamps;
+
+  private int[] colOffsets;
+
+  private int[] colNrColumns;
+
+  private long[] colValues;
+
+  public TSDBMappedReader(final File file) throws IOException {
+    this.file = file;
+    try (TSDBReader reader = new TSDBReader(file, 8192)) {
+      this.header = reader.getHeader();
+      this.size = reader.getSize();
+      this.dataStart = reader.getDataStartPosition();
+    }
+    Schema contentSchema = new Schema.Parser().parse(header.getContentSchema());
+    Schema tdSchema = null;
+    int tdBranch = -1;
+    int dbBranch = -1;
+    int cbBranch = -1;
+    List<Schema> branches = contentSchema.getTypes();
+    for (int i = 0, l = branches.size(); i < l; i++) {
+      Schema branch = branches.get(i);
+      String name = branch.getFullName();
+      if (TableDef.SCHEMA$.getFullName().equals(name)) {
+        tdSchema = branch;
+        tdBranch = i;
+      } else if (DataBlock.SCHEMA$.getFullName().equals(name) && DataBlock.SCHEMA$.equals(branch)) {
+        dbBranch = i;
+      } else if (ColumnarBlocks.SCHEMA.getFullName().equals(name) && ColumnarBlocks.SCHEMA.equals(branch)) {
+        cbBranch = i;
+      } else {
+        throw new IOException("Unsupported record schema " + branch + " in " + file + ", use TSDBReader");
+      }
+    }
+    if (tdSchema == null) {
+      throw new IOException("No table definition schema in " + contentSchema + ", for " + file);
+    }
+    this.tableDefSchema = tdSchema;
+    this.tableDefBranch = tdBranch;
+    this.dataBlockBranch = dbBranch;
+    this.columnarBlockBranch = cbBranch;
+    this.values = new long[16];
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      seek(dataStart);
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Position the cursor at a record start position. (typically obtained from a TSDBIndex)
+   */
+  public void seek(final long position) throws IOException {
+    if (buf == null || position < windowStart || position > windowEnd
+            || (windowEnd < size && windowEnd - position < MAX_RECORD_SIZE)) {
+      long len = Math.min(size - position, WINDOW_SIZE);
+      if (len < 0) {
+        throw new IOException("Invalid position " + position + " for " + this);
+      }
+      buf = channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+      windowStart = position;
+      windowEnd = position + len;
+    } else {
+      buf.position((int) (position - windowStart));
+    }
+    blockType = NO_BLOCK;
+  }
+
+  /**
+   * Advance the cursor to the next data row.
+   * @return false if there are no more rows.
+   */
+  public boolean nextRow() throws IOException {
+    return nextRow(false);
+  }
+
+  /**
+   * Advance the cursor to the next data row of the current data block, (the first data block at or after the seek
+   * position, if no block has been read since the seek) the next data block is never decoded.
+   * @return false if there are no more rows in the current data block.
+   */
+  public boolean nextBlockRow() throws IOException {
+    return nextRow(true);
+  }
+
+  private boolean nextRow(final boolean currentBlockOnly) throws IOException {
+    try {
+      while (true) {
+        switch (blockType) {
+          case ROW_BLOCK:
+            if (nextRowInRowBlock()) {
+              return true;
+            }
+            blockType = BLOCK_END;
+            break;
+          case COLUMNAR_BLOCK:
+            if (colRow < colNrRows) {
+              tableId = colTableIds[colRow];
+              timestamp = colTimestamps[colRow];
+              nrColumns = colNrColumns[colRow];
+              System.arraycopy(colValues, colOffsets[colRow], ensureValuesCapacity(nrColumns), 0, nrColumns);
+              colRow++;
+              return true;
+            }
+            blockType = BLOCK_END;
+            break;
+          case BLOCK_END:
+            if (currentBlockOnly) {
+              return false;
+            }
+            blockType = NO_BLOCK;
+            break;
+          default:
+            if (!nextRecord()) {
+              return false;
+            }
+        }
+      }
+    } catch (BufferUnderflowException | IllegalArgumentException ex) {
+      throw new IOException("Corrupted or too large record at " + recordPosition + " in " + file, ex);
+    }
+  }
+
+  private boolean nextRecord() throws IOException {
+    long position = windowStart + buf.position();
+    if (position >= size) {
+      return false;
+    }
+    seek(position);
+    recordPosition = position;
+    int branch = readInt();
+    if (branch == dataBlockBranch) {
+      baseTimestamp = readLong();
+      remainingRows = 0;
+      blockType = ROW_BLOCK;
+    } else if (branch == columnarBlockBranch) {
+      readColumnarBlock();
+      blockType = COLUMNAR_BLOCK;
+    } else if (branch == tableDefBranch) {
+      skip(tableDefSchema);
+    } else {
+      throw new IOException("Invalid record type " + branch + " at " + position + " in " + file);
+    }
+    return true;
+  }
+
+  private boolean nextRowInRowBlock() throws IOException {
+    if (remainingRows == 0) {
+      remainingRows = readBlockCount();
+      if (remainingRows == 0) {
+        return false;
+      }
+    }
+    remainingRows--;
+    timestamp = baseTimestamp + readInt();
+    tableId = readLong();
+    int n = 0;
+    long count;
+    while ((count = readBlockCount()) != 0) {
+      long[] vals = ensureValuesCapacity(n + (int) count);
+      for (long i = 0; i < count; i++) {
+        vals[n++] = readLong();
+      }
+    }
+    nrColumns = n;
+    return true;
+  }
+
+  /**
+   * decode a columnar block, see ColumnarBlocks for the format.
+   */
+  private void readColumnarBlock() throws IOException {
+    long baseTs = readLong();
+    readLong(); // data byte length.
+    int nrTables = readInt();
+    int row = 0;
+    int valIdx = 0;
+    for (int t = 0; t < nrTables; t++) {
+      long tid = readLong();
+      int nrRows = readInt();
+      int nrCols = readInt();
+      ensureColumnarCapacity(row + nrRows, valIdx + nrRows * nrCols);
+      long ts = 0;
+      long delta = 0;
+      for (int r = 0; r < nrRows; r++) {
+        delta += readLong();
+        ts += delta;
+        int rowIdx = row + r;
+        colTableIds[rowIdx] = tid;
+        colTimestamps[rowIdx] = baseTs + (int) ts;
+        colNrColumns[rowIdx] = nrCols;
+        colOffsets[rowIdx] = valIdx + r * nrCols;
+      }
+      int c = 0;
+      while (c < nrCols) {
+        int encoding = readInt();
+        if (encoding == ColumnarBlocks.ZEROS) {
+          int nrZeroCols = readInt();
+          if (nrZeroCols <= 0 || nrZeroCols > nrCols - c) {
+            throw new IOException("Invalid zero column run " + nrZeroCols + " at " + recordPosition + " in " + file);
+          }
+          for (int r = 0; r < nrRows; r++) {
+            int rowStart = valIdx + r * nrCols;
+            Arrays.fill(colValues, rowStart + c, rowStart + c + nrZeroCols, 0L);
+          }
+          c += nrZeroCols;
+          continue;
+        }
+        boolean xor = encoding == ColumnarBlocks.XOR;
+        if (!xor && encoding != ColumnarBlocks.DELTA) {
+          throw new IOException("Invalid column encoding " + encoding + " at " + recordPosition + " in " + file);
+        }
+        long prev = 0;
+        for (int r = 0; r < nrRows; r++) {
+          long val = readLong();
+          prev = xor ? prev ^ val : prev + val;
+          colValues[valIdx + r * nrCols + c] = prev;
+        }
+        c++;
+      }
+      row += nrRows;
+      valIdx += nrRows * nrCols;
+    }
+    colRow = 0;
+    colNrRows = row;
+  }
+
+  private void ensureColumnarCapacity(final int nrRows, final int nrValues) {
+    if (colTableIds == null || colTableIds.length < nrRows) {
+      int newSize = Math.max(nrRows, colTableIds == null ? 256 : colTableIds.length * 2);
+      colTableIds = colTableIds == null ? new long[newSize] : Arrays.copyOf(colTableIds, newSize);
+      colTimestamps = colTimestamps == null ? new long[newSize] : Arrays.copyOf(colTimestamps, newSize);
+      colOffsets = colOffsets == null ? new int[newSize] : Arrays.copyOf(colOffsets, newSize);
+      colNrColumns = colNrColumns == null ? new int[newSize] : Arrays.copyOf(colNrColumns, newSize);
+    }
+    if (colValues == null || colValues.length < nrValues) {
+      int newSize = Math.max(nrValues, colValues == null ? 1024 : colValues.length * 2);
+      colValues = colValues == null ? new long[newSize] : Arrays.copyOf(colValues, newSize);
+    }
+  }
+
+  private long[] ensureValuesCapacity(final int capacity) {
+    if (values.length < capacity) {
+      values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+    }
+    return values;
+  }
+
+  /**
+   * skip a avro binary encoded value.
+   */
+  private void skip(final Schema schema) throws IOException {
+    switch (schema.getType()) {
+      case NULL:
+        break;
+      case BOOLEAN:
+        skipBytes(1);
+        break;
+      case INT:
+      case LONG:
+      case ENUM:
+        readLong();
+        break;
+      case FLOAT:
+        skipBytes(4);
+        break;
+      case DOUBLE:
+        skipBytes(8);
+        break;
+      case STRING:
+      case BYTES:
+        skipBytes(readLong());
+        break;
+      case FIXED:
+        skipBytes(schema.getFixedSize());
+        break;
+      case ARRAY:
+        skipBlocks(schema.getElementType(), false);
+        break;
+      case MAP:
+        skipBlocks(schema.getValueType(), true);
+        break;
+      case RECORD:
+        for (Schema.Field field : schema.getFields()) {
+          skip(field.schema());
+        }
+        break;
+      case UNION:
+        skip(schema.getTypes().get(readInt()));
+        break;
+      default:
+        throw new IOException("Unsupported schema " + schema);
+    }
+  }
+
+  private void skipBlocks(final Schema elementSchema, final boolean isMap) throws IOException {
+    long count;
+    while ((count = readLong()) != 0) {
+      if (count < 0) {
+        skipBytes(readLong());
+      } else {
+        for (long i = 0; i < count; i++) {
+          if (isMap) {
+            skipBytes(readLong());
+          }
+          skip(elementSchema);
+        }
+      }
+    }
+  }
+
+  private long readBlockCount() {
+    long count = readLong();
+    if (count < 0) {
+      readLong(); // block byte size.
+      return -count;
+    }
+    return count;
+  }
+
+  private void skipBytes(final long nrBytes) throws IOException {
+    if (nrBytes < 0 || nrBytes > buf.remaining()) {
+      throw new IOException("Invalid length " + nrBytes + " at " + (windowStart + buf.position()) + " in " + file);
+    }
+    buf.position(buf.position() + (int) nrBytes);
+  }
+
+  private int readInt() {
+    return (int) readLong();
+  }
+
+  /**
+   * read a zig-zag var-int encoded long. (avro long/int binary encoding)
+   */
+  private long readLong() {
+    long n = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = buf.get() & 0xff;
+      n |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0 && shift < 64);
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  /**
+   * @return the table id of the current row.
+   */
+  public long getTableId() {
+    return tableId;
+  }
+
+  /**
+   * @return the timestamp (millis since epoch) of the current row.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * @return the number of values of the current row.
+   */
+  public int getNrColumns() {
+    return nrColumns;
+  }
+
+  /**
+   * @return the column value of the current row.
+   */
+  public long getValue(final int column) {
+    if (column >= nrColumns) {
+      throw new IndexOutOfBoundsException("Column " + column + " invalid, nrColumns = " + nrColumns);
+    }
+    return values[column];
+  }
+
+  /**
+   * @return a copy of the values of the current row.
+   */
+  public long[] getValues() {
+    return Arrays.copyOf(values, nrColumns);
+  }
+
+  /**
+   * @return true if all rows of the current data block have been read.
+   */
+  public boolean isBlockEnd() {
+    return blockType == BLOCK_END;
+  }
+
+  /**
+   * @return the file position of the data block the current row belongs to.
+   */
+  public long getBlockPosition() {
+    return recordPosition;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getDataStartPosition() {
+    return dataStart;
+  }
+
+  public Header getHeader() {
+    return header;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public void close() throws IOException {
+    buf = null;
+    channel.close();
+  }
+
+  @Override
+  public String toString() {
+    return "TSDBMappedReader{" + "file=" + file + ", size=" + size + ", windowStart=" + windowStart
+            + ", windowEnd=" + windowEnd + '}';
+  }
+
+}
@@ -52,6 +52,7 @@ import java.nio.file.Files;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -59,17 +60,22 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.function.BiConsumer;
+import java.util.function.LongPredicate;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.spf4j.base.DateTimeFormats;
+import org.spf4j.base.ComparablePair;
 import org.spf4j.base.Either;
 import org.spf4j.base.Strings;
 import org.spf4j.base.avro.AvroCloseableIterable;
 import org.spf4j.io.Csv;
+import org.spf4j.io.IOConsumer;
 import org.spf4j.perf.TimeSeriesRecord;
+import org.spf4j.perf.impl.Quanta;
+import org.spf4j.perf.impl.acc.LogLinearHistogramAccumulator;
 import org.spf4j.tsdb2.avro.ColumnDef;
 import org.spf4j.tsdb2.avro.DataBlock;
 import org.spf4j.tsdb2.avro.DataRow;
@@ -83,6 +89,11 @@ import org.spf4j.tsdb2.avro.TableDef;
  */
 public final class TSDBQuery {
 
+  /**
+   * read data rows with the memory mapped TSDBMappedReader, instead of TSDBReader.
+   */
+  private static final boolean USE_MMAP = Boolean.parseBoolean(System.getProperty("spf4j.tsdb2.mmapRead", "true"));
+
   private TSDBQuery() {
   }
 
@@ -95,16 +106,47 @@ public final class TSDBQuery {
     return MeasurementType.valueOf(mt);
   }
 
+  /**
+   * Read all table definitions, seeking directly to them using the file index.
+   */
+  private static List<TableDef> readTableDefs(final TSDBReader reader, final TSDBIndex index)
+          throws IOException {
+    long[] positions = index.getTableDefPositions();
+    List<TableDef> result = new ArrayList<>(positions.length);
+    for (long position : positions) {
+      Either<TableDef, DataBlock> read = readAt(reader, position);
+      if (!read.isLeft()) {
+        throw new IOException("Expected table definition at " + position + ", not " + read + " in " + reader);
+      }
+      result.add(read.getLeft());
+    }
+    return result;
+  }
+
+  private static DataBlock readBlockAt(final TSDBReader reader, final long position) throws IOException {
+    Either<TableDef, DataBlock> read = readAt(reader, position);
+    if (read.isLeft()) {
+      throw new IOException("Expected data block at " + position + ", not " + read + " in " + reader);
+    }
+    return read.getRight();
+  }
+
+  private static Either<TableDef, DataBlock> readAt(final TSDBReader reader, final long position)
+          throws IOException {
+    reader.seek(position);
+    Either<TableDef, DataBlock> read = reader.read();
+    if (read == null) {
+      throw new IOException("No record at " + position + " in " + reader);
+    }
+    return read;
+  }
+
   @SuppressFBWarnings("RV_RETURN_VALUE_IGNORED")
   public static ListMultimap<String, TableDef> getAllTables(final File tsdbFile) throws IOException {
     ListMultimap<String, TableDef> result = ArrayListMultimap.create();
     try (TSDBReader reader = new TSDBReader(tsdbFile, 8192)) {
-      Either<TableDef, DataBlock> read;
-      while ((read = reader.read()) != null) {
-        if (read.isLeft()) {
-          final TableDef tdef = read.getLeft();
-          result.put(tdef.getName(), tdef);
-        }
+      for (TableDef tdef : readTableDefs(reader, TSDBIndex.load(reader))) {
+        result.put(tdef.getName(), tdef);
       }
     }
     return result;
@@ -115,14 +157,10 @@ public final class TSDBQuery {
           throws IOException {
     ListMultimap<String, TableDef> result = ArrayListMultimap.create();
     try (TSDBReader reader = new TSDBReader(tsdbFile, 8192)) {
-      Either<TableDef, DataBlock> read;
-      while ((read = reader.read()) != null) {
-        if (read.isLeft()) {
-          final TableDef tdef = read.getLeft();
-          final String name = tdef.getName();
-          if (tables.contains(name)) {
-            result.put(name, tdef);
-          }
+      for (TableDef tdef : readTableDefs(reader, TSDBIndex.load(reader))) {
+        final String name = tdef.getName();
+        if (tables.contains(name)) {
+          result.put(name, tdef);
         }
       }
     }
@@ -173,28 +211,26 @@ public final class TSDBQuery {
     ListMultimap<String, TableDefEx> result = ArrayListMultimap.create();
     TLongObjectMap<TableDefEx> id2Def = new TLongObjectHashMap<>();
     try (TSDBReader reader = new TSDBReader(tsdbFile, 8192)) {
-      Either<TableDef, DataBlock> read;
-      while ((read = reader.read()) != null) {
-        if (read.isLeft()) {
-          final TableDef left = read.getLeft();
-          final TableDefEx tableDefEx = new TableDefEx(left, Long.MAX_VALUE, 0L);
-          id2Def.put(left.getId(), tableDefEx);
-          result.put(tableDefEx.getTableDef().getName(), tableDefEx);
-        } else {
-          DataBlock right = read.getRight();
-          long baseTs = right.getBaseTimestamp();
-          for (DataRow row : right.getValues()) {
-            TableDefEx tdex = id2Def.get(row.getTableDefId());
-            if (tdex == null) {
-              throw new IOException("Potentially corupted file data row with no tableDef " + row);
-            }
-            long ts = baseTs + row.getRelTimeStamp();
-            if (ts < tdex.getStartTime()) {
-              tdex.setStartTime(ts);
-            }
-            if (ts > tdex.getEndTime()) {
-              tdex.setEndTime(ts);
-            }
+      TSDBIndex index = TSDBIndex.load(reader);
+      for (TableDef tdef : readTableDefs(reader, index)) {
+        final TableDefEx tableDefEx = new TableDefEx(tdef, Long.MAX_VALUE, 0L);
+        id2Def.put(tdef.getId(), tableDefEx);
+        result.put(tdef.getName(), tableDefEx);
+      }
+      // data ranges are available in the index, no need to read the data blocks.
+      for (int i = 0, l = index.getNrBlocks(); i < l; i++) {
+        long[] ranges = index.getBlockTableRanges(i);
+        for (int j = 0; j < ranges.length; j += 3) {
+          TableDefEx tdex = id2Def.get(ranges[j]);
+          if (tdex == null) {
+            throw new IOException("Potentially corupted file data block at " + index.getBlockPosition(i)
+                    + " with no tableDef " + ranges[j]);
+          }
+          if (ranges[j + 1] < tdex.getStartTime()) {
+            tdex.setStartTime(ranges[j + 1]);
+          }
+          if (ranges[j + 2] > tdex.getEndTime()) {
+            tdex.setEndTime(ranges[j + 2]);
           }
         }
       }
@@ -206,13 +242,9 @@ public final class TSDBQuery {
   public static List<TableDef> getTableDef(final File tsdbFile, final String tableName) throws IOException {
     List<TableDef> result = new ArrayList<>();
     try (TSDBReader reader = new TSDBReader(tsdbFile, 8192)) {
-      Either<TableDef, DataBlock> read;
-      while ((read = reader.read()) != null) {
-        if (read.isLeft()) {
-          TableDef left = read.getLeft();
-          if (tableName.equals(left.getName())) {
-            result.add(left);
-          }
+      for (TableDef tdef : readTableDefs(reader, TSDBIndex.load(reader))) {
+        if (tableName.equals(tdef.getName())) {
+          result.add(tdef);
         }
       }
     }
@@ -230,22 +262,133 @@ public final class TSDBQuery {
     return new TimeSeries(timestamps.toArray(), metrics.toArray(new long[metrics.size()][]));
   }
 
+  /**
+   * Compute percentiles over a time range for a histogram table (QuantizedAccumulator, LogLinearHistogramAccumulator).
+   * The histogram bucket (Q&lt;start&gt;_&lt;end&gt;) columns, or the encoded histogram column, are merged over the
+   * time range, and the percentiles are computed from the merged histogram. The result for a percentile is the
+   * highest value of the bucket that contains it, bounded by the min and max columns if available.
+   * @param tsdbFile the tsdb2 file.
+   * @param tableName the histogram table name.
+   * @param startTimeMillis start time inclusive.
+   * @param endTimeMillis end time inclusive.
+   * @param percentiles the percentiles to compute, [0 - 100].
+   * @return the values at the requested percentiles, or null if there are no measurements in the time range.
+   * @throws IOException
+   */
+  @Nullable
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  public static long[] getPercentiles(final File tsdbFile, final String tableName,
+          final long startTimeMillis, final long endTimeMillis, final double... percentiles) throws IOException {
+    List<TableDef> tableDefs = getTableDef(tsdbFile, tableName);
+    if (tableDefs.isEmpty()) {
+      throw new IllegalArgumentException("Table " + tableName + " not found in " + tsdbFile);
+    }
+    TableDef td = tableDefs.get(0);
+    for (TableDef other : tableDefs) {
+      if (!td.getColumns().equals(other.getColumns())) {
+        throw new IllegalArgumentException("Incompatible table definitions " + td + ", " + other);
+      }
+    }
+    if (TableDefs.getNumberOfScalarColumns(td) < td.getColumns().size()) {
+      return getEncodedHistogramPercentiles(tsdbFile, tableDefs, startTimeMillis, endTimeMillis, percentiles);
+    }
+    List<ComparablePair<Quanta, Integer>> quantas = new ArrayList<>();
+    int i = 0;
+    for (ColumnDef cd : td.getColumns()) {
+      String colName = cd.getName();
+      if (colName.startsWith("Q") && colName.contains("_")) {
+        quantas.add(ComparablePair.of(new Quanta(colName), i));
+      }
+      i++;
+    }
+    if (quantas.isEmpty()) {
+      throw new IllegalArgumentException("Table " + tableName + " is not a histogram " + td);
+    }
+    Collections.sort(quantas);
+    final int minIdx = getColumnIndex(td, "min");
+    final int maxIdx = getColumnIndex(td, "max");
+    final long[] sums = new long[td.getColumns().size()];
+    final long[] minMax = {Long.MAX_VALUE, Long.MIN_VALUE};
+    getTimeSeries(tsdbFile, getIds(tableDefs), startTimeMillis, endTimeMillis, (ts, data) -> {
+      for (int j = 0; j < data.length; j++) {
+        sums[j] += data[j];
+      }
+      if (minIdx >= 0) {
+        minMax[0] = Math.min(minMax[0], data[minIdx]);
+      }
+      if (maxIdx >= 0) {
+        minMax[1] = Math.max(minMax[1], data[maxIdx]);
+      }
+    });
+    long count = 0;
+    for (ComparablePair<Quanta, Integer> q : quantas) {
+      count += sums[q.getSecond()];
+    }
+    if (count == 0) {
+      return null;
+    }
+    long[] result = new long[percentiles.length];
+    for (int p = 0; p < percentiles.length; p++) {
+      long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100 * count));
+      long cumulated = 0;
+      for (ComparablePair<Quanta, Integer> q : quantas) {
+        cumulated += sums[q.getSecond()];
+        if (cumulated >= rank) {
+          Quanta quanta = q.getFirst();
+          long end = quanta.getIntervalEnd();
+          long value = end == Long.MAX_VALUE ? Math.max(quanta.getIntervalStart(), minMax[1]) : end - 1;
+          result[p] = Math.max(minMax[0], Math.min(value, minMax[1]));
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
+  private static long[] getEncodedHistogramPercentiles(final File tsdbFile, final List<TableDef> tableDefs,
+          final long startTimeMillis, final long endTimeMillis, final double... percentiles) throws IOException {
+    TableDef td = tableDefs.get(0);
+    String unit = td.getColumns().get(0).getUnitOfMeasurement();
+    LogLinearHistogramAccumulator[] histogram = new LogLinearHistogramAccumulator[1];
+    getTimeSeries(tsdbFile, getIds(tableDefs), startTimeMillis, endTimeMillis, (ts, data) -> {
+      if (histogram[0] == null) {
+        histogram[0] = LogLinearHistogramAccumulator.fromRow(td.getName(), td.getDescription(), unit, data);
+      } else {
+        histogram[0].aggregateRow(data);
+      }
+    });
+    if (histogram[0] == null) {
+      return null;
+    }
+    long[] result = new long[percentiles.length];
+    for (int p = 0; p < percentiles.length; p++) {
+      result[p] = histogram[0].getValueAtPercentile(percentiles[p]);
+    }
+    return result;
+  }
+
   public static void getTimeSeries(final File tsdbFile, final long[] tableIds,
           final long startTimeMillis, final long endTimeMillis, final BiConsumer<Long, long[]> consumer)
           throws IOException {
+    if (USE_MMAP) {
+      scan(tsdbFile, (id) -> Longs.contains(tableIds, id), startTimeMillis, endTimeMillis,
+              (row) -> consumer.accept(row.getTimestamp(), row.getValues()));
+      return;
+    }
     try (TSDBReader reader = new TSDBReader(tsdbFile, 8192)) {
-      Either<TableDef, DataBlock> read;
-      while ((read = reader.read()) != null) {
-        if (read.isRight()) {
-          DataBlock data = read.getRight();
-          long baseTs = data.getBaseTimestamp();
-          for (DataRow row : data.getValues()) {
-            for (long tableId : tableIds) {
-              if (tableId == row.getTableDefId()) {
-                final long ts = baseTs + row.getRelTimeStamp();
-                if (ts >= startTimeMillis && ts <= endTimeMillis) {
-                  consumer.accept(ts, Longs.toArray(row.getData()));
-                }
+      TSDBIndex index = TSDBIndex.load(reader);
+      for (long position : index.getBlockPositions((id) -> Longs.contains(tableIds, id),
+              startTimeMillis, endTimeMillis)) {
+        DataBlock data = readBlockAt(reader, position);
+        long baseTs = data.getBaseTimestamp();
+        for (DataRow row : data.getValues()) {
+          for (long tableId : tableIds) {
+            if (tableId == row.getTableDefId()) {
+              final long ts = baseTs + row.getRelTimeStamp();
+              if (ts >= startTimeMillis && ts <= endTimeMillis) {
+                consumer.accept(ts, Longs.toArray(row.getData()));
               }
             }
           }
@@ -256,6 +399,37 @@ public final class TSDBQuery {
 
 
 
+  /**
+   * Scan the data rows of the selected tables within a time range with a memory mapped reader.
+   * Only the data blocks that contain relevant data (according to the file index) are read.
+   * @param tsdbFile the tsdb2 file.
+   * @param tableFilter the table id filter.
+   * @param startTimeMillis start time inclusive.
+   * @param endTimeMillis end time inclusive.
+   * @param consumer the row consumer, the provided row cursor is valid only for the duration of the call.
+   * @throws IOException
+   */
+  public static void scan(final File tsdbFile, final LongPredicate tableFilter,
+          final long startTimeMillis, final long endTimeMillis, final IOConsumer<TSDBMappedReader> consumer)
+          throws IOException {
+    TSDBIndex index = TSDBIndex.load(tsdbFile);
+    try (TSDBMappedReader reader = new TSDBMappedReader(tsdbFile)) {
+      long size = reader.getSize();
+      for (long position : index.getBlockPositions(tableFilter, startTimeMillis, endTimeMillis)) {
+        if (position >= size) {
+          break;
+        }
+        reader.seek(position);
+        while (reader.nextBlockRow()) {
+          long ts = reader.getTimestamp();
+          if (ts >= startTimeMillis && ts <= endTimeMillis && tableFilter.test(reader.getTableId())) {
+            consumer.acceptEx(reader);
+          }
+        }
+      }
+    }
+  }
+
   /**
    *
    * @param tsdbFile
@@ -284,7 +458,9 @@ public final class TSDBQuery {
           final long endTimeMillis, final Collection<Long> ids, final Schema rSchema) throws IOException {
     TSDBReader reader = new TSDBReader(tsdbFile, 8192);
     try {
-      DataScan dataScan = new DataScan(reader);
+      long[] blocks = TSDBIndex.load(reader).getBlockPositions((id) -> ids.contains(id),
+              startTimeMillis, endTimeMillis);
+      DataScan dataScan = new DataScan(reader, blocks);
       Iterable<Observation> filtered = Iterables.filter(dataScan,
               (x) -> {
                 long ts = x.getRelTimeStamp();
@@ -302,7 +478,7 @@ public final class TSDBQuery {
   public static AvroCloseableIterable<Observation> getTimeSeriesData(final File tsdbFile) throws IOException {
     TSDBReader reader = new TSDBReader(tsdbFile, 8192);
     try {
-      Iterable<Observation> dataScan = new DataScan(reader);
+      Iterable<Observation> dataScan = new DataScan(reader, null);
       return AvroCloseableIterable.from(dataScan, reader, Observation.getClassSchema());
     } catch (RuntimeException | IOException ex) {
       reader.close();
@@ -337,8 +513,15 @@ public final class TSDBQuery {
 
     private final TSDBReader reader;
 
-    DataScan(final TSDBReader tsdb) throws IOException {
+    /**
+     * the positions of the data blocks to scan, null to scan all the file.
+     */
+    @Nullable
+    private final long[] blockPositions;
+
+    DataScan(final TSDBReader tsdb, @Nullable final long[] blockPositions) throws IOException {
       reader = tsdb;
+      this.blockPositions = blockPositions;
     }
 
     @Override
@@ -348,6 +531,8 @@ public final class TSDBQuery {
         private long baseTs;
         private Iterator<DataRow> dataBlock;
 
+        private int blockIdx = 0;
+
         {
           nextBlock();
         }
@@ -355,6 +540,16 @@ public final class TSDBQuery {
         private void nextBlock() {
           Either<TableDef, DataBlock> read;
           try {
+            if (blockPositions != null) {
+              if (blockIdx < blockPositions.length) {
+                DataBlock block = readBlockAt(reader, blockPositions[blockIdx++]);
+                baseTs = block.getBaseTimestamp();
+                dataBlock = block.getValues().iterator();
+                return;
+              }
+              dataBlock = null;
+              return;
+            }
             while ((read = reader.read()) != null) {
               if (read.isRight()) {
                 DataBlock block = read.getRight();
@@ -420,26 +615,54 @@ public final class TSDBQuery {
           throws IOException {
 
     List<TableDef> tableDefs = getTableDef(tsDB, tableName);
-    TimeSeries data = getTimeSeries(tsDB, getIds(tableDefs), 0, Long.MAX_VALUE);
-
     Csv.writeCsvElement("timestamp", writer);
     for (ColumnDef col : tableDefs.get(0).getColumns()) {
       writer.append(',');
       Csv.writeCsvElement(col.getName(), writer);
     }
     writer.append('\n');
-    long[] timestamps = data.getTimeStamps();
-    long[][] values = data.getValues();
-    for (int i = 0; i < timestamps.length; i++) {
-      Csv.writeCsvElement(DateTimeFormats.TS_FORMAT.format(Instant.ofEpochMilli(timestamps[i])), writer);
-      for (long val : values[i]) {
-        writer.append(',');
-        Csv.writeCsvElement(Long.toString(val), writer);
+    writeCsvRows(writer, null, tsDB, getIds(tableDefs));
+  }
+
+  /**
+   * write all rows of the tables, streaming them from the file when memory mapped reads are enabled.
+   * @param tableName the table name to write as first column, or null if no table column is needed.
+   */
+  private static void writeCsvRows(final Appendable writer, @Nullable final String tableName,
+          final File tsDB, final long[] tableIds) throws IOException {
+    if (USE_MMAP) {
+      scan(tsDB, (id) -> Longs.contains(tableIds, id), 0, Long.MAX_VALUE, (row) -> {
+        writeCsvRowStart(writer, tableName, row.getTimestamp());
+        for (int i = 0, l = row.getNrColumns(); i < l; i++) {
+          writer.append(',');
+          Csv.writeCsvElement(Long.toString(row.getValue(i)), writer);
+        }
+        writer.append('\n');
+      });
+    } else {
+      TimeSeries data = getTimeSeries(tsDB, tableIds, 0, Long.MAX_VALUE);
+      long[] timestamps = data.getTimeStamps();
+      long[][] values = data.getValues();
+      for (int i = 0; i < timestamps.length; i++) {
+        writeCsvRowStart(writer, tableName, timestamps[i]);
+        for (long val : values[i]) {
+          writer.append(',');
+          Csv.writeCsvElement(Long.toString(val), writer);
+        }
+        writer.append('\n');
       }
-      writer.append('\n');
     }
   }
 
+  private static void writeCsvRowStart(final Appendable writer, @Nullable final String tableName,
+          final long timestamp) throws IOException {
+    if (tableName != null) {
+      Csv.writeCsvElement(tableName, writer);
+      writer.append(',');
+    }
+    Csv.writeCsvElement(DateTimeFormats.TS_FORMAT.format(Instant.ofEpochMilli(timestamp)), writer);
+  }
+
   public static void writeCsvTables(final File tsDB, final Set<String> tableNames, final File output)
           throws IOException {
     if (tableNames.isEmpty()) {
@@ -459,20 +682,7 @@ public final class TSDBQuery {
       writer.write('\n');
 
       for (Map.Entry<String, Collection<TableDef>> tEntry : tables.asMap().entrySet()) {
-
-        TimeSeries data = getTimeSeries(tsDB, getIds(tEntry.getValue()), 0, Long.MAX_VALUE);
-        long[] timestamps = data.getTimeStamps();
-        long[][] values = data.getValues();
-        for (int i = 0; i < timestamps.length; i++) {
-          Csv.writeCsvElement(tEntry.getKey(), writer);
-          writer.append(',');
-          Csv.writeCsvElement(DateTimeFormats.TS_FORMAT.format(Instant.ofEpochMilli(timestamps[i])), writer);
-          for (long val : values[i]) {
-            writer.append(',');
-            Csv.writeCsvElement(Long.toString(val), writer);
-          }
-          writer.write('\n');
-        }
+        writeCsvRows(writer, tEntry.getKey(), tsDB, getIds(tEntry.getValue()));
       }
     }
   }
@@ -56,6 +56,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
@@ -78,7 +79,8 @@ public final class TSDBReader implements Closeable {
 
   private static final boolean CORUPTION_LENIENT = Boolean.getBoolean("spf4j.tsdb2.lenientRead");
 
-  private static final Schema R_SCHEMA = Schema.createUnion(Arrays.asList(TableDef.SCHEMA$, DataBlock.SCHEMA$));
+  private static final Schema R_SCHEMA = Schema.createUnion(Arrays.asList(TableDef.SCHEMA$, DataBlock.SCHEMA$,
+          ColumnarBlocks.SCHEMA));
 
   private CountingInputStream bis;
   private final Header header;
@@ -91,6 +93,7 @@ public final class TSDBReader implements Closeable {
   private volatile boolean watch;
   private final int bufferSize;
   private final SeekableByteChannel byteChannel;
+  private final long dataStart;
 
   public TSDBReader(final File file, final int bufferSize) throws IOException {
     this(file, bufferSize, 0L);
@@ -109,6 +112,7 @@ public final class TSDBReader implements Closeable {
     ByteStreams.readFully(bis, buff);
     size = Longs.fromByteArray(buff);
     header = reader.read(null, decoder);
+    dataStart = bis.getCount();
     recordReader = new SpecificDatumReader<>(
             new Schema.Parser().parse(header.getContentSchema()), R_SCHEMA);
     if (from > 0L) {
@@ -144,6 +148,31 @@ public final class TSDBReader implements Closeable {
     }
   }
 
+  /**
+   * Position the reader at a record start position. (typically obtained from a TSDBIndex)
+   * @param position the file position to continue reading from.
+   * @throws IOException
+   */
+  public synchronized void seek(final long position) throws IOException {
+    if (position != bis.getCount()) {
+      resetStream(position);
+    }
+  }
+
+  /**
+   * @return the file position of the next record to be read.
+   */
+  public synchronized long getPosition() {
+    return bis.getCount();
+  }
+
+  /**
+   * @return the file position of the first record. (right after the header)
+   */
+  public long getDataStartPosition() {
+    return dataStart;
+  }
+
   @Nullable
   public synchronized Either<TableDef, DataBlock> read() throws IOException {
     final long position = bis.getCount();
@@ -167,6 +196,8 @@ public final class TSDBReader implements Closeable {
         throw new IOException("Table Id should be equal with file position " + position + ", " + tdId);
       }
       return Either.left(td);
+    } else if (ColumnarBlocks.isColumnarBlock(result)) {
+      return Either.right(ColumnarBlocks.decode((GenericRecord) result));
     } else {
       return Either.right((DataBlock) result);
     }
@@ -189,6 +220,10 @@ public final class TSDBReader implements Closeable {
     return header;
   }
 
+  public File getFile() {
+    return file;
+  }
+
   public void stopWatching() {
     watch = false;
   }
@@ -34,27 +34,43 @@ package org.spf4j.tsdb2;
 import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Longs;
 import edu.umd.cs.findbugs.annotations.CreatesObligation;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
 import java.io.Closeable;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
+import org.spf4j.base.AbstractRunnable;
 import org.spf4j.base.Strings;
+import org.spf4j.base.TimeSource;
+import org.spf4j.concurrent.DefaultExecutor;
+import org.spf4j.concurrent.DefaultScheduler;
 import org.spf4j.io.BufferedInputStream;
 import org.spf4j.io.ByteArrayBuilder;
 import org.spf4j.recyclable.impl.ArraySuppliers;
@@ -66,7 +82,10 @@ import org.spf4j.tsdb2.avro.TableDef;
 /**
  * Second generation Time-Series database format. The linked list structure from first generation is dropped to reduce
  * write overhead.
+ * A sparse block index is maintained in a side-car file (see TSDBIndex), appended on every flush.
  *
+ * When flushed data is forced to the storage device is controlled by the Durability mode, with PERIODIC_SYNC
+ * flushes are group committed by a background task, so that many flushes result in a single force.
  *
  * @author zoly
  */
@@ -75,24 +94,137 @@ public final class TSDBWriter implements Closeable, Flushable {
   public static final Schema FILE_RECORD_SCHEMA
           = Schema.createUnion(Arrays.asList(TableDef.SCHEMA$, DataBlock.SCHEMA$));
 
+  /**
+   * file record schema for files that can contain columnar data blocks.
+   * (files with this schema cannot be read by older readers)
+   */
+  public static final Schema COLUMNAR_FILE_RECORD_SCHEMA
+          = Schema.createUnion(Arrays.asList(TableDef.SCHEMA$, DataBlock.SCHEMA$, ColumnarBlocks.SCHEMA));
+
+  public static final boolean DEFAULT_COLUMNAR = Boolean.getBoolean("spf4j.tsdb2.columnarBlocks");
+
   static final byte[] MAGIC = Strings.toUtf8("TSDB2");
 
+  public static final Durability DEFAULT_DURABILITY
+          = Durability.valueOf(System.getProperty("spf4j.tsdb2.durability", "SYNC"));
+
+  public static final int DEFAULT_SYNC_INTERVAL_MILLIS
+          = Integer.getInteger("spf4j.tsdb2.syncIntervalMillis", 5000);
+
+  public static final long DEFAULT_MAX_UNSYNCED_BYTES
+          = Long.getLong("spf4j.tsdb2.maxUnsyncedBytes", 1024 * 1024);
+
+  /**
+   * Controls when flushed data is forced to the storage device.
+   */
+  public enum Durability {
+    /**
+     * every flush forces data and file metadata to the storage device before returning. (the previous behavior)
+     */
+    SYNC,
+    /**
+     * flushed data is forced (without the file metadata not needed to read it) by a background group commit
+     * every sync interval, or sooner when the unsynced bytes reach a limit.
+     * An OS crash can lose the data flushed since the last sync.
+     */
+    PERIODIC_SYNC,
+    /**
+     * data is never explicitly forced, this is left to the OS. (except on close)
+     */
+    OS
+  }
+
   private final File file;
   private final FileChannel channel;
   private final BinaryEncoder encoder;
   private final Header header;
-  private final SpecificDatumWriter<Object> recordWriter = new SpecificDatumWriter<>(FILE_RECORD_SCHEMA);
+  private final SpecificDatumWriter<Object> recordWriter;
   private final DataBlock writeBlock;
   private final int maxRowsPerBlock;
   private final RandomAccessFile raf;
 
   private final ByteArrayBuilder bab;
 
+  /**
+   * buffer for columnar block encoding, null if this writer does not write columnar blocks.
+   */
+  @Nullable
+  private final ByteArrayBuilder columnarBuffer;
+
+  private final DataOutputStream indexOut;
+
+  /**
+   * table definitions (position, end position) written since the last index update.
+   */
+  private final TLongList pendingTableDefs;
+
+  private final Durability durability;
+
+  private final long maxUnsyncedBytes;
+
+  private final ByteBuffer eofPtrBuffer;
+
+  @Nullable
+  private final ScheduledFuture<?> syncTask;
+
+  private final AtomicBoolean syncRequested;
+
+  /**
+   * bytes written since the last sync, guarded by this.
+   */
+  private long unsyncedBytes;
+
+  private final AtomicLong bytesWritten;
+
+  private final AtomicLong syncCount;
+
+  private final AtomicLong syncTimeNanos;
+
+  private final AtomicLong maxSyncTimeNanos;
+
   @CreatesObligation
   public TSDBWriter(final File file, final int maxRowsPerBlock,
           final String description, final boolean append) throws IOException {
+    this(file, maxRowsPerBlock, description, append,
+            DEFAULT_DURABILITY, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_MAX_UNSYNCED_BYTES, DEFAULT_COLUMNAR);
+  }
+
+  @CreatesObligation
+  public TSDBWriter(final File file, final int maxRowsPerBlock,
+          final String description, final boolean append, final Durability durability,
+          final int syncIntervalMillis, final long maxUnsyncedBytes) throws IOException {
+    this(file, maxRowsPerBlock, description, append,
+            durability, syncIntervalMillis, maxUnsyncedBytes, DEFAULT_COLUMNAR);
+  }
+
+  /**
+   * @param file the file to write to.
+   * @param maxRowsPerBlock the maximum number of rows per data block, a block is flushed when full.
+   * @param description the file description, null when appending.
+   * @param append append to a existing file.
+   * @param durability when flushed data is forced to the storage device.
+   * @param syncIntervalMillis the group commit interval, for PERIODIC_SYNC.
+   * @param maxUnsyncedBytes the unsynced bytes that will trigger a group commit before the interval elapses,
+   * for PERIODIC_SYNC.
+   * @param columnar write columnar data blocks. (see ColumnarBlocks) When appending to a existing file,
+   * columnar blocks will be written only if the file was created with columnar blocks enabled.
+   * @throws IOException
+   */
+  @CreatesObligation
+  public TSDBWriter(final File file, final int maxRowsPerBlock,
+          final String description, final boolean append, final Durability durability,
+          final int syncIntervalMillis, final long maxUnsyncedBytes, final boolean columnar) throws IOException {
     this.file = file;
     this.maxRowsPerBlock = maxRowsPerBlock;
+    this.durability = durability;
+    this.maxUnsyncedBytes = maxUnsyncedBytes;
+    this.eofPtrBuffer = ByteBuffer.allocate(8);
+    this.syncRequested = new AtomicBoolean();
+    this.bytesWritten = new AtomicLong();
+    this.syncCount = new AtomicLong();
+    this.syncTimeNanos = new AtomicLong();
+    this.maxSyncTimeNanos = new AtomicLong();
+    this.pendingTableDefs = new TLongArrayList(4);
     this.writeBlock = new DataBlock(System.currentTimeMillis(), new ArrayList<DataRow>(maxRowsPerBlock));
     raf = new RandomAccessFile(file, "rw");
     bab = new ByteArrayBuilder(32768, ArraySuppliers.Bytes.JAVA_NEW);
@@ -108,7 +240,7 @@ public final class TSDBWriter implements Closeable, Flushable {
       bab.write(MAGIC);
       toOutputStream(0, bab);
       header = Header.newBuilder()
-              .setContentSchema(FILE_RECORD_SCHEMA.toString())
+              .setContentSchema((columnar ? COLUMNAR_FILE_RECORD_SCHEMA : FILE_RECORD_SCHEMA).toString())
               .setDescription(description)
               .build();
       SpecificDatumWriter<Header> headerWriter = new SpecificDatumWriter<>(Header.SCHEMA$);
@@ -119,6 +251,7 @@ public final class TSDBWriter implements Closeable, Flushable {
       toByteArray(size, buffer, MAGIC.length);
       raf.write(buffer, 0, size);
       channel.force(true);
+      TSDBIndex.create(getIndexFile(), size);
     } else {
       if (description != null) {
         throw new IllegalArgumentException("Providing description when appending is not allowed for " + file);
@@ -133,9 +266,33 @@ public final class TSDBWriter implements Closeable, Flushable {
         header = reader.read(null, directBinaryDecoder);
         raf.seek(size);
       }
+      TSDBIndex.sync(file);
+    }
+    indexOut = TSDBIndex.openForAppend(getIndexFile());
+    Schema contentSchema = new Schema.Parser().parse(header.getContentSchema());
+    if (contentSchema.getIndexNamed(ColumnarBlocks.SCHEMA.getFullName()) != null) {
+      recordWriter = new SpecificDatumWriter<>(COLUMNAR_FILE_RECORD_SCHEMA);
+      columnarBuffer = columnar ? new ByteArrayBuilder(32768, ArraySuppliers.Bytes.JAVA_NEW) : null;
+    } else {
+      recordWriter = new SpecificDatumWriter<>(FILE_RECORD_SCHEMA);
+      columnarBuffer = null;
+    }
+    if (durability == Durability.PERIODIC_SYNC) {
+      syncTask = DefaultScheduler.INSTANCE.scheduleWithFixedDelay(new AbstractRunnable(true) {
+        @Override
+        public void doRun() throws IOException {
+          groupCommit();
+        }
+      }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    } else {
+      syncTask = null;
     }
   }
 
+  private Path getIndexFile() {
+    return TSDBIndex.getIndexFile(file).toPath();
+  }
+
   static void validateType(final InputStream dis) throws IOException {
     byte[] readMagic = new byte[MAGIC.length];
     ByteStreams.readFully(dis, readMagic);
@@ -151,6 +308,9 @@ public final class TSDBWriter implements Closeable, Flushable {
     recordWriter.write(tableDef, encoder);
     encoder.flush();
     raf.write(bab.getBuffer(), 0, bab.size());
+    written(bab.size());
+    pendingTableDefs.add(position);
+    pendingTableDefs.add(raf.getFilePointer());
     return position;
   }
 
@@ -167,8 +327,14 @@ public final class TSDBWriter implements Closeable, Flushable {
 
   @Override
   public synchronized void close() throws IOException {
-    try (RandomAccessFile f = raf) {
+    if (syncTask != null) {
+      syncTask.cancel(false);
+    }
+    try (RandomAccessFile f = raf; DataOutputStream idx = indexOut) {
       flush();
+      if (unsyncedBytes > 0) {
+        sync();
+      }
     }
   }
 
@@ -193,7 +359,8 @@ public final class TSDBWriter implements Closeable, Flushable {
   }
 
   /**
-   * Commits the data to disk.
+   * Writes the buffered data block and makes it visible to readers, the data is forced to disk according
+   * to the durability mode of this writer.
    *
    * @throws IOException
    */
@@ -201,28 +368,154 @@ public final class TSDBWriter implements Closeable, Flushable {
   public synchronized void flush() throws IOException {
     List<DataRow> blockValues = writeBlock.getValues();
     if (!blockValues.isEmpty()) {
+      final long position = raf.getFilePointer();
+      Object record = writeBlock;
+      if (columnarBuffer != null) {
+        GenericRecord columnarBlock = ColumnarBlocks.encode(writeBlock, columnarBuffer);
+        if (columnarBlock != null) {
+          record = columnarBlock;
+        }
+      }
       bab.reset();
-      this.recordWriter.write(writeBlock, this.encoder);
+      this.recordWriter.write(record, this.encoder);
       encoder.flush();
       raf.write(bab.getBuffer(), 0, bab.size());
-      channel.force(true);
-      updateEOFPtrPointer();
+      written(bab.size());
+      if (durability == Durability.SYNC) {
+        // data needs to be on disk before the EOF pointer that makes it visible.
+        sync();
+      }
+      final long end = raf.getFilePointer();
+      updateEOFPtrPointer(end);
+      written(8);
+      if (durability == Durability.SYNC) {
+        sync();
+      }
+      updateIndex(position, end);
       blockValues.clear();
+      if (durability == Durability.PERIODIC_SYNC && unsyncedBytes >= maxUnsyncedBytes
+              && syncRequested.compareAndSet(false, true)) {
+        DefaultExecutor.INSTANCE.execute(new AbstractRunnable(true) {
+          @Override
+          public void doRun() throws IOException {
+            groupCommit();
+          }
+        });
+      }
+    }
+  }
+
+  private void written(final int nrBytes) {
+    unsyncedBytes += nrBytes;
+    bytesWritten.addAndGet(nrBytes);
+  }
+
+  /**
+   * forces data to disk, invoked with this lock held.
+   */
+  private void sync() throws IOException {
+    timedForce(true);
+    unsyncedBytes = 0;
+  }
+
+  /**
+   * Group commit, all data flushed up to this moment is forced to disk with one force.
+   * The force is done without holding the writer lock, so that writers are not blocked while syncing.
+   */
+  private void groupCommit() throws IOException {
+    syncRequested.set(false);
+    long syncing;
+    synchronized (this) {
+      syncing = unsyncedBytes;
+      if (syncing <= 0 || !channel.isOpen()) {
+        return;
+      }
+    }
+    try {
+      timedForce(false);
+    } catch (ClosedChannelException ex) {
+      // writer closed in the meantime, close syncs all data.
+      return;
+    }
+    // only the bytes written before the force are synced, and only if the force succeeded.
+    synchronized (this) {
+      unsyncedBytes = Math.max(0, unsyncedBytes - syncing);
     }
-    channel.force(true);
   }
 
-  private void updateEOFPtrPointer() throws IOException {
-    long filePointer = raf.getFilePointer();
-    raf.seek(MAGIC.length);
-    raf.writeLong(filePointer);
-    raf.seek(filePointer);
+  private void timedForce(final boolean metaData) throws IOException {
+    long startNanos = TimeSource.nanoTime();
+    channel.force(metaData);
+    long elapsed = TimeSource.nanoTime() - startNanos;
+    syncCount.incrementAndGet();
+    syncTimeNanos.addAndGet(elapsed);
+    long max;
+    do {
+      max = maxSyncTimeNanos.get();
+    } while (elapsed > max && !maxSyncTimeNanos.compareAndSet(max, elapsed));
+  }
+
+  /**
+   * Index entries are written after the data is committed, a crash in between will leave the index behind the
+   * data, which is caught up when the index is loaded.
+   */
+  private void updateIndex(final long blockPosition, final long blockEnd) throws IOException {
+    for (int i = 0, l = pendingTableDefs.size(); i < l; i += 2) {
+      TSDBIndex.writeTableDefEntry(indexOut, pendingTableDefs.get(i), pendingTableDefs.get(i + 1));
+    }
+    pendingTableDefs.clear();
+    TSDBIndex.writeBlockEntry(indexOut, blockPosition, blockEnd, TSDBIndex.getTableRanges(writeBlock));
+    indexOut.flush();
+  }
+
+  /**
+   * positional write, does not change the file pointer.
+   */
+  private void updateEOFPtrPointer(final long eofPosition) throws IOException {
+    eofPtrBuffer.clear();
+    eofPtrBuffer.putLong(eofPosition);
+    eofPtrBuffer.flip();
+    do {
+      channel.write(eofPtrBuffer, MAGIC.length + eofPtrBuffer.position());
+    } while (eofPtrBuffer.hasRemaining());
   }
 
   public Header getHeader() {
     return header;
   }
 
+  public Durability getDurability() {
+    return durability;
+  }
+
+  /**
+   * @return total number of bytes written by this writer.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * @return number of times data has been forced to disk.
+   */
+  public long getSyncCount() {
+    return syncCount.get();
+  }
+
+  /**
+   * @return total time spent forcing data to disk.
+   */
+  public long getSyncTimeNanos() {
+    return syncTimeNanos.get();
+  }
+
+  /**
+   * @return the longest time a force of data to disk took.
+   */
+  public long getMaxSyncTimeNanos() {
+    return maxSyncTimeNanos.get();
+  }
+
   @Override
   public String toString() {
     return "TSDBWriter{" + "file=" + file + ", raf=" + raf + '}';
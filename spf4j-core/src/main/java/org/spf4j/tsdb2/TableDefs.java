@@ -80,7 +80,7 @@ public final class TableDefs {
     String rawName = td.getName();
     Schema recSchema = AvroCompatUtils.createRecordSchema(rawName.replace('.', '_'),
             td.getDescription(), null, false, false);
-    List<ColumnDef> columns = td.getColumns();
+    List<ColumnDef> columns = td.getColumns().subList(0, getNumberOfScalarColumns(td));
     List<Schema.Field> fields = new ArrayList<>(columns.size() + 1);
     fields.add(AvroCompatUtils.createField("ts", INSTANT_SCHEMA, "Measurement time stamp", null, true, false,
             Schema.Field.Order.IGNORE));
@@ -159,6 +159,21 @@ public final class TableDefs {
     return TimeSeriesRecord.from(rec);
   }
 
+  /**
+   * @param td the table definition.
+   * @return the number of scalar columns, all columns except a trailing encoded histogram column.
+   * (see MeasurementsInfo.getNumberOfScalarMeasurements)
+   */
+  public static int getNumberOfScalarColumns(final TableDef td) {
+    List<ColumnDef> columns = td.getColumns();
+    int nrColumns = columns.size();
+    if (td.getMeasurementType() == MeasurementType.HISTOGRAM && nrColumns > 0
+            && MeasurementsInfo.ENCODED_HISTOGRAM.equals(columns.get(nrColumns - 1).getName())) {
+      return nrColumns - 1;
+    }
+    return nrColumns;
+  }
+
   @SuppressFBWarnings("STT_STRING_PARSING_A_FIELD")
   public static MeasurementType getMeasurementType(final TableDef info) {
     MeasurementType measurementType = info.getMeasurementType();
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author zoly
+ */
+@SuppressFBWarnings({"HES_LOCAL_EXECUTOR_SERVICE", "MDM_THREAD_YIELD"})
+public class LifoThreadPoolExecutorWSTest {
+
+  @Test
+  public void testPoolBehavior() throws Exception {
+    LifoThreadPool executor = LifoThreadPoolBuilder.newBuilder().withCoreSize(8).withMaxSize(8)
+            .withQueueSizeLimit(1024).withWorkStealing(4).build();
+    Assert.assertTrue(executor instanceof LifoThreadPoolExecutorWS);
+    LifoThreadPoolExecutorTest.assertPoolBehavior(executor);
+  }
+
+  @Test(timeout = 60000)
+  public void testPoolBehaviorZeroQueue() throws Exception {
+    LifoThreadPoolExecutorTest.assertPoolBehavior(LifoThreadPoolBuilder.newBuilder().withCoreSize(0).withMaxSize(16)
+            .withQueueSizeLimit(0).withWorkStealing().build());
+  }
+
+  @Test
+  public void testSubmitPoolBehavior() throws Exception {
+    LifoThreadPoolExecutorSTest.assertTestPoolBehavior(
+            new LifoThreadPoolExecutorWS("test", 2, 8, 10000, 1024));
+  }
+
+  @Test
+  public void testThreadDynamics() throws InterruptedException {
+    MutableLifoThreadPool executor = LifoThreadPoolBuilder.newBuilder().withCoreSize(2).withMaxSize(8)
+            .withMaxIdleTimeMillis(60000).withQueueSizeLimit(1024).withWorkStealing().buildMutable();
+    MutableThreadPoolExecutor2Test.assertTestPoolThreadDynamics(executor);
+  }
+
+  @Test
+  public void testQueueLimitAndStealing() throws InterruptedException {
+    LifoThreadPoolExecutorWS executor = new LifoThreadPoolExecutorWS("test", 0, 2, 60000, 10);
+    CountDownLatch block = new CountDownLatch(1);
+    Runnable blocker = () -> {
+      try {
+        block.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    executor.execute(blocker);
+    executor.execute(blocker);
+    LongAdder adder = new LongAdder();
+    for (int i = 0; i < 10; i++) {
+      executor.execute(adder::increment);
+    }
+    Assert.assertEquals(10, executor.getNrQueuedTasks());
+    Assert.assertEquals(10, executor.getTaskQueue().size());
+    try {
+      executor.execute(adder::increment);
+      Assert.fail();
+    } catch (RejectedExecutionException ex) {
+      // expected
+    }
+    block.countDown();
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    Assert.assertEquals(10, adder.sum());
+    Assert.assertEquals(0, executor.getNrQueuedTasks());
+  }
+
+  @Test
+  public void testShutdownNow() throws InterruptedException {
+    LifoThreadPoolExecutorWS executor = new LifoThreadPoolExecutorWS("test", 1, 1, 60000, 100);
+    executor.execute(() -> {
+      try {
+        Thread.sleep(Long.MAX_VALUE);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    executor.execute(() -> { });
+    executor.execute(() -> { });
+    executor.shutdown();
+    Assert.assertFalse(executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+    List<Runnable> queued = executor.shutdownNow();
+    Assert.assertEquals(2, queued.size());
+    Assert.assertTrue(executor.awaitTermination(1000, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(executor.isTerminated());
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void testRejectShutdown() throws InterruptedException {
+    LifoThreadPool executor = LifoThreadPoolBuilder.newBuilder().withCoreSize(1).withMaxSize(1)
+            .withWorkStealing().build();
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    executor.execute(() -> { });
+  }
+
+}
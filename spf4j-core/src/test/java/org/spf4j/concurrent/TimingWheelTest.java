@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.ExecutionContext;
+import org.spf4j.base.ExecutionContexts;
+import org.spf4j.base.TimeSource;
+
+/**
+ * @author zoly
+ */
+public class TimingWheelTest {
+
+  @Test
+  public void testExpiration() throws InterruptedException {
+    try (TimingWheel wheel = new TimingWheel("test", 1, TimeUnit.MILLISECONDS, 8)) {
+      Assert.assertEquals(8, wheel.getWheelSize());
+      int nrTimeouts = 1000;
+      CountDownLatch latch = new CountDownLatch(nrTimeouts);
+      ConcurrentLinkedQueue<Long> early = new ConcurrentLinkedQueue<>();
+      for (int i = 0; i < nrTimeouts; i++) {
+        // delays spanning multiple wheel revolutions.
+        long deadline = TimeSource.nanoTime() + TimeUnit.MICROSECONDS.toNanos(i * 50);
+        wheel.scheduleAt(() -> {
+          long now = TimeSource.nanoTime();
+          if (now < deadline) {
+            early.add(deadline - now);
+          }
+          latch.countDown();
+        }, deadline);
+      }
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+      Assert.assertTrue("early expirations " + early, early.isEmpty());
+      Assert.assertEquals(0, wheel.getNrTimeouts());
+      // the wheel is idle, and resumes with new timeouts.
+      Thread.sleep(20);
+      CountDownLatch latch2 = new CountDownLatch(1);
+      TimingWheel.Timeout timeout = wheel.schedule(latch2::countDown, 5, TimeUnit.MILLISECONDS);
+      Assert.assertTrue(latch2.await(5, TimeUnit.SECONDS));
+      Assert.assertTrue(timeout.isExpired());
+      Assert.assertFalse(timeout.cancel());
+    }
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    try (TimingWheel wheel = new TimingWheel("test", 1, TimeUnit.MILLISECONDS, 16)) {
+      AtomicInteger nrExpired = new AtomicInteger();
+      CountDownLatch latch = new CountDownLatch(50);
+      TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[100];
+      for (int i = 0; i < timeouts.length; i++) {
+        timeouts[i] = wheel.schedule(() -> {
+          nrExpired.incrementAndGet();
+          latch.countDown();
+        }, 20 + i % 10, TimeUnit.MILLISECONDS);
+      }
+      Assert.assertEquals(100, wheel.getNrTimeouts());
+      for (int i = 0; i < timeouts.length; i += 2) {
+        Assert.assertTrue(timeouts[i].cancel());
+        Assert.assertFalse(timeouts[i].cancel());
+        Assert.assertTrue(timeouts[i].isCancelled());
+      }
+      Assert.assertEquals(50, wheel.getNrTimeouts());
+      Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+      // allow cancelled timeouts to (wrongly) expire.
+      Thread.sleep(50);
+      Assert.assertEquals(50, nrExpired.get());
+      Assert.assertEquals(0, wheel.getNrTimeouts());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosed() {
+    TimingWheel wheel = new TimingWheel("test", 1, TimeUnit.MILLISECONDS, 16);
+    wheel.close();
+    wheel.schedule(() -> { }, 1, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testInterruptOnDeadline() {
+    try (ExecutionContext ctx = ExecutionContexts.start("testInterruptOnDeadline", 20, TimeUnit.MILLISECONDS)) {
+      ExecutionContexts.interruptOnDeadline();
+      Thread.sleep(5000);
+      Assert.fail();
+    } catch (InterruptedException ex) {
+      // expected
+    }
+    try (ExecutionContext ctx = ExecutionContexts.start("testInterruptOnDeadline", 20, TimeUnit.MILLISECONDS)) {
+      TimingWheel.Timeout timeout = ExecutionContexts.interruptOnDeadline();
+      ctx.close();
+      Assert.assertTrue(timeout.isCancelled());
+    }
+    Assert.assertFalse(Thread.interrupted());
+  }
+
+  @Test
+  @SuppressFBWarnings("MDM_THREAD_YIELD")
+  public void testNoInterruptAfterClose() throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      try (ExecutionContext ctx = ExecutionContexts.start("testNoInterruptAfterClose", 1, TimeUnit.MILLISECONDS)) {
+        ExecutionContexts.interruptOnDeadline();
+        // close as close to the deadline as possible.
+        while (ctx.getDeadlineNanos() - TimeSource.nanoTime() > 0) {
+          Thread.yield();
+        }
+      }
+      // the deadline might have been reached before close.
+      Thread.interrupted();
+      // but no interrupt is delivered once the context is closed.
+      Thread.sleep(2);
+    }
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author zoly
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+  @Test
+  public void testAimd() throws InterruptedException {
+    // every sample ends a sampling window.
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 20,
+            new AimdLimitAlgorithm(TimeUnit.MILLISECONDS.toNanos(10), 0.5), 0, 1, null);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.NANOSECONDS));
+    }
+    Assert.assertFalse(limiter.tryAcquire(0, TimeUnit.NANOSECONDS));
+    Assert.assertEquals(1d / 11, limiter.getRejectionRatio(), 0.0001);
+    Assert.assertEquals(10, limiter.getInFlight());
+    // fast calls with the limit used, increase the limit.
+    limiter.record(TimeUnit.MILLISECONDS.toNanos(1));
+    Assert.assertEquals(11, limiter.getLimit());
+    Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.NANOSECONDS));
+    // slow calls decrease the limit.
+    limiter.record(TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertEquals(5, limiter.getLimit());
+    limiter.record(TimeUnit.MILLISECONDS.toNanos(100));
+    limiter.record(TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertEquals(2, limiter.getLimit());
+    limiter.release(11);
+    Assert.assertEquals(0, limiter.getInFlight());
+    // fast calls without demand, do not increase the limit.
+    limiter.record(TimeUnit.MILLISECONDS.toNanos(1));
+    Assert.assertEquals(2, limiter.getLimit());
+    Assert.assertEquals(11, limiter.getTotalAcquisitions());
+    Assert.assertEquals(1, limiter.getTotalRejections());
+    Assert.assertEquals(0, limiter.getRejectionRatio(), 0.0001);
+  }
+
+  @Test
+  public void testGradient() throws InterruptedException {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 1, 100,
+            new GradientLimitAlgorithm(1.5, 0.5, 100), 0, 1, null);
+    for (int i = 0; i < 20; i++) {
+      Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.NANOSECONDS));
+    }
+    for (int i = 0; i < 10; i++) {
+      limiter.record(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    int limit = limiter.getLimit();
+    Assert.assertTrue("limit " + limit, limit > 20);
+    // latency increase, the downstream is queueing, reduce the limit.
+    for (int i = 0; i < 10; i++) {
+      limiter.record(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+    Assert.assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < 20);
+  }
+
+  @Test
+  public void testSamplingWindow() throws InterruptedException {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 20,
+            new AimdLimitAlgorithm(TimeUnit.MILLISECONDS.toNanos(10), 0.5), TimeUnit.MILLISECONDS.toNanos(50), 5,
+            null);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.NANOSECONDS));
+    }
+    Assert.assertFalse(limiter.tryAcquire(0, TimeUnit.NANOSECONDS));
+    for (int i = 0; i < 3; i++) {
+      limiter.record(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+    Thread.sleep(60);
+    // not enough samples, the samples carry over into the next window, only the rejection ratio is updated.
+    limiter.record(TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertEquals(10, limiter.getLimit());
+    Assert.assertEquals(1d / 11, limiter.getRejectionRatio(), 0.0001);
+    Thread.sleep(60);
+    limiter.record(TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertEquals(5, limiter.getLimit());
+    Assert.assertEquals(0, limiter.getRejectionRatio(), 0.0001);
+    // the limit is adjusted once per window.
+    for (int i = 0; i < 100; i++) {
+      limiter.record(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+    Assert.assertEquals(5, limiter.getLimit());
+    Thread.sleep(60);
+    limiter.record(TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertEquals(2, limiter.getLimit());
+  }
+
+  @Test
+  public void testWaitForPermit() throws InterruptedException {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1,
+            new AimdLimitAlgorithm(TimeUnit.MILLISECONDS.toNanos(10)));
+    Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.NANOSECONDS));
+    CountDownLatch started = new CountDownLatch(1);
+    Thread releaser = new Thread(() -> {
+      started.countDown();
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
+      }
+      limiter.release();
+    });
+    releaser.start();
+    started.await();
+    Assert.assertTrue(limiter.tryAcquire(5, TimeUnit.SECONDS));
+    releaser.join();
+    Assert.assertFalse(limiter.tryAcquire(1, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testLimitingExecutor() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 10,
+            new AimdLimitAlgorithm(TimeUnit.SECONDS.toNanos(10)), 0, 1, null);
+    LimitingExecutor<Integer, Callable<Integer>> executor = new LimitingExecutor<>(limiter);
+    Assert.assertSame(limiter, executor.getSemaphore());
+    Assert.assertEquals(1, (int) executor.execute(() -> {
+      Assert.assertEquals(1, limiter.getInFlight());
+      try {
+        executor.execute(() -> 2);
+        Assert.fail();
+      } catch (RejectedExecutionException ex) {
+        // expected, the limit is 1.
+      }
+      return 1;
+    }));
+    // the fast call with the limit fully used increases the limit.
+    Assert.assertEquals(2, limiter.getLimit());
+    Assert.assertEquals(0, limiter.getInFlight());
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author zoly
+ */
+public class KeyedRateLimiterTest {
+
+  @Test
+  public void testPerKeyLimits() {
+    AtomicLong time = new AtomicLong(0);
+    KeyedRateLimiter<String> limiter = new KeyedRateLimiter<>(10, Duration.ofSeconds(1), 2, 1000, time::get);
+    Assert.assertTrue(limiter.tryAcquire("a"));
+    Assert.assertTrue(limiter.tryAcquire("a"));
+    Assert.assertFalse(limiter.tryAcquire("a"));
+    Assert.assertFalse(limiter.tryAcquire("a"));
+    Assert.assertTrue(limiter.tryAcquire("b", 2));
+    Assert.assertFalse(limiter.tryAcquire("b"));
+    Assert.assertFalse(limiter.tryAcquire("c", 3));
+    Assert.assertEquals(2, limiter.getRejections("a"));
+    Assert.assertEquals(1, limiter.getRejections("b"));
+    Assert.assertEquals(4, limiter.getTotalRejections());
+    Assert.assertEquals(3, limiter.getTotalAcquisitions());
+    Assert.assertEquals(2, limiter.getNrKeys());
+    List<Map.Entry<String, Long>> top = limiter.getTopRejections(1);
+    Assert.assertEquals(1, top.size());
+    Assert.assertEquals("a", top.get(0).getKey());
+    Assert.assertEquals(Arrays.asList("a: 2", "b: 1"), Arrays.asList(limiter.topRejections(5)));
+    time.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertTrue(limiter.tryAcquire("a"));
+    Assert.assertFalse(limiter.tryAcquire("a"));
+    Assert.assertEquals(1, limiter.getNrPermits("b"));
+  }
+
+  @Test
+  public void testEviction() {
+    AtomicLong time = new AtomicLong(0);
+    KeyedRateLimiter<Integer> limiter = new KeyedRateLimiter<>(1, Duration.ofMillis(1), 1, 100, time::get);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(limiter.tryAcquire(i));
+    }
+    Assert.assertEquals(100, limiter.getNrKeys());
+    time.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    // all buckets full now, the insertion above max keys evicts them.
+    Assert.assertTrue(limiter.tryAcquire(100));
+    Assert.assertEquals(1, limiter.getNrKeys());
+    Assert.assertFalse(limiter.tryAcquire(100));
+    // active keys are not evicted, the sweep threshold grows.
+    for (int i = 0; i < 200; i++) {
+      limiter.tryAcquire(i);
+    }
+    Assert.assertEquals(200, limiter.getNrKeys());
+    Assert.assertFalse(limiter.tryAcquire(5));
+    time.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    Assert.assertEquals(200, limiter.evictIdle());
+    Assert.assertEquals(0, limiter.getNrKeys());
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.concurrent.PermitSupplier;
+
+/**
+ * @author zoly
+ */
+public class LazyRateLimiterTest {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRate() {
+    new LazyRateLimiter(10, Duration.ofNanos(1), 10);
+  }
+
+  @Test
+  public void testLazyReplenishment() throws InterruptedException {
+    AtomicLong time = new AtomicLong(1000);
+    LazyRateLimiter limiter = new LazyRateLimiter(10, Duration.ofSeconds(1), 5, 20, time::get);
+    Assert.assertEquals(5, limiter.getNrPermits());
+    Assert.assertTrue(limiter.tryAcquire(5));
+    Assert.assertFalse(limiter.tryAcquire());
+    time.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertTrue(limiter.tryAcquire());
+    Assert.assertFalse(limiter.tryAcquire());
+    // the bucket does not fill above the max burst.
+    time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    Assert.assertEquals(20, limiter.getNrPermits());
+    Assert.assertTrue(limiter.tryAcquire(20));
+    Assert.assertFalse(limiter.tryAcquire());
+    Assert.assertEquals(0, limiter.getNrPermits());
+  }
+
+  @Test
+  public void testReservation() throws InterruptedException {
+    AtomicLong time = new AtomicLong(-5000);
+    LazyRateLimiter limiter = new LazyRateLimiter(1, Duration.ofMillis(1), 0, 10, time::get);
+    long now = time.get();
+    PermitSupplier.Acquisition acq = limiter.tryAcquireEx(10, now + TimeUnit.MILLISECONDS.toNanos(5));
+    Assert.assertFalse(acq.isSuccess());
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), acq.permitAvailableEstimateInNanos());
+    long start = System.nanoTime();
+    Assert.assertTrue(limiter.tryAcquire(1, now + TimeUnit.MILLISECONDS.toNanos(5)));
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(1));
+    Assert.assertEquals(-1, limiter.getNrPermits());
+  }
+
+  @Test
+  public void testConcurrentRate() throws InterruptedException {
+    LazyRateLimiter limiter = new LazyRateLimiter(1000, Duration.ofSeconds(1), 10);
+    AtomicLong acquired = new AtomicLong();
+    Thread[] threads = new Thread[4];
+    long start = System.nanoTime();
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500)) {
+          if (limiter.tryAcquire()) {
+            acquired.incrementAndGet();
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Assert.assertTrue("acquired " + acquired, acquired.get() <= elapsedMillis + 10);
+    Assert.assertTrue("acquired " + acquired, acquired.get() >= 400);
+  }
+
+}
@@ -41,7 +41,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spf4j.base.TimeSource;
+import org.spf4j.concurrent.LocalSemaphore;
+import org.spf4j.concurrent.Semaphore;
 import org.spf4j.log.Level;
+import org.spf4j.perf.MeasurementRecorder;
 import org.spf4j.test.log.LogAssert;
 import org.spf4j.test.matchers.LogMatchers;
 import org.spf4j.test.log.TestLoggers;
@@ -109,4 +112,50 @@ public class LimitingExecutorTest {
     expect.assertObservation();
   }
 
+  @Test
+  public void testPermitReleasedWhenRecordFails() throws Exception {
+    FailingRecorderSemaphore semaphore = new FailingRecorderSemaphore();
+    LimitingExecutor<Integer, Callable<Integer>> executor = new LimitingExecutor<>(semaphore);
+    for (int i = 0; i < 3; i++) {
+      try {
+        executor.execute(() -> 1);
+        Assert.fail();
+      } catch (IllegalStateException ex) {
+        // expected, record failed.
+      }
+    }
+    Assert.assertTrue(semaphore.tryAcquire(0, TimeUnit.NANOSECONDS));
+  }
+
+  private static final class FailingRecorderSemaphore implements Semaphore, MeasurementRecorder {
+
+    private final LocalSemaphore semaphore = new LocalSemaphore(1, false);
+
+    @Override
+    public boolean tryAcquire(final int nrPermits, final long deadlineNanos) throws InterruptedException {
+      return semaphore.tryAcquire(nrPermits, deadlineNanos);
+    }
+
+    @Override
+    public boolean tryAcquire(final int nrPermits, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+      return semaphore.tryAcquire(nrPermits, timeout, unit);
+    }
+
+    @Override
+    public void release(final int nrPermits) {
+      semaphore.release(nrPermits);
+    }
+
+    @Override
+    public void record(final long measurement) {
+      throw new IllegalStateException("record failed " + measurement);
+    }
+
+    @Override
+    public void recordAt(final long timestampMillis, final long measurement) {
+      record(measurement);
+    }
+  }
+
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.failsafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.failsafe.concurrent.DefaultFailSafeExecutor;
+
+/**
+ * @author zoly
+ */
+public class PercentileHedgePolicyTest {
+
+  @Test
+  public void testQuantileEstimator() {
+    for (long v = 0; v < 100000; v += 7) {
+      long upper = LatencyQuantileEstimator.bucketUpperBound(LatencyQuantileEstimator.bucketIdx(v));
+      Assert.assertTrue(v + " -> " + upper, upper >= v && upper <= v + v / 8);
+    }
+    Assert.assertEquals(Long.MAX_VALUE,
+            LatencyQuantileEstimator.bucketUpperBound(LatencyQuantileEstimator.bucketIdx(Long.MAX_VALUE)));
+    LatencyQuantileEstimator estimator = new LatencyQuantileEstimator(0.95, 1000);
+    Assert.assertEquals(-1, estimator.getEstimate());
+    for (int i = 0; i < 999; i++) {
+      estimator.record(i % 100 * 1000);
+    }
+    long estimate = estimator.getEstimate();
+    Assert.assertTrue("estimate " + estimate, estimate >= 94000 && estimate <= 100000);
+    // the distribution decays, and follows the new latencies.
+    for (int i = 0; i < 5000; i++) {
+      estimator.record(10);
+    }
+    Assert.assertEquals(10, estimator.getEstimate());
+  }
+
+  @Test
+  public void testBudget() {
+    PercentileHedgePolicy policy = new PercentileHedgePolicy("testBudget", 90, 0.1, 1, 0, 16, 64);
+    Assert.assertSame(Hedge.NONE, policy.getHedge(0, Long.MAX_VALUE));
+    policy.completed(Hedge.NONE, 1000, 0);
+    for (int i = 1; i < 64; i++) {
+      policy.completed(Hedge.NONE, i < 58 ? 1000 : 100000, 0);
+    }
+    long delay = policy.getHedgeDelayEstimateNanos();
+    Assert.assertTrue("delay " + delay, delay >= 1000 && delay < 100000);
+    int nrHedges = 0;
+    for (int i = 0; i < 100; i++) {
+      Hedge hedge = policy.getHedge(0, Long.MAX_VALUE);
+      if (hedge.getHedgeCount() > 0) {
+        nrHedges++;
+        Assert.assertEquals(delay, hedge.getHedgeDelayNanos());
+        // hedges fire and lose, (wins are censored samples, and would move the estimate)
+        policy.completed(hedge, delay, 0);
+      }
+    }
+    // 0.1 token accumulated during warmup + 10 during the hedged calls.
+    Assert.assertEquals(10, nrHedges);
+    Assert.assertEquals(10, policy.getNrLosses());
+    Assert.assertSame(Hedge.NONE, policy.getHedge(0, Long.MAX_VALUE));
+    // hedges that do not fire do not consume the budget.
+    for (int i = 0; i < 20; i++) {
+      Hedge hedge = policy.getHedge(0, Long.MAX_VALUE);
+      if (hedge.getHedgeCount() > 0) {
+        policy.completed(hedge, 1, 0);
+      }
+    }
+    Hedge hedge = policy.getHedge(0, Long.MAX_VALUE);
+    Assert.assertEquals(1, hedge.getHedgeCount());
+    policy.completed(hedge, delay, 0);
+    Assert.assertEquals(11, policy.getNrLosses());
+    // no hedging when the hedge delay is larger than the timeout.
+    Assert.assertSame(Hedge.NONE, policy.getHedge(0, delay));
+  }
+
+  @Test
+  public void testHedgeDelayDoesNotDrift() {
+    PercentileHedgePolicy policy = new PercentileHedgePolicy("testDrift", 90, 1, 1, 0, 16, 64);
+    long fastNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    for (int i = 0; i < 256; i++) {
+      policy.completed(policy.getHedge(0, Long.MAX_VALUE), fastNanos, 0);
+    }
+    Assert.assertTrue(policy.getHedgeDelayEstimateNanos() < TimeUnit.MILLISECONDS.toNanos(2));
+    // the primary latency increases to 50ms, hedges complete in 1us.
+    long primaryNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    long hedgeNanos = TimeUnit.MICROSECONDS.toNanos(1);
+    int nrFired = 0;
+    for (int i = 0; i < 128; i++) {
+      Hedge hedge = policy.getHedge(0, Long.MAX_VALUE);
+      long delay = hedge.getHedgeDelayNanos();
+      if (hedge.getHedgeCount() > 0 && delay + hedgeNanos < primaryNanos) {
+        nrFired++;
+        policy.completed(hedge, delay + hedgeNanos, 1);
+      } else {
+        policy.completed(hedge, primaryNanos, 0);
+      }
+    }
+    // if hedge wins were recorded as primary latencies, the hedge delay would creep up from 1ms 12.5% at a time,
+    // and nearly every execution would be hedged.
+    long delay = policy.getHedgeDelayEstimateNanos();
+    Assert.assertTrue("delay " + delay, delay >= primaryNanos);
+    Assert.assertTrue("fired " + nrFired, nrFired < 32);
+  }
+
+  @Test
+  public void testHedgedExecution() throws Exception {
+    PercentileHedgePolicy policy = new PercentileHedgePolicy("testHedgedExecution", 95, 1, 1, 0, 16, 64);
+    AsyncRetryExecutor<Object, java.util.concurrent.Callable<? extends Object>> executor
+            = RetryPolicy.noRetryPolicy().async(policy, DefaultFailSafeExecutor.instance());
+    for (int i = 0; i < 32; i++) {
+      final int val = i;
+      Assert.assertEquals(val, executor.submit(() -> {
+        Thread.sleep(1);
+        return val;
+      }).get());
+    }
+    long delay = policy.getHedgeDelayEstimateNanos();
+    Assert.assertTrue("delay " + delay, delay >= TimeUnit.MILLISECONDS.toNanos(1)
+            && delay < TimeUnit.MILLISECONDS.toNanos(500));
+    AtomicInteger nrCalls = new AtomicInteger();
+    long startNanos = System.nanoTime();
+    Assert.assertEquals("hedge", executor.submit(() -> {
+      if (nrCalls.getAndIncrement() == 0) {
+        Thread.sleep(5000);
+        return "primary";
+      }
+      return "hedge";
+    }).get());
+    Assert.assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(4));
+    Assert.assertEquals(1, policy.getNrWins());
+  }
+
+}
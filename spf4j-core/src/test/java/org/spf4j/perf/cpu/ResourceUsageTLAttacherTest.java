@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.cpu;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.spf4j.base.BasicExecutionContext;
+import org.spf4j.base.ExecutionContext;
+import org.spf4j.base.ExecutionContexts;
+import org.spf4j.base.ThreadLocalContextAttacher;
+
+/**
+ * @author zoly
+ */
+public class ResourceUsageTLAttacherTest {
+
+  private static volatile Object blackHole;
+
+  private static ExecutionContext newContext(final String name, final ExecutionContext parent) {
+    long now = System.nanoTime();
+    return new BasicExecutionContext(name, null, parent, ExecutionContext.Relation.CHILD_OF,
+            now, now + TimeUnit.HOURS.toNanos(1));
+  }
+
+  private static void allocate(final int nrBytes) {
+    for (int i = 0; i < nrBytes / 1024; i++) {
+      blackHole = new byte[1024];
+    }
+  }
+
+  @Test
+  public void testAllocationRollup() {
+    ResourceUsageTLAttacher attacher
+            = new ResourceUsageTLAttacher(ExecutionContexts.defaultThreadLocalAttacher(), null, null);
+    Assume.assumeTrue(attacher.isMeasuringAllocations());
+    ExecutionContext parent = newContext("parent", null);
+    ThreadLocalContextAttacher.Attached pAttached = attacher.attach(parent);
+    ExecutionContext child = newContext("child", parent);
+    ThreadLocalContextAttacher.Attached cAttached = attacher.attach(child);
+    allocate(4 * 1024 * 1024);
+    cAttached.detach();
+    pAttached.detach();
+    long childBytes = child.getLocal(ResourceUsageTLAttacher.ALLOCATED_BYTES);
+    long parentOwnBytes = parent.getLocal(ResourceUsageTLAttacher.ALLOCATED_BYTES);
+    Assert.assertTrue("child " + childBytes, childBytes >= 4 * 1024 * 1024);
+    Assert.assertTrue("parent " + parentOwnBytes, parentOwnBytes < childBytes);
+    child.close();
+    Assert.assertEquals(parentOwnBytes + childBytes,
+            (long) parent.getLocal(ResourceUsageTLAttacher.ALLOCATED_BYTES));
+    parent.close();
+  }
+
+  @Test
+  public void testCpuTime() {
+    ResourceUsageTLAttacher attacher
+            = new ResourceUsageTLAttacher(ExecutionContexts.defaultThreadLocalAttacher(), null, null);
+    Assume.assumeTrue(attacher.isMeasuringCpu());
+    ExecutionContext ctx = newContext("cpu", null);
+    ThreadLocalContextAttacher.Attached attached = attacher.attach(ctx);
+    Assert.assertSame(ctx, ExecutionContexts.current());
+    long start = System.nanoTime();
+    long x = 0;
+    while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50)) {
+      x += Long.hashCode(x + start);
+    }
+    blackHole = x;
+    attached.detach();
+    Assert.assertNull(ExecutionContexts.current());
+    Assert.assertTrue(ctx.getLocal(ResourceUsageTLAttacher.CPU_TIME_NANOS) > 0);
+    ctx.close();
+  }
+
+}
@@ -57,6 +57,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spf4j.base.AbstractRunnable;
 import org.spf4j.perf.CloseableMeasurementRecorder;
+import org.spf4j.perf.impl.acc.LogLinearHistogramAccumulator;
 import org.spf4j.recyclable.ObjectCreationException;
 import org.spf4j.tsdb2.avro.MeasurementType;
 
@@ -107,6 +108,23 @@ public final class GraphiteUdpStoreTest {
     Assert.assertEquals("bla/val3 5 1", line);
   }
 
+  @Test
+  public void testGraphiteUdpStoreHistogram() throws IOException, ObjectCreationException, InterruptedException {
+    final GraphiteUdpStore store = new GraphiteUdpStore("127.0.0.1", 1976);
+    LogLinearHistogramAccumulator acc = new LogLinearHistogramAccumulator("hist", "", "ms", 100000, 2);
+    for (int i = 1; i <= 1000; i++) {
+      acc.record(i * 10);
+    }
+    long id = store.alocateMeasurements(acc.getInfo(), 0);
+    store.saveMeasurements(id, 1L, acc.get());
+    // only the scalar series, no encoded histogram.
+    for (String name : new String[] {"total", "count", "min", "max", "p50", "p90", "p99", "p999"}) {
+      String line = QUEUE.poll(5, TimeUnit.SECONDS);
+      Assert.assertThat(line, Matchers.startsWith("hist/" + name + ' '));
+    }
+    Assert.assertNull(QUEUE.poll(500, TimeUnit.MILLISECONDS));
+  }
+
   @Before
   public void beforeTest() {
     QUEUE.drainTo(new ArrayList<String>());
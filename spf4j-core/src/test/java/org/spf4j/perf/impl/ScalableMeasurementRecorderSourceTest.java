@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.concurrent.DefaultExecutor;
+import org.spf4j.perf.MeasurementAccumulator;
+import org.spf4j.perf.MeasurementRecorder;
+import org.spf4j.perf.MeasurementStore;
+import org.spf4j.perf.MeasurementStoreQuery;
+import org.spf4j.perf.MeasurementsInfo;
+import org.spf4j.perf.impl.acc.ConcurrentAddAndCountAccumulator;
+
+/**
+ * @author zoly
+ */
+public final class ScalableMeasurementRecorderSourceTest {
+
+  @Test
+  public void testConcurrentRecording() throws InterruptedException, ExecutionException, IOException {
+    CountingStore store = new CountingStore();
+    ScalableMeasurementRecorderSource source = new ScalableMeasurementRecorderSource(
+            new ConcurrentAddAndCountAccumulator("test", "", "ms"), 3600000, store, false);
+    List<Future<?>> futures = new ArrayList<>(4);
+    for (int t = 0; t < 4; t++) {
+      futures.add(DefaultExecutor.INSTANCE.submit(() -> {
+        for (int i = 0; i < 10000; i++) {
+          source.getRecorder("E" + (i % 10)).record(1);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    Assert.assertEquals(10, source.getNrEntities());
+    Map<Object, MeasurementAccumulator> measurements = source.getEntitiesMeasurementsAndReset();
+    Assert.assertEquals(10, measurements.size());
+    for (MeasurementAccumulator acc : measurements.values()) {
+      Assert.assertArrayEquals(new long[] {4000, 4000}, acc.get());
+    }
+    Assert.assertTrue(source.getEntitiesMeasurementsAndReset().isEmpty());
+    source.close();
+  }
+
+  @Test
+  public void testIdleEviction() throws IOException, InterruptedException {
+    CountingStore store = new CountingStore();
+    ScalableMeasurementRecorderSource source = new ScalableMeasurementRecorderSource(
+            new ConcurrentAddAndCountAccumulator("test", "", "ms"), 3600000, store, false, 100, 2);
+    MeasurementRecorder recorder = source.getRecorder("A");
+    recorder.record(5);
+    source.getRecorder("B").record(3);
+    source.persist();
+    Assert.assertEquals(2, store.nrSaves);
+    Thread.sleep(2);
+    recorder.record(7);
+    source.persist();
+    Assert.assertEquals(3, store.nrSaves);
+    Assert.assertEquals(2, source.getNrEntities());
+    Thread.sleep(2);
+    source.persist();
+    Assert.assertEquals(1, source.getNrEntities());
+    Thread.sleep(2);
+    source.persist();
+    Assert.assertEquals(0, source.getNrEntities());
+    Assert.assertNotSame(recorder, source.getRecorder("A"));
+    source.close();
+  }
+
+  @Test
+  public void testMaxEntities() throws IOException {
+    CountingStore store = new CountingStore();
+    ScalableMeasurementRecorderSource source = new ScalableMeasurementRecorderSource(
+            new ConcurrentAddAndCountAccumulator("test", "", "ms"), 3600000, store, false, 2, 0);
+    source.getRecorder("A").record(1);
+    source.getRecorder("B").record(1);
+    source.getRecorder("C").record(1);
+    source.getRecorder("D").record(1);
+    Map<Object, MeasurementAccumulator> measurements = source.getEntitiesMeasurements();
+    Assert.assertEquals(3, measurements.size());
+    Assert.assertArrayEquals(new long[] {2, 2},
+            measurements.get(ScalableMeasurementRecorderSource.OVERFLOW_ENTITY).get());
+    source.close();
+    Assert.assertEquals(3, store.nrSaves);
+  }
+
+  private static final class CountingStore implements MeasurementStore {
+
+    private long nextId = 1;
+
+    private volatile int nrSaves = 0;
+
+    @Override
+    public synchronized long alocateMeasurements(final MeasurementsInfo measurementInfo,
+            final int sampleTimeMillis) {
+      return nextId++;
+    }
+
+    @Override
+    public synchronized void saveMeasurements(final long tableId, final long timeStampMillis,
+            final long... measurements) {
+      nrSaves++;
+    }
+
+    @Override
+    public void flush() {
+      // nothing to flush.
+    }
+
+    @Override
+    @Nullable
+    public MeasurementStoreQuery query() {
+      return null;
+    }
+
+    @Override
+    public void close() {
+      // nothing to close.
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl.acc;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author zoly
+ */
+public final class ConcurrentMinMaxAvgAccumulatorTest {
+
+  @Test
+  public void testSameAsMinMaxAvg() {
+    MinMaxAvgAccumulator expected = new MinMaxAvgAccumulator("test", "", "ms");
+    ConcurrentMinMaxAvgAccumulator actual = new ConcurrentMinMaxAvgAccumulator("test", "", "ms");
+    Assert.assertNull(actual.get());
+    Assert.assertNull(actual.getThenReset());
+    Assert.assertNull(actual.createClone().get());
+    for (long val : new long[] {-15, 0, 1, 7, 250}) {
+      expected.record(val);
+      actual.record(val);
+    }
+    Assert.assertArrayEquals(expected.get(), actual.get());
+    Assert.assertArrayEquals(expected.get(), actual.createClone().get());
+    Assert.assertArrayEquals(expected.get(), actual.reset().get());
+    Assert.assertNull(actual.get());
+  }
+
+  @Test
+  public void testConcurrentRecordAndReset() throws InterruptedException {
+    ConcurrentMinMaxAvgAccumulator acc = new ConcurrentMinMaxAvgAccumulator("test", "", "ms");
+    // few recording threads, so that the intervals have few measurements, and a measurement split by a reset
+    // (min/max accounted in the previous interval) is likely to be the only measurement of a interval.
+    final int nrThreads = 2;
+    final int nrMeasurements = 500000;
+    Thread[] threads = new Thread[nrThreads];
+    for (int i = 0; i < nrThreads; i++) {
+      threads[i] = new Thread(() -> {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int j = 0; j < nrMeasurements; j++) {
+          acc.record(rnd.nextInt(2000));
+        }
+      });
+      threads[i].start();
+    }
+    long count = 0;
+    boolean alive;
+    boolean useReset = false;
+    do {
+      alive = false;
+      for (Thread t : threads) {
+        alive |= t.isAlive();
+      }
+      long[] vals;
+      if (useReset) {
+        MinMaxAvgAccumulator snapshot = acc.reset();
+        vals = snapshot == null ? null : snapshot.get();
+      } else {
+        vals = acc.getThenReset();
+      }
+      useReset = !useReset;
+      if (vals != null) {
+        // no min/max sentinels in a interval with measurements.
+        Assert.assertTrue(Arrays.toString(vals), vals[2] >= 0 && vals[2] <= vals[3] && vals[3] < 2000);
+        count += vals[0];
+      }
+    } while (alive);
+    Assert.assertEquals(nrThreads * nrMeasurements, count);
+  }
+
+}
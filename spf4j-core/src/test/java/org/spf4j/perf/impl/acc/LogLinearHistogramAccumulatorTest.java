@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl.acc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.management.openmbean.CompositeData;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.Arrays;
+import org.spf4j.perf.MeasurementsInfo;
+import org.spf4j.tsdb2.TSDBQuery;
+import org.spf4j.tsdb2.TSDBWriter;
+import org.spf4j.tsdb2.TableDefs;
+
+/**
+ *
+ * @author zoly
+ */
+public final class LogLinearHistogramAccumulatorTest {
+
+  @Test
+  public void testPercentiles() {
+    LogLinearHistogramAccumulator acc = new LogLinearHistogramAccumulator("test", "", "ms", 3600000, 2);
+    Assert.assertNull(acc.get());
+    Assert.assertNull(acc.getPercentiles());
+    for (int i = 1; i <= 100000; i++) {
+      acc.record(i);
+    }
+    assertWithinPrecision(50000, acc.getValueAtPercentile(50), 0.01);
+    assertWithinPrecision(99000, acc.getValueAtPercentile(99), 0.01);
+    assertWithinPrecision(99900, acc.getValueAtPercentile(99.9), 0.01);
+    Assert.assertEquals(100000, acc.getValueAtPercentile(100));
+    Assert.assertEquals(1, acc.getValueAtPercentile(0));
+    MeasurementsInfo info = acc.getInfo();
+    Assert.assertEquals(9, info.getNumberOfMeasurements());
+    Assert.assertEquals(8, info.getNumberOfScalarMeasurements());
+    long[] vals = acc.get();
+    Assert.assertEquals(100000, vals[Arrays.indexOf(info.getMeasurementNames(), "count")]);
+    Assert.assertEquals(acc.getValueAtPercentile(99),
+            vals[Arrays.indexOf(info.getMeasurementNames(), "p99")]);
+    CompositeData percentiles = acc.getPercentiles();
+    Assert.assertEquals(100000L, percentiles.get("max"));
+    Assert.assertEquals(acc.getValueAtPercentile(90), percentiles.get("p90"));
+    Assert.assertEquals(acc.getValueAtPercentile(50), acc.getCompositeData().get("p50"));
+    int histIdx = Arrays.indexOf(info.getMeasurementNames(), MeasurementsInfo.ENCODED_HISTOGRAM);
+    Assert.assertEquals(3600000, vals[histIdx]);
+    Assert.assertEquals(2, vals[histIdx + 1]);
+    long bucketTotal = 0;
+    int nrBuckets = 0;
+    for (int i = histIdx + 2; i < vals.length; i++) {
+      if (vals[i] > 0) {
+        bucketTotal += vals[i];
+        nrBuckets++;
+      } else {
+        nrBuckets -= vals[i];
+      }
+    }
+    Assert.assertEquals(100000, bucketTotal);
+    Assert.assertTrue(nrBuckets < acc.getNrBuckets());
+    Assert.assertArrayEquals(vals, LogLinearHistogramAccumulator.fromRow("test", "", "ms", vals).get());
+  }
+
+  @Test
+  public void testAggregateAndReset() {
+    LogLinearHistogramAccumulator acc = new LogLinearHistogramAccumulator("test", "", "ms", 1000, 1);
+    acc.record(-5);
+    acc.record(5);
+    acc.record(5000);
+    LogLinearHistogramAccumulator acc2 = acc.createLike("test");
+    acc2.record(500);
+    long[] aggregated = acc.aggregate(acc2).get();
+    Assert.assertEquals(4, aggregated[1]);
+    Assert.assertEquals(-5, aggregated[2]);
+    Assert.assertEquals(5000, aggregated[3]);
+    Assert.assertEquals(1, aggregated[aggregated.length - 1]);
+    LogLinearHistogramAccumulator fromRows = LogLinearHistogramAccumulator.fromRow("test", "", "ms", acc.get());
+    fromRows.aggregateRow(acc2.get());
+    Assert.assertArrayEquals(aggregated, fromRows.get());
+    long[] invalid = acc.get();
+    invalid[invalid.length - 2] = -1000;
+    try {
+      fromRows.aggregateRow(invalid);
+      Assert.fail();
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+    long[] vals = acc.getThenReset();
+    Assert.assertEquals(3, vals[1]);
+    Assert.assertEquals(5000, vals[0]);
+    Assert.assertNull(acc.get());
+    Assert.assertNull(acc.reset());
+    try {
+      acc.aggregate(new LogLinearHistogramAccumulator("test", "", "ms", 1000, 2));
+      Assert.fail();
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testConcurrentRecordAndReset() throws InterruptedException {
+    LogLinearHistogramAccumulator acc = new LogLinearHistogramAccumulator("test", "", "ms", 10000, 2);
+    final int nrThreads = 8;
+    final int nrMeasurements = 100000;
+    Thread[] threads = new Thread[nrThreads];
+    for (int i = 0; i < nrThreads; i++) {
+      threads[i] = new Thread(() -> {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int j = 0; j < nrMeasurements; j++) {
+          acc.record(rnd.nextInt(2000));
+        }
+      });
+      threads[i].start();
+    }
+    long count = 0;
+    boolean alive;
+    do {
+      alive = false;
+      for (Thread t : threads) {
+        alive |= t.isAlive();
+      }
+      long[] vals = acc.getThenReset();
+      if (vals != null) {
+        // no min/max sentinels in a interval with measurements.
+        Assert.assertTrue(java.util.Arrays.toString(vals), vals[2] >= 0 && vals[2] <= vals[3] && vals[3] < 2000);
+        count += vals[1];
+      }
+    } while (alive);
+    Assert.assertEquals(nrThreads * nrMeasurements, count);
+  }
+
+  @Test
+  public void testQueryPercentiles() throws IOException {
+    File testFile = File.createTempFile("test", ".tsdb2");
+    LogLinearHistogramAccumulator acc = new LogLinearHistogramAccumulator("latency", "", "ms", 100000, 2);
+    try (TSDBWriter writer = new TSDBWriter(testFile, 10, "test", false)) {
+      long tableId = writer.writeTableDef(TableDefs.from(acc.getInfo(), 1000, -1));
+      long time = System.currentTimeMillis();
+      for (int i = 0; i < 10; i++) {
+        for (int j = 1; j <= 1000; j++) {
+          acc.record(i * 1000 + j);
+        }
+        writer.writeDataRow(tableId, time + i * 1000, acc.getThenReset());
+      }
+    }
+    long[] percentiles = TSDBQuery.getPercentiles(testFile, "latency", 0, Long.MAX_VALUE, 50, 99, 100);
+    assertWithinPrecision(5000, percentiles[0], 0.01);
+    assertWithinPrecision(9900, percentiles[1], 0.01);
+    Assert.assertEquals(10000, percentiles[2]);
+    Assert.assertNull(TSDBQuery.getPercentiles(testFile, "latency", 0, 1000, 50));
+  }
+
+  @Test
+  public void testStorageSize() throws IOException {
+    File testFile = File.createTempFile("test", ".tsdb2");
+    LogLinearHistogramAccumulator acc = new LogLinearHistogramAccumulator("latency", "", "ms", 3600000, 2);
+    int nrBuckets = acc.getNrBuckets();
+    long[][] rows = new long[100][];
+    long tableId;
+    long rowBytes;
+    // one row per block, the worst case. (a measurement store flushes every sample interval)
+    try (TSDBWriter writer = new TSDBWriter(testFile, 1, "test", false)) {
+      tableId = writer.writeTableDef(TableDefs.from(acc.getInfo(), 1000, -1));
+      long tableDefBytes = writer.getBytesWritten();
+      long time = System.currentTimeMillis();
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      for (int i = 0; i < rows.length; i++) {
+        for (int j = 0; j < 1000; j++) {
+          acc.record(5 + rnd.nextInt(50));
+        }
+        rows[i] = acc.getThenReset();
+        writer.writeDataRow(tableId, time + i * 1000, rows[i]);
+      }
+      writer.flush();
+      rowBytes = (writer.getBytesWritten() - tableDefBytes) / rows.length;
+    }
+    // a mostly empty histogram row must not take a byte per bucket.
+    Assert.assertTrue("row bytes " + rowBytes + ", buckets " + nrBuckets, rowBytes * 10 < nrBuckets);
+    Assert.assertArrayEquals(rows,
+            TSDBQuery.getTimeSeries(testFile, new long[] {tableId}, 0, Long.MAX_VALUE).getValues());
+  }
+
+  private static void assertWithinPrecision(final long expected, final long actual, final double precision) {
+    Assert.assertTrue("expected " + expected + " got " + actual,
+            Math.abs(expected - actual) <= expected * precision);
+  }
+
+}
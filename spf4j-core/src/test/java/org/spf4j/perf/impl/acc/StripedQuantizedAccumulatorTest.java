@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl.acc;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author zoly
+ */
+public final class StripedQuantizedAccumulatorTest {
+
+  @Test
+  public void testSameAsQuantized() {
+    QuantizedAccumulator expected = new QuantizedAccumulator("test", "", "ms", 10, -3, 3, 5);
+    StripedQuantizedAccumulator actual = new StripedQuantizedAccumulator("test", "", "ms", 10, -3, 3, 5);
+    Assert.assertNull(actual.get());
+    Assert.assertNull(actual.getThenReset());
+    Assert.assertEquals(expected.getInfo(), actual.getInfo());
+    for (long val : new long[] {-15000, -300, -101, -100, -1, 0, 0, 1, 2, 11, 250, 399, 400, 600, 15000}) {
+      expected.record(val);
+      actual.record(val);
+    }
+    Assert.assertArrayEquals(expected.get(), actual.get());
+    Assert.assertArrayEquals(expected.get(), actual.createClone().get());
+    Assert.assertArrayEquals(expected.aggregate(expected).get(), actual.aggregate(actual).get());
+    Assert.assertArrayEquals(expected.getThenReset(), actual.getThenReset());
+    Assert.assertNull(actual.get());
+    Assert.assertNull(actual.reset());
+  }
+
+  @Test
+  public void testConcurrentRecordAndReset() throws InterruptedException {
+    StripedQuantizedAccumulator acc = new StripedQuantizedAccumulator(new QuantizedAccumulator("test", "", "ms",
+            10, 0, 3, 10), 4);
+    Assert.assertEquals(4, acc.getNrStripes());
+    final int nrThreads = 8;
+    final int nrMeasurements = 100000;
+    Thread[] threads = new Thread[nrThreads];
+    for (int i = 0; i < nrThreads; i++) {
+      threads[i] = new Thread(() -> {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int j = 0; j < nrMeasurements; j++) {
+          acc.record(rnd.nextInt(2000));
+        }
+      });
+      threads[i].start();
+    }
+    long count = 0;
+    long bucketCount = 0;
+    boolean alive;
+    do {
+      alive = false;
+      for (Thread t : threads) {
+        alive |= t.isAlive();
+      }
+      long[] vals = acc.getThenReset();
+      if (vals != null) {
+        // no min/max sentinels in a interval with measurements.
+        Assert.assertTrue(Arrays.toString(vals), vals[2] >= 0 && vals[2] <= vals[3] && vals[3] < 2000);
+        count += vals[1];
+        for (int i = 4; i < vals.length; i++) {
+          bucketCount += vals[i];
+        }
+      }
+    } while (alive);
+    Assert.assertEquals(nrThreads * nrMeasurements, count);
+    Assert.assertEquals(nrThreads * nrMeasurements, bucketCount);
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ssdump2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * @author zoly
+ */
+public final class DumpMergerTest {
+
+  private static SampleNode randomSamples(final int nrSamples) {
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    SampleNode result = null;
+    for (int i = 0; i < nrSamples; i++) {
+      StackTraceElement[] st = new StackTraceElement[1 + rnd.nextInt(10)];
+      for (int j = 0; j < st.length; j++) {
+        st[j] = new StackTraceElement("C" + rnd.nextInt(5), "m" + rnd.nextInt(3), "C.java", j);
+      }
+      if (result == null) {
+        result = SampleNode.createSampleNode(st);
+      } else {
+        SampleNode.addToSampleNode(result, st);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testWriteRead() throws IOException {
+    File file = File.createTempFile("test", ".ssdump4.gz");
+    Map<String, SampleNode> trees = new HashMap<>(4);
+    trees.put("b", randomSamples(300));
+    trees.put("a", randomSamples(100));
+    try (SampleTreeWriter writer = SampleTreeWriter.create(file)) {
+      writer.write(trees);
+    }
+    Assert.assertEquals(trees, SampleTreeReader.load(file));
+    try (SampleTreeReader reader = SampleTreeReader.open(file)) {
+      Assert.assertEquals("a", reader.nextLabel());
+      Assert.assertEquals("b", reader.nextLabel()); // skips a
+      Assert.assertEquals(trees.get("b"), reader.readTree());
+      Assert.assertNull(reader.nextLabel());
+    }
+    Files.delete(file.toPath());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLabelOrder() throws IOException {
+    File file = File.createTempFile("test", ".ssdump4");
+    try (SampleTreeWriter writer = SampleTreeWriter.create(file)) {
+      writer.write("b", randomSamples(1));
+      writer.write("a", randomSamples(1));
+    } finally {
+      Files.delete(file.toPath());
+    }
+  }
+
+  @Test
+  public void testMerge() throws IOException {
+    File folder = Files.createTempDirectory("mergeTest").toFile();
+    List<File> inputs = new ArrayList<>();
+    Map<String, SampleNode> expected = new HashMap<>(4);
+    for (int i = 0; i < 11; i++) {
+      SampleNode all = randomSamples(50);
+      SampleNode other = randomSamples(20);
+      expected.merge("ALL", all, SampleNode::aggregate);
+      File file;
+      switch (i % 3) {
+        case 0:
+          file = new File(folder, Converter.createLabeledSsdump2FileName("d" + i, "ALL") + ".gz");
+          Converter.save(file, all);
+          break;
+        case 1:
+          file = new File(folder, "d" + i + ".ssdump3");
+          Map<String, SampleNode> labeled = new HashMap<>(4);
+          labeled.put("ALL", all);
+          labeled.put("other", other);
+          expected.merge("other", other, SampleNode::aggregate);
+          Converter.saveLabeledDumps(file, labeled);
+          break;
+        default:
+          file = new File(folder, "d" + i + SampleTreeWriter.EXTENSION);
+          try (SampleTreeWriter writer = SampleTreeWriter.create(file)) {
+            writer.write("ALL", all);
+          }
+      }
+      inputs.add(file);
+    }
+    File output = new File(folder, "merged.ssdump4.gz");
+    DumpMerger.merge(inputs, output, 3);
+    Map<String, SampleNode> merged = SampleTreeReader.load(output);
+    Assert.assertEquals(expected, merged);
+    Assert.assertEquals(11 * 50, merged.get("ALL").getSampleCount());
+    for (File file : folder.listFiles()) {
+      Files.delete(file.toPath());
+    }
+    Files.delete(folder.toPath());
+  }
+
+  @Test
+  public void testIsDumpFile() {
+    Assert.assertTrue(DumpMerger.isDumpFile(new File("a_ALL.ssdump2.gz")));
+    Assert.assertTrue(DumpMerger.isDumpFile(new File("a.ssdump3")));
+    Assert.assertTrue(DumpMerger.isDumpFile(new File("a.ssdump4")));
+    Assert.assertFalse(DumpMerger.isDumpFile(new File("a.tsdb2")));
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author zoly
+ */
+public class AdaptiveSamplingPolicyTest {
+
+  @Test
+  public void testWithinBudget() {
+    // 1% of 10ms = 100us per tick allowed.
+    AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(0.01, 10000000, 100000000, 8, 128);
+    policy.update(50000, 100, 100);
+    Assert.assertEquals(10000000, policy.getIntervalNanos());
+    Assert.assertEquals(128, policy.getThreadBudget());
+    Assert.assertEquals(1, policy.getIntervalWeight(), 0.00001);
+  }
+
+  @Test
+  public void testThreadBudgetReduction() {
+    AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(0.01, 10000000, 100000000, 8, 128);
+    // 2us per thread, 128 threads -> 256us > 100 us.
+    policy.update(256000, 128, 2000);
+    Assert.assertEquals(50, policy.getThreadBudget());
+    Assert.assertEquals(10000000, policy.getIntervalNanos());
+  }
+
+  @Test
+  public void testIntervalIncrease() {
+    AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(0.01, 10000000, 100000000, 8, 128);
+    // 50us per thread, min 8 threads -> 400us per tick -> 40 ms interval.
+    policy.update(6400000, 128, 2000);
+    Assert.assertEquals(8, policy.getThreadBudget());
+    Assert.assertEquals(40000000, policy.getIntervalNanos());
+    Assert.assertEquals(4, policy.getIntervalWeight(), 0.00001);
+    // the interval is capped.
+    for (int i = 0; i < 100; i++) {
+      policy.update(8000000, 8, 2000);
+    }
+    Assert.assertEquals(100000000, policy.getIntervalNanos());
+    // cost drops, back to the base interval and all threads.
+    for (int i = 0; i < 100; i++) {
+      policy.update(1000, 8, 2000);
+    }
+    Assert.assertEquals(10000000, policy.getIntervalNanos());
+    Assert.assertEquals(128, policy.getThreadBudget());
+  }
+
+}
@@ -52,4 +52,17 @@ public class FastStackCollectorTest {
     Assert.assertNotSame(threads[0], threads[1]);
   }
 
+  @Test
+  public void testWeightedSample() {
+    FastStackCollector collector = new FastStackCollector((t) -> false, 1);
+    collector.setSampleWeight(2);
+    collector.sample();
+    Assert.assertEquals(1, collector.getLastNrSampledThreads());
+    SampleNode samples = collector.getCollectionsAndReset().get("ALL");
+    Assert.assertEquals(2 * collector.getLastNrThreads(), samples.getSampleCount());
+    collector.setSampleWeight(0);
+    collector.sample();
+    Assert.assertEquals(1, collector.getCollectionsAndReset().get("ALL").getSampleCount());
+  }
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.avro.Method;
+
+/**
+ * @author zoly
+ */
+public final class JfrStackSamplerTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JfrStackSamplerTest.class);
+
+  private static volatile long sink;
+
+  @Test
+  public void testJfrSampler() throws InterruptedException, IOException {
+    Assume.assumeTrue("JFR not available", JfrSamplerSupplier.isAvailable());
+    Sampler sampler = new Sampler(5, 3600000, new JfrSamplerSupplier(10, 200),
+            new File(org.spf4j.base.Runtime.TMP_FOLDER), "jfrTest");
+    sampler.start();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    Map<String, SampleNode> collections;
+    do {
+      burnCpu(TimeUnit.MILLISECONDS.toNanos(500));
+      collections = sampler.getStackCollections();
+    } while (!contains(collections.get("ALL"), "burnCpu") && System.nanoTime() < deadline);
+    LOG.debug("Sampled {}", collections);
+    Assert.assertTrue(contains(collections.get("ALL"), "burnCpu"));
+    burnCpu(TimeUnit.MILLISECONDS.toNanos(300));
+    sampler.stop();
+    File dump = sampler.dumpToFile();
+    LOG.debug("Dumped to {}", dump);
+    Assert.assertNotNull(dump);
+  }
+
+  private static void burnCpu(final long nanos) {
+    long deadline = System.nanoTime() + nanos;
+    long result = 0;
+    while (System.nanoTime() < deadline) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        sb.append(i);
+      }
+      result += sb.toString().hashCode();
+    }
+    sink = result;
+  }
+
+  private static boolean contains(final SampleNode node, final String methodName) {
+    if (node == null) {
+      return false;
+    }
+    for (Map.Entry<Method, SampleNode> entry : node.getSubNodes().entrySet()) {
+      if (methodName.equals(entry.getKey().getName()) || contains(entry.getValue(), methodName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.avro.Method;
+
+/**
+ * @author zoly
+ */
+public class LockContentionSamplerTest {
+
+  private final Object monitor = new Object();
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  @Test
+  public void testMonitorContention() throws InterruptedException {
+    LockContentionSampler sampler = new LockContentionSampler(Thread.currentThread());
+    Thread waiter = new Thread(() -> {
+      synchronized (monitor) {
+        Assert.assertNotNull(monitor);
+      }
+    }, "monitorWaiter");
+    synchronized (monitor) {
+      waiter.start();
+      while (waiter.getState() != Thread.State.BLOCKED) {
+        Thread.sleep(1);
+      }
+      sampler.sample();
+      sampler.sample();
+    }
+    waiter.join();
+    Map<String, SampleNode> collections = sampler.getCollectionsAndReset();
+    SampleNode contention = collections.get(LockContentionSampler.LABEL);
+    Assert.assertEquals(2, contention.getSampleCount());
+    Assert.assertTrue(contains(contention, "java.lang.Object", "LOCK"));
+    Assert.assertTrue(contains(contention, "lockOwner", "LOCK"));
+    Assert.assertTrue(sampler.getCollections().isEmpty());
+  }
+
+  @Test
+  public void testReentrantLockContention() throws InterruptedException {
+    LockContentionSampler sampler = new LockContentionSampler(Thread.currentThread(), null, null);
+    Thread waiter = new Thread(() -> {
+      lock.lock();
+      lock.unlock();
+    }, "lockWaiter");
+    lock.lock();
+    try {
+      waiter.start();
+      while (waiter.getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+      sampler.sample();
+    } finally {
+      lock.unlock();
+    }
+    waiter.join();
+    SampleNode contention = sampler.getCollections().get(LockContentionSampler.LABEL);
+    Assert.assertEquals(1, contention.getSampleCount());
+    Assert.assertTrue(contention.toString(),
+            contains(contention, "java.util.concurrent.locks.ReentrantLock$NonfairSync", "LOCK"));
+  }
+
+  private static boolean contains(final SampleNode node, final String name, final String declaringClass) {
+    Map<Method, SampleNode> subNodes = node.getSubNodes();
+    if (subNodes == null) {
+      return false;
+    }
+    for (Map.Entry<Method, SampleNode> entry : subNodes.entrySet()) {
+      Method m = entry.getKey();
+      if (name.equals(m.getName()) && declaringClass.equals(m.getDeclaringClass())
+              || contains(entry.getValue(), name, declaringClass)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author zoly
+ */
+public final class ProfileRingTest {
+
+  private static Map<String, SampleNode> samples(final String method, final int count) {
+    SampleNode node = null;
+    StackTraceElement[] st = {
+      new StackTraceElement("C", method, "C.java", 1),
+      new StackTraceElement("C", "main", "C.java", 2)
+    };
+    for (int i = 0; i < count; i++) {
+      if (node == null) {
+        node = SampleNode.createSampleNode(st);
+      } else {
+        SampleNode.addToSampleNode(node, st);
+      }
+    }
+    return Collections.singletonMap("ALL", node);
+  }
+
+  @Test
+  public void testWindows() {
+    ProfileRing ring = new ProfileRing(Duration.ofMinutes(2), 1024 * 1024);
+    Instant start = Instant.parse("2020-01-01T10:00:00Z");
+    for (int i = 0; i < 18; i++) {
+      Instant from = start.plusSeconds(i * 10);
+      ring.add(from, from.plusSeconds(10), samples(i < 6 ? "fast" : "slow", i + 1));
+    }
+    // 3 minutes were added, only the last 2 minutes are retained.
+    Assert.assertEquals(12, ring.getNrSnapshots());
+    Assert.assertEquals(start.plusSeconds(60), ring.getOldest());
+    Assert.assertEquals(start.plusSeconds(180), ring.getNewest());
+    Assert.assertTrue(ring.getProfile(start, start.plusSeconds(60)).isEmpty());
+    Map<String, SampleNode> profile = ring.getProfile(start.plusSeconds(60), start.plusSeconds(80));
+    Assert.assertEquals(7 + 8, profile.get("ALL").getSampleCount());
+    profile = ring.getProfile(start.plusSeconds(65), start.plusSeconds(75));
+    Assert.assertEquals(7 + 8, profile.get("ALL").getSampleCount());
+    profile = ring.getProfile(Instant.MIN, Instant.MAX);
+    Assert.assertEquals((7 + 18) * 12 / 2, profile.get("ALL").getSampleCount());
+  }
+
+  @Test
+  public void testMaxBytes() {
+    ProfileRing ring = new ProfileRing(Duration.ofHours(1), 300);
+    Instant start = Instant.parse("2020-01-01T10:00:00Z");
+    for (int i = 0; i < 100; i++) {
+      Instant from = start.plusSeconds(i);
+      ring.add(from, from.plusSeconds(1), samples("m" + i, 1));
+      Assert.assertTrue(ring.getTotalBytes() <= 300);
+    }
+    Assert.assertTrue(ring.getNrSnapshots() < 100);
+    Assert.assertEquals(start.plusSeconds(100), ring.getNewest());
+  }
+
+  @Test
+  public void testOutOfOrder() {
+    ProfileRing ring = new ProfileRing(Duration.ofSeconds(30), 1024 * 1024);
+    Instant start = Instant.parse("2020-01-01T10:00:00Z");
+    Assert.assertTrue(ring.add(start.plusSeconds(20), start.plusSeconds(30), samples("c", 3)));
+    Assert.assertTrue(ring.add(start, start.plusSeconds(10), samples("a", 1)));
+    Assert.assertTrue(ring.add(start.plusSeconds(10), start.plusSeconds(20), samples("b", 2)));
+    Assert.assertEquals(3, ring.getNrSnapshots());
+    Assert.assertEquals(start, ring.getOldest());
+    Assert.assertEquals(start.plusSeconds(30), ring.getNewest());
+    Assert.assertEquals(2, ring.getProfile(start.plusSeconds(10), start.plusSeconds(20)).get("ALL").getSampleCount());
+    // the oldest snapshot is evicted first.
+    Assert.assertTrue(ring.add(start.plusSeconds(30), start.plusSeconds(40), samples("d", 4)));
+    Assert.assertEquals(start.plusSeconds(10), ring.getOldest());
+    Assert.assertEquals(2 + 3 + 4, ring.getProfile(Instant.MIN, Instant.MAX).get("ALL").getSampleCount());
+  }
+
+  @Test
+  public void testSnapshotLargerThanMaxBytes() {
+    ProfileRing ring = new ProfileRing(Duration.ofHours(1), 300);
+    Instant start = Instant.parse("2020-01-01T10:00:00Z");
+    Assert.assertTrue(ring.add(start, start.plusSeconds(1), samples("small", 1)));
+    Map<String, SampleNode> large = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      large.put("label" + i, samples("method" + i, 1).get("ALL"));
+    }
+    Assert.assertFalse(ring.add(start.plusSeconds(1), start.plusSeconds(2), large));
+    // the retained snapshots are not evicted by a rejected one.
+    Assert.assertEquals(1, ring.getNrSnapshots());
+    Assert.assertEquals(start.plusSeconds(1), ring.getNewest());
+  }
+
+  @Test
+  public void testDiff() {
+    SampleNode before = SampleNode.aggregate(samples("fast", 90).get("ALL"), samples("slow", 10).get("ALL"));
+    SampleNode after = SampleNode.aggregate(samples("fast", 50).get("ALL"), samples("slow", 50).get("ALL"));
+    List<String> diff = ProfileRing.diff(before, after, 1);
+    Assert.assertEquals(1, diff.size());
+    Assert.assertTrue(diff.get(0), diff.get(0).startsWith("fast@C 90.00% -> 50.00% (-40.00%)")
+            || diff.get(0).startsWith("slow@C 10.00% -> 50.00% (+40.00%)"));
+  }
+
+}
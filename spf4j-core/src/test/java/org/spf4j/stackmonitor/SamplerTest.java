@@ -34,6 +34,8 @@ package org.spf4j.stackmonitor;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.File;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
@@ -41,6 +43,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spf4j.log.Level;
+import org.spf4j.ssdump2.SampleTreeReader;
 import org.spf4j.test.log.LogAssert;
 import org.spf4j.test.matchers.LogMatchers;
 import org.spf4j.test.log.TestLoggers;
@@ -90,5 +93,43 @@ public class SamplerTest {
     sampler.stop();
   }
 
+  @Test
+  @SuppressFBWarnings("MDM_THREAD_YIELD")
+  public void testProfileRing() throws InterruptedException, IOException {
+    Sampler sampler = new Sampler(1, 3600000, (t) -> new FastStackCollector(false, true, new Thread[]{t}),
+            new File(org.spf4j.base.Runtime.TMP_FOLDER), "ringTest");
+    Assert.assertNull("profile ring is opt in", sampler.getProfileRing());
+    sampler.configureProfileRing(20, 1, 1024 * 1024);
+    Instant start = Instant.now();
+    sampler.start();
+    Thread.sleep(300);
+    Assert.assertThat(sampler.getProfileRing().getNrSnapshots(), Matchers.greaterThan(1));
+    Map<String, SampleNode> profile = sampler.getProfile(start, Instant.now());
+    Assert.assertFalse(profile.isEmpty());
+    File file = sampler.dumpProfileToFile("-PT1M", "now");
+    LOG.debug("Profile saved to {}", file);
+    Assert.assertEquals(profile.keySet(), SampleTreeReader.load(file).keySet());
+    LOG.debug("Diff: {}", (Object) sampler.diffProfiles("-PT1M", "-PT0.1S", "-PT0.1S", "now", 5));
+    // samples moved to the ring are still dumped.
+    Assert.assertFalse(sampler.getStackCollectionsAndReset().isEmpty());
+    sampler.stop();
+  }
+
+  @Test
+  public void testAdaptiveSampling() throws InterruptedException {
+    Sampler sampler = new Sampler(1, 3600000, (t) -> new FastStackCollector(false, true, new Thread[]{t}),
+            new File(org.spf4j.base.Runtime.TMP_FOLDER), "adaptiveTest");
+    sampler.setOverheadBudget(0.0001);
+    sampler.start();
+    Thread.sleep(200);
+    String info = sampler.getAdaptiveSamplingInfo();
+    LOG.debug("Adaptive sampling state: {}", info);
+    Assert.assertThat(info, Matchers.startsWith("AdaptiveSamplingPolicy"));
+    Assert.assertFalse(sampler.getStackCollectionsAndReset().isEmpty());
+    sampler.setOverheadBudget(0);
+    Thread.sleep(50);
+    Assert.assertEquals("disabled", sampler.getAdaptiveSamplingInfo());
+    sampler.stop();
+  }
 
 }
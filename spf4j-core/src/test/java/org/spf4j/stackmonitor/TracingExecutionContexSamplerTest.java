@@ -31,7 +31,12 @@
  */
 package org.spf4j.stackmonitor;
 
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import org.junit.Assert;
 import org.junit.Test;
@@ -43,6 +48,66 @@ import org.spf4j.base.ExecutionContext;
  */
 public class TracingExecutionContexSamplerTest {
 
+  private static volatile long blackHole;
+
+  private static ExecutionContext newContext(final String name) {
+    long now = System.nanoTime();
+    return new ProfiledExecutionContext(name, null, null, ExecutionContext.Relation.CHILD_OF,
+            now, now + TimeUnit.HOURS.toNanos(1));
+  }
+
+  @Test
+  public void testThreadStateSplit() throws InterruptedException {
+    Object lock = new Object();
+    CountDownLatch stop = new CountDownLatch(1);
+    Thread running = new Thread(() -> {
+      long x = 0;
+      while (stop.getCount() > 0) {
+        x += Long.hashCode(x + System.nanoTime());
+      }
+      blackHole = x;
+    }, "running");
+    Thread blocked = new Thread(() -> {
+      synchronized (lock) {
+        blackHole++;
+      }
+    }, "blocked");
+    Thread waiting = new Thread(() -> {
+      try {
+        stop.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }, "waiting");
+    List<Map.Entry<Thread, ExecutionContext>> threads = Arrays.asList(
+            new AbstractMap.SimpleImmutableEntry<>(running, newContext("running")),
+            new AbstractMap.SimpleImmutableEntry<>(blocked, newContext("blocked")),
+            new AbstractMap.SimpleImmutableEntry<>(waiting, newContext("waiting")));
+    TracingExecutionContexSampler sampler = new TracingExecutionContexSampler(10, () -> threads,
+            ExecutionContext::getName, true);
+    synchronized (lock) {
+      running.start();
+      blocked.start();
+      waiting.start();
+      while (blocked.getState() != Thread.State.BLOCKED || waiting.getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+      for (int i = 0; i < 10; i++) {
+        sampler.sample();
+      }
+    }
+    stop.countDown();
+    running.join();
+    blocked.join();
+    waiting.join();
+    Map<String, SampleNode> collections = sampler.getCollectionsAndReset();
+    Assert.assertEquals(10, collections.get("running:RUNNABLE").getSampleCount());
+    Assert.assertEquals(10, collections.get("blocked:BLOCKED").getSampleCount());
+    Assert.assertEquals(10, collections.get("waiting:WAITING").getSampleCount());
+    Assert.assertEquals(collections.toString(), 3, collections.size());
+    Assert.assertTrue(sampler.getCollections().isEmpty());
+  }
+
 
   @Test
   public void tesECtSampler() {
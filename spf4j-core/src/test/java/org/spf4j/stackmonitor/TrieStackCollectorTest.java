@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author zoly
+ */
+public final class TrieStackCollectorTest {
+
+  @Test
+  public void testEmpty() {
+    TrieStackCollector collector = new TrieStackCollector();
+    Assert.assertNull(collector.get());
+    Assert.assertNull(collector.getAndReset());
+    Assert.assertEquals(0, collector.getNrNodes());
+  }
+
+  @Test
+  public void testSameAsStackCollectorImpl() {
+    // small initial capacity to exercise growth and rehashing.
+    TrieStackCollector trie = new TrieStackCollector(new MethodSymbolTable(), 2);
+    StackCollectorImpl impl = new StackCollectorImpl();
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    for (int i = 0; i < 1000; i++) {
+      StackTraceElement[] st = new StackTraceElement[rnd.nextInt(12)];
+      for (int j = 0; j < st.length; j++) {
+        st[j] = new StackTraceElement("C" + rnd.nextInt(4), "m" + rnd.nextInt(3), "C.java", j);
+      }
+      trie.collect(st);
+      impl.collect(st);
+    }
+    Assert.assertEquals(impl.getNrNodes(), trie.getNrNodes());
+    Assert.assertEquals(impl.get(), trie.get());
+    SampleNode expected = impl.getAndReset();
+    SampleNode actual = trie.getAndReset();
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals(1000, actual.getSampleCount());
+    Assert.assertNull(trie.get());
+    StackTraceElement[] st = {new StackTraceElement("C1", "m1", "C1.java", 1)};
+    trie.collect(st);
+    Assert.assertEquals(SampleNode.createSampleNode(st), trie.getAndReset());
+  }
+
+  @Test
+  public void testSymbolTable() {
+    MethodSymbolTable symbols = new MethodSymbolTable();
+    int id = symbols.getId("C1", "m1");
+    Assert.assertEquals(id, symbols.getId(new StackTraceElement("C1", "m1", "C1.java", 3)));
+    Assert.assertNotEquals(id, symbols.getId("C1", "m2"));
+    Assert.assertEquals("m1", symbols.getMethod(id).getName());
+    Assert.assertEquals("C1", symbols.getMethod(id).getDeclaringClass());
+    for (int i = 0; i < 3000; i++) {
+      Assert.assertEquals("m" + i, symbols.getMethod(symbols.getId("C2", "m" + i)).getName());
+    }
+    Assert.assertEquals(3002, symbols.size());
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.tsdb2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.tsdb2.avro.ColumnDef;
+import org.spf4j.tsdb2.avro.TableDef;
+
+/**
+ * @author zoly
+ */
+public class TSDBIndexTest {
+
+  private final TableDef tableDef = TableDef.newBuilder()
+          .setName("test")
+          .setDescription("test")
+          .setSampleTime(0)
+          .setColumns(Arrays.asList(
+                  ColumnDef.newBuilder().setName("a").setDescription("atest").setUnitOfMeasurement("ms").build(),
+                  ColumnDef.newBuilder().setName("b").setDescription("btest").setUnitOfMeasurement("ms").build()))
+          .build();
+
+  private final TableDef tableDef2 = TableDef.newBuilder(tableDef).setName("test2").build();
+
+  @Test
+  public void testIndexedRangeQuery() throws IOException {
+    File testFile = File.createTempFile("test", ".tsdb2");
+    long tableId, tableId2;
+    final long time = System.currentTimeMillis();
+    try (TSDBWriter writer = new TSDBWriter(testFile, 4, "test", false)) {
+      tableId = writer.writeTableDef(tableDef);
+      tableId2 = writer.writeTableDef(tableDef2);
+      for (int i = 0; i < 100; i++) {
+        writer.writeDataRow(tableId, time + i * 1000, i, i);
+      }
+      writer.flush();
+      for (int i = 0; i < 10; i++) {
+        writer.writeDataRow(tableId2, time + i * 1000, i, i);
+      }
+    }
+    TSDBIndex index = TSDBIndex.load(testFile);
+    Assert.assertEquals(2, index.getTableDefPositions().length);
+    Assert.assertEquals(28, index.getNrBlocks());
+    long[] blocks = index.getBlockPositions((id) -> id == tableId, time + 10000, time + 19000);
+    Assert.assertEquals(3, blocks.length);
+    TimeSeries ts = TSDBQuery.getTimeSeries(testFile, new long[]{tableId}, time + 10000, time + 19000);
+    Assert.assertEquals(10, ts.getTimeStamps().length);
+    Assert.assertEquals(10L, ts.getValues()[0][0]);
+    Assert.assertEquals(19L, ts.getValues()[9][0]);
+    TSDBQuery.TableDefEx tdex = TSDBQuery.getAllTablesWithDataRanges(testFile).get("test2").get(0);
+    Assert.assertEquals(time, tdex.getStartTime());
+    Assert.assertEquals(time + 9000, tdex.getEndTime());
+
+    // missing index is rebuilt.
+    Files.delete(TSDBIndex.getIndexFile(testFile).toPath());
+    TSDBIndex rebuilt = TSDBIndex.load(testFile);
+    Assert.assertEquals(index.getNrBlocks(), rebuilt.getNrBlocks());
+    Assert.assertEquals(index.getEndPosition(), rebuilt.getEndPosition());
+    Assert.assertTrue(TSDBIndex.getIndexFile(testFile).exists());
+
+    // append to file with stale index.
+    Files.write(TSDBIndex.getIndexFile(testFile).toPath(), new byte[] {1, 2, 3});
+    try (TSDBWriter writer = new TSDBWriter(testFile, 4, null, true)) {
+      writer.writeDataRow(tableId2, time + 100000, 100, 100);
+    }
+    ts = TSDBQuery.getTimeSeries(testFile, new long[]{tableId2}, time + 50000, Long.MAX_VALUE);
+    Assert.assertEquals(1, ts.getTimeStamps().length);
+    Assert.assertEquals(index.getNrBlocks() + 1, TSDBIndex.load(testFile).getNrBlocks());
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.tsdb2;
+
+import gnu.trove.list.array.TLongArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.Either;
+import org.spf4j.tsdb2.avro.ColumnDef;
+import org.spf4j.tsdb2.avro.DataBlock;
+import org.spf4j.tsdb2.avro.DataRow;
+import org.spf4j.tsdb2.avro.TableDef;
+
+/**
+ * @author zoly
+ */
+public class TSDBMappedReaderTest {
+
+  private final TableDef tableDef = TableDef.newBuilder()
+          .setName("test")
+          .setDescription("test")
+          .setSampleTime(0)
+          .setColumns(Arrays.asList(
+                  ColumnDef.newBuilder().setName("a").setDescription("atest").setUnitOfMeasurement("ms").build(),
+                  ColumnDef.newBuilder().setName("b").setDescription("btest").setUnitOfMeasurement("ms").build()))
+          .build();
+
+  @Test
+  public void testRowBlocks() throws IOException {
+    testRead(false);
+  }
+
+  @Test
+  public void testColumnarBlocks() throws IOException {
+    testRead(true);
+  }
+
+  private void testRead(final boolean columnar) throws IOException {
+    File testFile = File.createTempFile("test", ".tsdb2");
+    long tableId;
+    long tableId2;
+    final long time = System.currentTimeMillis();
+    try (TSDBWriter writer = new TSDBWriter(testFile, 10, "test", false,
+            TSDBWriter.Durability.OS, 0, 0, columnar)) {
+      tableId = writer.writeTableDef(tableDef);
+      tableId2 = writer.writeTableDef(TableDef.newBuilder(tableDef).setName("test2").build());
+      for (int i = 0; i < 500; i++) {
+        writer.writeDataRow(tableId, time + i, i, -i);
+        writer.writeDataRow(tableId2, time + i, i * 7, i % 3);
+        if (i % 50 == 0) {
+          writer.flush();
+        }
+      }
+    }
+    TLongArrayList expected = new TLongArrayList();
+    try (TSDBReader reader = new TSDBReader(testFile, 8192)) {
+      Either<TableDef, DataBlock> read;
+      while ((read = reader.read()) != null) {
+        if (read.isRight()) {
+          DataBlock block = read.getRight();
+          for (DataRow row : block.getValues()) {
+            expected.add(row.getTableDefId());
+            expected.add(block.getBaseTimestamp() + row.getRelTimeStamp());
+            for (Long val : row.getData()) {
+              expected.add(val);
+            }
+          }
+        }
+      }
+    }
+    TLongArrayList actual = new TLongArrayList(expected.size());
+    try (TSDBMappedReader reader = new TSDBMappedReader(testFile)) {
+      reader.seek(reader.getDataStartPosition());
+      while (reader.nextRow()) {
+        actual.add(reader.getTableId());
+        actual.add(reader.getTimestamp());
+        Assert.assertEquals(2, reader.getNrColumns());
+        actual.add(reader.getValue(0));
+        actual.add(reader.getValue(1));
+      }
+    }
+    Assert.assertEquals(expected, actual);
+    TSDBIndex index = TSDBIndex.load(testFile);
+    Assert.assertTrue(index.getNrBlocks() > 1);
+    int nrRows = 0;
+    try (TSDBMappedReader reader = new TSDBMappedReader(testFile)) {
+      for (int i = 0; i < index.getNrBlocks(); i++) {
+        long position = index.getBlockPosition(i);
+        reader.seek(position);
+        while (reader.nextBlockRow()) {
+          Assert.assertEquals(position, reader.getBlockPosition());
+          nrRows++;
+        }
+        // the block end is detected without decoding the next block.
+        Assert.assertTrue(reader.isBlockEnd());
+        Assert.assertEquals(position, reader.getBlockPosition());
+        Assert.assertFalse(reader.nextBlockRow());
+      }
+    }
+    Assert.assertEquals(1000, nrRows);
+    List<Long> timestamps = new ArrayList<>();
+    TSDBQuery.scan(testFile, (id) -> id == tableId2, time + 100, time + 199, (row) -> {
+      Assert.assertEquals(tableId2, row.getTableId());
+      Assert.assertEquals(row.getTimestamp() - time, row.getValue(0) / 7);
+      timestamps.add(row.getTimestamp());
+    });
+    Assert.assertEquals(100, timestamps.size());
+    Assert.assertEquals(time + 100, (long) timestamps.get(0));
+    Assert.assertEquals(time + 199, (long) timestamps.get(99));
+  }
+
+}
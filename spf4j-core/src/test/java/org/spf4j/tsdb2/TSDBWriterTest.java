@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.tsdb2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.tsdb2.avro.ColumnDef;
+import org.spf4j.tsdb2.avro.TableDef;
+
+/**
+ * @author zoly
+ */
+public class TSDBWriterTest {
+
+  private final TableDef tableDef = TableDef.newBuilder()
+          .setName("test")
+          .setDescription("test")
+          .setSampleTime(0)
+          .setColumns(Arrays.asList(
+                  ColumnDef.newBuilder().setName("a").setDescription("atest").setUnitOfMeasurement("ms").build()))
+          .build();
+
+  @Test(timeout = 10000)
+  public void testGroupCommit() throws IOException, InterruptedException {
+    File testFile = File.createTempFile("test", ".tsdb2");
+    long tableId;
+    try (TSDBWriter writer = new TSDBWriter(testFile, 4, "test", false,
+            TSDBWriter.Durability.PERIODIC_SYNC, 100, Long.MAX_VALUE)) {
+      tableId = writer.writeTableDef(tableDef);
+      final long time = System.currentTimeMillis();
+      for (int i = 0; i < 100; i++) {
+        writer.writeDataRow(tableId, time + i, i);
+        writer.flush();
+      }
+      Assert.assertTrue(writer.getSyncCount() < 100);
+      // data is visible to readers before it is synced.
+      Assert.assertEquals(100, TSDBQuery.getTimeSeries(testFile, new long[] {tableId}, 0, Long.MAX_VALUE)
+              .getTimeStamps().length);
+      while (writer.getSyncCount() == 0) {
+        Thread.sleep(10);
+      }
+      Assert.assertTrue(writer.getBytesWritten() > 0);
+    }
+  }
+
+  @Test
+  public void testSync() throws IOException {
+    File testFile = File.createTempFile("test", ".tsdb2");
+    try (TSDBWriter writer = new TSDBWriter(testFile, 4, "test", false,
+            TSDBWriter.Durability.SYNC, 0, 0)) {
+      long tableId = writer.writeTableDef(tableDef);
+      writer.writeDataRow(tableId, System.currentTimeMillis(), 1);
+      writer.flush();
+      Assert.assertEquals(2, writer.getSyncCount());
+      writer.flush();
+      Assert.assertEquals(2, writer.getSyncCount());
+    }
+  }
+
+  @Test
+  public void testColumnar() throws IOException {
+    File rowFile = File.createTempFile("test", ".tsdb2");
+    File colFile = File.createTempFile("test", ".tsdb2");
+    TableDef tableDef2 = TableDef.newBuilder(tableDef).setName("test2").build();
+    final long time = System.currentTimeMillis();
+    long[] rowIds = new long[2];
+    long[] colIds = new long[2];
+    try (TSDBWriter rowWriter = new TSDBWriter(rowFile, 100, "test", false,
+            TSDBWriter.Durability.OS, 0, 0, false);
+            TSDBWriter colWriter = new TSDBWriter(colFile, 100, "test", false,
+            TSDBWriter.Durability.OS, 0, 0, true)) {
+      rowIds[0] = rowWriter.writeTableDef(tableDef);
+      colIds[0] = colWriter.writeTableDef(tableDef);
+      rowIds[1] = rowWriter.writeTableDef(tableDef2);
+      colIds[1] = colWriter.writeTableDef(tableDef2);
+      for (int i = 0; i < 1000; i++) {
+        long ts = time + i * 1000;
+        rowWriter.writeDataRow(rowIds[0], ts, i * 1000000L);
+        colWriter.writeDataRow(colIds[0], ts, i * 1000000L);
+        rowWriter.writeDataRow(rowIds[1], ts, Double.doubleToRawLongBits(i / 3d));
+        colWriter.writeDataRow(colIds[1], ts, Double.doubleToRawLongBits(i / 3d));
+      }
+    }
+    Assert.assertTrue(colFile.length() * 2 < rowFile.length());
+    for (int i = 0; i < 2; i++) {
+      TimeSeries expected = TSDBQuery.getTimeSeries(rowFile, new long[] {rowIds[i]}, 0, Long.MAX_VALUE);
+      TimeSeries actual = TSDBQuery.getTimeSeries(colFile, new long[] {colIds[i]}, 0, Long.MAX_VALUE);
+      Assert.assertArrayEquals(expected.getTimeStamps(), actual.getTimeStamps());
+      Assert.assertArrayEquals(expected.getValues(), actual.getValues());
+    }
+    // appending to a columnar file stays columnar.
+    try (TSDBWriter colWriter = new TSDBWriter(colFile, 100, null, true,
+            TSDBWriter.Durability.OS, 0, 0, false)) {
+      colWriter.writeDataRow(colIds[0], time + 2000000, 1L);
+    }
+    Assert.assertEquals(1001, TSDBQuery.getTimeSeries(colFile, new long[] {colIds[0]}, 0, Long.MAX_VALUE)
+            .getTimeStamps().length);
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.jmh.maven;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.math3.stat.StatUtils;
+import org.apache.commons.math3.stat.inference.TestUtils;
+import org.spf4j.jmh.maven.BenchmarkComparison.Metric;
+import org.spf4j.jmh.maven.BenchmarkComparison.Verdict;
+
+/**
+ * Compares benchmark results against a baseline.
+ *
+ * A metric is considered changed when the relative change exceeds the configured threshold and the change is
+ * statistically significant. Significance is established with a Welch t-test of the iteration samples, or when
+ * samples are not available (less than 2 iterations) by non overlapping confidence intervals.
+ *
+ * @author zoly
+ */
+public final class BenchmarkComparator {
+
+  private final double scoreThreshold;
+
+  private final double allocationThreshold;
+
+  private final double minAllocationDelta;
+
+  private final double significance;
+
+  /**
+   * @param scoreThreshold the relative score change tolerated. (0.1 = 10%)
+   * @param allocationThreshold the relative allocation change tolerated.
+   * @param minAllocationDelta the absolute allocation change (bytes/op) tolerated,
+   * avoids flagging noise for benchmarks that allocate (almost) nothing.
+   * @param confidence the statistical confidence required to consider a change significant. (0.99)
+   */
+  public BenchmarkComparator(final double scoreThreshold, final double allocationThreshold,
+          final double minAllocationDelta, final double confidence) {
+    if (confidence <= 0 || confidence >= 1) {
+      throw new IllegalArgumentException("Confidence must be in (0, 1) and not " + confidence);
+    }
+    if (scoreThreshold < 0 || allocationThreshold < 0 || minAllocationDelta < 0) {
+      throw new IllegalArgumentException("Thresholds must be positive " + scoreThreshold
+              + ", " + allocationThreshold + ", " + minAllocationDelta);
+    }
+    this.scoreThreshold = scoreThreshold;
+    this.allocationThreshold = allocationThreshold;
+    this.minAllocationDelta = minAllocationDelta;
+    this.significance = 1 - confidence;
+  }
+
+  public List<BenchmarkComparison> compare(final Collection<BenchmarkResult> baseline,
+          final Collection<BenchmarkResult> current) {
+    Map<String, BenchmarkResult> baseMap = new LinkedHashMap<>(baseline.size() + baseline.size() / 2);
+    for (BenchmarkResult br : baseline) {
+      baseMap.put(br.getKey(), br);
+    }
+    List<BenchmarkComparison> result = new ArrayList<>(current.size() * 2);
+    for (BenchmarkResult cur : current) {
+      BenchmarkResult base = baseMap.remove(cur.getKey());
+      if (base == null) {
+        result.add(BenchmarkComparison.unmatched(cur, Verdict.NEW));
+        continue;
+      }
+      result.add(compare(cur.getKey(), Metric.SCORE, cur.getUnit(), cur.isHigherScoreBetter(),
+              new Measurement(base.getScore(), base.getScoreError(), base.getSamples()),
+              new Measurement(cur.getScore(), cur.getScoreError(), cur.getSamples()), scoreThreshold, 0));
+      if (cur.hasAllocation() && base.hasAllocation()) {
+        result.add(compare(cur.getKey(), Metric.ALLOCATION, "B/op", false,
+                new Measurement(base.getAllocationScore(), base.getAllocationError(), base.getAllocationSamples()),
+                new Measurement(cur.getAllocationScore(), cur.getAllocationError(), cur.getAllocationSamples()),
+                allocationThreshold, minAllocationDelta));
+      }
+    }
+    for (BenchmarkResult missing : baseMap.values()) {
+      result.add(BenchmarkComparison.unmatched(missing, Verdict.MISSING));
+    }
+    return result;
+  }
+
+  private BenchmarkComparison compare(final String key, final Metric metric, final String unit,
+          final boolean higherIsBetter, final Measurement base, final Measurement cur,
+          final double threshold, final double minDelta) {
+    double change;
+    if (base.value == 0) {
+      change = cur.value == 0 ? 0 : Double.POSITIVE_INFINITY * Math.signum(cur.value);
+    } else {
+      change = (cur.value - base.value) / Math.abs(base.value);
+    }
+    if (higherIsBetter) {
+      change = -change;
+    }
+    double pValue = pValue(base, cur);
+    Verdict verdict;
+    if (Math.abs(change) <= threshold || Math.abs(cur.value - base.value) <= minDelta
+            || !(pValue < significance)) {
+      verdict = Verdict.UNCHANGED;
+    } else if (change > 0) {
+      verdict = Verdict.REGRESSED;
+    } else {
+      verdict = Verdict.IMPROVED;
+    }
+    return new BenchmarkComparison(key, metric, unit, base.value, cur.value, change, pValue, verdict);
+  }
+
+  /**
+   * @return the two sided p-value of the difference in means, 0 or 1 when computed from confidence intervals,
+   * NaN when significance cannot be established.
+   */
+  static double pValue(final Measurement base, final Measurement cur) {
+    if (base.samples.length >= 2 && cur.samples.length >= 2) {
+      double bVar = StatUtils.variance(base.samples);
+      double cVar = StatUtils.variance(cur.samples);
+      if (bVar == 0 && cVar == 0) {
+        return StatUtils.mean(base.samples) == StatUtils.mean(cur.samples) ? 1 : 0;
+      }
+      return TestUtils.tTest(base.samples, cur.samples);
+    } else {
+      if (Double.isNaN(base.error) || Double.isNaN(cur.error)) {
+        return Double.NaN;
+      }
+      if (base.value + base.error < cur.value - cur.error || cur.value + cur.error < base.value - base.error) {
+        return 0;
+      } else {
+        return 1;
+      }
+    }
+  }
+
+  static final class Measurement {
+
+    private final double value;
+
+    private final double error;
+
+    private final double[] samples;
+
+    Measurement(final double value, final double error, final double[] samples) {
+      this.value = value;
+      this.error = error;
+      this.samples = samples;
+    }
+
+  }
+
+  @Override
+  public String toString() {
+    return "BenchmarkComparator{" + "scoreThreshold=" + scoreThreshold + ", allocationThreshold="
+            + allocationThreshold + ", minAllocationDelta=" + minAllocationDelta
+            + ", significance=" + significance + '}';
+  }
+
+}
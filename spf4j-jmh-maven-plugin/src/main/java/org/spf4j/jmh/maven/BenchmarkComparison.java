@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.jmh.maven;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The comparison of one metric (score or allocation) of a benchmark against its baseline.
+ *
+ * @author zoly
+ */
+@Immutable
+public final class BenchmarkComparison {
+
+  public enum Metric {
+    SCORE, ALLOCATION
+  }
+
+  public enum Verdict {
+    /** significantly better than the baseline beyond the threshold. */
+    IMPROVED,
+    /** no significant change beyond the threshold. */
+    UNCHANGED,
+    /** significantly worse than the baseline beyond the threshold. */
+    REGRESSED,
+    /** benchmark not present in the baseline. */
+    NEW,
+    /** benchmark present in the baseline but not in the current results. */
+    MISSING
+  }
+
+  private final String key;
+
+  private final Metric metric;
+
+  private final String unit;
+
+  private final double baseline;
+
+  private final double current;
+
+  private final double change;
+
+  private final double pValue;
+
+  private final Verdict verdict;
+
+  /**
+   * @param key the benchmark key.
+   * @param metric the compared metric.
+   * @param unit the unit of the metric.
+   * @param baseline the baseline value, NaN if there is no baseline.
+   * @param current the current value, NaN if there is no current value.
+   * @param change the relative change, positive values are worse. (for throughput a positive value is a decrease)
+   * @param pValue the probability of observing this difference when there is no actual change.
+   * @param verdict the comparison verdict.
+   */
+  public BenchmarkComparison(final String key, final Metric metric, final String unit,
+          final double baseline, final double current, final double change, final double pValue,
+          final Verdict verdict) {
+    this.key = key;
+    this.metric = metric;
+    this.unit = unit;
+    this.baseline = baseline;
+    this.current = current;
+    this.change = change;
+    this.pValue = pValue;
+    this.verdict = verdict;
+  }
+
+  static BenchmarkComparison unmatched(final BenchmarkResult result, final Verdict verdict) {
+    double score = result.getScore();
+    if (verdict == Verdict.NEW) {
+      return new BenchmarkComparison(result.getKey(), Metric.SCORE, result.getUnit(), Double.NaN, score,
+              Double.NaN, Double.NaN, verdict);
+    } else {
+      return new BenchmarkComparison(result.getKey(), Metric.SCORE, result.getUnit(), score, Double.NaN,
+              Double.NaN, Double.NaN, verdict);
+    }
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public Metric getMetric() {
+    return metric;
+  }
+
+  public String getUnit() {
+    return unit;
+  }
+
+  public double getBaseline() {
+    return baseline;
+  }
+
+  public double getCurrent() {
+    return current;
+  }
+
+  /**
+   * @return the relative change, positive values mean worse. (0.1 = 10% worse)
+   */
+  public double getChange() {
+    return change;
+  }
+
+  /**
+   * @return the p-value of the significance test, NaN when not applicable.
+   */
+  public double getPValue() {
+    return pValue;
+  }
+
+  public Verdict getVerdict() {
+    return verdict;
+  }
+
+  public String describe() {
+    switch (verdict) {
+      case NEW:
+        return key + " is new, " + current + ' ' + unit;
+      case MISSING:
+        return key + " is missing, baseline " + baseline + ' ' + unit;
+      default:
+        return key + ' ' + metric + ' ' + verdict + ": " + baseline + " -> " + current + ' ' + unit
+                + String.format(" (%+.2f%% worse, p=%.4f)", change * 100, pValue);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BenchmarkComparison{" + "key=" + key + ", metric=" + metric + ", unit=" + unit + ", baseline="
+            + baseline + ", current=" + current + ", change=" + change + ", pValue=" + pValue
+            + ", verdict=" + verdict + '}';
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.jmh.maven;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The result of a benchmark run (one benchmark method, mode and parameter combination).
+ *
+ * @author zoly
+ */
+@Immutable
+@ParametersAreNonnullByDefault
+@SuppressFBWarnings({"EI_EXPOSE_REP", "EI_EXPOSE_REP2"}) // sample arrays are not copied for performance.
+public final class BenchmarkResult {
+
+  private final String benchmark;
+
+  private final String mode;
+
+  private final SortedMap<String, String> params;
+
+  private final String unit;
+
+  private final double score;
+
+  private final double scoreError;
+
+  private final double[] samples;
+
+  private final double allocationScore;
+
+  private final double allocationError;
+
+  private final double[] allocationSamples;
+
+  /**
+   * @param benchmark the benchmark name. (fully qualified method name)
+   * @param mode the JMH benchmark mode. (thrpt, avgt, sample, ss)
+   * @param params the benchmark parameters.
+   * @param unit the score unit.
+   * @param score the score.
+   * @param scoreError the score error (99.9% confidence).
+   * @param samples the individual iteration scores.
+   * @param allocationScore the allocated bytes/operation, NaN if not measured.
+   * @param allocationError the allocation error, NaN if not measured.
+   * @param allocationSamples the individual iteration allocations.
+   */
+  public BenchmarkResult(final String benchmark, final String mode, final Map<String, String> params,
+          final String unit, final double score, final double scoreError, final double[] samples,
+          final double allocationScore, final double allocationError, final double[] allocationSamples) {
+    this.benchmark = benchmark;
+    this.mode = mode;
+    this.params = Collections.unmodifiableSortedMap(new TreeMap<>(params));
+    this.unit = unit;
+    this.score = score;
+    this.scoreError = scoreError;
+    this.samples = samples;
+    this.allocationScore = allocationScore;
+    this.allocationError = allocationError;
+    this.allocationSamples = allocationSamples;
+  }
+
+  /**
+   * @return a key that uniquely identifies the benchmark, mode, and parameter combination.
+   */
+  public String getKey() {
+    if (params.isEmpty()) {
+      return benchmark + ':' + mode;
+    } else {
+      return benchmark + ':' + mode + params;
+    }
+  }
+
+  public String getBenchmark() {
+    return benchmark;
+  }
+
+  public String getMode() {
+    return mode;
+  }
+
+  /**
+   * @return true if a higher score is better (throughput mode).
+   */
+  public boolean isHigherScoreBetter() {
+    return "thrpt".equals(mode);
+  }
+
+  public SortedMap<String, String> getParams() {
+    return params;
+  }
+
+  public String getUnit() {
+    return unit;
+  }
+
+  public double getScore() {
+    return score;
+  }
+
+  public double getScoreError() {
+    return scoreError;
+  }
+
+  public double[] getSamples() {
+    return samples;
+  }
+
+  public boolean hasAllocation() {
+    return !Double.isNaN(allocationScore);
+  }
+
+  public double getAllocationScore() {
+    return allocationScore;
+  }
+
+  public double getAllocationError() {
+    return allocationError;
+  }
+
+  public double[] getAllocationSamples() {
+    return allocationSamples;
+  }
+
+  @Override
+  public String toString() {
+    return "BenchmarkResult{" + "key=" + getKey() + ", score=" + score + ", scoreError=" + scoreError
+            + ", unit=" + unit + ", allocationScore=" + allocationScore + ", allocationError=" + allocationError + '}';
+  }
+
+}
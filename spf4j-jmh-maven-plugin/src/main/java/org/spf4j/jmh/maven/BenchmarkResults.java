@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.jmh.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Benchmark result serialization utilities: JMH JSON result reader, and avro baseline reader/writer.
+ *
+ * @author zoly
+ */
+@SuppressFBWarnings("PATH_TRAVERSAL_IN")
+public final class BenchmarkResults {
+
+  /**
+   * The avro schema of the benchmark baseline records.
+   */
+  public static final Schema SCHEMA = SchemaBuilder.record("BenchmarkResult").namespace("org.spf4j.jmh.avro")
+          .doc("A JMH benchmark result")
+          .fields()
+          .requiredString("benchmark")
+          .requiredString("mode")
+          .name("params").type().map().values().stringType().noDefault()
+          .requiredString("unit")
+          .requiredDouble("score")
+          .requiredDouble("scoreError")
+          .name("samples").type().array().items().doubleType().noDefault()
+          .optionalDouble("allocationScore")
+          .optionalDouble("allocationError")
+          .name("allocationSamples").type().array().items().doubleType().noDefault()
+          .endRecord();
+
+  /**
+   * the avro file metadata key that stores the baseline creation time.
+   */
+  public static final String CREATED_META = "spf4j.jmh.created";
+
+  private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+  private BenchmarkResults() { }
+
+  /**
+   * Read JMH results written in JSON format. (-rf json)
+   */
+  public static List<BenchmarkResult> readJmhJson(final File file) throws IOException {
+    JsonNode root = new ObjectMapper().readTree(file);
+    if (root == null || !root.isArray()) {
+      throw new IOException("Not a JMH json result file: " + file);
+    }
+    List<BenchmarkResult> result = new ArrayList<>(root.size());
+    for (JsonNode bench : root) {
+      Map<String, String> params = new HashMap<>(4);
+      JsonNode paramsNode = bench.get("params");
+      if (paramsNode != null) {
+        Iterator<Map.Entry<String, JsonNode>> fields = paramsNode.fields();
+        while (fields.hasNext()) {
+          Map.Entry<String, JsonNode> field = fields.next();
+          params.put(field.getKey(), field.getValue().asText());
+        }
+      }
+      JsonNode primary = bench.get("primaryMetric");
+      JsonNode alloc = null;
+      JsonNode secondary = bench.get("secondaryMetrics");
+      if (secondary != null) {
+        Iterator<Map.Entry<String, JsonNode>> fields = secondary.fields();
+        while (fields.hasNext()) {
+          Map.Entry<String, JsonNode> field = fields.next();
+          // JMH prefixes the profiler metrics with a middle dot in some versions.
+          if (field.getKey().endsWith(ALLOC_METRIC)) {
+            alloc = field.getValue();
+            break;
+          }
+        }
+      }
+      result.add(new BenchmarkResult(bench.get("benchmark").asText(), bench.get("mode").asText(), params,
+              primary.get("scoreUnit").asText(), primary.get("score").asDouble(),
+              primary.get("scoreError").asDouble(Double.NaN), rawData(primary),
+              alloc == null ? Double.NaN : alloc.get("score").asDouble(),
+              alloc == null ? Double.NaN : alloc.get("scoreError").asDouble(Double.NaN),
+              alloc == null ? new double[0] : rawData(alloc)));
+    }
+    return result;
+  }
+
+  /**
+   * @return the iteration scores of all forks.
+   */
+  private static double[] rawData(final JsonNode metric) {
+    JsonNode rawData = metric.get("rawData");
+    if (rawData == null) {
+      return new double[0];
+    }
+    int size = 0;
+    for (JsonNode fork : rawData) {
+      size += fork.size();
+    }
+    double[] result = new double[size];
+    int i = 0;
+    for (JsonNode fork : rawData) {
+      for (JsonNode val : fork) {
+        result[i++] = val.asDouble();
+      }
+    }
+    return result;
+  }
+
+  public static void writeAvro(final File file, final Collection<BenchmarkResult> results) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Cannot create folder " + parent);
+    }
+    try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<>(SCHEMA))) {
+      writer.setMeta(CREATED_META, java.time.Instant.now().toString());
+      writer.create(SCHEMA, file);
+      for (BenchmarkResult br : results) {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("benchmark", br.getBenchmark());
+        record.put("mode", br.getMode());
+        record.put("params", br.getParams());
+        record.put("unit", br.getUnit());
+        record.put("score", br.getScore());
+        record.put("scoreError", br.getScoreError());
+        record.put("samples", toList(br.getSamples()));
+        record.put("allocationScore", br.hasAllocation() ? br.getAllocationScore() : null);
+        record.put("allocationError", br.hasAllocation() ? br.getAllocationError() : null);
+        record.put("allocationSamples", toList(br.getAllocationSamples()));
+        writer.append(record);
+      }
+    }
+  }
+
+  public static List<BenchmarkResult> readAvro(final File file) throws IOException {
+    List<BenchmarkResult> result = new ArrayList<>();
+    try (DataFileReader<GenericRecord> reader = new DataFileReader<>(file, new GenericDatumReader<>(SCHEMA))) {
+      for (GenericRecord record : reader) {
+        Map<?, ?> aparams = (Map<?, ?>) record.get("params");
+        Map<String, String> params = new HashMap<>(aparams.size() + 1);
+        for (Map.Entry<?, ?> entry : aparams.entrySet()) {
+          params.put(entry.getKey().toString(), entry.getValue().toString());
+        }
+        result.add(new BenchmarkResult(record.get("benchmark").toString(), record.get("mode").toString(), params,
+                record.get("unit").toString(), (Double) record.get("score"), (Double) record.get("scoreError"),
+                toArray((List<?>) record.get("samples")),
+                orNaN((Double) record.get("allocationScore")), orNaN((Double) record.get("allocationError")),
+                toArray((List<?>) record.get("allocationSamples"))));
+      }
+    }
+    return result;
+  }
+
+  private static double orNaN(@Nullable final Double val) {
+    return val == null ? Double.NaN : val;
+  }
+
+  private static List<Double> toList(final double[] vals) {
+    List<Double> result = new ArrayList<>(vals.length);
+    for (double val : vals) {
+      result.add(val);
+    }
+    return result;
+  }
+
+  private static double[] toArray(final List<?> vals) {
+    double[] result = new double[vals.size()];
+    int i = 0;
+    for (Object val : vals) {
+      result[i++] = ((Number) val).doubleValue();
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.jmh.maven;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Runs the JMH benchmarks of the project (from the test classpath), and compares the results against a baseline.
+ * The build fails if any benchmark score or allocation (when measured by the gc profiler)
+ * regresses beyond the configured thresholds with the configured statistical confidence.
+ *
+ * When there is no baseline, or when updateBaseline is true, the current results become the baseline.
+ * A HTML diff report is written in the site reporting folder.
+ */
+@Mojo(name = "check", defaultPhase = LifecyclePhase.VERIFY,
+        requiresDependencyResolution = ResolutionScope.TEST, threadSafe = true)
+@SuppressFBWarnings({"PATH_TRAVERSAL_IN", "COMMAND_INJECTION"})
+public final class JmhRegressionMojo extends AbstractMojo {
+
+  @Parameter(defaultValue = "${project}", readonly = true, required = true)
+  private MavenProject project;
+
+  /**
+   * skip the benchmark regression check.
+   */
+  @Parameter(property = "jmh.skip", defaultValue = "false")
+  private boolean skip;
+
+  /**
+   * run the benchmarks, if false the results are read from resultFile. (produced by a different run)
+   */
+  @Parameter(property = "jmh.run", defaultValue = "true")
+  private boolean runBenchmarks;
+
+  /**
+   * The regexp of the benchmarks to run.
+   */
+  @Parameter(property = "jmh.includes", defaultValue = ".*Benchmark.*")
+  private String includes;
+
+  /**
+   * Extra JMH command line arguments, ex: -f 2 -wi 5 -i 10.
+   */
+  @Parameter
+  private List<String> jmhArguments;
+
+  /**
+   * JMH profilers to attach, the gc profiler is needed for the allocation regression check.
+   */
+  @Parameter
+  private List<String> profilers;
+
+  /**
+   * The java executable used to run the benchmarks.
+   */
+  @Parameter(property = "jmh.jvm", defaultValue = "${java.home}/bin/java")
+  private String jvm;
+
+  /**
+   * The JMH JSON result file.
+   */
+  @Parameter(property = "jmh.resultFile", defaultValue = "${project.build.directory}/jmh-result.json")
+  private File resultFile;
+
+  /**
+   * The baseline (avro) file.
+   */
+  @Parameter(property = "jmh.baselineFile", defaultValue = "${project.basedir}/src/jmh/baseline.avro")
+  private File baselineFile;
+
+  /**
+   * Overwrite the baseline with the current results.
+   */
+  @Parameter(property = "jmh.updateBaseline", defaultValue = "false")
+  private boolean updateBaseline;
+
+  /**
+   * The relative score degradation tolerated. (0.1 = 10%)
+   */
+  @Parameter(property = "jmh.scoreThreshold", defaultValue = "0.1")
+  private double scoreThreshold;
+
+  /**
+   * The relative allocation (bytes/op) increase tolerated. (0.1 = 10%)
+   */
+  @Parameter(property = "jmh.allocationThreshold", defaultValue = "0.1")
+  private double allocationThreshold;
+
+  /**
+   * The absolute allocation (bytes/op) increase tolerated.
+   */
+  @Parameter(property = "jmh.minAllocationDelta", defaultValue = "8")
+  private double minAllocationDelta;
+
+  /**
+   * The statistical confidence required to consider a change significant.
+   */
+  @Parameter(property = "jmh.confidence", defaultValue = "0.99")
+  private double confidence;
+
+  /**
+   * Fail the build on regressions, if false regressions are only reported.
+   */
+  @Parameter(property = "jmh.failOnRegression", defaultValue = "true")
+  private boolean failOnRegression;
+
+  /**
+   * The diff report location.
+   */
+  @Parameter(property = "jmh.reportFile",
+          defaultValue = "${project.reporting.outputDirectory}/jmh-regression.html")
+  private File reportFile;
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    if (skip) {
+      getLog().info("Benchmark regression check skipped");
+      return;
+    }
+    if (runBenchmarks) {
+      runBenchmarks();
+    }
+    try {
+      List<BenchmarkResult> current = BenchmarkResults.readJmhJson(resultFile);
+      if (updateBaseline || !baselineFile.exists()) {
+        BenchmarkResults.writeAvro(baselineFile, current);
+        getLog().info("Wrote benchmark baseline " + baselineFile + " with " + current.size() + " results");
+        return;
+      }
+      List<BenchmarkResult> baseline = BenchmarkResults.readAvro(baselineFile);
+      List<BenchmarkComparison> comparisons = new BenchmarkComparator(scoreThreshold, allocationThreshold,
+              minAllocationDelta, confidence).compare(baseline, current);
+      RegressionReport.writeHtml(reportFile, "Benchmark regressions for " + project.getArtifactId(),
+              "Baseline: " + baselineFile.getName() + ", score threshold: " + scoreThreshold
+              + ", allocation threshold: " + allocationThreshold + ", confidence: " + confidence, comparisons);
+      getLog().info("Benchmark comparison report written to " + reportFile);
+      List<BenchmarkComparison> regressions = new ArrayList<>();
+      for (BenchmarkComparison comparison : comparisons) {
+        switch (comparison.getVerdict()) {
+          case REGRESSED:
+            regressions.add(comparison);
+            getLog().error(comparison.describe());
+            break;
+          case UNCHANGED:
+            getLog().debug(comparison.describe());
+            break;
+          default:
+            getLog().info(comparison.describe());
+        }
+      }
+      if (!regressions.isEmpty() && failOnRegression) {
+        throw new MojoFailureException(regressions.size() + " benchmark regressions detected, see " + reportFile);
+      }
+    } catch (IOException ex) {
+      throw new MojoExecutionException("Cannot compare benchmark results " + resultFile
+              + " with baseline " + baselineFile, ex);
+    }
+  }
+
+  private void runBenchmarks() throws MojoExecutionException {
+    List<String> command = new ArrayList<>();
+    command.add(jvm);
+    command.add("-cp");
+    try {
+      command.add(String.join(File.pathSeparator, project.getTestClasspathElements()));
+    } catch (DependencyResolutionRequiredException ex) {
+      throw new MojoExecutionException("Cannot resolve test classpath for " + project, ex);
+    }
+    command.add("org.openjdk.jmh.Main");
+    command.add(includes);
+    command.add("-rf");
+    command.add("json");
+    command.add("-rff");
+    command.add(resultFile.getAbsolutePath());
+    if (profilers == null) {
+      command.add("-prof");
+      command.add("gc");
+    } else {
+      for (String profiler : profilers) {
+        command.add("-prof");
+        command.add(profiler);
+      }
+    }
+    if (jmhArguments != null) {
+      command.addAll(jmhArguments);
+    }
+    getLog().info("Running benchmarks: " + command.subList(3, command.size()));
+    File parent = resultFile.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new MojoExecutionException("Cannot create folder " + parent);
+    }
+    try {
+      Process process = new ProcessBuilder(command).directory(project.getBasedir()).inheritIO().start();
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        throw new MojoExecutionException("Benchmark execution failed with exit code " + exitCode);
+      }
+    } catch (IOException ex) {
+      throw new MojoExecutionException("Cannot execute " + command, ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while running " + command, ex);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "JmhRegressionMojo{" + "includes=" + includes + ", resultFile=" + resultFile
+            + ", baselineFile=" + baselineFile + ", scoreThreshold=" + scoreThreshold
+            + ", allocationThreshold=" + allocationThreshold + ", confidence=" + confidence + '}';
+  }
+
+}
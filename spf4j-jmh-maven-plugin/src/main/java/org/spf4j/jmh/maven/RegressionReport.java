@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.jmh.maven;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+
+/**
+ * Writes a benchmark comparison as a HTML page, that can be published as part of the project site.
+ *
+ * @author zoly
+ */
+@SuppressFBWarnings("PATH_TRAVERSAL_IN")
+public final class RegressionReport {
+
+  private RegressionReport() { }
+
+  public static void writeHtml(final File file, final String title, final String baselineInfo,
+          final Collection<BenchmarkComparison> comparisons) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Cannot create folder " + parent);
+    }
+    try (Writer w = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      w.write("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>");
+      escape(title, w);
+      w.write("</title>\n<style>table {border-collapse: collapse;} td, th {border: 1px solid #ccc; padding: 4px;}"
+              + " .REGRESSED {background-color: #f8d0d0;} .IMPROVED {background-color: #d0f0d0;}"
+              + " .NEW, .MISSING {background-color: #f0f0d0;}</style></head>\n<body><h1>");
+      escape(title, w);
+      w.write("</h1>\n<p>");
+      escape(baselineInfo, w);
+      w.write("</p>\n<table><tr><th>Benchmark</th><th>Metric</th><th>Baseline</th><th>Current</th><th>Unit</th>"
+              + "<th>Change (+ is worse)</th><th>p-value</th><th>Verdict</th></tr>\n");
+      for (BenchmarkComparison c : comparisons) {
+        w.write("<tr class=\"");
+        w.write(c.getVerdict().name());
+        w.write("\"><td>");
+        escape(c.getKey(), w);
+        w.write("</td><td>");
+        w.write(c.getMetric().name());
+        w.write("</td><td>");
+        w.write(format(c.getBaseline()));
+        w.write("</td><td>");
+        w.write(format(c.getCurrent()));
+        w.write("</td><td>");
+        escape(c.getUnit(), w);
+        w.write("</td><td>");
+        w.write(Double.isNaN(c.getChange()) ? "" : String.format("%+.2f%%", c.getChange() * 100));
+        w.write("</td><td>");
+        w.write(Double.isNaN(c.getPValue()) ? "" : String.format("%.4f", c.getPValue()));
+        w.write("</td><td>");
+        w.write(c.getVerdict().name());
+        w.write("</td></tr>\n");
+      }
+      w.write("</table>\n</body></html>\n");
+    }
+  }
+
+  private static String format(final double value) {
+    return Double.isNaN(value) ? "" : String.format("%.3f", value);
+  }
+
+  private static void escape(final CharSequence text, final Writer w) throws IOException {
+    for (int i = 0, l = text.length(); i < l; i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '<':
+          w.write("&lt;");
+          break;
+        case '>':
+          w.write("&gt;");
+          break;
+        case '&':
+          w.write("&amp;");
+          break;
+        case '"':
+          w.write("&quot;");
+          break;
+        default:
+          w.write(c);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.jmh.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.jmh.maven.BenchmarkComparison.Metric;
+import org.spf4j.jmh.maven.BenchmarkComparison.Verdict;
+
+/**
+ * @author zoly
+ */
+public final class BenchmarkComparatorTest {
+
+  private static final BenchmarkComparator COMPARATOR = new BenchmarkComparator(0.1, 0.1, 8, 0.99);
+
+  @Test
+  public void testJsonToAvroRoundTrip() throws IOException, URISyntaxException {
+    List<BenchmarkResult> results = BenchmarkResults.readJmhJson(
+            new File(BenchmarkComparatorTest.class.getResource("/jmh-result.json").toURI()));
+    Assert.assertEquals(2, results.size());
+    BenchmarkResult encode = results.get(0);
+    Assert.assertEquals("org.spf4j.base.Base64Benchmark.spf4jEncode:avgt{size=1024}", encode.getKey());
+    Assert.assertEquals(6, encode.getSamples().length);
+    Assert.assertEquals(1392.0, encode.getAllocationScore(), 0.0001);
+    BenchmarkResult acquire = results.get(1);
+    Assert.assertTrue(acquire.isHigherScoreBetter());
+    Assert.assertFalse(acquire.hasAllocation());
+    Assert.assertTrue(Double.isNaN(acquire.getScoreError()));
+
+    File baseline = File.createTempFile("baseline", ".avro");
+    BenchmarkResults.writeAvro(baseline, results);
+    List<BenchmarkResult> read = BenchmarkResults.readAvro(baseline);
+    Assert.assertEquals(results.size(), read.size());
+    for (int i = 0; i < results.size(); i++) {
+      BenchmarkResult expected = results.get(i);
+      BenchmarkResult actual = read.get(i);
+      Assert.assertEquals(expected.getKey(), actual.getKey());
+      Assert.assertArrayEquals(expected.getSamples(), actual.getSamples(), 0);
+      Assert.assertEquals(expected.getAllocationScore(), actual.getAllocationScore(), 0);
+    }
+    for (BenchmarkComparison comparison : COMPARATOR.compare(results, read)) {
+      Assert.assertEquals(comparison.toString(), Verdict.UNCHANGED, comparison.getVerdict());
+    }
+  }
+
+  @Test
+  public void testScoreRegression() {
+    BenchmarkResult base = avgt("b", 100, 100, 101, 99, 100, 102, 98);
+    BenchmarkResult slower = avgt("b", 130, 130, 131, 129, 130, 132, 128);
+    BenchmarkResult faster = avgt("b", 70, 70, 71, 69, 70, 72, 68);
+    BenchmarkResult noise = avgt("b", 105, 105, 110, 100, 104, 106, 105);
+    Assert.assertEquals(Verdict.REGRESSED, verdict(base, slower, Metric.SCORE));
+    Assert.assertEquals(Verdict.IMPROVED, verdict(base, faster, Metric.SCORE));
+    Assert.assertEquals(Verdict.UNCHANGED, verdict(base, noise, Metric.SCORE));
+    // large but not significant change.
+    BenchmarkResult noisy = avgt("b", 150, 50, 250, 60, 240, 150, 150);
+    Assert.assertEquals(Verdict.UNCHANGED, verdict(base, noisy, Metric.SCORE));
+  }
+
+  @Test
+  public void testThroughputRegression() {
+    BenchmarkResult base = new BenchmarkResult("t", "thrpt", Collections.emptyMap(), "ops/s",
+            1000, 10, new double[] {1000, 1005, 995, 1000}, Double.NaN, Double.NaN, new double[0]);
+    BenchmarkResult lower = new BenchmarkResult("t", "thrpt", Collections.emptyMap(), "ops/s",
+            800, 10, new double[] {800, 805, 795, 800}, Double.NaN, Double.NaN, new double[0]);
+    Assert.assertEquals(Verdict.REGRESSED, verdict(base, lower, Metric.SCORE));
+    Assert.assertEquals(Verdict.IMPROVED, verdict(lower, base, Metric.SCORE));
+  }
+
+  @Test
+  public void testAllocationRegression() {
+    double[] samples = {100, 100, 101, 99};
+    BenchmarkResult base = new BenchmarkResult("a", "avgt", Collections.emptyMap(), "ns/op",
+            100, 1, samples, 64, 0, new double[] {64, 64, 64, 64});
+    BenchmarkResult more = new BenchmarkResult("a", "avgt", Collections.emptyMap(), "ns/op",
+            100, 1, samples, 96, 0, new double[] {96, 96, 96, 96});
+    BenchmarkResult tiny = new BenchmarkResult("a", "avgt", Collections.emptyMap(), "ns/op",
+            100, 1, samples, 0.002, 0, new double[] {0.002, 0.002, 0.002, 0.002});
+    BenchmarkResult tinyMore = new BenchmarkResult("a", "avgt", Collections.emptyMap(), "ns/op",
+            100, 1, samples, 0.004, 0, new double[] {0.004, 0.004, 0.004, 0.004});
+    Assert.assertEquals(Verdict.UNCHANGED, verdict(base, more, Metric.SCORE));
+    Assert.assertEquals(Verdict.REGRESSED, verdict(base, more, Metric.ALLOCATION));
+    Assert.assertEquals(Verdict.UNCHANGED, verdict(tiny, tinyMore, Metric.ALLOCATION));
+  }
+
+  @Test
+  public void testNewAndMissing() {
+    List<BenchmarkComparison> comparisons = COMPARATOR.compare(Arrays.asList(avgt("old", 1, 1, 1)),
+            Arrays.asList(avgt("new", 1, 1, 1)));
+    Assert.assertEquals(2, comparisons.size());
+    Assert.assertEquals(Verdict.NEW, comparisons.get(0).getVerdict());
+    Assert.assertEquals(Verdict.MISSING, comparisons.get(1).getVerdict());
+  }
+
+  @Test
+  public void testReport() throws IOException {
+    List<BenchmarkComparison> comparisons = COMPARATOR.compare(Arrays.asList(avgt("b<1>", 100, 100, 101, 99)),
+            Arrays.asList(avgt("b<1>", 200, 200, 201, 199)));
+    File report = File.createTempFile("report", ".html");
+    RegressionReport.writeHtml(report, "test", "baseline", comparisons);
+    String html = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+    Assert.assertTrue(html, html.contains("b&lt;1&gt;:avgt"));
+    Assert.assertTrue(html, html.contains("<td>REGRESSED</td>"));
+  }
+
+  private static BenchmarkResult avgt(final String name, final double score, final double... samples) {
+    return new BenchmarkResult(name, "avgt", Collections.emptyMap(), "ns/op", score, Double.NaN, samples,
+            Double.NaN, Double.NaN, new double[0]);
+  }
+
+  private static Verdict verdict(final BenchmarkResult base, final BenchmarkResult current, final Metric metric) {
+    for (BenchmarkComparison comparison : COMPARATOR.compare(Arrays.asList(base), Arrays.asList(current))) {
+      if (comparison.getMetric() == metric) {
+        return comparison.getVerdict();
+      }
+    }
+    throw new IllegalStateException("No " + metric + " comparison for " + base + " and " + current);
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LifoThreadPoolExecutorSQP vs LifoThreadPoolExecutorWS vs ThreadPoolExecutor vs ForkJoinPool,
+ * submit to completion latency of a single task, and throughput of a batch of tasks with 1, 4 and
+ * nr processors submitters.
+ *
+ * @author zoly
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThreadPoolBenchmark {
+
+  private static final int BATCH_SIZE = 100;
+
+  private static final Callable<Long> TASK = () -> System.nanoTime();
+
+  @Param({"spf4j", "spf4jWs", "jdk", "fjp"})
+  private String pool;
+
+  private ExecutorService executor;
+
+  @Setup
+  public final void setup() {
+    int nrThreads = org.spf4j.base.Runtime.NR_PROCESSORS;
+    switch (pool) {
+      case "spf4j":
+        executor = new LifoThreadPoolExecutorSQP("bench", nrThreads, nrThreads, 60000, Integer.MAX_VALUE, true);
+        break;
+      case "spf4jWs":
+        executor = new LifoThreadPoolExecutorWS("bench", nrThreads, nrThreads, 60000, Integer.MAX_VALUE, true,
+                RejectedExecutionHandler.REJECT_EXCEPTION_EXEC_HANDLER, Thread.NORM_PRIORITY,
+                LifoThreadPoolExecutorWS.DEFAULT_NR_STRIPES);
+        break;
+      case "fjp":
+        executor = new ForkJoinPool(nrThreads);
+        break;
+      case "jdk":
+        executor = new ThreadPoolExecutor(nrThreads, nrThreads, 60000, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported pool " + pool);
+    }
+  }
+
+  @TearDown
+  public final void tearDown() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  /**
+   * submit a task and wait for its result.
+   */
+  @Benchmark
+  public final Long submitLatency() throws InterruptedException, ExecutionException {
+    return executor.submit(TASK).get();
+  }
+
+  /**
+   * execute a batch of tasks and wait for all of them to finish.
+   */
+  @Benchmark
+  public final void executeBatch() throws InterruptedException {
+    executeBatch(executor);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public final void executeBatchSingleSubmitter() throws InterruptedException {
+    executeBatch(executor);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public final void executeBatchMaxSubmitters() throws InterruptedException {
+    executeBatch(executor);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public final Long submitLatencyMaxSubmitters() throws InterruptedException, ExecutionException {
+    return executor.submit(TASK).get();
+  }
+
+  private static void executeBatch(final ExecutorService executor) throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+    Runnable task = latch::countDown;
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      executor.execute(task);
+    }
+    latch.await();
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io.csv;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * CharSeparatedValues read and write throughput of a 100 rows x 10 columns table, with some quoted elements.
+ *
+ * @author zoly
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CharSeparatedValuesBenchmark {
+
+  private static final int NR_ROWS = 100;
+
+  private static final CharSeparatedValues CSV = new CharSeparatedValues(',');
+
+  private Object[][] rows;
+
+  private String text;
+
+  private StringBuilder sb;
+
+  @Setup
+  public final void setup() throws IOException {
+    rows = new Object[NR_ROWS][];
+    for (int i = 0; i < NR_ROWS; i++) {
+      Object[] row = new Object[10];
+      for (int j = 0; j < row.length; j++) {
+        row[j] = (j % 3 == 0) ? "a \"quoted\", value " + i : "value" + j;
+      }
+      rows[i] = row;
+    }
+    sb = new StringBuilder(NR_ROWS * 128);
+    text = write();
+  }
+
+  @Benchmark
+  public final String write() throws IOException {
+    sb.setLength(0);
+    for (Object[] row : rows) {
+      CSV.writeCsvRow(sb, row);
+    }
+    return sb.toString();
+  }
+
+  @Benchmark
+  public final void read(final Blackhole bh) throws IOException, CsvParseException {
+    CsvReader reader = CSV.reader(new StringReader(text));
+    CsvReader.TokenType token;
+    while ((token = reader.next()) != CsvReader.TokenType.END_DOCUMENT) {
+      if (token == CsvReader.TokenType.ELEMENT) {
+        bh.consume(reader.getElement());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spf4j.io.ByteArrayBuilder;
+
+/**
+ * LogPrinter.print of a log record with arguments, and of a log record with a exception.
+ *
+ * @author zoly
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogPrinterBenchmark {
+
+  private static final LogPrinter PRINTER = new LogPrinter(StandardCharsets.UTF_8);
+
+  private final ByteArrayBuilder out = new ByteArrayBuilder(4096);
+
+  private Slf4jLogRecord record;
+
+  private Slf4jLogRecord exRecord;
+
+  @Setup
+  public final void setup() {
+    record = new Slf4jLogRecordImpl("org.spf4j.bench", Level.INFO,
+            "Processed {} requests for {} in {} ms", 42, "someUser", 3.5);
+    exRecord = new Slf4jLogRecordImpl("org.spf4j.bench", Level.WARN,
+            "Failed to process {}", "someRequest", new IOException("bench exception"));
+  }
+
+  @Benchmark
+  public final int print() {
+    out.reset();
+    PRINTER.print(record, out);
+    return out.size();
+  }
+
+  @Benchmark
+  public final int printWithException() {
+    out.reset();
+    PRINTER.print(exRecord, out);
+    return out.size();
+  }
+
+}
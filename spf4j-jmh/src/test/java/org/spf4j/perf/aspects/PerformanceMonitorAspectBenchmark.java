@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.aspects;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.aspectj.runtime.internal.AroundClosure;
+import org.aspectj.runtime.reflect.Factory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spf4j.annotations.PerformanceMonitor;
+import org.spf4j.annotations.RecorderSourceInstance;
+
+/**
+ * Benchmarks the PerformanceMonitorAspect advice, the join points are created the same way the aspectj weaver does.
+ * Run with the gc profiler to see the allocation rate per call (gc.alloc.rate.norm).
+ *
+ * @author zoly
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PerformanceMonitorAspectBenchmark {
+
+  private static final Object RESULT = new Object();
+
+  private final PerformanceMonitorAspect aspect = new PerformanceMonitorAspect();
+
+  private JoinPoint.StaticPart nopStaticPart;
+
+  private PerformanceMonitor nopAnnotation;
+
+  private JoinPoint.StaticPart scalableStaticPart;
+
+  private PerformanceMonitor scalableAnnotation;
+
+  private ProceedingJoinPoint nopJoinPoint;
+
+  private ProceedingJoinPoint scalableJoinPoint;
+
+  @Setup
+  public final void setup() throws NoSuchMethodException {
+    Factory factory = new Factory("PerformanceMonitorAspectBenchmark.java", PerformanceMonitorAspectBenchmark.class);
+    Method nop = PerformanceMonitorAspectBenchmark.class.getMethod("monitoredNop");
+    nopStaticPart = factory.makeSJP(JoinPoint.METHOD_EXECUTION, signature(factory, nop), 1);
+    nopAnnotation = nop.getAnnotation(PerformanceMonitor.class);
+    Method scalable = PerformanceMonitorAspectBenchmark.class.getMethod("monitoredScalable");
+    scalableStaticPart = factory.makeSJP(JoinPoint.METHOD_EXECUTION, signature(factory, scalable), 2);
+    scalableAnnotation = scalable.getAnnotation(PerformanceMonitor.class);
+    nopJoinPoint = createJoinPoint(nopStaticPart);
+    scalableJoinPoint = createJoinPoint(scalableStaticPart);
+  }
+
+  private static MethodSignature signature(final Factory factory, final Method method) {
+    return factory.makeMethodSig(method.getModifiers(), method.getName(), method.getDeclaringClass(),
+            method.getParameterTypes(), new String[0], method.getExceptionTypes(), method.getReturnType());
+  }
+
+  private ProceedingJoinPoint createJoinPoint(final JoinPoint.StaticPart staticPart) {
+    ProceedingJoinPoint jp = (ProceedingJoinPoint) Factory.makeJP(staticPart, this, this);
+    jp.set$AroundClosure(new ResultClosure());
+    return jp;
+  }
+
+  @PerformanceMonitor(recorderSource = RecorderSourceInstance.RsNop.class)
+  public final Object monitoredNop() {
+    return RESULT;
+  }
+
+  @PerformanceMonitor(recorderSource = RecorderSourceInstance.Rs1m.class)
+  public final Object monitoredScalable() {
+    return RESULT;
+  }
+
+  /**
+   * the advice alone, the recorder source hands out stable recorders.
+   */
+  @Benchmark
+  public Object adviceNopRecorder() throws Throwable {
+    return aspect.performanceMonitoredMethod(nopJoinPoint, nopAnnotation);
+  }
+
+  /**
+   * the advice alone, the recorder is looked up in a scalable recorder source.
+   */
+  @Benchmark
+  public Object adviceScalableRecorder() throws Throwable {
+    return aspect.performanceMonitoredMethod(scalableJoinPoint, scalableAnnotation);
+  }
+
+  /**
+   * the advice including the join point creation, like in woven code.
+   */
+  @Benchmark
+  public Object wovenScalableRecorder() throws Throwable {
+    return aspect.performanceMonitoredMethod(createJoinPoint(scalableStaticPart), scalableAnnotation);
+  }
+
+  private static final class ResultClosure extends AroundClosure {
+
+    ResultClosure() {
+      super(new Object[0]);
+    }
+
+    @Override
+    public Object run(final Object[] args) {
+      return RESULT;
+    }
+  }
+
+}
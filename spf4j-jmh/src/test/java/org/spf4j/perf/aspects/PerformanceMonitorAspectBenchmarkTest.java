@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.aspects;
+
+import java.util.Collection;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Verifies that the performance monitoring advice does not allocate.
+ *
+ * @author zoly
+ */
+public final class PerformanceMonitorAspectBenchmarkTest {
+
+  @Test
+  public void testAdviceDoesNotAllocate() throws RunnerException {
+    Options options = new OptionsBuilder()
+            .include(PerformanceMonitorAspectBenchmark.class.getName() + ".advice.*")
+            .addProfiler(GCProfiler.class)
+            .warmupIterations(2)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(3)
+            .measurementTime(TimeValue.seconds(1))
+            .forks(1)
+            .build();
+    Collection<RunResult> results = new Runner(options).run();
+    Assert.assertEquals(2, results.size());
+    for (RunResult result : results) {
+      Result allocated = result.getSecondaryResults().get("\u00b7gc.alloc.rate.norm");
+      Assert.assertNotNull(allocated);
+      Assert.assertTrue(result.getParams().getBenchmark() + " allocates " + allocated.getScore() + " bytes/call",
+              allocated.getScore() < 1);
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.perf.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spf4j.perf.MeasurementAccumulator;
+import org.spf4j.perf.impl.acc.AddAndCountAccumulator;
+import org.spf4j.perf.impl.acc.ConcurrentAddAndCountAccumulator;
+import org.spf4j.perf.impl.acc.ConcurrentMinMaxAvgAccumulator;
+import org.spf4j.perf.impl.acc.LogLinearHistogramAccumulator;
+import org.spf4j.perf.impl.acc.MinMaxAvgAccumulator;
+import org.spf4j.perf.impl.acc.QuantizedAccumulator;
+import org.spf4j.perf.impl.acc.StripedQuantizedAccumulator;
+
+/**
+ * Benchmarks MeasurementRecorder.record with every accumulator, recording through a ScalableMeasurementRecorder
+ * from multiple threads. (the way recorders created by RecorderFactory are used)
+ *
+ * @author zoly
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MeasurementRecorderBenchmark {
+
+  @Param({"Quantized", "StripedQuantized", "LogLinearHistogram", "AddAndCount", "ConcurrentAddAndCount",
+    "MinMaxAvg", "ConcurrentMinMaxAvg"})
+  private String accumulator;
+
+  private ScalableMeasurementRecorder recorder;
+
+  @Setup
+  public final void setup() {
+    recorder = new ScalableMeasurementRecorder(createAccumulator(accumulator), 3600000,
+            new NopMeasurementStore(), false);
+  }
+
+  @TearDown
+  public final void tearDown() {
+    recorder.close();
+  }
+
+  private static MeasurementAccumulator createAccumulator(final String type) {
+    switch (type) {
+      case "Quantized":
+        return new QuantizedAccumulator("bench", "", "ns", 10, 0, 6, 10);
+      case "StripedQuantized":
+        return new StripedQuantizedAccumulator("bench", "", "ns", 10, 0, 6, 10);
+      case "LogLinearHistogram":
+        return new LogLinearHistogramAccumulator("bench", "", "ns", 1000000, 2);
+      case "AddAndCount":
+        return new AddAndCountAccumulator("bench", "", "ns");
+      case "ConcurrentAddAndCount":
+        return new ConcurrentAddAndCountAccumulator("bench", "", "ns");
+      case "MinMaxAvg":
+        return new MinMaxAvgAccumulator("bench", "", "ns");
+      case "ConcurrentMinMaxAvg":
+        return new ConcurrentMinMaxAvgAccumulator("bench", "", "ns");
+      default:
+        throw new IllegalArgumentException("Unsupported accumulator " + type);
+    }
+  }
+
+  @Benchmark
+  public final void record() {
+    recorder.record(ThreadLocalRandom.current().nextInt(1000000));
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.io.File;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the spf4j benchmark suite with the spf4j profiler attached, results are written as JSON
+ * (for regression tracking) and the stack samples of every iteration are saved next to the results.
+ *
+ * usage: Spf4jBenchmarkSuite [benchmark include regexp]
+ * the result file can be configured with the spf4j.jmh.result system property.
+ *
+ * @author zoly
+ */
+public final class Spf4jBenchmarkSuite {
+
+  /**
+   * by convention all benchmark classes in this project are named *Benchmark.
+   */
+  public static final String ALL_BENCHMARKS = "org\\.spf4j\\..*Benchmark\\..*";
+
+  private Spf4jBenchmarkSuite() { }
+
+  public static ChainedOptionsBuilder options(final String include, final File resultFile) {
+    File destination = resultFile.getAbsoluteFile().getParentFile();
+    if (!destination.isDirectory() && !destination.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create result folder " + destination);
+    }
+    return new OptionsBuilder()
+            .include(include)
+            .addProfiler(Spf4jJmhProfiler.class)
+            .jvmArgsAppend("-Djmh.stack.profiles=" + destination.getPath(),
+                    // spf4j executor threads should not keep the benchmark JVMs alive.
+                    "-Dspf4j.executors.defaultExecutor.daemon=true",
+                    "-Dspf4j.executors.defaultScheduler.daemon=true")
+            .result(resultFile.getPath())
+            .resultFormat(ResultFormatType.JSON);
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    String include = args.length > 0 ? args[0] : ALL_BENCHMARKS;
+    File result = new File(System.getProperty("spf4j.jmh.result",
+            org.spf4j.base.Runtime.USER_DIR + "/target/jmh-result.json"));
+    new Runner(options(include, result).build()).run();
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Smoke runs a single benchmark in process (short iteration), to make sure it works with the spf4j profiler
+ * and produces JSON results. Other benchmarks can be smoke tested with -Dspf4j.benchmarks=[include regexp],
+ * (for example -Dspf4j.benchmarks=org\.spf4j\..*Benchmark\..* for the whole suite)
+ *
+ * @author zoly
+ */
+public final class Spf4jBenchmarkSuiteTest {
+
+  private static final String SMOKE_BENCHMARK = "org\\.spf4j\\.base\\.Base64Benchmark\\.spf4jEncode";
+
+  @Test
+  public void testSuite() throws RunnerException, IOException {
+    File result = new File(org.spf4j.base.Runtime.USER_DIR + "/target/jmh-smoke-result.json");
+    // no fork, the profiler dumps the stack samples next to the results.
+    String oldProfiles = System.setProperty("jmh.stack.profiles", result.getAbsoluteFile().getParent());
+    Collection<RunResult> results;
+    try {
+      results = new Runner(
+              Spf4jBenchmarkSuite.options(System.getProperty("spf4j.benchmarks", SMOKE_BENCHMARK), result)
+              .warmupIterations(0)
+              .measurementIterations(1)
+              .measurementTime(TimeValue.milliseconds(200))
+              .forks(0)
+              .build()).run();
+    } finally {
+      if (oldProfiles == null) {
+        System.clearProperty("jmh.stack.profiles");
+      } else {
+        System.setProperty("jmh.stack.profiles", oldProfiles);
+      }
+    }
+    Assert.assertFalse(results.isEmpty());
+    String json = new String(Files.readAllBytes(result.toPath()), StandardCharsets.UTF_8);
+    for (RunResult rr : results) {
+      String benchmark = rr.getParams().getBenchmark();
+      Assert.assertTrue(benchmark, json.contains(benchmark));
+      Assert.assertNotNull(benchmark, rr.getSecondaryResults().get("@stack"));
+    }
+  }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ui;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.spf4j.base.EqualsPredicate;
+import org.spf4j.base.Methods;
+import org.spf4j.base.Pair;
+import org.spf4j.base.avro.Method;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * A differential flame chart. Frame widths are proportional to the after profile samples, colors show the
+ * change in the normalized (by total samples) share of every frame: red more, blue less.
+ *
+ * @author zoly
+ */
+@SuppressFBWarnings("SE_BAD_FIELD")
+public final class DiffFlameStackPanel extends StackPanelBase<SampleNodeDiff> {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final SampleNode EMPTY = new SampleNode(0);
+
+  /**
+   * after samples -&gt; before samples, for all the views reachable via drill/filter/back.
+   */
+  private final Map<SampleNode, SampleNode> beforeOf;
+
+  private SampleNode before;
+
+  public DiffFlameStackPanel(final Method method, final SampleNode before,
+          final SampleNode after, final LinkedList<Pair<Method, SampleNode>> history) {
+    super(method, after, history);
+    this.before = before;
+    this.beforeOf = new IdentityHashMap<>();
+    beforeOf.put(after, before);
+  }
+
+  public SampleNode getBefore() {
+    return before;
+  }
+
+  @Override
+  public int paint(final Graphics2D gr, final double width, final double rowHeight) {
+    SampleNodeDiff root = new SampleNodeDiff(getMethod(), before, getSamples());
+    return paintNode(root, root.getMaxAbsDelta(), gr, 0, 0, (int) width, (int) rowHeight);
+  }
+
+  private int paintNode(final SampleNodeDiff node, final double maxAbsDelta,
+          final Graphics2D g2, final int x, final int py, final int width, final int height) {
+    int y = py;
+    Color color = SampleNodeDiff.getColor(node.getDelta(), maxAbsDelta);
+    g2.setPaint(color);
+    g2.setBackground(color);
+    g2.setClip(x, y, width, height);
+    g2.fillRect(x, y, width, height);
+    insert(x, y, width, height, node);
+    g2.setPaint(Color.BLACK);
+    g2.drawString(Methods.toString(node.getMethod()) + '-' + node.getAfterCount(), x, y + height - 1);
+    g2.setClip(null);
+    g2.setPaint(LINK_COLOR);
+    g2.drawRect(x, y, width, height);
+    int result = height;
+    int afterCount = node.getAfterCount();
+    if (afterCount > 0) {
+      y += height;
+      int relX = x;
+      double scale = (double) width / afterCount;
+      int maxY = 0;
+      for (SampleNodeDiff child : node.getChildren()) {
+        int childWidth = (int) (scale * child.getAfterCount());
+        if (childWidth > 0) {
+          maxY = Math.max(maxY, paintNode(child, maxAbsDelta, g2, relX, y, childWidth, height));
+          relX += childWidth;
+        }
+      }
+      result += maxY;
+    }
+    return result;
+  }
+
+  @Override
+  @Nullable
+  public String getDetail(final Point location) {
+    List<SampleNodeDiff> tips = search(location.x, location.y, 0, 0);
+    if (tips.size() >= 1) {
+      return tips.get(0).getDetail();
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public void filter() {
+    List<SampleNodeDiff> tips = search(xx, yy, 0, 0);
+    if (tips.size() >= 1) {
+      final EqualsPredicate<Method> predicate = new EqualsPredicate<>(tips.get(0).getMethod());
+      SampleNode after = getSamples().filteredBy(predicate);
+      if (after != null) {
+        SampleNode filteredBefore = before.filteredBy(predicate);
+        beforeOf.put(after, filteredBefore == null ? EMPTY : filteredBefore);
+        updateSamples(getMethod(), after);
+        repaint();
+      }
+    }
+  }
+
+  @Override
+  public void drill() {
+    List<SampleNodeDiff> tips = search(xx, yy, 0, 0);
+    if (tips.size() >= 1) {
+      SampleNodeDiff node = tips.get(0);
+      SampleNode after = node.getAfter();
+      if (after != null) {
+        SampleNode nBefore = node.getBefore();
+        beforeOf.put(after, nBefore == null ? EMPTY : nBefore);
+        updateSamples(node.getMethod(), after);
+        repaint();
+      }
+    }
+  }
+
+  @Override
+  public void updateSamples(final Method m, final SampleNode n) {
+    SampleNode nBefore = beforeOf.get(n);
+    this.before = nBefore == null ? EMPTY : nBefore;
+    super.updateSamples(m, n);
+  }
+
+}
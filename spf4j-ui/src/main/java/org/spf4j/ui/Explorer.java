@@ -43,6 +43,7 @@ import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
@@ -241,6 +242,8 @@ public class Explorer extends javax.swing.JFrame {
       chooser.addChoosableFileFilter(Spf4jFileFilter.SSDUMP3);
       chooser.addChoosableFileFilter(Spf4jFileFilter.SSDUMP2_GZ);
       chooser.addChoosableFileFilter(Spf4jFileFilter.SSDUMP3_GZ);
+      chooser.addChoosableFileFilter(Spf4jFileFilter.SSDUMP4);
+      chooser.addChoosableFileFilter(Spf4jFileFilter.SSDUMP4_GZ);
       chooser.addChoosableFileFilter(Spf4jFileFilter.TSDB);
       chooser.addChoosableFileFilter(Spf4jFileFilter.TSDB2);
       chooser.addChoosableFileFilter(Spf4jFileFilter.AVRO_TABLEDEF);
@@ -341,7 +344,6 @@ public class Explorer extends javax.swing.JFrame {
   }//GEN-LAST:event_jMenuItem2ActionPerformed
 
   private void openFile(final File file) throws IOException {
-    String fileName = file.getName();
     JInternalFrame frame;
     if (Spf4jFileFilter.TSDB.accept(file)) {
       frame = new TSDBViewJInternalFrame(file);
@@ -355,30 +357,50 @@ public class Explorer extends javax.swing.JFrame {
       frame = new MStoreViewJInternalFrame(file);
       frame.setVisible(true);
       desktopPane.add(frame, javax.swing.JLayeredPane.DEFAULT_LAYER);
-    } else if (Spf4jFileFilter.SSDUMP.accept(file)) {
-      SampleNode samples = loadLegacyFormat(file);
-      setFrames(samples, fileName);
+    } else {
+      for (Map.Entry<String, SampleNode> entry : loadSampleDumps(file).entrySet()) {
+        setFrames(entry.getValue(), entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * Load the stack samples from a stack sample dump file (ssdump, ssdump2/3/4, optionally gzipped, json).
+   * @param file the dump file.
+   * @return the stack samples keyed by title: file name, or file name:label for the labeled dump formats.
+   * @throws IOException if the file cannot be read, or it is not a stack sample dump.
+   */
+  static Map<String, SampleNode> loadSampleDumps(final File file) throws IOException {
+    String fileName = file.getName();
+    Map<String, SampleNode> result = new LinkedHashMap<>(4);
+    if (Spf4jFileFilter.SSDUMP.accept(file)) {
+      result.put(fileName, loadLegacyFormat(file));
     } else if (Spf4jFileFilter.SSDUMP2.accept(file) || Spf4jFileFilter.SSDUMP2_GZ.accept(file)) {
-      SampleNode samples = org.spf4j.ssdump2.Converter.load(file);
-      setFrames(samples, fileName);
+      result.put(fileName, org.spf4j.ssdump2.Converter.load(file));
     } else if (Spf4jFileFilter.SSDUMP3.accept(file) || Spf4jFileFilter.SSDUMP3_GZ.accept(file)) {
       Map<String, SampleNode> loadLabeledDumps = org.spf4j.ssdump2.Converter.loadLabeledDumps(file);
       for (Map.Entry<String, SampleNode> entry : loadLabeledDumps.entrySet()) {
-        setFrames(entry.getValue(), fileName + ':' + entry.getKey());
+        result.put(fileName + ':' + entry.getKey(), entry.getValue());
+      }
+    } else if (Spf4jFileFilter.SSDUMP4.accept(file) || Spf4jFileFilter.SSDUMP4_GZ.accept(file)) {
+      Map<String, SampleNode> dumps = org.spf4j.ssdump2.SampleTreeReader.load(file);
+      for (Map.Entry<String, SampleNode> entry : dumps.entrySet()) {
+        result.put(fileName + ':' + entry.getKey(), entry.getValue());
       }
     } else if (Spf4jFileFilter.D3_JSON.accept(file)) {
       try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
         Pair<Method, SampleNode> parse = SampleNode.parseD3Json(br);
-        setFrames(parse.getSecond(), fileName);
+        result.put(fileName, parse.getSecond());
       }
     } else if (Spf4jFileFilter.SPF4J_JSON.accept(file)) {
       try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
         Pair<Method, SampleNode> parse = SampleNode.parse(br);
-        setFrames(parse.getSecond(), fileName);
+        result.put(fileName, parse.getSecond());
       }
     } else {
       throw new IOException("Unsupported file format " + fileName);
     }
+    return result;
   }
 
   private static SampleNode loadLegacyFormat(final File file) throws IOException {
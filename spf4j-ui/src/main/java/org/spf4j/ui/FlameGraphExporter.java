@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ui;
+
+import com.google.common.escape.Escaper;
+import com.google.common.xml.XmlEscapers;
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.spf4j.base.Methods;
+import org.spf4j.base.SysExits;
+import org.spf4j.base.avro.Method;
+import org.spf4j.ssdump2.Converter;
+import org.spf4j.ssdump2.SampleTreeReader;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * Headless (no Swing display needed) flame graph exporter, to SVG or HTML.
+ * Exports a flame graph for one profile, or a differential flame graph for 2 profiles.
+ *
+ * usage: FlameGraphExporter -after profile.ssdump2 [-before baseline.ssdump2] [-label ALL] -o report.html|svg
+ *
+ * @author zoly
+ */
+@ParametersAreNonnullByDefault
+public final class FlameGraphExporter {
+
+  private static final Escaper ESCAPER = XmlEscapers.xmlContentEscaper();
+
+  private static final double MIN_WIDTH = 0.1;
+
+  private static class Options {
+
+    @Option(name = "-after", usage = "profile file (ssdump2, ssdump3, ssdump4 optionally gzipped)", required = true)
+    private File after;
+
+    @Option(name = "-before", usage = "baseline profile file, when provided a differential flame graph is exported")
+    private File before;
+
+    @Option(name = "-label", usage = "the sample label to use, by default all labels are aggregated")
+    private String label;
+
+    @Option(name = "-o", usage = "output file, html or svg", required = true)
+    private File output;
+
+    @Option(name = "-width", usage = "the graph width in pixels")
+    private int width = 1200;
+
+    @Option(name = "-rowHeight", usage = "the frame height in pixels")
+    private int rowHeight = 16;
+
+    @Option(name = "-title", usage = "title")
+    private String title = "Flame Graph";
+  }
+
+  private FlameGraphExporter() { }
+
+  @SuppressWarnings("checkstyle:regexp")
+  public static void main(final String[] args) throws IOException {
+    Options options = new Options();
+    CmdLineParser parser = new CmdLineParser(options);
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println("Error: " + e.getMessage() + "\nUsage:");
+      parser.printUsage(System.err);
+      System.exit(SysExits.EX_USAGE.exitCode());
+    }
+    SampleNode after = loadProfile(options.after, options.label);
+    SampleNode before = options.before == null ? null : loadProfile(options.before, options.label);
+    boolean html = !options.output.getName().endsWith(".svg");
+    try (Writer w = new BufferedWriter(Files.newBufferedWriter(options.output.toPath(), StandardCharsets.UTF_8))) {
+      if (html) {
+        writeHtml(options.title, before, after, w, options.width, options.rowHeight);
+      } else if (before == null) {
+        writeSvg(Methods.ROOT, after, w, options.width, options.rowHeight);
+      } else {
+        writeDiffSvg(before, after, w, options.width, options.rowHeight);
+      }
+    }
+    System.exit(SysExits.OK.exitCode());
+  }
+
+  /**
+   * Load a profile from a ssdump2/ssdump3/ssdump4 file (optionally gzipped).
+   * @param label the label to load, if null all labels are aggregated.
+   */
+  public static SampleNode loadProfile(final File file, @Nullable final String label) throws IOException {
+    String name = file.getName();
+    if (name.endsWith(".gz")) {
+      name = name.substring(0, name.length() - 3);
+    }
+    Map<String, SampleNode> profiles;
+    if (name.endsWith(".ssdump2")) {
+      return Converter.load(file);
+    } else if (name.endsWith(".ssdump3")) {
+      profiles = Converter.loadLabeledDumps(file);
+    } else if (name.endsWith(".ssdump4")) {
+      profiles = SampleTreeReader.load(file);
+    } else {
+      throw new IllegalArgumentException("Unsupported profile file " + file);
+    }
+    if (label != null) {
+      SampleNode result = profiles.get(label);
+      if (result == null) {
+        throw new IllegalArgumentException("No " + label + " samples in " + file + ", available: "
+                + profiles.keySet());
+      }
+      return result;
+    }
+    SampleNode result = null;
+    for (SampleNode node : profiles.values()) {
+      result = SampleNode.aggregateNullable(result, node);
+    }
+    if (result == null) {
+      throw new IllegalArgumentException("No samples in " + file);
+    }
+    return result;
+  }
+
+  public static void writeHtml(final String title, @Nullable final SampleNode before, final SampleNode after,
+          final Writer w, final int width, final int rowHeight) throws IOException {
+    w.append("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>");
+    w.append(ESCAPER.escape(title));
+    w.append("</title></head>\n<body style=\"font-family:sans-serif\">\n<h2>");
+    w.append(ESCAPER.escape(title));
+    w.append("</h2>\n");
+    if (before == null) {
+      w.append("<p>").append(Integer.toString(after.getSampleCount())).append(" samples</p>\n");
+      writeSvg(Methods.ROOT, after, w, width, rowHeight);
+    } else {
+      w.append("<p>before: ").append(Integer.toString(before.getSampleCount()))
+              .append(" samples, after: ").append(Integer.toString(after.getSampleCount()))
+              .append(" samples. Frame width: after samples; color: change in share of samples,"
+                      + " <span style=\"color:red\">red</span> more,"
+                      + " <span style=\"color:blue\">blue</span> less.</p>\n");
+      writeDiffSvg(before, after, w, width, rowHeight);
+    }
+    w.append("\n</body></html>\n");
+  }
+
+  public static void writeSvg(final Method method, final SampleNode samples, final Writer w,
+          final int width, final int rowHeight) throws IOException {
+    writeSvgStart(w, width, samples.height() * rowHeight);
+    writeNode(method, samples, w, 0, 0, width, rowHeight, 0);
+    w.append("</svg>\n");
+  }
+
+  public static void writeDiffSvg(final SampleNode before, final SampleNode after, final Writer w,
+          final int width, final int rowHeight) throws IOException {
+    SampleNodeDiff root = new SampleNodeDiff(before, after);
+    writeSvgStart(w, width, after.height() * rowHeight);
+    writeDiffNode(root, root.getMaxAbsDelta(), w, 0, 0, width, rowHeight);
+    w.append("</svg>\n");
+  }
+
+  private static void writeSvgStart(final Writer w, final int width, final int height) throws IOException {
+    w.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(Integer.toString(width))
+            .append("\" height=\"").append(Integer.toString(height)).append("\" font-family=\"monospace\">\n");
+  }
+
+  private static void writeNode(final Method method, final SampleNode node, final Writer w,
+          final double x, final int y, final double width, final int rowHeight, final int depth) throws IOException {
+    int count = node.getSampleCount();
+    writeFrame(w, x, y, width, rowHeight, depth % 2 == 0 ? Color.YELLOW : Color.ORANGE,
+            Methods.toString(method) + '-' + count, Methods.toString(method) + " samples: " + count);
+    Map<Method, SampleNode> subNodes = node.getSubNodes();
+    if (subNodes != null && count > 0) {
+      double scale = width / count;
+      double relX = x;
+      for (Map.Entry<Method, SampleNode> entry : subNodes.entrySet()) {
+        SampleNode child = entry.getValue();
+        double childWidth = scale * child.getSampleCount();
+        if (childWidth >= MIN_WIDTH) {
+          writeNode(entry.getKey(), child, w, relX, y + rowHeight, childWidth, rowHeight, depth + 1);
+        }
+        relX += childWidth;
+      }
+    }
+  }
+
+  private static void writeDiffNode(final SampleNodeDiff node, final double maxAbsDelta, final Writer w,
+          final double x, final int y, final double width, final int rowHeight) throws IOException {
+    int count = node.getAfterCount();
+    writeFrame(w, x, y, width, rowHeight, SampleNodeDiff.getColor(node.getDelta(), maxAbsDelta),
+            Methods.toString(node.getMethod()) + '-' + count, node.getDetail());
+    if (count > 0) {
+      double scale = width / count;
+      double relX = x;
+      for (SampleNodeDiff child : node.getChildren()) {
+        double childWidth = scale * child.getAfterCount();
+        if (childWidth >= MIN_WIDTH) {
+          writeDiffNode(child, maxAbsDelta, w, relX, y + rowHeight, childWidth, rowHeight);
+        }
+        relX += childWidth;
+      }
+    }
+  }
+
+  private static void writeFrame(final Writer w, final double x, final int y, final double width,
+          final int height, final Color color, final String text, final String tooltip) throws IOException {
+    w.append("<g><title>").append(ESCAPER.escape(tooltip)).append("</title><rect x=\"")
+            .append(format(x)).append("\" y=\"").append(Integer.toString(y))
+            .append("\" width=\"").append(format(width)).append("\" height=\"").append(Integer.toString(height))
+            .append("\" fill=\"rgb(").append(Integer.toString(color.getRed())).append(',')
+            .append(Integer.toString(color.getGreen())).append(',').append(Integer.toString(color.getBlue()))
+            .append(")\" stroke=\"rgb(128,128,128)\" stroke-width=\"0.5\"/>");
+    int fontSize = Math.max(1, height - 4);
+    int maxChars = (int) (width / (fontSize * 0.6));
+    if (maxChars >= 3) {
+      String label = text.length() <= maxChars ? text : text.substring(0, maxChars - 2) + "..";
+      w.append("<text x=\"").append(format(x + 2)).append("\" y=\"").append(Integer.toString(y + height - 4))
+              .append("\" font-size=\"").append(Integer.toString(fontSize)).append("\">")
+              .append(ESCAPER.escape(label)).append("</text>");
+    }
+    w.append("</g>\n");
+  }
+
+  private static String format(final double value) {
+    return Double.toString(Math.round(value * 100) / 100d);
+  }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ui;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import org.spf4j.base.Methods;
+import org.spf4j.base.avro.Method;
+import org.spf4j.ssdump2.SampleTreeWriter;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * A node of the differential view of 2 profiles (before and after).
+ * Sample counts are normalized by the total number of samples in each profile,
+ * so profiles of different durations can be compared.
+ *
+ * @author zoly
+ */
+@ParametersAreNonnullByDefault
+public final class SampleNodeDiff {
+
+  private static final Color NEUTRAL = new Color(245, 245, 245);
+
+  private final Method method;
+
+  @Nullable
+  private final SampleNode before;
+
+  @Nullable
+  private final SampleNode after;
+
+  private final double beforeTotal;
+
+  private final double afterTotal;
+
+  private List<SampleNodeDiff> children;
+
+  public SampleNodeDiff(final SampleNode before, final SampleNode after) {
+    this(Methods.ROOT, before, after);
+  }
+
+  public SampleNodeDiff(final Method method, final SampleNode before, final SampleNode after) {
+    this(method, before, after, Math.max(1, before.getSampleCount()), Math.max(1, after.getSampleCount()));
+  }
+
+  private SampleNodeDiff(final Method method, @Nullable final SampleNode before, @Nullable final SampleNode after,
+          final double beforeTotal, final double afterTotal) {
+    this.method = method;
+    this.before = before;
+    this.after = after;
+    this.beforeTotal = beforeTotal;
+    this.afterTotal = afterTotal;
+    this.children = null;
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  @Nullable
+  public SampleNode getBefore() {
+    return before;
+  }
+
+  @Nullable
+  public SampleNode getAfter() {
+    return after;
+  }
+
+  public int getBeforeCount() {
+    return before == null ? 0 : before.getSampleCount();
+  }
+
+  public int getAfterCount() {
+    return after == null ? 0 : after.getSampleCount();
+  }
+
+  /**
+   * @return the fraction of the before profile samples that contain this frame.
+   */
+  public double getBeforeShare() {
+    return getBeforeCount() / beforeTotal;
+  }
+
+  /**
+   * @return the fraction of the after profile samples that contain this frame.
+   */
+  public double getAfterShare() {
+    return getAfterCount() / afterTotal;
+  }
+
+  /**
+   * @return after share - before share. positive values mean more time is spent in this frame.
+   */
+  public double getDelta() {
+    return getAfterShare() - getBeforeShare();
+  }
+
+  /**
+   * @return the children (union of the before and after children), in method order.
+   */
+  public List<SampleNodeDiff> getChildren() {
+    if (children == null) {
+      Map<Method, SampleNode[]> union = new TreeMap<>(SampleTreeWriter.METHOD_ORDER);
+      addChildren(before, 0, union);
+      addChildren(after, 1, union);
+      if (union.isEmpty()) {
+        children = Collections.emptyList();
+      } else {
+        List<SampleNodeDiff> result = new ArrayList<>(union.size());
+        for (Map.Entry<Method, SampleNode[]> entry : union.entrySet()) {
+          SampleNode[] nodes = entry.getValue();
+          result.add(new SampleNodeDiff(entry.getKey(), nodes[0], nodes[1], beforeTotal, afterTotal));
+        }
+        children = result;
+      }
+    }
+    return children;
+  }
+
+  private static void addChildren(@Nullable final SampleNode node, final int idx,
+          final Map<Method, SampleNode[]> union) {
+    if (node == null) {
+      return;
+    }
+    Map<Method, SampleNode> subNodes = node.getSubNodes();
+    if (subNodes != null) {
+      for (Map.Entry<Method, SampleNode> entry : subNodes.entrySet()) {
+        union.computeIfAbsent(entry.getKey(), (m) -> new SampleNode[2])[idx] = entry.getValue();
+      }
+    }
+  }
+
+  /**
+   * @return the largest absolute delta in this tree, used to scale the colors.
+   */
+  public double getMaxAbsDelta() {
+    double result = Math.abs(getDelta());
+    List<SampleNodeDiff> stack = new ArrayList<>(getChildren());
+    while (!stack.isEmpty()) {
+      SampleNodeDiff node = stack.remove(stack.size() - 1);
+      result = Math.max(result, Math.abs(node.getDelta()));
+      stack.addAll(node.getChildren());
+    }
+    return result;
+  }
+
+  /**
+   * Delta coloring: red for frames with a increased share, blue for decreased, with intensity proportional to
+   * the delta relative to maxAbsDelta.
+   */
+  public static Color getColor(final double delta, final double maxAbsDelta) {
+    if (maxAbsDelta <= 0 || delta == 0) {
+      return NEUTRAL;
+    }
+    double intensity = Math.min(1, Math.abs(delta) / maxAbsDelta);
+    int other = (int) (245 * (1 - intensity));
+    if (delta > 0) {
+      return new Color(255, other, other);
+    } else {
+      return new Color(other, other, 255);
+    }
+  }
+
+  public String getDetail() {
+    return String.format("%s before: %d (%.2f%%) after: %d (%.2f%%) delta: %+.2f%%",
+            Methods.toString(method), getBeforeCount(), getBeforeShare() * 100,
+            getAfterCount(), getAfterShare() * 100, getDelta() * 100);
+  }
+
+  @Override
+  public String toString() {
+    return "SampleNodeDiff{" + getDetail() + '}';
+  }
+
+}
@@ -41,7 +41,9 @@ import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.LinkedList;
+import java.util.Map;
 import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileFilter;
 import org.spf4j.base.Methods;
 import org.spf4j.ssdump2.Converter;
@@ -113,6 +115,7 @@ public class StackDumpJInternalFrame extends javax.swing.JInternalFrame {
     samplesVisualizerToolbar = new javax.swing.JToolBar();
     graphToggle = new javax.swing.JToggleButton();
     exportButton = new javax.swing.JButton();
+    compareButton = new javax.swing.JButton();
 
     setClosable(true);
     setIconifiable(true);
@@ -145,6 +148,18 @@ public class StackDumpJInternalFrame extends javax.swing.JInternalFrame {
     });
     samplesVisualizerToolbar.add(exportButton);
 
+    compareButton.setText("compare with...");
+    compareButton.setToolTipText("differential flame graph against a baseline stack sample dump");
+    compareButton.setFocusable(false);
+    compareButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+    compareButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+    compareButton.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        compareButtonActionPerformed(evt);
+      }
+    });
+    samplesVisualizerToolbar.add(compareButton);
+
     org.jdesktop.layout.GroupLayout layout = new org.jdesktop.layout.GroupLayout(getContentPane());
     getContentPane().setLayout(layout);
     layout.setHorizontalGroup(
@@ -215,7 +230,75 @@ public class StackDumpJInternalFrame extends javax.swing.JInternalFrame {
     }
   }//GEN-LAST:event_exportButtonActionPerformed
 
+  @SuppressFBWarnings({ "PATH_TRAVERSAL_IN", "UP_UNUSED_PARAMETER" })
+  // this is a local app.
+  private void compareButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_compareButtonActionPerformed
+    JFileChooser fc = new JFileChooser();
+    fc.setDialogType(JFileChooser.OPEN_DIALOG);
+    fc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+    fc.setDialogTitle("Baseline stack samples");
+    fc.addChoosableFileFilter(Spf4jFileFilter.D3_JSON);
+    fc.addChoosableFileFilter(Spf4jFileFilter.SPF4J_JSON);
+    fc.addChoosableFileFilter(Spf4jFileFilter.SSDUMP);
+    fc.addChoosableFileFilter(Spf4jFileFilter.SSDUMP2);
+    fc.addChoosableFileFilter(Spf4jFileFilter.SSDUMP3);
+    fc.addChoosableFileFilter(Spf4jFileFilter.SSDUMP2_GZ);
+    fc.addChoosableFileFilter(Spf4jFileFilter.SSDUMP3_GZ);
+    fc.addChoosableFileFilter(Spf4jFileFilter.SSDUMP4);
+    fc.addChoosableFileFilter(Spf4jFileFilter.SSDUMP4_GZ);
+    if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+      return;
+    }
+    Map<String, SampleNode> dumps;
+    try {
+      dumps = Explorer.loadSampleDumps(fc.getSelectedFile());
+    } catch (IOException ex) {
+      JOptionPane.showMessageDialog(this, "Cannot load " + fc.getSelectedFile() + ": " + ex.getMessage(),
+              "Compare with", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    if (dumps.isEmpty()) {
+      JOptionPane.showMessageDialog(this, "No stack samples in " + fc.getSelectedFile(),
+              "Compare with", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    String baseline;
+    if (dumps.size() == 1) {
+      baseline = dumps.keySet().iterator().next();
+    } else {
+      String[] titles = dumps.keySet().toArray(new String[dumps.size()]);
+      baseline = (String) JOptionPane.showInputDialog(this, "Baseline stack samples:", "Compare with",
+              JOptionPane.QUESTION_MESSAGE, null, titles, titles[0]);
+      if (baseline == null) {
+        return;
+      }
+    }
+    showDiff(baseline, dumps.get(baseline));
+  }//GEN-LAST:event_compareButtonActionPerformed
+
+  /**
+   * Open a differential flame graph from the baseline samples to the samples of this frame.
+   */
+  private void showDiff(final String baselineTitle, final SampleNode baseline) {
+    String title = baselineTitle + " -> " + getTitle();
+    javax.swing.JInternalFrame frame = new javax.swing.JInternalFrame(title, true, true, true, true);
+    frame.setName(title);
+    javax.swing.JScrollPane scrollPane = new javax.swing.JScrollPane(
+            new DiffFlameStackPanel(Methods.ROOT, baseline, samples, new LinkedList<>()));
+    scrollPane.setAutoscrolls(true);
+    scrollPane.setPreferredSize(ssScrollPanel.getSize());
+    frame.getContentPane().add(scrollPane);
+    frame.pack();
+    frame.setVisible(true);
+    javax.swing.JDesktopPane desktop = getDesktopPane();
+    if (desktop != null) {
+      desktop.add(frame, javax.swing.JLayeredPane.DEFAULT_LAYER);
+      frame.toFront();
+    }
+  }
+
   // Variables declaration - do not modify//GEN-BEGIN:variables
+  private javax.swing.JButton compareButton;
   private javax.swing.JButton exportButton;
   private javax.swing.JToggleButton graphToggle;
   private javax.swing.JToolBar samplesVisualizerToolbar;
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.Methods;
+import org.spf4j.base.avro.Method;
+import org.spf4j.ssdump2.Converter;
+import org.spf4j.stackmonitor.SampleNode;
+
+/**
+ * @author zoly
+ */
+public class FlameGraphExporterTest {
+
+  private static SampleNode parse(final String json) throws IOException {
+    return SampleNode.parse(new StringReader(json)).getSecond();
+  }
+
+  @Test
+  public void testSvg() throws IOException {
+    SampleNode node = parse("{\"ROOT@X\":4,\"c\":[{\"a@C\":3,\"c\":[{\"b@C\":2}]},{\"<init>@D\":1}]}");
+    StringWriter sw = new StringWriter();
+    FlameGraphExporter.writeSvg(Methods.ROOT, node, sw, 1000, 16);
+    String svg = sw.toString();
+    Assert.assertTrue(svg, svg.startsWith("<svg "));
+    Assert.assertTrue(svg, svg.contains("height=\"48\""));
+    Assert.assertTrue(svg, svg.contains("a@C samples: 3"));
+    Assert.assertTrue(svg, svg.contains("width=\"750.0\""));
+    Assert.assertTrue(svg, svg.contains("&lt;init&gt;"));
+    Assert.assertFalse(svg, svg.contains("<init>"));
+  }
+
+  @Test
+  public void testDiff() throws IOException {
+    SampleNode before = parse("{\"ROOT@X\":4,\"c\":[{\"a@C\":2},{\"b@C\":2}]}");
+    SampleNode after = parse("{\"ROOT@X\":4,\"c\":[{\"a@C\":3},{\"b@C\":1}]}");
+    SampleNodeDiff diff = new SampleNodeDiff(before, after);
+    Assert.assertEquals(0.25, diff.getMaxAbsDelta(), 0.0001);
+    for (SampleNodeDiff child : diff.getChildren()) {
+      Method m = child.getMethod();
+      if ("a".equals(m.getName())) {
+        Assert.assertEquals(0.25, child.getDelta(), 0.0001);
+      } else {
+        Assert.assertEquals(-0.25, child.getDelta(), 0.0001);
+      }
+    }
+    StringWriter sw = new StringWriter();
+    FlameGraphExporter.writeHtml("test", before, after, sw, 800, 16);
+    String html = sw.toString();
+    Assert.assertTrue(html, html.contains("<svg "));
+    Assert.assertTrue(html, html.contains("rgb(255,0,0)"));
+    Assert.assertTrue(html, html.contains("rgb(0,0,255)"));
+  }
+
+  @Test
+  public void testExportFile() throws IOException {
+    SampleNode node = parse("{\"ROOT@X\":2,\"c\":[{\"a@C\":2}]}");
+    File profile = File.createTempFile("test", ".ssdump2");
+    File out = File.createTempFile("test", ".html");
+    try {
+      Converter.save(profile, node);
+      SampleNode loaded = FlameGraphExporter.loadProfile(profile, null);
+      Assert.assertEquals(node, loaded);
+      try (Writer w = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8)) {
+        FlameGraphExporter.writeHtml("single", null, loaded, w, 800, 16);
+      }
+      String html = new String(Files.readAllBytes(out.toPath()), StandardCharsets.UTF_8);
+      Assert.assertTrue(html, html.contains("a@C samples: 2"));
+    } finally {
+      Files.delete(profile.toPath());
+      Files.delete(out.toPath());
+    }
+  }
+
+}
@@ -108,6 +108,13 @@ public class FlameStackPanelTest {
     testPanel(panel);
   }
 
+  @Test
+  public void testDiffStackPanel() throws IOException, InterruptedException {
+    SampleNode before = NODES.filteredBy((m) -> m.getName().contains("write"));
+    DiffFlameStackPanel panel = new DiffFlameStackPanel(Methods.ROOT, before, NODES, new LinkedList<>());
+    testPanel(panel);
+  }
+
   public final void testPanel(final JPanel panel) throws InterruptedException {
     CountDownLatch latch = new CountDownLatch(1);
     CountDownLatch closeLatch = new CountDownLatch(1);